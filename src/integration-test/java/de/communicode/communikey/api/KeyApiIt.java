@@ -420,19 +420,25 @@ public class KeyApiIt extends IntegrationBaseTest {
     private void initializeSubscriberTestData() {
         initializeTestKey();
         key.setCreator(user);
-        keyRepository.save(key);
+        key = keyRepository.save(key);
         key.setHashid(hashIds.encode(key.getId()));
-        keyRepository.save(key);
+        key = keyRepository.save(key);
         initializeTestUserGroup();
         userGroup.addUser(user);
-        userGroupRepository.save(userGroup);
+        userGroup = userGroupRepository.save(userGroup);
         initializeTestKeyCategory();
-        keyCategory.addKey(key);
-        keyCategory.addGroup(userGroup);
-        keyCategory.setCreator(user);
-        keyCategoryRepository.save(keyCategory);
-        key.setCategory(keyCategory);
-        keyRepository.save(key);
+        String keyCategoryHashid = given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(ImmutableMap.of("name", keyCategory.getName()))
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .extract().jsonPath().getString("id");
+        keyCategory = keyCategoryService.addUserGroup(hashIds.decode(keyCategoryHashid)[0], userGroup.getId());
+        keyCategory = keyCategoryService.addKey(keyCategory.getId(), key.getId());
+        key = keyService.validate(key.getId());
     }
 
     /**
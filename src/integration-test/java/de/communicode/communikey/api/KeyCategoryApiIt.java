@@ -18,20 +18,30 @@
 
 package de.communicode.communikey.api;
 
+import static de.communicode.communikey.config.TransactionCountingFilter.TRANSACTION_COMMITS_HEADER;
 import static de.communicode.communikey.controller.PathVariables.KEY_ID;
 import static de.communicode.communikey.controller.PathVariables.KEYCATEGORY_ID;
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
 
 import de.communicode.communikey.IntegrationBaseTest;
 import de.communicode.communikey.controller.RequestMappings;
+import de.communicode.communikey.controller.RequestParameter;
 import de.communicode.communikey.domain.KeyCategory;
 import de.communicode.communikey.domain.UserGroup;
+import de.communicode.communikey.repository.KeyCategoryPathRepository;
 import io.restassured.http.ContentType;
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 
 import java.util.HashMap;
@@ -48,6 +58,9 @@ import java.util.Set;
  */
 public class KeyCategoryApiIt extends IntegrationBaseTest {
 
+    @Autowired
+    private KeyCategoryPathRepository keyCategoryPathRepository;
+
     private Map<String, String> keyCategoryPayload = new HashMap<>();
     private Map<String, String> keyCategoryMovePayload = new HashMap<>();
     private Map<String, String> userGroupPayload = new HashMap<>();
@@ -122,6 +135,334 @@ public class KeyCategoryApiIt extends IntegrationBaseTest {
             .statusCode(HttpStatus.FORBIDDEN.value());
     }
 
+    @Test
+    public void testMoveToOwnDescendantAsAdmin() {
+        String parentKeyCategoryHashid = createKeyCategory(null);
+        String childKeyCategoryHashid = createKeyCategory(parentKeyCategoryHashid);
+        String grandchildKeyCategoryHashid = createKeyCategory(childKeyCategoryHashid);
+
+        initializeTestKeyCategoryMovePayload(grandchildKeyCategoryHashid);
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .pathParam(KEYCATEGORY_ID, parentKeyCategoryHashid)
+            .body(keyCategoryMovePayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_MOVE)
+        .then()
+            .statusCode(HttpStatus.CONFLICT.value());
+    }
+
+    @Test
+    public void testCreateWithSiblingNameAsAdmin() {
+        String parentKeyCategoryHashid = createKeyCategory(null);
+        keyCategoryPayload.put("name", "Sibling");
+        keyCategoryPayload.put("parent", parentKeyCategoryHashid);
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(keyCategoryPayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value());
+
+        keyCategoryPayload.put("name", " Sibling ");
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(keyCategoryPayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CONFLICT.value());
+
+        keyCategoryPayload.put("name", "sibling");
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(keyCategoryPayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value());
+
+        keyCategoryPayload.remove("parent");
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(keyCategoryPayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value());
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(keyCategoryPayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CONFLICT.value());
+    }
+
+    @Test
+    public void testMoveToParentWithSiblingNameAsAdmin() {
+        String sourceParentKeyCategoryHashid = createKeyCategory(null);
+        String targetParentKeyCategoryHashid = createKeyCategory(null);
+        keyCategoryPayload.put("name", "Sibling");
+        keyCategoryPayload.put("parent", sourceParentKeyCategoryHashid);
+        String keyCategoryHashid = given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(keyCategoryPayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .extract().jsonPath().getString("id");
+        keyCategoryPayload.put("parent", targetParentKeyCategoryHashid);
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(keyCategoryPayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value());
+
+        initializeTestKeyCategoryMovePayload(targetParentKeyCategoryHashid);
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .pathParam(KEYCATEGORY_ID, keyCategoryHashid)
+            .body(keyCategoryMovePayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_MOVE)
+        .then()
+            .statusCode(HttpStatus.CONFLICT.value());
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, keyCategoryHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORIES_HASHID)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("parent", equalTo(sourceParentKeyCategoryHashid));
+    }
+
+    @Test
+    public void testMoveUpdatesHierarchyIndex() {
+        String parentKeyCategoryHashid = createKeyCategory(null);
+        String childKeyCategoryHashid = createKeyCategory(parentKeyCategoryHashid);
+        String grandchildKeyCategoryHashid = createKeyCategory(childKeyCategoryHashid);
+        String targetKeyCategoryHashid = createKeyCategory(null);
+        Long childKeyCategoryId = hashIds.decode(childKeyCategoryHashid)[0];
+        Long grandchildKeyCategoryId = hashIds.decode(grandchildKeyCategoryHashid)[0];
+        Long targetKeyCategoryId = hashIds.decode(targetKeyCategoryHashid)[0];
+
+        initializeTestKeyCategoryMovePayload(targetKeyCategoryHashid);
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .pathParam(KEYCATEGORY_ID, childKeyCategoryHashid)
+            .body(keyCategoryMovePayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_MOVE)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("parent", equalTo(targetKeyCategoryHashid));
+
+        assertThat(keyCategoryPathRepository.findAncestorIds(grandchildKeyCategoryId),
+            containsInAnyOrder(childKeyCategoryId, targetKeyCategoryId));
+        assertThat(keyCategoryPathRepository.findSubtreeIds(hashIds.decode(parentKeyCategoryHashid)[0]),
+            contains(hashIds.decode(parentKeyCategoryHashid)[0]));
+    }
+
+    @Test
+    public void testMoveUpdatesTreeLevelOfSubtree() {
+        String parentKeyCategoryHashid = createKeyCategory(null);
+        String childKeyCategoryHashid = createKeyCategory(parentKeyCategoryHashid);
+        String grandchildKeyCategoryHashid = createKeyCategory(childKeyCategoryHashid);
+        String greatGrandchildKeyCategoryHashid = createKeyCategory(grandchildKeyCategoryHashid);
+        Long grandchildKeyCategoryId = hashIds.decode(grandchildKeyCategoryHashid)[0];
+        long grandchildVersion = keyCategoryRepository.findById(grandchildKeyCategoryId).orElseThrow(IllegalStateException::new).getVersion();
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, greatGrandchildKeyCategoryHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORIES_HASHID)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("treeLevel", equalTo(3));
+
+        keyCategoryMovePayload.put("parent", null);
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .pathParam(KEYCATEGORY_ID, childKeyCategoryHashid)
+            .body(keyCategoryMovePayload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_MOVE)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("treeLevel", equalTo(0));
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, grandchildKeyCategoryHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORIES_HASHID)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("treeLevel", equalTo(1));
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, greatGrandchildKeyCategoryHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORIES_HASHID)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("treeLevel", equalTo(2));
+        assertThat(keyCategoryRepository.findById(grandchildKeyCategoryId).orElseThrow(IllegalStateException::new).getVersion(),
+            greaterThan(grandchildVersion));
+    }
+
+    @Test
+    public void testGetTreeAsAdmin() {
+        String parentKeyCategoryHashid = createKeyCategory(null);
+        String childKeyCategoryHashid = createKeyCategory(parentKeyCategoryHashid);
+        String grandchildKeyCategoryHashid = createKeyCategory(childKeyCategoryHashid);
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, parentKeyCategoryHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_TREE)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("id", equalTo(parentKeyCategoryHashid))
+            .body("treeLevel", equalTo(0))
+            .body("children[0].id", equalTo(childKeyCategoryHashid))
+            .body("children[0].parent", equalTo(parentKeyCategoryHashid))
+            .body("children[0].treeLevel", equalTo(1))
+            .body("children[0].children[0].id", equalTo(grandchildKeyCategoryHashid))
+            .body("keys", nullValue());
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, parentKeyCategoryHashid)
+            .queryParam(RequestParameter.TREE_DEPTH, 1)
+            .queryParam(RequestParameter.TREE_INCLUDE_KEYS, true)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_TREE)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("children[0].id", equalTo(childKeyCategoryHashid))
+            .body("children[0].children", empty())
+            .body("keys", empty());
+    }
+
+    @Test
+    public void testGetTreeAsUser() {
+        String keyCategoryHashid = createKeyCategory(null);
+
+        given()
+            .auth().oauth2(userOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, keyCategoryHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_TREE)
+        .then()
+            .statusCode(HttpStatus.FORBIDDEN.value());
+    }
+
+    @Test
+    public void testGetTreesAsAdmin() {
+        String parentKeyCategoryHashid = createKeyCategory(null);
+        String childKeyCategoryHashid = createKeyCategory(parentKeyCategoryHashid);
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORIES_TREE)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("id", hasItem(parentKeyCategoryHashid))
+            .body("id", not(hasItem(childKeyCategoryHashid)))
+            .body("find { it.id == '" + parentKeyCategoryHashid + "' }.children[0].id", equalTo(childKeyCategoryHashid));
+    }
+
+    @Test
+    public void testGetTreesAsUser() {
+        createKeyCategory(null);
+
+        given()
+            .auth().oauth2(userOAuth2AccessToken)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORIES_TREE)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("$", empty());
+    }
+
+    @Test
+    public void testGetTreeAsUserWithInheritedGroup() {
+        String parentKeyCategoryHashid = createKeyCategory(null);
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("name", fairy.textProducer().randomString(16));
+        payload.put("parent", parentKeyCategoryHashid);
+        payload.put("inheritGroups", true);
+        String childKeyCategoryHashid = given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(payload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .body("inheritGroups", equalTo(true))
+            .extract().jsonPath().getString("id");
+        String grandchildKeyCategoryHashid = createKeyCategory(childKeyCategoryHashid);
+
+        UserGroup userGroup = new UserGroup();
+        userGroup.setName(fairy.textProducer().word(1));
+        userGroup = userGroupService.create(userGroup);
+        userGroupService.addUser(userGroup.getId(), userLogin);
+        Long parentKeyCategoryId = hashIds.decode(parentKeyCategoryHashid)[0];
+        keyCategoryService.addUserGroup(parentKeyCategoryId, userGroup.getId());
+
+        given()
+            .auth().oauth2(userOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, parentKeyCategoryHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_TREE)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("children[0].id", equalTo(childKeyCategoryHashid))
+            .body("children[0].children", empty());
+
+        given()
+            .auth().oauth2(userOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, grandchildKeyCategoryHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_TREE)
+        .then()
+            .statusCode(HttpStatus.FORBIDDEN.value());
+
+        keyCategoryService.removeUserGroup(parentKeyCategoryId, userGroup.getId());
+        given()
+            .auth().oauth2(userOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, childKeyCategoryHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_TREE)
+        .then()
+            .statusCode(HttpStatus.FORBIDDEN.value());
+    }
+
     @Test
     public void testAddGroupAsAdmin() {
         initializeTestKeyCategoryPayload();
@@ -153,6 +494,7 @@ public class KeyCategoryApiIt extends IntegrationBaseTest {
             .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_GROUPS)
         .then()
             .statusCode(HttpStatus.OK.value())
+            .header(TRANSACTION_COMMITS_HEADER, "1")
             .root("groups")
             .body("size()", equalTo(1));
 
@@ -239,6 +581,7 @@ public class KeyCategoryApiIt extends IntegrationBaseTest {
             .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_KEYS)
         .then()
             .statusCode(HttpStatus.OK.value())
+            .header(TRANSACTION_COMMITS_HEADER, "1")
             .root("keys")
             .body("size()", equalTo(1));
 
@@ -360,6 +703,60 @@ public class KeyCategoryApiIt extends IntegrationBaseTest {
             .statusCode(HttpStatus.NOT_FOUND.value());
     }
 
+    @Test
+    public void testDeleteSubtreeAsAdmin() {
+        initializeTestKeyPayload();
+        String parentKeyCategoryHashid = createKeyCategory(null);
+        String childKeyCategoryHashid = createKeyCategory(parentKeyCategoryHashid);
+        String grandchildKeyCategoryHashid = createKeyCategory(childKeyCategoryHashid);
+
+        String createdKeyHashid = given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(keyPayload)
+            .when()
+                .post(RequestMappings.KEYS)
+            .then()
+                .extract().jsonPath().getString("id");
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, grandchildKeyCategoryHashid)
+            .param(KEY_ID, createdKeyHashid)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_KEYS)
+        .then()
+            .statusCode(HttpStatus.OK.value());
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, parentKeyCategoryHashid)
+        .when()
+            .delete(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORIES_HASHID)
+        .then()
+            .statusCode(HttpStatus.NO_CONTENT.value());
+
+        for (String hashid : new String[] {parentKeyCategoryHashid, childKeyCategoryHashid, grandchildKeyCategoryHashid}) {
+            given()
+                .auth().oauth2(adminUserOAuth2AccessToken)
+                .pathParam(KEYCATEGORY_ID, hashid)
+            .when()
+                .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORIES_HASHID)
+            .then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+            assertThat(keyCategoryPathRepository.findAncestorIds(hashIds.decode(hashid)[0]), empty());
+        }
+
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEY_ID, createdKeyHashid)
+        .when()
+            .get(RequestMappings.KEYS + RequestMappings.KEY_HASHID)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("category", nullValue());
+    }
+
     @Test
     public void testDeleteAsUser() {
         initializeTestKeyCategoryPayload();
@@ -864,6 +1261,39 @@ public class KeyCategoryApiIt extends IntegrationBaseTest {
             .body("responsible", not(equalTo(createdKeyCategoryHashid)));
     }
 
+    /**
+     * Creates a key category with a random name below the specified parent key category.
+     *
+     * @param parentHashid the Hashid of the parent key category or {@code null} to create a root key category
+     * @return the Hashid of the created key category
+     */
+    private String createKeyCategory(String parentHashid) {
+        Map<String, String> payload = new HashMap<>();
+        payload.put("name", fairy.textProducer().randomString(16));
+        String hashid = given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(payload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .extract().jsonPath().getString("id");
+        if (parentHashid != null) {
+            initializeTestKeyCategoryMovePayload(parentHashid);
+            given()
+                .auth().oauth2(adminUserOAuth2AccessToken)
+                .contentType(ContentType.JSON)
+                .pathParam(KEYCATEGORY_ID, hashid)
+                .body(keyCategoryMovePayload)
+            .when()
+                .post(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_MOVE)
+            .then()
+                .statusCode(HttpStatus.OK.value());
+        }
+        return hashid;
+    }
+
     /**
      * Initializes the test key category payload.
      */
@@ -0,0 +1,183 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.api;
+
+import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_KEYS;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_CATEGORIES;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_USERS;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.controller.RequestMappings;
+import de.communicode.communikey.controller.RequestParameter;
+import de.communicode.communikey.domain.UpdateEvent;
+import de.communicode.communikey.service.UpdateEventService;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Integration tests for the update event REST API.
+ *
+ * @since 0.18.0
+ */
+public class UpdateApiIt extends IntegrationBaseTest {
+
+    @Autowired
+    private UpdateEventService updateEventService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        moveOutOfRescanWindow();
+    }
+
+    @Test
+    public void testGetLatestAsUser() {
+        UpdateEvent event = append(QUEUE_UPDATES_KEYS, Collections.singletonList(userLogin), "[]");
+        given()
+            .auth().oauth2(userOAuth2AccessToken)
+        .when()
+            .get(RequestMappings.UPDATES)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("sequence", equalTo(event.getSequence().intValue()))
+            .body("resync", equalTo(false));
+    }
+
+    @Test
+    public void testGetSinceAsUser() {
+        UpdateEvent first = append(QUEUE_UPDATES_KEYS, Collections.singletonList(userLogin), "[{\"id\":1}]");
+        UpdateEvent own = append(QUEUE_UPDATES_KEYS, Collections.singletonList(userLogin), "[{\"id\":2}]");
+        append(QUEUE_UPDATES_KEYS, Collections.singletonList("other"), "[{\"id\":3}]");
+        append(TOPIC_CATEGORIES + "/unknown", Collections.emptyList(), "[{\"id\":5}]");
+        UpdateEvent last = append(TOPIC_UPDATES_USERS, Collections.emptyList(), "[{\"id\":4}]");
+        given()
+            .auth().oauth2(userOAuth2AccessToken)
+            .param(RequestParameter.UPDATES_SINCE, first.getSequence())
+        .when()
+            .get(RequestMappings.UPDATES)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("resync", equalTo(false))
+            .body("sequence", equalTo(last.getSequence().intValue()))
+            .body("events.sequence", contains(first.getSequence().intValue(), own.getSequence().intValue()))
+            .body("events[1].updates[0].id", equalTo(2));
+    }
+
+    @Test
+    public void testGetSinceReplaysEventsWithinRescanWindow() {
+        append(QUEUE_UPDATES_KEYS, Collections.singletonList(userLogin), "[{\"id\":1}]");
+        moveOutOfRescanWindow();
+        UpdateEvent rescanned = append(QUEUE_UPDATES_KEYS, Collections.singletonList(userLogin), "[{\"id\":2}]");
+        UpdateEvent last = append(QUEUE_UPDATES_KEYS, Collections.singletonList(userLogin), "[{\"id\":3}]");
+        given()
+            .auth().oauth2(userOAuth2AccessToken)
+            .param(RequestParameter.UPDATES_SINCE, last.getSequence())
+        .when()
+            .get(RequestMappings.UPDATES)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("resync", equalTo(false))
+            .body("sequence", equalTo(last.getSequence().intValue()))
+            .body("events.sequence", contains(rescanned.getSequence().intValue(), last.getSequence().intValue()));
+    }
+
+    @Test
+    public void testGetSinceAsAdmin() {
+        UpdateEvent first = append(QUEUE_UPDATES_KEYS, Collections.singletonList(userLogin), "[]");
+        UpdateEvent broadcast = append(TOPIC_UPDATES_USERS, Collections.emptyList(), "[]");
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .param(RequestParameter.UPDATES_SINCE, first.getSequence())
+        .when()
+            .get(RequestMappings.UPDATES)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("events.sequence", contains(broadcast.getSequence().intValue()));
+    }
+
+    @Test
+    public void testGetSinceUnknownSequenceRequestsResync() {
+        UpdateEvent event = append(QUEUE_UPDATES_KEYS, Collections.singletonList(userLogin), "[]");
+        given()
+            .auth().oauth2(userOAuth2AccessToken)
+            .param(RequestParameter.UPDATES_SINCE, event.getSequence() + 100)
+        .when()
+            .get(RequestMappings.UPDATES)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("resync", equalTo(true))
+            .body("sequence", equalTo(event.getSequence().intValue()));
+    }
+
+    @Test
+    public void testGetSinceWithoutAuthentication() {
+        given()
+            .param(RequestParameter.UPDATES_SINCE, 0)
+        .when()
+            .get(RequestMappings.UPDATES)
+        .then()
+            .statusCode(HttpStatus.UNAUTHORIZED.value());
+    }
+
+    /**
+     * Moves all events out of the resume rescan window, e.g. the events of previous tests.
+     */
+    private void moveOutOfRescanWindow() {
+        jdbcTemplate.update("update update_events set created_date = ?", Timestamp.from(Instant.now().minus(Duration.ofHours(1))));
+    }
+
+    /**
+     * Appends an event to the update event log and waits until it has been persisted.
+     */
+    private UpdateEvent append(String destination, List<String> recipients, String updates) {
+        CompletableFuture<UpdateEvent> future = new CompletableFuture<>();
+        updateEventService.append(destination, recipients, updates, new UpdateEventService.AppendCallback() {
+            @Override
+            public void appended(UpdateEvent event) {
+                future.complete(event);
+            }
+
+            @Override
+            public void failed(RuntimeException cause) {
+                future.completeExceptionally(cause);
+            }
+        });
+        try {
+            return future.get(2, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Failed to append the update event", e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.api;
+
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_CATEGORIES;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.controller.RequestMappings;
+import io.restassured.http.ContentType;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integration tests for the live updates broadcast to all subscribers through the message broker.
+ *
+ * <p>Runs against the embedded broker of the integration test profile which, like an external broker, delivers each message of a
+ * "/queue" destination to one consumer only.
+ *
+ * @since 0.18.0
+ */
+public class UpdateBroadcastApiIt extends IntegrationBaseTest {
+
+    private static final int TIMEOUT = 10;
+
+    private final WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+    private final List<StompSession> stompSessions = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        stompSessions.forEach(StompSession::disconnect);
+        stompClient.stop();
+    }
+
+    @Test
+    public void testCategoryUpdateIsDeliveredToAllSessions() throws Exception {
+        assertThat(communikeyProperties.getWebsocket().getBroker().getMode(), is(CommunikeyProperties.Websocket.BrokerMode.EMBEDDED));
+        BlockingQueue<String> adminFrames = subscribe(connect(adminUserOAuth2AccessToken), TOPIC_UPDATES_CATEGORIES);
+        BlockingQueue<String> userFrames = subscribe(connect(userOAuth2AccessToken), TOPIC_UPDATES_CATEGORIES);
+
+        createKeyCategory("broadcast-category");
+
+        String adminFrame = adminFrames.poll(TIMEOUT, TimeUnit.SECONDS);
+        String userFrame = userFrames.poll(TIMEOUT, TimeUnit.SECONDS);
+        assertThat(adminFrame, notNullValue());
+        assertThat(adminFrame, containsString("broadcast-category"));
+        assertThat(userFrame, notNullValue());
+        assertThat(userFrame, containsString("broadcast-category"));
+    }
+
+    private StompSession connect(String accessToken) throws Exception {
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.add(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+        StompSession session = stompClient.connect("ws://localhost:" + definedServerPort + "/wss/registry", headers,
+            new StompSessionHandlerAdapter() {}).get(TIMEOUT, TimeUnit.SECONDS);
+        session.setAutoReceipt(true);
+        stompSessions.add(session);
+        return session;
+    }
+
+    /**
+     * Subscribes to the destination and waits until the subscription has been acknowledged by the broker.
+     */
+    private static BlockingQueue<String> subscribe(StompSession session, String destination) throws InterruptedException {
+        BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+        CountDownLatch subscribed = new CountDownLatch(1);
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return byte[].class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                frames.add(new String((byte[]) payload, StandardCharsets.UTF_8));
+            }
+        }).addReceiptTask(subscribed::countDown);
+        assertThat(subscribed.await(TIMEOUT, TimeUnit.SECONDS), is(true));
+        return frames;
+    }
+
+    private void createKeyCategory(String name) {
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(Collections.singletonMap("name", name))
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import de.communicode.communikey.CommunikeyIntegrationTest;
+import de.communicode.communikey.config.util.CachingTokenStore;
+import de.communicode.communikey.config.util.RevocableTokenStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.store.InMemoryTokenStore;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Integration tests for the {@link CachingTokenStore}.
+ *
+ * @since 0.18.0
+ */
+@Category(CommunikeyIntegrationTest.class)
+public class CachingTokenStoreIt {
+
+    private static final String TOKEN_VALUE = "token";
+
+    private final AtomicInteger reads = new AtomicInteger();
+    private CountingTokenStore delegate;
+    private CachingTokenStore tokenStore;
+    private OAuth2Authentication authentication;
+
+    @Before
+    public void setUp() {
+        delegate = new CountingTokenStore();
+        tokenStore = new CachingTokenStore(delegate, 100, Duration.ofMinutes(1));
+        OAuth2Request request = new OAuth2Request(Collections.emptyMap(), SecurityConfig.APP_ID, Collections.emptyList(), true,
+            Collections.emptySet(), Collections.emptySet(), null, Collections.emptySet(), Collections.emptyMap());
+        authentication = new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken("user", null, Collections.emptyList()));
+    }
+
+    @Test
+    public void testReadAccessTokenIsServedFromCache() {
+        delegate.storeAccessToken(createAccessToken(60_000), authentication);
+
+        assertThat(tokenStore.readAccessToken(TOKEN_VALUE), is(notNullValue()));
+        assertThat(tokenStore.readAuthentication(TOKEN_VALUE), is(notNullValue()));
+        assertThat(tokenStore.readAccessToken(TOKEN_VALUE), is(notNullValue()));
+        assertThat(reads.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testStoreAccessTokenPopulatesCache() {
+        tokenStore.storeAccessToken(createAccessToken(60_000), authentication);
+
+        assertThat(tokenStore.readAuthentication(TOKEN_VALUE).getName(), is(equalTo("user")));
+        assertThat(reads.get(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testRemoveAccessTokenInvalidatesCache() {
+        tokenStore.storeAccessToken(createAccessToken(60_000), authentication);
+        tokenStore.removeAccessToken(tokenStore.readAccessToken(TOKEN_VALUE));
+
+        assertThat(tokenStore.readAccessToken(TOKEN_VALUE), is(nullValue()));
+        assertThat(tokenStore.readAuthentication(TOKEN_VALUE), is(nullValue()));
+    }
+
+    @Test
+    public void testExpiredAccessTokenIsNotServedFromCache() {
+        tokenStore.storeAccessToken(createAccessToken(-1), authentication);
+
+        assertThat(tokenStore.readAccessToken(TOKEN_VALUE).isExpired(), is(true));
+        assertThat(tokenStore.readAccessToken(TOKEN_VALUE).isExpired(), is(true));
+        assertThat(reads.get(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testUnknownAccessTokenIsNotCached() {
+        assertThat(tokenStore.readAccessToken(TOKEN_VALUE), is(nullValue()));
+        delegate.storeAccessToken(createAccessToken(60_000), authentication);
+
+        assertThat(tokenStore.readAccessToken(TOKEN_VALUE), is(notNullValue()));
+    }
+
+    @Test
+    public void testRemoveAccessTokensByUserNamesEvictsCache() {
+        tokenStore.storeAccessToken(createAccessToken(60_000), authentication);
+
+        tokenStore.removeAccessTokensByUserNames(Collections.singleton("user"));
+        assertThat(tokenStore.readAccessToken(TOKEN_VALUE), is(nullValue()));
+        assertThat(reads.get(), is(equalTo(1)));
+    }
+
+    private OAuth2AccessToken createAccessToken(long validityMillis) {
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(TOKEN_VALUE);
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + validityMillis));
+        return accessToken;
+    }
+
+    /**
+     * An in-memory token store which counts the reads of access tokens.
+     */
+    private class CountingTokenStore extends InMemoryTokenStore implements RevocableTokenStore {
+
+        @Override
+        public OAuth2AccessToken readAccessToken(String tokenValue) {
+            reads.incrementAndGet();
+            return super.readAccessToken(tokenValue);
+        }
+
+        @Override
+        public void removeAccessTokensByUserNames(Collection<String> userNames) {
+            userNames.forEach(userName -> findTokensByClientIdAndUserName(SecurityConfig.APP_ID, userName).forEach(this::removeAccessToken));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.config.util.CompactTokenStore;
+import de.communicode.communikey.security.AuthoritiesConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Integration tests for the {@link CompactTokenStore}.
+ *
+ * @since 0.18.0
+ */
+public class CompactTokenStoreIt extends IntegrationBaseTest {
+
+    private static final String LOGIN = "compact";
+
+    @Autowired
+    private DataSource dataSource;
+    private CompactTokenStore tokenStore;
+
+    @Before
+    public void setUp() {
+        tokenStore = new CompactTokenStore(dataSource, Duration.ofHours(1), 2);
+    }
+
+    @After
+    public void tearDown() {
+        tokenStore.findTokensByClientIdAndUserName(SecurityConfig.APP_ID, LOGIN).forEach(tokenStore::removeAccessToken);
+    }
+
+    @Test
+    public void testStoreAndReadAccessToken() {
+        OAuth2Authentication authentication = createAuthentication(LOGIN, "read");
+        tokenStore.storeAccessToken(createAccessToken("compact-read", 60_000, "read"), authentication);
+
+        OAuth2AccessToken accessToken = tokenStore.readAccessToken("compact-read");
+        assertThat(accessToken.getScope(), contains("read"));
+        assertThat(accessToken.isExpired(), is(false));
+        OAuth2Authentication readAuthentication = tokenStore.readAuthentication("compact-read");
+        assertThat(readAuthentication.getName(), is(equalTo(LOGIN)));
+        assertThat(readAuthentication.isAuthenticated(), is(true));
+        assertThat(readAuthentication.getOAuth2Request().getClientId(), is(equalTo(SecurityConfig.APP_ID)));
+        List<String> authorities = readAuthentication.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .collect(Collectors.toList());
+        assertThat(authorities, contains(AuthoritiesConstants.USER));
+        assertThat(tokenStore.getAccessToken(authentication).getValue(), is(equalTo("compact-read")));
+    }
+
+    @Test
+    public void testFindAndRemoveAccessTokensOfUser() {
+        tokenStore.storeAccessToken(createAccessToken("compact-first", 60_000, "read"), createAuthentication(LOGIN, "read"));
+        tokenStore.storeAccessToken(createAccessToken("compact-second", 60_000, "write"), createAuthentication(LOGIN, "write"));
+
+        List<String> values = tokenStore.findTokensByClientIdAndUserName(SecurityConfig.APP_ID, LOGIN).stream()
+            .map(OAuth2AccessToken::getValue)
+            .collect(Collectors.toList());
+        assertThat(values, containsInAnyOrder("compact-first", "compact-second"));
+
+        tokenStore.findTokensByClientIdAndUserName(SecurityConfig.APP_ID, LOGIN).forEach(tokenStore::removeAccessToken);
+        assertThat(tokenStore.findTokensByClientIdAndUserName(SecurityConfig.APP_ID, LOGIN), is(empty()));
+        assertThat(tokenStore.readAccessToken("compact-first"), is(nullValue()));
+        assertThat(tokenStore.readAuthentication("compact-second"), is(nullValue()));
+    }
+
+    @Test
+    public void testRemoveAccessTokensByUserNames() {
+        tokenStore.storeAccessToken(createAccessToken("compact-first", 60_000, "read"), createAuthentication(LOGIN, "read"));
+        tokenStore.storeAccessToken(createAccessToken("compact-second", 60_000, "read"), createAuthentication(LOGIN + "other", "read"));
+        tokenStore.storeAccessToken(createAccessToken("compact-third", 60_000, "read"), createAuthentication(LOGIN + "kept", "read"));
+
+        tokenStore.removeAccessTokensByUserNames(Arrays.asList(LOGIN, LOGIN + "other"));
+        assertThat(tokenStore.readAccessToken("compact-first"), is(nullValue()));
+        assertThat(tokenStore.readAccessToken("compact-second"), is(nullValue()));
+        assertThat(tokenStore.readAccessToken("compact-third").getValue(), is(equalTo("compact-third")));
+        tokenStore.removeAccessTokensByUserNames(Collections.singleton(LOGIN + "kept"));
+    }
+
+    @Test
+    public void testDeleteExpiredAccessTokensInBatches() {
+        for (int i = 0; i < 5; i++) {
+            tokenStore.storeAccessToken(createAccessToken("compact-expired-" + i, -60_000, "read"), createAuthentication(LOGIN + i, "read"));
+        }
+        tokenStore.storeAccessToken(createAccessToken("compact-valid", 60_000, "read"), createAuthentication(LOGIN, "read"));
+
+        assertThat(tokenStore.deleteExpired(Instant.now()), is(equalTo(5)));
+        assertThat(tokenStore.readAccessToken("compact-expired-0"), is(nullValue()));
+        assertThat(tokenStore.readAccessToken("compact-valid").getValue(), is(equalTo("compact-valid")));
+    }
+
+    private static OAuth2Authentication createAuthentication(String login, String scope) {
+        List<GrantedAuthority> authorities = Collections.singletonList(new SimpleGrantedAuthority(AuthoritiesConstants.USER));
+        OAuth2Request request = new OAuth2Request(Collections.singletonMap("client_id", SecurityConfig.APP_ID), SecurityConfig.APP_ID, authorities,
+            true, Collections.singleton(scope), Collections.singleton(SecurityConfig.APP_ID), null, null, null);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(login, null, authorities));
+    }
+
+    private static OAuth2AccessToken createAccessToken(String value, long validityMillis, String scope) {
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(value);
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + validityMillis));
+        accessToken.setScope(Collections.singleton(scope));
+        return accessToken;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_CATEGORIES;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_CATEGORIES;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import de.communicode.communikey.CommunikeyIntegrationTest;
+import de.communicode.communikey.config.util.LegacyBroadcastInterceptor;
+import de.communicode.communikey.service.UpdateCoalescingService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Integration tests for the {@link LegacyBroadcastInterceptor}.
+ *
+ * @since 0.18.0
+ */
+@Category(CommunikeyIntegrationTest.class)
+public class LegacyBroadcastInterceptorIt {
+
+    private final List<Message<?>> messages = new CopyOnWriteArrayList<>();
+    private final ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+
+    @Before
+    public void setUp() {
+        channel.subscribe(messages::add);
+        channel.addInterceptor(new LegacyBroadcastInterceptor());
+    }
+
+    @Test
+    public void testBroadcastIsMirroredToLegacyDestination() {
+        channel.send(createMessage(TOPIC_UPDATES_CATEGORIES));
+
+        assertThat(getDestinations(), contains(TOPIC_UPDATES_CATEGORIES, "/queue/updates/categories"));
+        SimpMessageHeaderAccessor legacyHeaderAccessor = SimpMessageHeaderAccessor.wrap(messages.get(1));
+        assertThat(legacyHeaderAccessor.getFirstNativeHeader(UpdateCoalescingService.SEQUENCE_HEADER), equalTo("1"));
+        assertThat(messages.get(1).getPayload(), equalTo(messages.get(0).getPayload()));
+    }
+
+    @Test
+    public void testOtherDestinationIsNotMirrored() {
+        channel.send(createMessage(TOPIC_CATEGORIES + "/abc"));
+
+        assertThat(getDestinations(), contains(TOPIC_CATEGORIES + "/abc"));
+    }
+
+    private List<String> getDestinations() {
+        return messages.stream()
+            .map(message -> SimpMessageHeaderAccessor.getDestination(message.getHeaders()))
+            .collect(Collectors.toList());
+    }
+
+    private static Message<byte[]> createMessage(String destination) {
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headerAccessor.setDestination(destination);
+        headerAccessor.setNativeHeader(UpdateCoalescingService.SEQUENCE_HEADER, "1");
+        return MessageBuilder.createMessage("[]".getBytes(StandardCharsets.UTF_8), headerAccessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static java.util.Objects.requireNonNull;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import de.communicode.communikey.CommunikeyIntegrationTest;
+import de.communicode.communikey.config.util.ReplicaRoutingDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.beans.factory.config.YamlPropertiesFactoryBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Integration tests for the {@link ReplicaRoutingDataSource}.
+ *
+ * @since 0.18.0
+ */
+@Category(CommunikeyIntegrationTest.class)
+public class ReplicaRoutingDataSourceIt {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+    private static final String JPA_PROPERTIES_PREFIX = "spring.jpa.properties.";
+
+    private EmbeddedDatabase primary;
+    private EmbeddedDatabase replica;
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Before
+    public void setUp() {
+        primary = createDatabase(PRIMARY);
+        replica = createDatabase(REPLICA);
+    }
+
+    @After
+    public void tearDown() {
+        routingDataSource.destroy();
+        primary.shutdown();
+        replica.shutdown();
+    }
+
+    @Test
+    public void testReadOnlyTransactionIsRoutedToReplica() {
+        initializeRoutingDataSource(replica, 5, "SELECT lag FROM replication_status");
+        assertThat(queryOrigin(true), equalTo(REPLICA));
+    }
+
+    @Test
+    public void testReadWriteTransactionIsRoutedToPrimary() {
+        initializeRoutingDataSource(replica, 5, "SELECT lag FROM replication_status");
+        assertThat(queryOrigin(false), equalTo(PRIMARY));
+    }
+
+    @Test
+    public void testReadOnlyTransactionFallsBackToPrimaryWhenReplicaLagExceedsMaximum() {
+        new JdbcTemplate(replica).update("UPDATE replication_status SET lag = 10");
+        initializeRoutingDataSource(replica, 5, "SELECT lag FROM replication_status");
+        assertThat(queryOrigin(true), equalTo(PRIMARY));
+    }
+
+    @Test
+    public void testReadOnlyTransactionFallsBackToPrimaryWhenReplicationIsNotRunning() {
+        new JdbcTemplate(replica).update("UPDATE replication_status SET lag = NULL");
+        initializeRoutingDataSource(replica, 5, "SELECT lag FROM replication_status");
+        assertThat(queryOrigin(true), equalTo(PRIMARY));
+    }
+
+    @Test
+    public void testReadOnlyTransactionFallsBackToPrimaryWhenReplicaIsUnavailable() {
+        initializeRoutingDataSource(new DriverManagerDataSource("jdbc:h2:tcp://localhost:1/replica"), 5, "");
+        assertThat(queryOrigin(true), equalTo(PRIMARY));
+    }
+
+    @Test
+    public void testTransactionsOfOpenEntityManagerAreRoutedIndividually() {
+        initializeRoutingDataSource(replica, 5, "SELECT lag FROM replication_status");
+        LocalContainerEntityManagerFactoryBean entityManagerFactoryBean = new LocalContainerEntityManagerFactoryBean();
+        entityManagerFactoryBean.setDataSource(new LazyConnectionDataSourceProxy(routingDataSource));
+        entityManagerFactoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        entityManagerFactoryBean.setPackagesToScan(ReplicaRoutingDataSourceIt.class.getPackage().getName() + ".replica");
+        entityManagerFactoryBean.setJpaPropertyMap(getConnectionProperties());
+        entityManagerFactoryBean.afterPropertiesSet();
+        EntityManagerFactory entityManagerFactory = entityManagerFactoryBean.getObject();
+        PlatformTransactionManager transactionManager = new JpaTransactionManager(entityManagerFactory);
+        // Binds the entity manager for all transactions like the open entity manager in view interceptor of a request
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        TransactionSynchronizationManager.bindResource(entityManagerFactory, new EntityManagerHolder(entityManager));
+        try {
+            assertThat(queryOrigin(transactionManager, entityManager, true), equalTo(REPLICA));
+            assertThat(queryOrigin(transactionManager, entityManager, false), equalTo(PRIMARY));
+            assertThat(queryOrigin(transactionManager, entityManager, true), equalTo(REPLICA));
+        } finally {
+            TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+            entityManager.close();
+            entityManagerFactoryBean.destroy();
+        }
+    }
+
+    private EmbeddedDatabase createDatabase(String name) {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2)
+            .setName(name)
+            .build();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE origin (name VARCHAR(16))");
+        jdbcTemplate.update("INSERT INTO origin VALUES (?)", name);
+        jdbcTemplate.execute("CREATE TABLE replication_status (lag BIGINT)");
+        jdbcTemplate.update("INSERT INTO replication_status VALUES (0)");
+        return database;
+    }
+
+    private void initializeRoutingDataSource(DataSource replicaDataSource, long maxLagSeconds, String lagQuery) {
+        routingDataSource = new ReplicaRoutingDataSource(primary, Collections.singletonMap(REPLICA, replicaDataSource), Duration.ofSeconds(maxLagSeconds),
+            Duration.ofMinutes(1), lagQuery, "lag");
+        routingDataSource.afterPropertiesSet();
+    }
+
+    /**
+     * Gets the Hibernate connection properties of the application configuration.
+     */
+    private static Map<String, Object> getConnectionProperties() {
+        YamlPropertiesFactoryBean yamlPropertiesFactoryBean = new YamlPropertiesFactoryBean();
+        yamlPropertiesFactoryBean.setResources(new ClassPathResource("application.yaml"));
+        Properties properties = requireNonNull(yamlPropertiesFactoryBean.getObject());
+        Map<String, Object> connectionProperties = new HashMap<>();
+        properties.stringPropertyNames().stream()
+            .filter(name -> name.startsWith(JPA_PROPERTIES_PREFIX + "hibernate.connection."))
+            .forEach(name -> connectionProperties.put(name.substring(JPA_PROPERTIES_PREFIX.length()), properties.getProperty(name)));
+        return connectionProperties;
+    }
+
+    private static String queryOrigin(PlatformTransactionManager transactionManager, EntityManager entityManager, boolean readOnly) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(readOnly);
+        return transactionTemplate.execute(status -> (String) entityManager.createNativeQuery("SELECT name FROM origin").getSingleResult());
+    }
+
+    private String queryOrigin(boolean readOnly) {
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transactionTemplate.setReadOnly(readOnly);
+        return transactionTemplate.execute(status -> new JdbcTemplate(dataSource).queryForObject("SELECT name FROM origin", String.class));
+    }
+}
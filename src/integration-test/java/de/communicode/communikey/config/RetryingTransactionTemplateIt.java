@@ -0,0 +1,119 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.config.util.AfterCommit;
+import de.communicode.communikey.config.util.RetryingTransactionTemplate;
+import de.communicode.communikey.domain.Tag;
+import de.communicode.communikey.exception.ErrorResponse;
+import de.communicode.communikey.exception.GlobalControllerExceptionHandler;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Integration tests for the {@link RetryingTransactionTemplate}.
+ *
+ * @since 0.18.0
+ */
+public class RetryingTransactionTemplateIt extends IntegrationBaseTest {
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    private TransactionTemplate concurrentTransactionTemplate;
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicInteger publications = new AtomicInteger();
+    private Long tagId;
+
+    @Before
+    public void setUp() {
+        concurrentTransactionTemplate = new TransactionTemplate(transactionManager);
+        concurrentTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Tag tag = new Tag();
+        tag.setName("tag");
+        tag.setColor("#000000");
+        tag.setCreator(user);
+        tagId = tagRepository.save(tag).getId();
+    }
+
+    @Test
+    public void testRetryAfterConcurrentModification() {
+        RetryingTransactionTemplate retryingTransactionTemplate = new RetryingTransactionTemplate(transactionManager, 3, Duration.ZERO);
+
+        retryingTransactionTemplate.execute(status -> updateColor(attempts.get() == 0));
+
+        assertThat(attempts.get(), is(2));
+        assertThat(publications.get(), is(1));
+        Tag tag = tagRepository.findById(tagId).orElseThrow(IllegalStateException::new);
+        assertThat(tag.getColor(), equalTo("#ffffff"));
+    }
+
+    @Test
+    public void testRetriesExhaustedMapsToConflict() {
+        RetryingTransactionTemplate retryingTransactionTemplate = new RetryingTransactionTemplate(transactionManager, 2, Duration.ZERO);
+
+        try {
+            retryingTransactionTemplate.execute(status -> updateColor(true));
+            fail("Expected the transaction to fail due to concurrent modifications");
+        } catch (OptimisticLockingFailureException e) {
+            ResponseEntity<ErrorResponse> response = new GlobalControllerExceptionHandler().handleOptimisticLockingFailureException();
+            assertThat(response.getStatusCode(), is(HttpStatus.CONFLICT));
+        }
+
+        assertThat(attempts.get(), is(2));
+        assertThat(publications.get(), is(0));
+        Tag tag = tagRepository.findById(tagId).orElseThrow(IllegalStateException::new);
+        assertThat(tag.getColor(), equalTo("#000002"));
+    }
+
+    /**
+     * Updates the color of the tag and defers a publication until the update has been committed.
+     *
+     * @param conflicting whether the tag is concurrently modified after it has been loaded
+     */
+    private String updateColor(boolean conflicting) {
+        int attempt = attempts.incrementAndGet();
+        Tag tag = tagRepository.findById(tagId).orElseThrow(IllegalStateException::new);
+        if (conflicting) {
+            concurrentTransactionTemplate.execute(status -> {
+                Tag concurrentTag = tagRepository.findById(tagId).orElseThrow(IllegalStateException::new);
+                concurrentTag.setColor("#00000" + attempt);
+                return tagRepository.save(concurrentTag);
+            });
+        }
+        tag.setColor("#ffffff");
+        tagRepository.save(tag);
+        AfterCommit.run(publications::incrementAndGet);
+        return tag.getColor();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.domain.KeyCategory;
+import de.communicode.communikey.domain.UserGroup;
+import de.communicode.communikey.service.payload.KeyCategoryMovePayload;
+import de.communicode.communikey.service.payload.KeyCategoryPayload;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Integration tests for the second-level cache of the key category hierarchy and the user group assignments.
+ *
+ * @since 0.18.0
+ */
+public class SecondLevelCacheIt extends IntegrationBaseTest {
+
+    private static final String CHILDREN_REGION = KeyCategory.class.getName() + ".children";
+    private static final String CATEGORIES_REGION = UserGroup.class.getName() + ".categories";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    private TransactionTemplate transactionTemplate;
+    private Statistics statistics;
+
+    @Before
+    public void setUp() {
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(userLogin, decodedUserPassword));
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+    }
+
+    @After
+    public void tearDown() {
+        statistics.setStatisticsEnabled(false);
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testChildrenAreCachedAndInvalidatedByMove() {
+        KeyCategory parent = createKeyCategory("parent", null);
+        KeyCategory otherParent = createKeyCategory("other", null);
+        KeyCategory child = createKeyCategory("child", parent.getHashid());
+
+        assertThat(getChildIds(parent.getId()), contains(child.getId()));
+        long hits = getHitCount(CHILDREN_REGION);
+        assertThat(getChildIds(parent.getId()), contains(child.getId()));
+        assertThat(getHitCount(CHILDREN_REGION), greaterThan(hits));
+
+        keyCategoryService.move(child.getId(), createMovePayload(otherParent.getHashid()));
+
+        assertThat(getChildIds(parent.getId()), empty());
+        assertThat(getChildIds(otherParent.getId()), contains(child.getId()));
+    }
+
+    @Test
+    public void testCategoriesOfUserGroupAreCachedAndInvalidatedByRemoval() {
+        KeyCategory keyCategory = createKeyCategory("category", null);
+        UserGroup payload = new UserGroup();
+        payload.setName("group");
+        UserGroup userGroup = userGroupService.create(payload);
+        keyCategoryService.addUserGroup(keyCategory.getId(), userGroup.getId());
+
+        assertThat(getCategoryIds(userGroup.getId()), contains(keyCategory.getId()));
+        long hits = getHitCount(CATEGORIES_REGION);
+        assertThat(getCategoryIds(userGroup.getId()), contains(keyCategory.getId()));
+        assertThat(getHitCount(CATEGORIES_REGION), greaterThan(hits));
+
+        keyCategoryService.removeUserGroup(keyCategory.getId(), userGroup.getId());
+
+        assertThat(getCategoryIds(userGroup.getId()), empty());
+    }
+
+    @Test
+    public void testCacheIsDisabledInRelayBrokerMode() {
+        LocalContainerEntityManagerFactoryBean entityManagerFactoryBean = new LocalContainerEntityManagerFactoryBean();
+        entityManagerFactoryBean.getJpaPropertyMap().put(SecondLevelCacheConfig.USE_SECOND_LEVEL_CACHE, "true");
+        entityManagerFactoryBean.getJpaPropertyMap().put(SecondLevelCacheConfig.USE_QUERY_CACHE, "true");
+        BeanPostProcessor postProcessor = SecondLevelCacheConfig.disableSecondLevelCachePostProcessor();
+
+        postProcessor.postProcessBeforeInitialization(entityManagerFactoryBean, "entityManagerFactory");
+
+        assertThat(entityManagerFactoryBean.getJpaPropertyMap().get(SecondLevelCacheConfig.USE_SECOND_LEVEL_CACHE), equalTo("false"));
+        assertThat(entityManagerFactoryBean.getJpaPropertyMap().get(SecondLevelCacheConfig.USE_QUERY_CACHE), equalTo("false"));
+    }
+
+    private KeyCategory createKeyCategory(String name, String parentHashid) {
+        Map<String, String> payload = new HashMap<>();
+        payload.put("name", name);
+        payload.put("parent", parentHashid);
+        return keyCategoryService.create(objectMapper.convertValue(payload, KeyCategoryPayload.class));
+    }
+
+    private KeyCategoryMovePayload createMovePayload(String parentHashid) {
+        Map<String, String> payload = new HashMap<>();
+        payload.put("parent", parentHashid);
+        return objectMapper.convertValue(payload, KeyCategoryMovePayload.class);
+    }
+
+    private List<Long> getChildIds(Long keyCategoryId) {
+        return transactionTemplate.execute(status -> keyCategoryService.validate(keyCategoryId).getChildren().stream()
+            .map(KeyCategory::getId)
+            .collect(Collectors.toList()));
+    }
+
+    private List<Long> getCategoryIds(Long userGroupId) {
+        return transactionTemplate.execute(status -> userGroupService.validate(userGroupId).getCategories().stream()
+            .map(KeyCategory::getId)
+            .collect(Collectors.toList()));
+    }
+
+    private long getHitCount(String region) {
+        return statistics.getSecondLevelCacheStatistics(region).getHitCount();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import de.communicode.communikey.CommunikeyIntegrationTest;
+import de.communicode.communikey.config.CommunikeyProperties.Security.OAuth2.TokenMode;
+import de.communicode.communikey.config.util.SignedTokenStore;
+import de.communicode.communikey.repository.TokenRevocationRepository;
+import de.communicode.communikey.security.AuthoritiesConstants;
+import de.communicode.communikey.service.TokenRevocationService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Integration tests for the {@link SignedTokenStore}.
+ *
+ * @since 0.18.0
+ */
+@Category(CommunikeyIntegrationTest.class)
+public class SignedTokenStoreIt {
+
+    private static final String LOGIN = "user";
+    private static final byte[] SIGNING_KEY = "signing-key".getBytes(StandardCharsets.UTF_8);
+
+    private TokenRevocationService tokenRevocationService;
+    private SignedTokenStore tokenStore;
+
+    @Before
+    public void setUp() {
+        CommunikeyProperties communikeyProperties = new CommunikeyProperties();
+        communikeyProperties.getSecurity().getoAuth2().setTokenMode(TokenMode.SIGNED);
+        communikeyProperties.getSecurity().getoAuth2().setRevocationRefreshInterval(Duration.ofHours(1));
+        TokenRevocationRepository tokenRevocationRepository = (TokenRevocationRepository) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] {TokenRevocationRepository.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "saveAll":
+                        return args[0];
+                    case "findByRevokedDateAfter":
+                        return Collections.emptyList();
+                    case "deleteByRevokedDateBefore":
+                        return 0;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        tokenRevocationService = new TokenRevocationService(tokenRevocationRepository, communikeyProperties);
+        tokenStore = new SignedTokenStore(SIGNING_KEY, SecurityConfig.APP_ID, tokenRevocationService);
+    }
+
+    @After
+    public void tearDown() {
+        tokenRevocationService.destroy();
+    }
+
+    @Test
+    public void testReadSignedAccessToken() {
+        OAuth2AccessToken accessToken = issueAccessToken(tokenStore, 60_000);
+
+        assertThat(tokenStore.readAccessToken(accessToken.getValue()).isExpired(), is(false));
+        OAuth2Authentication authentication = tokenStore.readAuthentication(accessToken.getValue());
+        assertThat(authentication.getName(), is(equalTo(LOGIN)));
+        assertThat(authentication.getOAuth2Request().getClientId(), is(equalTo(SecurityConfig.APP_ID)));
+        List<String> authorities = authentication.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .collect(Collectors.toList());
+        assertThat(authorities, containsInAnyOrder(AuthoritiesConstants.USER));
+    }
+
+    @Test
+    public void testReadExpiredAccessToken() {
+        OAuth2AccessToken accessToken = issueAccessToken(tokenStore, -1);
+
+        assertThat(tokenStore.readAccessToken(accessToken.getValue()).isExpired(), is(true));
+    }
+
+    @Test
+    public void testReadTamperedAccessToken() {
+        String value = issueAccessToken(tokenStore, 60_000).getValue();
+        String tampered = value.substring(0, value.length() - 2) + (value.endsWith("AA") ? "BB" : "AA");
+
+        assertThat(tokenStore.readAccessToken(tampered), is(nullValue()));
+        assertThat(tokenStore.readAuthentication(tampered), is(nullValue()));
+        assertThat(tokenStore.readAccessToken("malformed"), is(nullValue()));
+    }
+
+    @Test
+    public void testReadAccessTokenSignedWithOtherKey() {
+        SignedTokenStore otherTokenStore = new SignedTokenStore("other".getBytes(StandardCharsets.UTF_8), SecurityConfig.APP_ID, tokenRevocationService);
+
+        assertThat(tokenStore.readAccessToken(issueAccessToken(otherTokenStore, 60_000).getValue()), is(nullValue()));
+    }
+
+    @Test
+    public void testRevokedAccessToken() throws InterruptedException {
+        OAuth2AccessToken revokedAccessToken = issueAccessToken(tokenStore, 60_000);
+        tokenStore.removeAccessTokensByUserNames(Collections.singleton(LOGIN));
+        Thread.sleep(5);
+        OAuth2AccessToken accessToken = issueAccessToken(tokenStore, 60_000);
+
+        assertThat(tokenStore.readAccessToken(revokedAccessToken.getValue()), is(nullValue()));
+        assertThat(tokenStore.readAuthentication(revokedAccessToken.getValue()), is(nullValue()));
+        assertThat(tokenStore.readAccessToken(accessToken.getValue()), is(notNullValue()));
+    }
+
+    private static OAuth2AccessToken issueAccessToken(SignedTokenStore tokenStore, long validityMillis) {
+        List<GrantedAuthority> authorities = Collections.singletonList(new SimpleGrantedAuthority(AuthoritiesConstants.USER));
+        OAuth2Request request = new OAuth2Request(Collections.emptyMap(), SecurityConfig.APP_ID, authorities, true,
+            Collections.singleton("read"), null, null, null, null);
+        OAuth2Authentication authentication = new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(LOGIN, null, authorities));
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken("value");
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + validityMillis));
+        accessToken.setScope(Collections.singleton("read"));
+        return tokenStore.enhance(accessToken, authentication);
+    }
+}
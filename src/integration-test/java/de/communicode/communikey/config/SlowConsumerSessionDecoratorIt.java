@@ -0,0 +1,202 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_RESYNC;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import de.communicode.communikey.CommunikeyIntegrationTest;
+import de.communicode.communikey.config.CommunikeyProperties.Websocket.SlowConsumerPolicy;
+import de.communicode.communikey.config.util.SlowConsumerSessionDecorator;
+import de.communicode.communikey.config.util.WebSocketSessionMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integration tests for the {@link SlowConsumerSessionDecorator}.
+ *
+ * @since 0.18.0
+ */
+@Category(CommunikeyIntegrationTest.class)
+public class SlowConsumerSessionDecoratorIt {
+
+    private static final String SESSION_ID = "session";
+    private static final String USER = "alice";
+    private static final int BUFFER_SIZE_LIMIT = 100;
+
+    private final List<String> sentFrames = new CopyOnWriteArrayList<>();
+    private final List<Message<?>> resyncRequests = new CopyOnWriteArrayList<>();
+    private final CountDownLatch sendStarted = new CountDownLatch(1);
+    private final CountDownLatch sendReleased = new CountDownLatch(1);
+    private WebSocketSessionMonitor monitor;
+    private Thread blockedSender;
+
+    @Before
+    public void setUp() {
+        ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+        channel.subscribe(resyncRequests::add);
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate(channel);
+        messagingTemplate.setMessageConverter(new MappingJackson2MessageConverter());
+        monitor = new WebSocketSessionMonitor(() -> messagingTemplate);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        sendReleased.countDown();
+        if (blockedSender != null) {
+            blockedSender.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Test
+    public void testResyncPolicyDropsBufferedMessages() throws Exception {
+        SlowConsumerSessionDecorator session = createSession(SlowConsumerPolicy.RESYNC);
+        blockSession(session, "first");
+        session.sendMessage(messageFrame("second"));
+        assertThat(monitor.getBufferedBytesPerSession().get(SESSION_ID), equalTo(messageFrame("second").getPayloadLength()));
+        session.sendMessage(messageFrame("third"));
+        session.sendMessage(receiptFrame());
+        assertThat(session.getDroppedMessages(), is(2));
+        assertThat(monitor.getDroppedMessages(), is(2L));
+
+        sendReleased.countDown();
+        blockedSender.join(TimeUnit.SECONDS.toMillis(5));
+        assertThat(sentFrames, contains(messageFrame("first").getPayload(), receiptFrame().getPayload()));
+        assertThat(session.getBufferSize(), is(0));
+        assertThat(resyncRequests.size(), is(1));
+        Message<?> resyncRequest = resyncRequests.get(0);
+        assertThat(SimpMessageHeaderAccessor.getDestination(resyncRequest.getHeaders()), equalTo("/user/" + USER + QUEUE_UPDATES_RESYNC));
+        assertThat(SimpMessageHeaderAccessor.getSessionId(resyncRequest.getHeaders()), equalTo(SESSION_ID));
+        assertThat(new String((byte[]) resyncRequest.getPayload(), StandardCharsets.UTF_8), equalTo("{\"droppedMessages\":2}"));
+        assertThat(monitor.getResyncRequests(), is(1L));
+    }
+
+    @Test
+    public void testDisconnectPolicyClosesSession() throws Exception {
+        SlowConsumerSessionDecorator session = createSession(SlowConsumerPolicy.DISCONNECT);
+        blockSession(session, "first");
+        session.sendMessage(messageFrame("second"));
+        try {
+            session.sendMessage(messageFrame("third"));
+            fail("Expected the session limit to be exceeded");
+        } catch (SessionLimitExceededException e) {
+            assertThat(monitor.getDisconnects(), is(1L));
+        }
+
+        sendReleased.countDown();
+        blockedSender.join(TimeUnit.SECONDS.toMillis(5));
+        assertThat(sentFrames, contains(messageFrame("first").getPayload()));
+        assertThat(resyncRequests.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRejectedOutboundMessageIsSentOnCallingThread() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>(),
+            monitor.outboundRejectionHandler());
+        CountDownLatch released = new CountDownLatch(1);
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        try {
+            executor.execute(() -> awaitQuietly(released));
+            executor.execute(() -> threads.add(Thread.currentThread()));
+
+            assertThat(threads, contains(Thread.currentThread()));
+            assertThat(monitor.getRejectedMessages(), is(1L));
+        } finally {
+            released.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private SlowConsumerSessionDecorator createSession(SlowConsumerPolicy policy) {
+        Principal user = () -> USER;
+        WebSocketSession delegate = (WebSocketSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{WebSocketSession.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getId":
+                        return SESSION_ID;
+                    case "getPrincipal":
+                        return user;
+                    case "isOpen":
+                        return true;
+                    case "sendMessage":
+                        sendStarted.countDown();
+                        sendReleased.await(5, TimeUnit.SECONDS);
+                        sentFrames.add(((TextMessage) args[0]).getPayload());
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        SlowConsumerSessionDecorator session = new SlowConsumerSessionDecorator(delegate, 10_000, BUFFER_SIZE_LIMIT, policy, monitor);
+        monitor.register(session);
+        return session;
+    }
+
+    private void blockSession(SlowConsumerSessionDecorator session, String body) throws InterruptedException {
+        blockedSender = new Thread(() -> {
+            try {
+                session.sendMessage(messageFrame(body));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        blockedSender.start();
+        assertThat(sendStarted.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    private static TextMessage messageFrame(String body) {
+        return new TextMessage("MESSAGE\ndestination:/user/queue/updates/keys\nsubscription:sub-0\n\n" + body + "\u0000");
+    }
+
+    private static TextMessage receiptFrame() {
+        return new TextMessage("RECEIPT\nreceipt-id:1\n\n\u0000");
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.communicode.communikey.CommunikeyLoadTest;
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.domain.Key;
+import de.communicode.communikey.domain.KeyCategory;
+import de.communicode.communikey.domain.User;
+import de.communicode.communikey.domain.UserGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Footprint benchmark for the entities of the domain model.
+ *
+ * <p>Persists a number of {@link Key}, {@link KeyCategory}, {@link UserGroup} and {@link User} entities and loads each type
+ * through its repository within one transaction. Measures the heap retained by the loaded entities and the persistence context
+ * after a full garbage collection, and the bytes allocated by the list path, which loads all entities of a type and serializes
+ * them like the list endpoints. All results are written as JSON report.
+ *
+ * <p>Excluded from the integration tests, runs with the {@code loadTest} task. The benchmark is configured by the system properties
+ * <ul>
+ *   <li>{@code communikey.footprint.entities} the number of entities of each type, defaults to {@value #DEFAULT_ENTITIES}</li>
+ *   <li>{@code communikey.footprint.report} the path of the report file, defaults to {@value #DEFAULT_REPORT}</li>
+ * </ul>
+ *
+ * <p>The allocated bytes are only reported on JVMs which support the measurement of the allocated bytes per thread.
+ *
+ * @since 0.18.0
+ */
+@Category(CommunikeyLoadTest.class)
+public class EntityFootprintLoadTest extends IntegrationBaseTest {
+
+    private static final Logger log = LogManager.getLogger();
+    private static final int DEFAULT_ENTITIES = 10_000;
+    private static final String DEFAULT_REPORT = "build/reports/load/entity-footprint.json";
+    private static final String FOOTPRINT_PREFIX = "footprint";
+    private static final int BATCH_SIZE = 500;
+
+    private final int entityCount = Integer.getInteger("communikey.footprint.entities", DEFAULT_ENTITIES);
+    private final File reportFile = new File(System.getProperty("communikey.footprint.report", DEFAULT_REPORT));
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    public void testEntityFootprint() throws Exception {
+        createEntities();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("entities", entityCount);
+        report.put("javaVersion", System.getProperty("java.version"));
+        report.put("allocationMeasurement", isAllocationMeasurementSupported());
+        report.put("keys", measure(keyRepository::findAll));
+        report.put("keyCategories", measure(keyCategoryRepository::findAll));
+        report.put("userGroups", measure(userGroupRepository::findAll));
+        report.put("users", measure(() -> {
+            Collection<User> users = new ArrayList<>(userRepository.findAll());
+            users.removeIf(loadedUser -> !loadedUser.getLogin().startsWith(FOOTPRINT_PREFIX));
+            return users;
+        }));
+        writeReport(report);
+    }
+
+    /**
+     * Measures the retained heap and the list path allocations of the entities found by the specified query.
+     *
+     * <p>Each measurement starts with an empty second-level cache so that all entities are loaded from the database.
+     */
+    private Map<String, Object> measure(Supplier<Collection<?>> query) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        Map<String, Object> result = new LinkedHashMap<>();
+
+        entityManagerFactory.getCache().evictAll();
+        transactionTemplate.execute(status -> {
+            long heapBefore = getUsedHeapAfterGc();
+            Collection<?> entities = query.get();
+            long retained = getUsedHeapAfterGc() - heapBefore;
+            result.put("loaded", entities.size());
+            result.put("retainedHeapBytes", retained);
+            result.put("retainedHeapBytesPer10k", entities.isEmpty() ? 0 : retained * 10_000 / entities.size());
+            return null;
+        });
+
+        entityManagerFactory.getCache().evictAll();
+        transactionTemplate.execute(status -> {
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            byte[] json;
+            try {
+                json = objectMapper.writeValueAsBytes(query.get());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to serialize the entities", e);
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = getAllocatedBytes() - allocatedBefore;
+            result.put("listPathMillis", TimeUnit.NANOSECONDS.toMillis(elapsed));
+            result.put("listPathResponseBytes", json.length);
+            if (isAllocationMeasurementSupported()) {
+                result.put("listPathAllocatedBytes", allocated);
+                result.put("listPathAllocationMegabytesPerSecond",
+                    elapsed <= 0 ? 0 : allocated / 1_048_576d * TimeUnit.SECONDS.toNanos(1) / elapsed);
+            }
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * Creates the entities of all types in batches, each batch in its own transaction.
+     */
+    private void createEntities() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        String encodedPassword = passwordEncoder.encode(decodedUserPassword);
+        for (int offset = 0; offset < entityCount; offset += BATCH_SIZE) {
+            int first = offset;
+            int last = Math.min(offset + BATCH_SIZE, entityCount);
+            transactionTemplate.execute(status -> {
+                List<Key> keys = new ArrayList<>();
+                List<KeyCategory> keyCategories = new ArrayList<>();
+                List<UserGroup> userGroups = new ArrayList<>();
+                List<User> users = new ArrayList<>();
+                for (int i = first; i < last; i++) {
+                    Key key = new Key();
+                    key.setName(FOOTPRINT_PREFIX + i);
+                    key.setLogin(FOOTPRINT_PREFIX);
+                    key.setNotes(FOOTPRINT_PREFIX);
+                    key.setCreator(user);
+                    keys.add(key);
+
+                    KeyCategory keyCategory = new KeyCategory();
+                    keyCategory.setName(FOOTPRINT_PREFIX + i);
+                    keyCategory.setCreator(user);
+                    keyCategories.add(keyCategory);
+
+                    UserGroup userGroup = new UserGroup();
+                    userGroup.setName(FOOTPRINT_PREFIX + i);
+                    userGroups.add(userGroup);
+
+                    User footprintUser = new User();
+                    footprintUser.setLogin(FOOTPRINT_PREFIX + i);
+                    footprintUser.setEmail(FOOTPRINT_PREFIX + toLetters(i) + "@communicode.de");
+                    footprintUser.setFirstName("Footprint");
+                    footprintUser.setLastName("User" + i);
+                    footprintUser.setPassword(encodedPassword);
+                    footprintUser.setActivated(true);
+                    users.add(footprintUser);
+                }
+                keyRepository.saveAll(keys);
+                keyCategoryRepository.saveAll(keyCategories);
+                userGroupRepository.saveAll(userGroups);
+                userRepository.saveAll(users);
+                return null;
+            });
+        }
+        log.info("Created {} entities of each type for the footprint benchmark.", entityCount);
+    }
+
+    /**
+     * Maps the digits of a number to letters since email addresses must not contain digits.
+     */
+    private static String toLetters(int number) {
+        StringBuilder letters = new StringBuilder();
+        for (char digit : Integer.toString(number).toCharArray()) {
+            letters.append((char) ('a' + digit - '0'));
+        }
+        return letters.toString();
+    }
+
+    private long getUsedHeapAfterGc() {
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private boolean isAllocationMeasurementSupported() {
+        return threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+    }
+
+    private long getAllocatedBytes() {
+        if (!isAllocationMeasurementSupported()) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void writeReport(Map<String, Object> report) throws IOException {
+        File directory = reportFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the report directory " + directory);
+        }
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(reportFile, report);
+        log.info("Wrote entity footprint report to '{}': {}", reportFile.getAbsolutePath(), objectMapper.writeValueAsString(report));
+    }
+}
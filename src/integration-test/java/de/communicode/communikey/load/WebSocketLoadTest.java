@@ -0,0 +1,486 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.load;
+
+import static de.communicode.communikey.controller.PathVariables.KEYCATEGORY_ID;
+import static de.communicode.communikey.controller.RequestMappings.QUEUE_JOBS;
+import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_KEYS;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_CATEGORIES;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_CATEGORIES;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+import de.communicode.communikey.CommunikeyLoadTest;
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.config.util.WebSocketSessionMonitor;
+import de.communicode.communikey.controller.RequestMappings;
+import de.communicode.communikey.domain.User;
+import de.communicode.communikey.repository.EncryptionJobRepository;
+import de.communicode.communikey.security.AuthoritiesConstants;
+import io.restassured.http.ContentType;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load test harness for the live update fan-out of the "/wss/registry" websocket endpoint.
+ *
+ * <p>Opens authenticated STOMP sessions for a number of users who share access to a key category and drives key and category
+ * mutations through the REST API. Measures the end-to-end latency percentiles of the update delivery, the throughput of the
+ * encryption job advertisements and the memory of the broker and writes all results as JSON report.
+ *
+ * <p>Excluded from the integration tests, runs with the {@code loadTest} task. The load is configured by the system properties
+ * <ul>
+ *   <li>{@code communikey.load.sessions} the number of user sessions, defaults to {@value #DEFAULT_SESSIONS}</li>
+ *   <li>{@code communikey.load.keys} the number of keys in the shared key category, defaults to {@value #DEFAULT_KEYS}</li>
+ *   <li>{@code communikey.load.mutations} the number of key and category mutations, defaults to {@value #DEFAULT_MUTATIONS}</li>
+ *   <li>{@code communikey.load.timeout} the seconds to wait for each phase, defaults to {@value #DEFAULT_TIMEOUT}</li>
+ *   <li>{@code communikey.load.report} the path of the report file, defaults to {@value #DEFAULT_REPORT}</li>
+ * </ul>
+ *
+ * @since 0.18.0
+ */
+@Category(CommunikeyLoadTest.class)
+public class WebSocketLoadTest extends IntegrationBaseTest {
+
+    private static final Logger log = LogManager.getLogger();
+    private static final int DEFAULT_SESSIONS = 50;
+    private static final int DEFAULT_KEYS = 5;
+    private static final int DEFAULT_MUTATIONS = 200;
+    private static final int DEFAULT_TIMEOUT = 60;
+    private static final String DEFAULT_REPORT = "build/reports/load/websocket-load.json";
+    private static final String LOAD_USER_PREFIX = "load";
+    private static final Pattern MUTATION_NAME = Pattern.compile("mutation-(\\d+)");
+
+    private final int sessionCount = Integer.getInteger("communikey.load.sessions", DEFAULT_SESSIONS);
+    private final int keyCount = Integer.getInteger("communikey.load.keys", DEFAULT_KEYS);
+    private final int mutationCount = Integer.getInteger("communikey.load.mutations", DEFAULT_MUTATIONS);
+    private final int timeout = Integer.getInteger("communikey.load.timeout", DEFAULT_TIMEOUT);
+    private final File reportFile = new File(System.getProperty("communikey.load.report", DEFAULT_REPORT));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<StompSession> stompSessions = new ArrayList<>();
+    private final WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+    private final ScheduledExecutorService memorySampler = Executors.newSingleThreadScheduledExecutor();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong peakHeapBytes = new AtomicLong();
+    private final AtomicLong peakBufferedBytes = new AtomicLong();
+    private final AtomicLong peakBrokerMemoryBytes = new AtomicLong();
+
+    @Autowired
+    private ApplicationContext applicationContext;
+    @Autowired
+    private WebSocketSessionMonitor webSocketSessionMonitor;
+    @Autowired
+    private EncryptionJobRepository encryptionJobRepository;
+
+    @After
+    public void tearDown() {
+        memorySampler.shutdownNow();
+        stompSessions.forEach(StompSession::disconnect);
+        stompClient.stop();
+        encryptionJobRepository.deleteAll();
+    }
+
+    @Test
+    public void testUpdateFanOut() throws Exception {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("brokerMode", communikeyProperties.getWebsocket().getBroker().getMode());
+        report.put("categoryTopics", communikeyProperties.getWebsocket().getUpdates().isCategoryTopics());
+        report.put("sessions", sessionCount);
+        report.put("keys", keyCount);
+        report.put("mutations", mutationCount);
+        long heapBefore = getUsedHeapAfterGc();
+        memorySampler.scheduleAtFixedRate(this::sampleMemory, 0, 100, TimeUnit.MILLISECONDS);
+
+        String categoryHashid = createKeyCategory();
+        long userGroupId = createUserGroup(categoryHashid);
+        List<String> keyHashids = new ArrayList<>();
+        for (int i = 0; i < keyCount; i++) {
+            keyHashids.add(createKey(categoryHashid, "key-" + i));
+        }
+        List<String> logins = createUsers();
+        Map<String, String> accessTokens = new HashMap<>();
+        for (String login : logins) {
+            accessTokens.put(login, generateOAuth2AccessToken(login, decodedUserPassword));
+        }
+
+        // Connects the sessions of all users and of the root user which is the qualified encoder of all keys
+        String keyDestination = communikeyProperties.getWebsocket().getUpdates().isCategoryTopics()
+            ? TOPIC_CATEGORIES + "/" + categoryHashid
+            : "/user" + QUEUE_UPDATES_KEYS;
+        long[] sentNanos = new long[mutationCount];
+        DeliveryRecorder keyUpdates = new DeliveryRecorder(sentNanos, mutationCount > 0 ? (mutationCount - 1) / 2 * 2 : -1);
+        DeliveryRecorder categoryUpdates = new DeliveryRecorder(sentNanos, mutationCount > 1 ? (mutationCount - 2) / 2 * 2 + 1 : -1);
+        long connectStart = System.nanoTime();
+        for (String login : logins) {
+            StompSession session = connect(accessTokens.get(login));
+            subscribe(session, keyDestination, keyUpdates::record);
+            subscribe(session, TOPIC_UPDATES_CATEGORIES, categoryUpdates::record);
+        }
+        AtomicInteger advertisedJobs = new AtomicInteger();
+        CountDownLatch jobsLatch = new CountDownLatch(sessionCount * keyCount);
+        AtomicLong lastJobNanos = new AtomicLong();
+        StompSession rootSession = connect(adminUserOAuth2AccessToken);
+        subscribe(rootSession, "/user" + QUEUE_JOBS, payload -> {
+            advertisedJobs.incrementAndGet();
+            lastJobNanos.set(System.nanoTime());
+            jobsLatch.countDown();
+        });
+        report.put("connect", phase(System.nanoTime() - connectStart, sessionCount + 1, "sessions"));
+        // STOMP subscriptions are not acknowledged by the simple broker, gives the broker time to register them
+        Thread.sleep(1000);
+
+        // Adding the users to the user group creates an encryption job for each user and key which are advertised to root
+        long jobsStart = System.nanoTime();
+        for (String login : logins) {
+            given()
+                .auth().oauth2(adminUserOAuth2AccessToken)
+                .pathParam("userGroupId", userGroupId)
+                .param("login", login)
+            .when()
+                .get(RequestMappings.USER_GROUPS + RequestMappings.USER_GROUPS_USERS)
+            .then()
+                .statusCode(HttpStatus.OK.value());
+        }
+        boolean jobsCompleted = jobsLatch.await(timeout, TimeUnit.SECONDS);
+        Map<String, Object> jobs = phase(lastJobNanos.get() - jobsStart, advertisedJobs.get(), "jobs");
+        jobs.put("expected", sessionCount * keyCount);
+        jobs.put("completed", jobsCompleted);
+        report.put("jobAdvertisements", jobs);
+
+        // Alternates key and category mutations, the coalescing may merge updates of the same entity into one frame
+        long mutationsStart = System.nanoTime();
+        for (int i = 0; i < mutationCount; i++) {
+            sentNanos[i] = System.nanoTime();
+            if (i % 2 == 0) {
+                updateKey(keyHashids.get((i / 2) % keyCount), "mutation-" + i);
+            } else {
+                updateKeyCategory(categoryHashid, "mutation-" + i);
+            }
+        }
+        long mutationsSent = System.nanoTime() - mutationsStart;
+        boolean updatesCompleted = keyUpdates.await(timeout) && categoryUpdates.await(timeout);
+        Map<String, Object> updates = new LinkedHashMap<>();
+        updates.put("mutationsPerSecond", perSecond(mutationCount, mutationsSent));
+        updates.put("completed", updatesCompleted);
+        updates.put("keys", keyUpdates.getReport());
+        updates.put("categories", categoryUpdates.getReport());
+        report.put("updates", updates);
+
+        sampleMemory();
+        Map<String, Object> memoryReport = new LinkedHashMap<>();
+        memoryReport.put("heapBeforeBytes", heapBefore);
+        memoryReport.put("heapPeakBytes", peakHeapBytes.get());
+        memoryReport.put("heapAfterBytes", getUsedHeapAfterGc());
+        memoryReport.put("sessionBufferPeakBytes", peakBufferedBytes.get());
+        memoryReport.put("embeddedBrokerPeakBytes", peakBrokerMemoryBytes.get());
+        memoryReport.put("droppedMessages", webSocketSessionMonitor.getDroppedMessages());
+        report.put("memory", memoryReport);
+
+        writeReport(report);
+        assertThat(jobsCompleted, is(true));
+        assertThat(updatesCompleted, is(true));
+    }
+
+    private StompSession connect(String accessToken) throws Exception {
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.add(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+        StompSession session = stompClient.connect("ws://localhost:" + definedServerPort + "/wss/registry", headers,
+            new StompSessionHandlerAdapter() {
+                @Override
+                public void handleTransportError(StompSession session, Throwable exception) {
+                    log.error("Transport error in load test session '{}'.", session.getSessionId(), exception);
+                }
+            }).get(timeout, TimeUnit.SECONDS);
+        stompSessions.add(session);
+        return session;
+    }
+
+    private static void subscribe(StompSession session, String destination, Consumer<byte[]> consumer) {
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return byte[].class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                consumer.accept((byte[]) payload);
+            }
+        });
+    }
+
+    private String createKeyCategory() {
+        Map<String, Object> payload = Collections.singletonMap("name", "load-category");
+        return given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(payload)
+        .when()
+            .post(RequestMappings.KEY_CATEGORIES)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .extract().jsonPath().getString("id");
+    }
+
+    private long createUserGroup(String categoryHashid) {
+        long userGroupId = given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(Collections.singletonMap("name", "load-group"))
+        .when()
+            .post(RequestMappings.USER_GROUPS)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .extract().jsonPath().getLong("id");
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .pathParam(KEYCATEGORY_ID, categoryHashid)
+            .param("userGroupId", userGroupId)
+        .when()
+            .get(RequestMappings.KEY_CATEGORIES + RequestMappings.KEY_CATEGORY_GROUPS)
+        .then()
+            .statusCode(HttpStatus.OK.value());
+        return userGroupId;
+    }
+
+    private String createKey(String categoryHashid, String name) {
+        return given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(createKeyPayload(categoryHashid, name))
+        .when()
+            .post(RequestMappings.KEYS)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .extract().jsonPath().getString("id");
+    }
+
+    private void updateKey(String keyHashid, String name) {
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(createKeyPayload(null, name))
+        .when()
+            .put(RequestMappings.KEYS + "/" + keyHashid)
+        .then()
+            .statusCode(HttpStatus.OK.value());
+    }
+
+    private void updateKeyCategory(String categoryHashid, String name) {
+        given()
+            .auth().oauth2(adminUserOAuth2AccessToken)
+            .contentType(ContentType.JSON)
+            .body(Collections.singletonMap("name", name))
+        .when()
+            .put(RequestMappings.KEY_CATEGORIES + "/" + categoryHashid)
+        .then()
+            .statusCode(HttpStatus.OK.value());
+    }
+
+    private Map<String, Object> createKeyPayload(String categoryHashid, String name) {
+        Map<String, Object> encryptedPassword = new HashMap<>();
+        encryptedPassword.put("login", communikeyProperties.getSecurity().getRoot().getLogin());
+        encryptedPassword.put("encryptedPassword", "encrypted");
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("categoryId", categoryHashid);
+        payload.put("name", name);
+        payload.put("login", "login");
+        payload.put("notes", "notes");
+        payload.put("encryptedPasswords", Collections.singletonList(encryptedPassword));
+        return payload;
+    }
+
+    /**
+     * Creates the load test users directly in the repository, the password is only encoded once.
+     */
+    private List<String> createUsers() {
+        String encodedPassword = passwordEncoder.encode(decodedUserPassword);
+        List<String> logins = new ArrayList<>();
+        for (int i = 0; i < sessionCount; i++) {
+            User loadUser = new User();
+            loadUser.setLogin(LOAD_USER_PREFIX + i);
+            loadUser.setEmail(LOAD_USER_PREFIX + toLetters(i) + "@communicode.de");
+            loadUser.setFirstName("Load");
+            loadUser.setLastName("User" + i);
+            loadUser.setPassword(encodedPassword);
+            loadUser.setPublicKey(userPublicKey);
+            loadUser.setActivated(true);
+            loadUser.addAuthorities(Sets.newHashSet(authorityService.get(AuthoritiesConstants.USER)));
+            logins.add(userRepository.save(loadUser).getLogin());
+        }
+        return logins;
+    }
+
+    /**
+     * Maps the digits of a number to letters since email addresses must not contain digits.
+     */
+    private static String toLetters(int number) {
+        StringBuilder letters = new StringBuilder();
+        for (char digit : Integer.toString(number).toCharArray()) {
+            letters.append((char) ('a' + digit - '0'));
+        }
+        return letters.toString();
+    }
+
+    private void sampleMemory() {
+        peakHeapBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        peakBufferedBytes.accumulateAndGet(webSocketSessionMonitor.getTotalBufferedBytes(), Math::max);
+        applicationContext.getBeansOfType(BrokerService.class).values().forEach(broker ->
+            peakBrokerMemoryBytes.accumulateAndGet(broker.getSystemUsage().getMemoryUsage().getUsage(), Math::max));
+    }
+
+    private long getUsedHeapAfterGc() {
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private void writeReport(Map<String, Object> report) throws IOException {
+        File directory = reportFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the report directory " + directory);
+        }
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(reportFile, report);
+        log.info("Wrote websocket load report to '{}': {}", reportFile.getAbsolutePath(), objectMapper.writeValueAsString(report));
+    }
+
+    private static Map<String, Object> phase(long elapsedNanos, int count, String unit) {
+        Map<String, Object> phase = new LinkedHashMap<>();
+        phase.put(unit, count);
+        phase.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        phase.put(unit + "PerSecond", perSecond(count, elapsedNanos));
+        return phase;
+    }
+
+    private static double perSecond(int count, long elapsedNanos) {
+        return elapsedNanos <= 0 ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Records the delivery latency of the mutations of one entity type to all sessions.
+     *
+     * <p>Each mutation renames an entity to "mutation-{index}", the latency of a mutation is measured from the start of its
+     * REST request to the first frame of a session which contains the name. Intermediate mutations of the same entity may be
+     * merged by the update coalescing, the recording completes once every session received the last mutation.
+     */
+    private final class DeliveryRecorder {
+
+        private final long[] sentNanos;
+        private final int lastMutation;
+        private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger frames = new AtomicInteger();
+        private final CountDownLatch completion;
+
+        private DeliveryRecorder(long[] sentNanos, int lastMutation) {
+            this.sentNanos = sentNanos;
+            this.lastMutation = lastMutation;
+            this.completion = new CountDownLatch(lastMutation >= 0 ? sessionCount : 0);
+        }
+
+        private void record(byte[] payload) {
+            long receivedNanos = System.nanoTime();
+            frames.incrementAndGet();
+            try {
+                for (JsonNode update : objectMapper.readTree(payload)) {
+                    JsonNode name = update.has("fields") ? update.get("fields").get("name") : update.get("name");
+                    Matcher matcher = MUTATION_NAME.matcher(name == null ? "" : name.asText());
+                    if (matcher.matches()) {
+                        int mutation = Integer.parseInt(matcher.group(1));
+                        if (mutation < sentNanos.length && sentNanos[mutation] > 0) {
+                            latencies.add(receivedNanos - sentNanos[mutation]);
+                        }
+                        if (mutation == lastMutation) {
+                            completion.countDown();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Failed to read update frame.", e);
+            }
+        }
+
+        private boolean await(int timeout) throws InterruptedException {
+            return completion.await(timeout, TimeUnit.SECONDS);
+        }
+
+        private Map<String, Object> getReport() {
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("frames", frames.get());
+            report.put("deliveries", sorted.size());
+            report.put("pendingSessions", completion.getCount());
+            report.put("latencyP50Millis", percentile(sorted, 0.5));
+            report.put("latencyP90Millis", percentile(sorted, 0.9));
+            report.put("latencyP99Millis", percentile(sorted, 0.99));
+            report.put("latencyMaxMillis", percentile(sorted, 1));
+            return report;
+        }
+
+        private double percentile(List<Long> sorted, double quantile) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int index = Math.max(0, (int) Math.ceil(quantile * sorted.size()) - 1);
+            return sorted.get(index) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
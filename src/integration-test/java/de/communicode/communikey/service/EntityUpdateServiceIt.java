@@ -0,0 +1,119 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.collect.Lists;
+import de.communicode.communikey.CommunikeyIntegrationTest;
+import de.communicode.communikey.domain.Tag;
+import de.communicode.communikey.service.payload.EntityUpdatePayload;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.Optional;
+
+/**
+ * Integration tests for the {@link EntityUpdateService}.
+ *
+ * @since 0.18.0
+ */
+@Category(CommunikeyIntegrationTest.class)
+public class EntityUpdateServiceIt {
+
+    private EntityUpdateService entityUpdateService;
+    private Tag tag;
+
+    @Before
+    public void setUp() {
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate(new ExecutorSubscribableChannel());
+        messagingTemplate.setMessageConverter(new MappingJackson2MessageConverter());
+        entityUpdateService = new EntityUpdateService(messagingTemplate);
+        tag = new Tag();
+        tag.setHashid("x7Kq");
+        tag.setName("tag");
+        tag.setColor("#ffffff");
+    }
+
+    @Test
+    public void testFirstUpdateIsFull() {
+        EntityUpdatePayload update = entityUpdateService.createUpdate(tag).get();
+        assertThat(update.isFull(), is(true));
+        assertThat(update.getBaseVersion(), nullValue());
+        assertThat(update.getId().asText(), equalTo("x7Kq"));
+        assertThat(update.getFields().get("name").asText(), equalTo("tag"));
+        assertThat(update.getFields().get("color").asText(), equalTo("#ffffff"));
+    }
+
+    @Test
+    public void testSubsequentUpdateContainsChangedFieldsOnly() {
+        EntityUpdatePayload full = entityUpdateService.createUpdate(tag).get();
+        tag.setName("renamed");
+        EntityUpdatePayload delta = entityUpdateService.createUpdate(tag).get();
+        assertThat(delta.isFull(), is(false));
+        assertThat(delta.getBaseVersion(), equalTo(full.getVersion()));
+        assertThat(delta.getVersion(), equalTo(full.getVersion() + 1));
+        assertThat(Lists.newArrayList(delta.getFields().fieldNames()), contains("name"));
+        assertThat(delta.getFields().get("name").asText(), equalTo("renamed"));
+    }
+
+    @Test
+    public void testUnchangedUpdateIsSkipped() {
+        entityUpdateService.createUpdate(tag);
+        assertThat(entityUpdateService.createUpdate(tag), equalTo(Optional.empty()));
+    }
+
+    @Test
+    public void testUpdateAfterEvictionIsFull() {
+        entityUpdateService.createUpdate(tag);
+        entityUpdateService.evict(tag);
+        tag.setName("renamed");
+        EntityUpdatePayload update = entityUpdateService.createUpdate(tag).get();
+        assertThat(update.isFull(), is(true));
+        assertThat(update.getFields().get("color").asText(), equalTo("#ffffff"));
+    }
+
+    @Test
+    public void testUpdateAfterRollbackIsFull() {
+        entityUpdateService.createUpdate(tag);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            tag.setName("renamed");
+            assertThat(entityUpdateService.createUpdate(tag).get().isFull(), is(false));
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        tag.setName("retried");
+        EntityUpdatePayload update = entityUpdateService.createUpdate(tag).get();
+        assertThat(update.isFull(), is(true));
+        assertThat(update.getFields().get("color").asText(), equalTo("#ffffff"));
+    }
+}
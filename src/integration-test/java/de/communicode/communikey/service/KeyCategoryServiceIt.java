@@ -0,0 +1,80 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.domain.KeyCategory;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Integration tests for the {@link KeyCategoryService}.
+ *
+ * @since 0.18.0
+ */
+public class KeyCategoryServiceIt extends IntegrationBaseTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    public void testInitializeUniqueNamesOfLegacyKeyCategories() {
+        Long first = createLegacyKeyCategory("Legacy");
+        Long duplicate = createLegacyKeyCategory("Legacy");
+        Long otherCase = createLegacyKeyCategory("legacy");
+        entityManagerFactory.getCache().evictAll();
+
+        keyCategoryService.initializeUniqueNames();
+
+        KeyCategory firstKeyCategory = keyCategoryService.validate(first);
+        assertThat(firstKeyCategory.getNameKey(), equalTo(KeyCategory.toNameKey("Legacy")));
+        assertThat(firstKeyCategory.getParentKey(), equalTo(KeyCategory.ROOT_PARENT_KEY));
+        assertThat(keyCategoryService.validate(duplicate).getNameKey(), nullValue());
+        KeyCategory otherCaseKeyCategory = keyCategoryService.validate(otherCase);
+        assertThat(otherCaseKeyCategory.getNameKey(), equalTo(KeyCategory.toNameKey("legacy")));
+        assertThat(otherCaseKeyCategory.getNameKey(), not(equalTo(firstKeyCategory.getNameKey())));
+    }
+
+    @Test
+    public void testNameKeyIsTrimmedAndComposed() {
+        assertThat(KeyCategory.toNameKey(" Cafe\u0301 "), equalTo(KeyCategory.toNameKey("Caf\u00e9")));
+        assertThat(KeyCategory.toNameKey("Caf\u00e9"), not(equalTo(KeyCategory.toNameKey("caf\u00e9"))));
+    }
+
+    /**
+     * Creates a root key category without the unique name columns like it has been persisted before they were introduced.
+     */
+    private Long createLegacyKeyCategory(String name) {
+        KeyCategory keyCategory = new KeyCategory();
+        keyCategory.setName(name + keyCategoryRepository.count());
+        keyCategory.setCreator(user);
+        Long keyCategoryId = keyCategoryRepository.save(keyCategory).getId();
+        jdbcTemplate.update("update key_categories set name = ?, parent_key = null, name_key = null where id = ?", name, keyCategoryId);
+        return keyCategoryId;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.domain.KeyCategory;
+import de.communicode.communikey.domain.UserGroup;
+import de.communicode.communikey.repository.KeyCategoryGroupAccessRepository;
+import de.communicode.communikey.repository.KeyCategoryPathRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.security.Principal;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integration tests for the {@link KeyCategoryTopicService}.
+ *
+ * @since 0.18.0
+ */
+public class KeyCategoryTopicServiceIt extends IntegrationBaseTest {
+
+    private static final String SESSION_ID = "session";
+    private static final String SUBSCRIPTION_ID = "sub-0";
+
+    private final BlockingQueue<Message<?>> messages = new LinkedBlockingQueue<>();
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private KeyCategoryGroupAccessRepository keyCategoryGroupAccessRepository;
+    @Autowired
+    private KeyCategoryPathRepository keyCategoryPathRepository;
+    private TransactionTemplate transactionTemplate;
+    private KeyCategoryTopicService keyCategoryTopicService;
+    private KeyCategory keyCategory;
+    private UserGroup userGroup;
+
+    @Before
+    public void setUp() {
+        ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+        channel.subscribe(messages::add);
+        CommunikeyProperties properties = new CommunikeyProperties();
+        properties.getWebsocket().getUpdates().setCategoryTopics(true);
+        keyCategoryTopicService = new KeyCategoryTopicService(userRepository, keyCategoryGroupAccessRepository,
+            new SimpMessagingTemplate(channel), properties);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        keyCategory = new KeyCategory();
+        keyCategory.setName("category");
+        keyCategory.setCreator(user);
+        keyCategory = keyCategoryRepository.save(keyCategory);
+        keyCategory.setHashid(hashIds.encode(keyCategory.getId()));
+        keyCategory = keyCategoryRepository.save(keyCategory);
+        Long keyCategoryId = keyCategory.getId();
+        transactionTemplate.execute(status -> keyCategoryPathRepository.insertSelfPath(keyCategoryId));
+        UserGroup payload = new UserGroup();
+        payload.setName("group");
+        userGroup = userGroupService.create(payload);
+        keyCategoryService.addUserGroup(keyCategory.getId(), userGroup.getId());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCategoryTopicsAreRefusedInRelayBrokerMode() {
+        CommunikeyProperties properties = new CommunikeyProperties();
+        properties.getWebsocket().getUpdates().setCategoryTopics(true);
+        properties.getWebsocket().getBroker().setMode(CommunikeyProperties.Websocket.BrokerMode.RELAY);
+        new KeyCategoryTopicService(userRepository, keyCategoryGroupAccessRepository, new SimpMessagingTemplate(new ExecutorSubscribableChannel()),
+            properties);
+    }
+
+    @Test
+    public void testGetCategoryHashid() {
+        assertThat(KeyCategoryTopicService.getCategoryHashid("/topic/categories/abc"), equalTo("abc"));
+        assertThat(KeyCategoryTopicService.getCategoryHashid("/topic/categories/abc/delete"), equalTo("abc"));
+        assertThat(KeyCategoryTopicService.getCategoryHashid("/topic/categories/abc/other"), nullValue());
+        assertThat(KeyCategoryTopicService.getCategoryHashid("/topic/categories/"), nullValue());
+        assertThat(KeyCategoryTopicService.getCategoryHashid("/queue/updates/keys"), nullValue());
+    }
+
+    @Test
+    public void testSubscriptionIsAllowedForGroupMembersOnly() {
+        String destination = KeyCategoryTopicService.getDestination(keyCategory);
+        assertThat(isSubscriptionAllowed(destination), is(false));
+        userGroupService.addUser(userGroup.getId(), userLogin);
+        assertThat(isSubscriptionAllowed(destination), is(true));
+        assertThat(isSubscriptionAllowed(KeyCategoryTopicService.getRemovalDestination(keyCategory)), is(true));
+        assertThat(isSubscriptionAllowed("/topic/categories/unknown"), is(false));
+    }
+
+    @Test
+    public void testSubscriptionIsDeniedIfDisabled() {
+        userGroupService.addUser(userGroup.getId(), userLogin);
+        keyCategoryTopicService = new KeyCategoryTopicService(userRepository, keyCategoryGroupAccessRepository,
+            new SimpMessagingTemplate(new ExecutorSubscribableChannel()), new CommunikeyProperties());
+        assertThat(isSubscriptionAllowed(KeyCategoryTopicService.getDestination(keyCategory)), is(false));
+    }
+
+    @Test
+    public void testSubscriptionIsRevokedWhenUserLeavesGroup() throws Exception {
+        userGroupService.addUser(userGroup.getId(), userLogin);
+        String destination = KeyCategoryTopicService.getDestination(keyCategory);
+        keyCategoryTopicService.onSubscribe(new SessionSubscribeEvent(this, createSubscription(destination), getPrincipal()));
+
+        revokeUnauthorizedSubscriptions();
+        assertThat(messages.poll(100, TimeUnit.MILLISECONDS), nullValue());
+
+        userGroupService.removeUser(userGroup.getId(), userLogin);
+        revokeUnauthorizedSubscriptions();
+        Message<?> unsubscribe = messages.poll(2, TimeUnit.SECONDS);
+        assertThat(SimpMessageHeaderAccessor.getMessageType(unsubscribe.getHeaders()), equalTo(SimpMessageType.UNSUBSCRIBE));
+        assertThat(SimpMessageHeaderAccessor.getSessionId(unsubscribe.getHeaders()), equalTo(SESSION_ID));
+        assertThat(SimpMessageHeaderAccessor.getSubscriptionId(unsubscribe.getHeaders()), equalTo(SUBSCRIPTION_ID));
+        Message<?> notification = messages.poll(2, TimeUnit.SECONDS);
+        assertThat(SimpMessageHeaderAccessor.getDestination(notification.getHeaders()),
+            equalTo("/user/" + userLogin + "/queue/updates/subscriptions/revoked"));
+
+        revokeUnauthorizedSubscriptions();
+        assertThat(messages.poll(100, TimeUnit.MILLISECONDS), nullValue());
+    }
+
+    @Test
+    public void testSubscriptionIsRevokedWhenCategoryIsDeleted() throws Exception {
+        keyCategoryTopicService.onSubscribe(new SessionSubscribeEvent(this, createSubscription(KeyCategoryTopicService.getDestination(keyCategory)),
+            getPrincipal()));
+        keyCategoryTopicService.revokeSubscriptions(keyCategory);
+        Message<?> unsubscribe = messages.poll(2, TimeUnit.SECONDS);
+        assertThat(SimpMessageHeaderAccessor.getMessageType(unsubscribe.getHeaders()), equalTo(SimpMessageType.UNSUBSCRIBE));
+    }
+
+    private boolean isSubscriptionAllowed(String destination) {
+        return transactionTemplate.execute(status -> keyCategoryTopicService.isSubscriptionAllowed(createSubscription(destination)));
+    }
+
+    private void revokeUnauthorizedSubscriptions() {
+        transactionTemplate.execute(status -> {
+            keyCategoryTopicService.revokeUnauthorizedSubscriptions(userRepository.findOneByLogin(userLogin));
+            return null;
+        });
+    }
+
+    private Message<byte[]> createSubscription(String destination) {
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        headerAccessor.setDestination(destination);
+        headerAccessor.setSessionId(SESSION_ID);
+        headerAccessor.setSubscriptionId(SUBSCRIPTION_ID);
+        headerAccessor.setUser(getPrincipal());
+        return MessageBuilder.createMessage(new byte[0], headerAccessor.getMessageHeaders());
+    }
+
+    private Principal getPrincipal() {
+        return new UsernamePasswordAuthenticationToken(userLogin, null);
+    }
+}
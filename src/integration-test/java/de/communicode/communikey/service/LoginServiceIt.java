@@ -0,0 +1,141 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.domain.User;
+import de.communicode.communikey.exception.LoginCapacityExceededException;
+import de.communicode.communikey.exception.UserNotActivatedException;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integration tests for the {@link LoginService}.
+ *
+ * @since 0.18.0
+ */
+public class LoginServiceIt extends IntegrationBaseTest {
+
+    private LoginService loginService;
+
+    @After
+    public void tearDown() {
+        if (loginService != null) {
+            loginService.destroy();
+        }
+    }
+
+    @Test
+    public void testAuthenticate() throws Exception {
+        loginService = createLoginService(passwordEncoder, 10, 1, 10);
+
+        Optional<User> authenticatedUser = loginService.authenticate(userLogin, decodedUserPassword).get(10, TimeUnit.SECONDS);
+        assertThat(authenticatedUser.isPresent(), is(true));
+        assertThat(authenticatedUser.get().getAuthorities().size(), is(equalTo(1)));
+        assertThat(loginService.authenticate(userLogin, "wrong").get(10, TimeUnit.SECONDS).isPresent(), is(false));
+        assertThat(loginService.authenticate("unknown", decodedUserPassword).get(10, TimeUnit.SECONDS).isPresent(), is(false));
+    }
+
+    @Test
+    public void testAuthenticateCompletesOffHashingThreads() throws Exception {
+        loginService = createLoginService(passwordEncoder, 10, 1, 10);
+
+        String completingThread = loginService.authenticate(userLogin, decodedUserPassword)
+            .thenApply(authenticatedUser -> Thread.currentThread().getName())
+            .get(10, TimeUnit.SECONDS);
+        assertThat(completingThread, not(startsWith("password-hashing-")));
+    }
+
+    @Test
+    public void testAuthenticateNotActivatedUser() throws Exception {
+        user.setActivated(false);
+        userRepository.save(user);
+        loginService = createLoginService(passwordEncoder, 10, 1, 10);
+
+        try {
+            loginService.authenticate(userLogin, decodedUserPassword).get(10, TimeUnit.SECONDS);
+            fail("Expected a not activated user");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof UserNotActivatedException, is(true));
+        }
+    }
+
+    @Test
+    public void testAuthenticateRehashesPasswordWithOtherStrength() throws Exception {
+        loginService = createLoginService(new BCryptPasswordEncoder(4), 4, 1, 10);
+
+        assertThat(loginService.authenticate(userLogin, decodedUserPassword).get(10, TimeUnit.SECONDS).isPresent(), is(true));
+        String passwordHash = userRepository.findOneByLogin(userLogin).getPassword();
+        assertThat(passwordHash, startsWith("$2a$04$"));
+        assertThat(passwordEncoder.matches(decodedUserPassword, passwordHash), is(true));
+        assertThat(loginService.authenticate(userLogin, decodedUserPassword).get(10, TimeUnit.SECONDS).isPresent(), is(true));
+    }
+
+    @Test
+    public void testAuthenticateRejectsLoginsExceedingCapacity() throws Exception {
+        CountDownLatch hashingStarted = new CountDownLatch(1);
+        CountDownLatch hashingReleased = new CountDownLatch(1);
+        PasswordEncoder blockingPasswordEncoder = new BCryptPasswordEncoder() {
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                hashingStarted.countDown();
+                try {
+                    hashingReleased.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.matches(rawPassword, encodedPassword);
+            }
+        };
+        loginService = createLoginService(blockingPasswordEncoder, 10, 1, 0);
+
+        CompletableFuture<Optional<User>> pendingLogin = loginService.authenticate(userLogin, decodedUserPassword);
+        assertThat(hashingStarted.await(10, TimeUnit.SECONDS), is(true));
+        try {
+            loginService.authenticate(userLogin, decodedUserPassword);
+            fail("Expected the login to be rejected");
+        } catch (LoginCapacityExceededException e) {
+            hashingReleased.countDown();
+        }
+        assertThat(pendingLogin.get(10, TimeUnit.SECONDS).isPresent(), is(true));
+    }
+
+    private LoginService createLoginService(PasswordEncoder passwordEncoder, int strength, int threads, int queueCapacity) {
+        CommunikeyProperties properties = new CommunikeyProperties();
+        properties.getSecurity().getPasswordHashing().setStrength(strength);
+        properties.getSecurity().getPasswordHashing().setThreads(threads);
+        properties.getSecurity().getPasswordHashing().setQueueCapacity(queueCapacity);
+        return new LoginService(userRepository, passwordEncoder, properties);
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.communicode.communikey.IntegrationBaseTest;
+import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.controller.RequestMappings;
+import de.communicode.communikey.domain.Tag;
+import de.communicode.communikey.repository.UpdateEventRepository;
+import de.communicode.communikey.service.payload.UpdateEventsPayload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integration tests for the {@link UpdateCoalescingService}.
+ *
+ * @since 0.18.0
+ */
+public class UpdateCoalescingServiceIt extends IntegrationBaseTest {
+
+    private static final String UPDATES = "/topic/updates/tags";
+    private static final String REMOVALS = "/topic/updates/tags/delete";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BlockingQueue<Message<?>> messages = new LinkedBlockingQueue<>();
+    private final CommunikeyProperties properties = new CommunikeyProperties();
+    @Autowired
+    private UpdateEventService updateEventService;
+    @Autowired
+    private UpdateEventRepository updateEventRepository;
+    @Autowired
+    private KeyCategoryTopicService keyCategoryTopicService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    private EntityUpdateService entityUpdateService;
+    private UpdateCoalescingService updateCoalescingService;
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Before
+    public void setUp() {
+        ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+        channel.subscribe(messages::add);
+        messagingTemplate = new SimpMessagingTemplate(channel);
+        messagingTemplate.setMessageConverter(new MappingJackson2MessageConverter());
+        entityUpdateService = new EntityUpdateService(messagingTemplate);
+    }
+
+    @After
+    public void tearDown() {
+        updateCoalescingService.destroy();
+    }
+
+    @Test
+    public void testUpdatesOfSameEntityAreMergedIntoOneFrame() throws Exception {
+        initializeService(Duration.ofMillis(50), Duration.ofSeconds(5), 200);
+        Tag first = createTag("a1", "first");
+        Tag second = createTag("b2", "second");
+        sendUpdate(first);
+        sendUpdate(second);
+        first.setName("renamed");
+        sendUpdate(first);
+        first.setColor("#000000");
+        sendUpdate(first);
+
+        JsonNode frame = receiveFrame(UPDATES);
+        assertThat(frame.size(), is(2));
+        assertThat(frame.get(0).get("id").asText(), equalTo("a1"));
+        assertThat(frame.get(0).get("fields").get("name").asText(), equalTo("renamed"));
+        assertThat(frame.get(0).get("fields").get("color").asText(), equalTo("#000000"));
+        assertThat(frame.get(1).get("id").asText(), equalTo("b2"));
+        assertThat(messages.poll(100, TimeUnit.MILLISECONDS), equalTo(null));
+    }
+
+    @Test
+    public void testFrameIsSentWhenBatchIsFull() throws Exception {
+        initializeService(Duration.ofSeconds(5), Duration.ofSeconds(5), 2);
+        sendUpdate(createTag("a1", "first"));
+        sendUpdate(createTag("b2", "second"));
+        assertThat(receiveFrame(UPDATES).size(), is(2));
+    }
+
+    @Test
+    public void testFramesAreLoggedWithIncreasingSequence() throws Exception {
+        initializeService(Duration.ZERO, Duration.ZERO, 200);
+        // Moves the events of previous tests out of the resume rescan window of the relayed broker
+        jdbcTemplate.update("update update_events set created_date = ?", Timestamp.from(Instant.now().minus(Duration.ofHours(1))));
+        sendUpdate(createTag("a1", "first"));
+        sendUpdate(createTag("b2", "second"));
+        long first = getSequence(messages.poll(2, TimeUnit.SECONDS));
+        long second = getSequence(messages.poll(2, TimeUnit.SECONDS));
+        assertThat(second, equalTo(first + 1));
+
+        UpdateEventsPayload missed = updateEventService.getSince(first, userLogin, false);
+        assertThat(missed.isResync(), is(false));
+        assertThat(missed.getSequence(), equalTo(second));
+        // The resumed event is replayed again since it has been created within the rescan window
+        assertThat(missed.getEvents(), hasSize(2));
+        assertThat(missed.getEvents().get(1).getDestination(), equalTo(UPDATES));
+        assertThat(objectMapper.readTree(missed.getEvents().get(1).getUpdates()).get(0).get("id").asText(), equalTo("b2"));
+    }
+
+    @Test
+    public void testFrameIsReplacedByResyncRequestIfNotLogged() throws Exception {
+        UpdateEventService failingUpdateEventService = new UpdateEventService(updateEventRepository, keyCategoryTopicService,
+            new FailingTransactionManager(), properties);
+        try {
+            updateCoalescingService = new UpdateCoalescingService(messagingTemplate, failingUpdateEventService, properties);
+            sendUpdate(createTag("a1", "first"));
+            updateCoalescingService.flushAll();
+
+            Message<?> message = messages.poll(2, TimeUnit.SECONDS);
+            assertThat(SimpMessageHeaderAccessor.getDestination(message.getHeaders()), equalTo(RequestMappings.TOPIC_UPDATES_RESYNC));
+            assertThat(objectMapper.readTree((byte[]) message.getPayload()).get("destination").asText(), equalTo(UPDATES));
+            assertThat(messages.poll(100, TimeUnit.MILLISECONDS), equalTo(null));
+        } finally {
+            failingUpdateEventService.destroy();
+        }
+    }
+
+    @Test
+    public void testFrameIsSentAfterMaxLatency() throws Exception {
+        initializeService(Duration.ofMillis(100), Duration.ofMillis(200), 200);
+        Tag tag = createTag("a1", "first");
+        for (int i = 0; i < 10; i++) {
+            tag.setName("name" + i);
+            sendUpdate(tag);
+            Thread.sleep(50);
+        }
+        assertThat(messages.size() >= 2, is(true));
+        assertThat(receiveFrame(UPDATES).size(), is(1));
+    }
+
+    @Test
+    public void testRemovalDiscardsPendingUpdate() throws Exception {
+        initializeService(Duration.ofMillis(50), Duration.ofSeconds(5), 200);
+        Tag tag = createTag("a1", "first");
+        sendUpdate(tag);
+        updateCoalescingService.send(REMOVALS, tag, tag);
+        JsonNode frame = receiveFrame(REMOVALS);
+        assertThat(frame.size(), is(1));
+        assertThat(frame.get(0).get("name").asText(), equalTo("first"));
+        assertThat(messages.poll(100, TimeUnit.MILLISECONDS), equalTo(null));
+    }
+
+    @Test
+    public void testDisabledCoalescingSendsImmediately() throws Exception {
+        initializeService(Duration.ZERO, Duration.ZERO, 200);
+        sendUpdate(createTag("a1", "first"));
+        assertThat(receiveFrame(UPDATES).size(), is(1));
+        assertThat(messages.poll(100, TimeUnit.MILLISECONDS), equalTo(null));
+    }
+
+    @Test
+    public void testUpdatesAreSentAfterCommit() throws Exception {
+        initializeService(Duration.ZERO, Duration.ZERO, 200);
+        new TransactionTemplate(transactionManager).execute(status -> {
+            sendUpdate(createTag("a1", "first"));
+            try {
+                assertThat(messages.poll(100, TimeUnit.MILLISECONDS), equalTo(null));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        });
+        assertThat(receiveFrame(UPDATES).size(), is(1));
+    }
+
+    @Test
+    public void testUpdatesOfRolledBackTransactionAreDiscarded() throws Exception {
+        initializeService(Duration.ZERO, Duration.ZERO, 200);
+        long latestSequence = updateEventService.getLatest().getSequence();
+        new TransactionTemplate(transactionManager).execute(status -> {
+            sendUpdate(createTag("a1", "first"));
+            status.setRollbackOnly();
+            return null;
+        });
+        updateCoalescingService.flushAll();
+        assertThat(messages.poll(100, TimeUnit.MILLISECONDS), equalTo(null));
+        assertThat(updateEventService.getLatest().getSequence(), equalTo(latestSequence));
+    }
+
+    @Test
+    public void testFrameForMultipleUsersIsConvertedOnce() throws Exception {
+        initializeService(Duration.ofMillis(50), Duration.ofSeconds(5), 200);
+        Tag tag = createTag("a1", "first");
+        entityUpdateService.createUpdate(tag)
+            .ifPresent(update -> updateCoalescingService.sendToUsers(Arrays.asList("bob", "alice"), UPDATES, tag, update));
+        Message<?> first = messages.poll(2, TimeUnit.SECONDS);
+        Message<?> second = messages.poll(2, TimeUnit.SECONDS);
+        assertThat(SimpMessageHeaderAccessor.getDestination(first.getHeaders()), equalTo("/user/alice" + UPDATES));
+        assertThat(SimpMessageHeaderAccessor.getDestination(second.getHeaders()), equalTo("/user/bob" + UPDATES));
+        assertThat(first.getPayload(), sameInstance(second.getPayload()));
+        assertThat(objectMapper.readTree((byte[]) first.getPayload()).get(0).get("id").asText(), equalTo("a1"));
+    }
+
+    @Test
+    public void testUpdatesOfUserAreSentInOrderAcrossSetsOfUsers() throws Exception {
+        initializeService(Duration.ofMillis(50), Duration.ofSeconds(5), 200);
+        Tag tag = createTag("a1", "first");
+        Tag other = createTag("b2", "second");
+        sendUpdateToUsers(tag, "alice", "bob");
+        updateCoalescingService.sendToUser("alice", REMOVALS, tag, tag);
+        // Keeps the coalescing window of the pending updates for both users open
+        sendUpdateToUsers(other, "alice", "bob");
+
+        assertThat(receiveDestination(), equalTo("/user/alice" + UPDATES));
+        assertThat(receiveDestination(), equalTo("/user/bob" + UPDATES));
+        assertThat(receiveDestination(), equalTo("/user/alice" + REMOVALS));
+        assertThat(receiveDestination(), equalTo("/user/alice" + UPDATES));
+        assertThat(receiveDestination(), equalTo("/user/bob" + UPDATES));
+    }
+
+    private void initializeService(Duration coalescingWindow, Duration maxLatency, int maxBatchSize) {
+        CommunikeyProperties.Websocket.Updates updates = properties.getWebsocket().getUpdates();
+        updates.setCoalescingWindow(coalescingWindow);
+        updates.setMaxLatency(maxLatency);
+        updates.setMaxBatchSize(maxBatchSize);
+        updateCoalescingService = new UpdateCoalescingService(messagingTemplate, updateEventService, properties);
+    }
+
+    private static long getSequence(Message<?> message) {
+        return Long.parseLong(StompHeaderAccessor.wrap(message).getFirstNativeHeader(UpdateCoalescingService.SEQUENCE_HEADER));
+    }
+
+    private void sendUpdate(Tag tag) {
+        entityUpdateService.createUpdate(tag).ifPresent(update -> updateCoalescingService.send(UPDATES, tag, update));
+    }
+
+    private void sendUpdateToUsers(Tag tag, String... users) {
+        entityUpdateService.createUpdate(tag).ifPresent(update -> updateCoalescingService.sendToUsers(Arrays.asList(users), UPDATES, tag, update));
+    }
+
+    private String receiveDestination() throws InterruptedException {
+        return SimpMessageHeaderAccessor.getDestination(messages.poll(2, TimeUnit.SECONDS).getHeaders());
+    }
+
+    private JsonNode receiveFrame(String destination) throws InterruptedException, IOException {
+        Message<?> message = messages.poll(2, TimeUnit.SECONDS);
+        assertThat(SimpMessageHeaderAccessor.getDestination(message.getHeaders()), equalTo(destination));
+        return objectMapper.readTree((byte[]) message.getPayload());
+    }
+
+    private static Tag createTag(String hashid, String name) {
+        Tag tag = new Tag();
+        tag.setHashid(hashid);
+        tag.setName(name);
+        tag.setColor("#ffffff");
+        return tag;
+    }
+
+    /**
+     * A transaction manager which fails to begin any transaction.
+     */
+    private static final class FailingTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            throw new CannotCreateTransactionException("Connection refused");
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            throw new IllegalStateException("No transaction has been started");
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            throw new IllegalStateException("No transaction has been started");
+        }
+    }
+}
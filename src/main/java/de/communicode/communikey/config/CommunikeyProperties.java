@@ -24,10 +24,16 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * communikey (default) configuration properties.
  *
@@ -41,12 +47,181 @@ import javax.validation.constraints.Pattern;
 @Validated
 public class CommunikeyProperties {
 
+    private final Datasource datasource = new Datasource();
     private final Security security = new Security();
+    private final Transaction transaction = new Transaction();
+    private final Websocket websocket = new Websocket();
+
+    public Datasource getDatasource() {
+        return this.datasource;
+    }
 
     public Security getSecurity() {
         return this.security;
     }
 
+    public Transaction getTransaction() {
+        return this.transaction;
+    }
+
+    public Websocket getWebsocket() {
+        return this.websocket;
+    }
+
+    /**
+     * Provides communikey specific datasource properties.
+     *
+     * @since 0.18.0
+     */
+    public static class Datasource {
+
+        private final Replica replica = new Replica();
+
+        public Replica getReplica() {
+            return this.replica;
+        }
+
+        /**
+         * Provides the properties of the read replicas used for read-only transactions.
+         */
+        public static class Replica {
+
+            /**
+             * Indicates whether read-only transactions should be routed to the read replicas.
+             */
+            private boolean enabled = false;
+
+            /**
+             * The maximum replication lag of a replica before read-only transactions fall back to the primary.
+             */
+            @NotNull
+            private Duration maxLag = Duration.ofSeconds(5);
+
+            /**
+             * The interval to check the availability and replication lag of all replicas.
+             */
+            @NotNull
+            private Duration checkInterval = Duration.ofSeconds(5);
+
+            /**
+             * The query to determine the replication lag of a replica, only the availability is checked if blank.
+             */
+            private String lagQuery = "SHOW SLAVE STATUS";
+
+            /**
+             * The column of the lag query result which contains the replication lag in seconds.
+             */
+            private String lagColumn = "Seconds_Behind_Master";
+
+            private List<Instance> instances = new ArrayList<>();
+
+            public boolean isEnabled() {
+                return this.enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public Duration getMaxLag() {
+                return this.maxLag;
+            }
+
+            public void setMaxLag(Duration maxLag) {
+                this.maxLag = maxLag;
+            }
+
+            public Duration getCheckInterval() {
+                return this.checkInterval;
+            }
+
+            public void setCheckInterval(Duration checkInterval) {
+                this.checkInterval = checkInterval;
+            }
+
+            public String getLagQuery() {
+                return this.lagQuery;
+            }
+
+            public void setLagQuery(String lagQuery) {
+                this.lagQuery = lagQuery;
+            }
+
+            public String getLagColumn() {
+                return this.lagColumn;
+            }
+
+            public void setLagColumn(String lagColumn) {
+                this.lagColumn = lagColumn;
+            }
+
+            public List<Instance> getInstances() {
+                return this.instances;
+            }
+
+            public void setInstances(List<Instance> instances) {
+                this.instances = instances;
+            }
+
+            /**
+             * Provides the connection properties of a single read replica.
+             */
+            public static class Instance {
+
+                @NotBlank
+                private String url;
+
+                private String username;
+
+                private String password;
+
+                public String getUrl() {
+                    return this.url;
+                }
+
+                public void setUrl(String url) {
+                    this.url = url;
+                }
+
+                public String getUsername() {
+                    return this.username;
+                }
+
+                public void setUsername(String username) {
+                    this.username = username;
+                }
+
+                public String getPassword() {
+                    return this.password;
+                }
+
+                public void setPassword(String password) {
+                    this.password = password;
+                }
+
+                @Override
+                public String toString() {
+                    return "Instance{" + "url='" + this.url + '\'' + ", username='" + this.username + '\'' + '}';
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "Replica{" +
+                    "enabled=" + this.enabled +
+                    ", maxLag=" + this.maxLag +
+                    ", checkInterval=" + this.checkInterval +
+                    ", instances=" + this.instances +
+                    '}';
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Datasource{" + "replica=" + this.replica + '}';
+        }
+    }
+
     /**
      * Provides communikey specific security properties.
      */
@@ -54,11 +229,16 @@ public class CommunikeyProperties {
 
         private final OAuth2 oAuth2 = new OAuth2();
         private final Root root = new Root();
+        private final PasswordHashing passwordHashing = new PasswordHashing();
 
         public OAuth2 getoAuth2() {
             return this.oAuth2;
         }
 
+        public PasswordHashing getPasswordHashing() {
+            return this.passwordHashing;
+        }
+
         public Root getRoot() {
             return this.root;
         }
@@ -79,6 +259,51 @@ public class CommunikeyProperties {
             @NotNull
             private String secret = "secret";
 
+            /**
+             * The maximum amount of access tokens cached in front of the token store.
+             */
+            @Min(0)
+            private long tokenCacheSize = 10000;
+
+            /**
+             * The maximum time an access token is cached before it is read from the token store again.
+             *
+             * <p>This bounds the time a token revoked by another instance is still accepted by this instance.
+             */
+            @NotNull
+            private Duration tokenCacheTtl = Duration.ofMinutes(1);
+
+            /**
+             * The interval to delete expired access tokens from the token store.
+             */
+            @NotNull
+            private Duration tokenSweepInterval = Duration.ofMinutes(10);
+
+            /**
+             * The maximum amount of expired access tokens deleted in one statement.
+             */
+            @Min(1)
+            private int tokenSweepBatchSize = 1000;
+
+            /**
+             * The mode to issue and validate access tokens with.
+             */
+            @NotNull
+            private TokenMode tokenMode = TokenMode.JDBC;
+
+            /**
+             * The key to sign access tokens with in the {@link TokenMode#SIGNED} mode, all instances must share the same key.
+             *
+             * <p>Required in the {@link TokenMode#SIGNED} mode and must be at least 32 bytes long, the application fails to start otherwise.
+             */
+            private String signingKey;
+
+            /**
+             * The interval to reload the token revocations of other instances in the {@link TokenMode#SIGNED} mode.
+             */
+            @NotNull
+            private Duration revocationRefreshInterval = Duration.ofSeconds(10);
+
             public int getAccessTokenValidity() {
                 return this.accessTokenValidity;
             }
@@ -95,9 +320,135 @@ public class CommunikeyProperties {
                 this.secret = secret;
             }
 
+            public long getTokenCacheSize() {
+                return this.tokenCacheSize;
+            }
+
+            public void setTokenCacheSize(long tokenCacheSize) {
+                this.tokenCacheSize = tokenCacheSize;
+            }
+
+            public Duration getTokenCacheTtl() {
+                return this.tokenCacheTtl;
+            }
+
+            public void setTokenCacheTtl(Duration tokenCacheTtl) {
+                this.tokenCacheTtl = tokenCacheTtl;
+            }
+
+            public Duration getTokenSweepInterval() {
+                return this.tokenSweepInterval;
+            }
+
+            public void setTokenSweepInterval(Duration tokenSweepInterval) {
+                this.tokenSweepInterval = tokenSweepInterval;
+            }
+
+            public int getTokenSweepBatchSize() {
+                return this.tokenSweepBatchSize;
+            }
+
+            public void setTokenSweepBatchSize(int tokenSweepBatchSize) {
+                this.tokenSweepBatchSize = tokenSweepBatchSize;
+            }
+
+            public TokenMode getTokenMode() {
+                return this.tokenMode;
+            }
+
+            public void setTokenMode(TokenMode tokenMode) {
+                this.tokenMode = tokenMode;
+            }
+
+            public String getSigningKey() {
+                return this.signingKey;
+            }
+
+            public void setSigningKey(String signingKey) {
+                this.signingKey = signingKey;
+            }
+
+            public Duration getRevocationRefreshInterval() {
+                return this.revocationRefreshInterval;
+            }
+
+            public void setRevocationRefreshInterval(Duration revocationRefreshInterval) {
+                this.revocationRefreshInterval = revocationRefreshInterval;
+            }
+
+            @Override
+            public String toString() {
+                return "OAuth2{" + "accessTokenValidity=" + this.accessTokenValidity + ", tokenCacheSize=" + this.tokenCacheSize + ", tokenCacheTtl="
+                       + this.tokenCacheTtl + ", tokenSweepInterval=" + this.tokenSweepInterval + ", tokenSweepBatchSize=" + this.tokenSweepBatchSize
+                       + ", tokenMode=" + this.tokenMode + ", revocationRefreshInterval=" + this.revocationRefreshInterval + '}';
+            }
+
+            /**
+             * The available access token modes.
+             */
+            public enum TokenMode {
+                /**
+                 * Stores the access tokens in the database and reads them for authenticated requests which miss the token cache.
+                 */
+                JDBC,
+                /**
+                 * Issues signed access tokens which contain the login and authorities of the user and are validated without I/O.
+                 */
+                SIGNED
+            }
+        }
+
+        /**
+         * Provides the properties to hash and verify user passwords.
+         */
+        public static class PasswordHashing {
+
+            /**
+             * The BCrypt cost factor, passwords hashed with another cost factor are rehashed on the next login.
+             */
+            @Min(4)
+            @Max(31)
+            private int strength = 10;
+
+            /**
+             * The amount of threads which verify the passwords of logins.
+             */
+            @Min(1)
+            private int threads = Runtime.getRuntime().availableProcessors();
+
+            /**
+             * The maximum amount of logins waiting for a hashing thread before further logins are rejected.
+             */
+            @Min(0)
+            private int queueCapacity = 100;
+
+            public int getStrength() {
+                return this.strength;
+            }
+
+            public void setStrength(int strength) {
+                this.strength = strength;
+            }
+
+            public int getThreads() {
+                return this.threads;
+            }
+
+            public void setThreads(int threads) {
+                this.threads = threads;
+            }
+
+            public int getQueueCapacity() {
+                return this.queueCapacity;
+            }
+
+            public void setQueueCapacity(int queueCapacity) {
+                this.queueCapacity = queueCapacity;
+            }
+
             @Override
             public String toString() {
-                return "OAuth2{" + "accessTokenValidity=" + this.accessTokenValidity + '}';
+                return "PasswordHashing{" + "strength=" + this.strength + ", threads=" + this.threads + ", queueCapacity=" + this.queueCapacity + '}';
             }
         }
 
@@ -188,11 +539,560 @@ public class CommunikeyProperties {
             return "Security{" +
                 "oAuth2=" + this.oAuth2 +
                 ", root=" + this.root +
+                ", passwordHashing=" + this.passwordHashing +
                 '}';
         }
     }
 
+    /**
+     * Provides communikey specific transaction properties.
+     *
+     * @since 0.18.0
+     */
+    public static class Transaction {
+
+        private final Retry retry = new Retry();
+
+        public Retry getRetry() {
+            return this.retry;
+        }
+
+        /**
+         * Provides the properties to retry transactions that failed due to a concurrent modification.
+         */
+        public static class Retry {
+
+            /**
+             * The maximum number of attempts to execute a transaction including the first one.
+             */
+            @Min(1)
+            private int maxAttempts = 3;
+
+            /**
+             * The base delay between two attempts which is multiplied by the number of failed attempts and randomized.
+             */
+            @NotNull
+            private Duration backoff = Duration.ofMillis(50);
+
+            public int getMaxAttempts() {
+                return this.maxAttempts;
+            }
+
+            public void setMaxAttempts(int maxAttempts) {
+                this.maxAttempts = maxAttempts;
+            }
+
+            public Duration getBackoff() {
+                return this.backoff;
+            }
+
+            public void setBackoff(Duration backoff) {
+                this.backoff = backoff;
+            }
+
+            @Override
+            public String toString() {
+                return "Retry{" + "maxAttempts=" + this.maxAttempts + ", backoff=" + this.backoff + '}';
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Transaction{" + "retry=" + this.retry + '}';
+        }
+    }
+
+    /**
+     * Provides communikey specific websocket properties.
+     *
+     * @since 0.18.0
+     */
+    public static class Websocket {
+
+        private final Broker broker = new Broker();
+        private final Updates updates = new Updates();
+        private final Transport transport = new Transport();
+
+        public Broker getBroker() {
+            return this.broker;
+        }
+
+        public Updates getUpdates() {
+            return this.updates;
+        }
+
+        public Transport getTransport() {
+            return this.transport;
+        }
+
+        /**
+         * Provides the properties of the STOMP message broker.
+         */
+        public static class Broker {
+
+            /**
+             * The message broker mode.
+             */
+            @NotNull
+            private BrokerMode mode = BrokerMode.SIMPLE;
+
+            /**
+             * The host of the external STOMP broker, the embedded broker always binds to the local host.
+             */
+            @NotBlank
+            private String relayHost = "localhost";
+
+            /**
+             * The STOMP port of the external or embedded broker.
+             */
+            @Min(1)
+            private int relayPort = 61613;
+
+            /**
+             * The login used for the broker connections of the websocket clients.
+             */
+            private String clientLogin = "guest";
+
+            /**
+             * The passcode used for the broker connections of the websocket clients.
+             */
+            private String clientPasscode = "guest";
+
+            /**
+             * The login used for the shared system connection to send messages from the server.
+             */
+            private String systemLogin = "guest";
+
+            /**
+             * The passcode used for the shared system connection to send messages from the server.
+             */
+            private String systemPasscode = "guest";
+
+            /**
+             * The virtual host of the external broker, if required.
+             */
+            private String virtualHost;
+
+            public BrokerMode getMode() {
+                return this.mode;
+            }
+
+            public void setMode(BrokerMode mode) {
+                this.mode = mode;
+            }
+
+            public String getRelayHost() {
+                return this.relayHost;
+            }
+
+            public void setRelayHost(String relayHost) {
+                this.relayHost = relayHost;
+            }
+
+            public int getRelayPort() {
+                return this.relayPort;
+            }
+
+            public void setRelayPort(int relayPort) {
+                this.relayPort = relayPort;
+            }
+
+            public String getClientLogin() {
+                return this.clientLogin;
+            }
+
+            public void setClientLogin(String clientLogin) {
+                this.clientLogin = clientLogin;
+            }
+
+            public String getClientPasscode() {
+                return this.clientPasscode;
+            }
+
+            public void setClientPasscode(String clientPasscode) {
+                this.clientPasscode = clientPasscode;
+            }
+
+            public String getSystemLogin() {
+                return this.systemLogin;
+            }
+
+            public void setSystemLogin(String systemLogin) {
+                this.systemLogin = systemLogin;
+            }
+
+            public String getSystemPasscode() {
+                return this.systemPasscode;
+            }
+
+            public void setSystemPasscode(String systemPasscode) {
+                this.systemPasscode = systemPasscode;
+            }
+
+            public String getVirtualHost() {
+                return this.virtualHost;
+            }
+
+            public void setVirtualHost(String virtualHost) {
+                this.virtualHost = virtualHost;
+            }
+
+            @Override
+            public String toString() {
+                return "Broker{" +
+                    "mode=" + this.mode +
+                    ", relayHost='" + this.relayHost + '\'' +
+                    ", relayPort=" + this.relayPort +
+                    ", virtualHost='" + this.virtualHost + '\'' +
+                    '}';
+            }
+        }
+
+        /**
+         * The available STOMP message broker modes.
+         */
+        public enum BrokerMode {
+            /**
+             * An in-memory broker which only supports a single communikey instance.
+             */
+            SIMPLE,
+            /**
+             * Relays all messages to an external STOMP broker shared by multiple communikey instances.
+             *
+             * <p>The instance-local Hibernate second-level and query cache is disabled in this mode.
+             */
+            RELAY,
+            /**
+             * Relays all messages to an embedded STOMP broker which stands in for an external broker for local runs and tests.
+             */
+            EMBEDDED
+        }
+
+        /**
+         * Provides the properties to coalesce live update messages into batch frames.
+         */
+        public static class Updates {
+
+            /**
+             * The period without further updates after which the pending updates of a destination are sent, zero sends
+             * every update immediately.
+             */
+            @NotNull
+            private Duration coalescingWindow = Duration.ofMillis(50);
+
+            /**
+             * The maximum time the first pending update of a destination is delayed by further updates.
+             */
+            @NotNull
+            private Duration maxLatency = Duration.ofMillis(250);
+
+            /**
+             * The maximum number of updates in one batch frame.
+             */
+            @Min(1)
+            private int maxBatchSize = 200;
+
+            /**
+             * The number of recent update events kept in memory to resume clients without querying the database.
+             */
+            @Min(1)
+            private int eventLogSize = 10_000;
+
+            /**
+             * The maximum number of update events persisted in one transaction, frames are sent once their events have been persisted.
+             */
+            @Min(1)
+            private int eventAppendBatchSize = 100;
+
+            /**
+             * The time update events are retained to resume clients, older events require a full resynchronization.
+             */
+            @NotNull
+            private Duration eventRetention = Duration.ofDays(1);
+
+            /**
+             * The maximum number of update events replayed to a resuming client, larger gaps require a full resynchronization.
+             */
+            @Min(1)
+            private int maxResumeEvents = 1_000;
+
+            /**
+             * The time before the event of a resumed sequence in which events are replayed again with a relayed broker, events of other
+             * instances may become visible after events with a higher sequence. Must exceed the clock difference between the instances
+             * plus the duration of an append transaction.
+             */
+            @NotNull
+            private Duration resumeRescanWindow = Duration.ofSeconds(10);
+
+            /**
+             * Whether key updates are published to one topic per key category instead of the private queue of each accessor.
+             *
+             * <p>Not supported in the {@link BrokerMode#RELAY} mode.
+             */
+            private boolean categoryTopics = false;
+
+            public Duration getCoalescingWindow() {
+                return this.coalescingWindow;
+            }
+
+            public void setCoalescingWindow(Duration coalescingWindow) {
+                this.coalescingWindow = coalescingWindow;
+            }
+
+            public Duration getMaxLatency() {
+                return this.maxLatency;
+            }
+
+            public void setMaxLatency(Duration maxLatency) {
+                this.maxLatency = maxLatency;
+            }
+
+            public int getMaxBatchSize() {
+                return this.maxBatchSize;
+            }
+
+            public void setMaxBatchSize(int maxBatchSize) {
+                this.maxBatchSize = maxBatchSize;
+            }
+
+            public int getEventLogSize() {
+                return this.eventLogSize;
+            }
+
+            public void setEventLogSize(int eventLogSize) {
+                this.eventLogSize = eventLogSize;
+            }
+
+            public int getEventAppendBatchSize() {
+                return this.eventAppendBatchSize;
+            }
+
+            public void setEventAppendBatchSize(int eventAppendBatchSize) {
+                this.eventAppendBatchSize = eventAppendBatchSize;
+            }
+
+            public Duration getEventRetention() {
+                return this.eventRetention;
+            }
+
+            public void setEventRetention(Duration eventRetention) {
+                this.eventRetention = eventRetention;
+            }
+
+            public int getMaxResumeEvents() {
+                return this.maxResumeEvents;
+            }
+
+            public void setMaxResumeEvents(int maxResumeEvents) {
+                this.maxResumeEvents = maxResumeEvents;
+            }
+
+            public Duration getResumeRescanWindow() {
+                return this.resumeRescanWindow;
+            }
+
+            public void setResumeRescanWindow(Duration resumeRescanWindow) {
+                this.resumeRescanWindow = resumeRescanWindow;
+            }
+
+            public boolean isCategoryTopics() {
+                return this.categoryTopics;
+            }
+
+            public void setCategoryTopics(boolean categoryTopics) {
+                this.categoryTopics = categoryTopics;
+            }
+
+            @Override
+            public String toString() {
+                return "Updates{" +
+                    "coalescingWindow=" + this.coalescingWindow +
+                    ", maxLatency=" + this.maxLatency +
+                    ", maxBatchSize=" + this.maxBatchSize +
+                    ", eventLogSize=" + this.eventLogSize +
+                    ", eventAppendBatchSize=" + this.eventAppendBatchSize +
+                    ", eventRetention=" + this.eventRetention +
+                    ", maxResumeEvents=" + this.maxResumeEvents +
+                    ", resumeRescanWindow=" + this.resumeRescanWindow +
+                    ", categoryTopics=" + this.categoryTopics +
+                    '}';
+            }
+        }
+
+        /**
+         * Provides the properties of the client message channels and the websocket sessions.
+         */
+        public static class Transport {
+
+            private final Channel inbound = new Channel(8, 16, 1_000);
+            private final Channel outbound = new Channel(8, 16, 10_000);
+
+            /**
+             * The maximum time a single send to a client may take before the session is considered as slow consumer.
+             */
+            @NotNull
+            private Duration sendTimeLimit = Duration.ofSeconds(10);
+
+            /**
+             * The maximum amount of bytes buffered for a client while a send is in progress.
+             */
+            @Min(1)
+            private int sendBufferSizeLimit = 512 * 1024;
+
+            /**
+             * The maximum size of an incoming message in bytes.
+             */
+            @Min(1)
+            private int messageSizeLimit = 64 * 1024;
+
+            /**
+             * The policy for sessions that exceed the send buffer size limit.
+             */
+            @NotNull
+            private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.RESYNC;
+
+            public Channel getInbound() {
+                return this.inbound;
+            }
+
+            public Channel getOutbound() {
+                return this.outbound;
+            }
+
+            public Duration getSendTimeLimit() {
+                return this.sendTimeLimit;
+            }
+
+            public void setSendTimeLimit(Duration sendTimeLimit) {
+                this.sendTimeLimit = sendTimeLimit;
+            }
+
+            public int getSendBufferSizeLimit() {
+                return this.sendBufferSizeLimit;
+            }
+
+            public void setSendBufferSizeLimit(int sendBufferSizeLimit) {
+                this.sendBufferSizeLimit = sendBufferSizeLimit;
+            }
+
+            public int getMessageSizeLimit() {
+                return this.messageSizeLimit;
+            }
+
+            public void setMessageSizeLimit(int messageSizeLimit) {
+                this.messageSizeLimit = messageSizeLimit;
+            }
+
+            public SlowConsumerPolicy getSlowConsumerPolicy() {
+                return this.slowConsumerPolicy;
+            }
+
+            public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+                this.slowConsumerPolicy = slowConsumerPolicy;
+            }
+
+            /**
+             * Provides the properties of the thread pool of a client message channel.
+             */
+            public static class Channel {
+
+                /**
+                 * The number of threads to keep in the pool.
+                 */
+                @Min(1)
+                private int corePoolSize;
+
+                /**
+                 * The maximum number of threads, additional threads are only started when the queue is full.
+                 */
+                @Min(1)
+                private int maxPoolSize;
+
+                /**
+                 * The maximum number of queued messages, further messages are rejected when all threads are busy.
+                 */
+                @Min(0)
+                private int queueCapacity;
+
+                Channel(int corePoolSize, int maxPoolSize, int queueCapacity) {
+                    this.corePoolSize = corePoolSize;
+                    this.maxPoolSize = maxPoolSize;
+                    this.queueCapacity = queueCapacity;
+                }
+
+                public int getCorePoolSize() {
+                    return this.corePoolSize;
+                }
+
+                public void setCorePoolSize(int corePoolSize) {
+                    this.corePoolSize = corePoolSize;
+                }
+
+                public int getMaxPoolSize() {
+                    return this.maxPoolSize;
+                }
+
+                public void setMaxPoolSize(int maxPoolSize) {
+                    this.maxPoolSize = maxPoolSize;
+                }
+
+                public int getQueueCapacity() {
+                    return this.queueCapacity;
+                }
+
+                public void setQueueCapacity(int queueCapacity) {
+                    this.queueCapacity = queueCapacity;
+                }
+
+                @Override
+                public String toString() {
+                    return "Channel{" +
+                        "corePoolSize=" + this.corePoolSize +
+                        ", maxPoolSize=" + this.maxPoolSize +
+                        ", queueCapacity=" + this.queueCapacity +
+                        '}';
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "Transport{" +
+                    "inbound=" + this.inbound +
+                    ", outbound=" + this.outbound +
+                    ", sendTimeLimit=" + this.sendTimeLimit +
+                    ", sendBufferSizeLimit=" + this.sendBufferSizeLimit +
+                    ", messageSizeLimit=" + this.messageSizeLimit +
+                    ", slowConsumerPolicy=" + this.slowConsumerPolicy +
+                    '}';
+            }
+        }
+
+        /**
+         * The available policies for websocket sessions which can not keep up with the sent messages.
+         */
+        public enum SlowConsumerPolicy {
+            /**
+             * Closes the session.
+             */
+            DISCONNECT,
+            /**
+             * Drops the buffered update messages and notifies the client to resynchronize once the session caught up.
+             */
+            RESYNC
+        }
+
+        @Override
+        public String toString() {
+            return "Websocket{" + "broker=" + this.broker + ", updates=" + this.updates + ", transport=" + this.transport + '}';
+        }
+    }
+
     @Override public String toString() {
-        return "CommunikeyProperties{" + "security=" + this.security + '}';
+        return "CommunikeyProperties{" +
+            "datasource=" + this.datasource +
+            ", security=" + this.security +
+            ", transaction=" + this.transaction +
+            ", websocket=" + this.websocket +
+            '}';
     }
 }
@@ -0,0 +1,70 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static java.util.Objects.requireNonNull;
+
+import org.apache.activemq.broker.BrokerService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures an embedded STOMP message broker which stands in for an external broker for local runs and tests.
+ *
+ * <p>Only active when {@code communikey.websocket.broker.mode} is set to {@code embedded} and ActiveMQ is on the classpath, which is
+ * only the case for "bootRun" and the tests since the broker is not packaged.
+ *
+ * @since 0.18.0
+ */
+@Configuration
+@ConditionalOnClass(name = "org.apache.activemq.broker.BrokerService")
+@ConditionalOnProperty(name = "communikey.websocket.broker.mode", havingValue = "embedded")
+public class EmbeddedBrokerConfig {
+
+    /**
+     * The host the embedded broker binds to.
+     */
+    public static final String EMBEDDED_BROKER_HOST = "localhost";
+
+    private final CommunikeyProperties communikeyProperties;
+
+    @Autowired
+    public EmbeddedBrokerConfig(CommunikeyProperties communikeyProperties) {
+        this.communikeyProperties = requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+    }
+
+    /**
+     * The embedded non-persistent broker with a STOMP connector.
+     *
+     * @return the embedded broker bean
+     * @throws Exception if the STOMP connector could not be created
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public BrokerService embeddedBroker() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("communikey");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setUseShutdownHook(false);
+        broker.addConnector("stomp://" + EMBEDDED_BROKER_HOST + ":" + communikeyProperties.getWebsocket().getBroker().getRelayPort());
+        return broker;
+    }
+}
@@ -17,11 +17,19 @@
  */
 package de.communicode.communikey.config;
 
+import de.communicode.communikey.config.CommunikeyProperties.Security.OAuth2.TokenMode;
+import de.communicode.communikey.config.util.CachingTokenStore;
+import de.communicode.communikey.config.util.CompactTokenStore;
+import de.communicode.communikey.config.util.RevocableTokenStore;
+import de.communicode.communikey.config.util.SignedTokenStore;
 import de.communicode.communikey.security.AuthoritiesConstants;
+import de.communicode.communikey.service.TokenRevocationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
@@ -34,10 +42,12 @@ import org.springframework.security.oauth2.config.annotation.web.configurers.Aut
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerSecurityConfigurer;
 import org.springframework.security.oauth2.config.annotation.web.configurers.ResourceServerSecurityConfigurer;
 import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.TokenEnhancer;
 import org.springframework.security.oauth2.provider.token.TokenStore;
-import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
+import org.springframework.util.StringUtils;
 
 import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
 
 import static de.communicode.communikey.config.SecurityConfig.APP_ID;
 import static de.communicode.communikey.controller.RequestMappings.USERS;
@@ -55,16 +65,53 @@ import static java.util.Objects.requireNonNull;
 @Configuration
 public class OAuth2Config {
 
+    /**
+     * The minimum length of the access token signing key in bytes, matching the output length of the signature algorithm.
+     */
+    private static final int MIN_SIGNING_KEY_LENGTH = 32;
+
     private final DataSource dataSource;
+    private final CommunikeyProperties communikeyProperties;
 
     @Bean
-    public JdbcTokenStore tokenStore() {
-        return new JdbcTokenStore(dataSource);
+    @ConditionalOnProperty(name = "communikey.security.o-auth2.token-mode", havingValue = "jdbc", matchIfMissing = true)
+    public CompactTokenStore compactTokenStore() {
+        CommunikeyProperties.Security.OAuth2 oAuth2 = communikeyProperties.getSecurity().getoAuth2();
+        return new CompactTokenStore(dataSource, oAuth2.getTokenSweepInterval(), oAuth2.getTokenSweepBatchSize());
+    }
+
+    @Bean
+    @Primary
+    public RevocableTokenStore tokenStore(TokenRevocationService tokenRevocationService) {
+        CommunikeyProperties.Security.OAuth2 oAuth2 = communikeyProperties.getSecurity().getoAuth2();
+        if (oAuth2.getTokenMode() == TokenMode.SIGNED) {
+            return new SignedTokenStore(signingKey(oAuth2), APP_ID, tokenRevocationService);
+        }
+        return new CachingTokenStore(compactTokenStore(), oAuth2.getTokenCacheSize(), oAuth2.getTokenCacheTtl());
+    }
+
+    /**
+     * Gets the configured access token signing key.
+     *
+     * @param oAuth2 the OAuth2 properties
+     * @return the signing key
+     * @throws IllegalStateException if the signing key is missing or shorter than {@value #MIN_SIGNING_KEY_LENGTH} bytes
+     */
+    private static byte[] signingKey(CommunikeyProperties.Security.OAuth2 oAuth2) {
+        if (!StringUtils.hasText(oAuth2.getSigningKey())) {
+            throw new IllegalStateException("The signed access token mode requires the 'communikey.security.o-auth2.signing-key' shared by all instances");
+        }
+        byte[] signingKey = oAuth2.getSigningKey().getBytes(StandardCharsets.UTF_8);
+        if (signingKey.length < MIN_SIGNING_KEY_LENGTH) {
+            throw new IllegalStateException("The access token signing key must be at least " + MIN_SIGNING_KEY_LENGTH + " bytes long");
+        }
+        return signingKey;
     }
 
     @Autowired
-    public OAuth2Config(DataSource dataSource) {
-        this.dataSource =requireNonNull(dataSource, "dataSource must not be null!");
+    public OAuth2Config(DataSource dataSource, CommunikeyProperties communikeyProperties) {
+        this.dataSource = requireNonNull(dataSource, "dataSource must not be null!");
+        this.communikeyProperties = requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
     }
 
     /**
@@ -143,6 +190,9 @@ public class OAuth2Config {
             endpoints
                 .tokenStore(tokenStore)
                 .authenticationManager(authenticationManager);
+            if (tokenStore instanceof TokenEnhancer) {
+                endpoints.tokenEnhancer((TokenEnhancer) tokenStore);
+            }
         }
 
         @Override
@@ -0,0 +1,151 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static java.util.Objects.requireNonNull;
+
+import com.zaxxer.hikari.HikariDataSource;
+import de.communicode.communikey.config.util.ReplicaReadJpaDialect;
+import de.communicode.communikey.config.util.ReplicaRoutingDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.AbstractEntityManagerFactoryBean;
+
+import javax.sql.DataSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configures the routing of read-only transactions to read replicas.
+ *
+ * <p>Only active when {@code communikey.datasource.replica.enabled} is set to {@code true}, otherwise the auto-configured data source is used.
+ *
+ * <p>Entities read within read-only transactions are not put into the second-level cache, see {@link ReplicaReadJpaDialect}.
+ *
+ * @since 0.18.0
+ */
+@Configuration
+@ConditionalOnProperty(name = "communikey.datasource.replica.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig implements DisposableBean {
+
+    private final CommunikeyProperties communikeyProperties;
+    private final Environment environment;
+    private final List<HikariDataSource> pools = new ArrayList<>();
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @Autowired
+    public ReplicaDataSourceConfig(CommunikeyProperties communikeyProperties, Environment environment) {
+        this.communikeyProperties = requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+        this.environment = requireNonNull(environment, "environment must not be null!");
+    }
+
+    /**
+     * The data source used by the application.
+     *
+     * <p>Defers obtaining the physical connection until the first statement so the {@link ReplicaRoutingDataSource} can see the read-only flag of the
+     * transaction.
+     *
+     * <p>The primary and replica connection pools are intentionally not exposed as beans since the data source initialization of Spring Boot expects
+     * a single data source to be created at a time.
+     *
+     * @param dataSourceProperties the data source properties of the primary
+     * @return the lazy connection data source proxy
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(DataSourceProperties dataSourceProperties) {
+        HikariDataSource primaryDataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primaryDataSource));
+        pools.add(primaryDataSource);
+
+        CommunikeyProperties.Datasource.Replica replica = communikeyProperties.getDatasource().getReplica();
+        List<CommunikeyProperties.Datasource.Replica.Instance> instances = replica.getInstances();
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < instances.size(); i++) {
+            String name = "replica-" + (i + 1);
+            HikariDataSource replicaDataSource = createReplicaDataSource(name, instances.get(i), primaryDataSource);
+            pools.add(replicaDataSource);
+            replicas.put(name, replicaDataSource);
+        }
+
+        replicaRoutingDataSource = new ReplicaRoutingDataSource(primaryDataSource, replicas, replica.getMaxLag(), replica.getCheckInterval(),
+            replica.getLagQuery(), replica.getLagColumn());
+        replicaRoutingDataSource.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    /**
+     * Replaces the JPA dialect of the entity manager factory so that entities read within read-only transactions, which are routed to
+     * the replicas, are not put into the second-level cache.
+     *
+     * @return the bean post processor of the entity manager factory
+     */
+    @Bean
+    public static BeanPostProcessor replicaReadJpaDialectPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof AbstractEntityManagerFactoryBean) {
+                    ((AbstractEntityManagerFactoryBean) bean).setJpaDialect(new ReplicaReadJpaDialect());
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Override
+    public void destroy() {
+        if (replicaRoutingDataSource != null) {
+            replicaRoutingDataSource.destroy();
+        }
+        pools.forEach(HikariDataSource::close);
+    }
+
+    /**
+     * Creates a read-only connection pool for a replica based on the settings of the primary connection pool.
+     *
+     * @param name the name of the replica
+     * @param instance the replica instance properties
+     * @param primaryDataSource the primary data source to inherit the pool settings from
+     * @return the replica connection pool
+     */
+    private HikariDataSource createReplicaDataSource(String name, CommunikeyProperties.Datasource.Replica.Instance instance,
+                                                     HikariDataSource primaryDataSource) {
+        HikariDataSource dataSource = new HikariDataSource();
+        primaryDataSource.copyStateTo(dataSource);
+        dataSource.setPoolName(name);
+        dataSource.setJdbcUrl(instance.getUrl());
+        dataSource.setUsername(instance.getUsername() != null ? instance.getUsername() : primaryDataSource.getUsername());
+        dataSource.setPassword(instance.getPassword() != null ? instance.getPassword() : primaryDataSource.getPassword());
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+}
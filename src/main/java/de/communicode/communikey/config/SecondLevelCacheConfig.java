@@ -0,0 +1,68 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.AbstractEntityManagerFactoryBean;
+
+/**
+ * Disables the Hibernate second-level and query cache when multiple communikey instances share the database.
+ *
+ * <p>Only active when {@code communikey.websocket.broker.mode} is set to {@code relay}. The cache regions of {@code ehcache.xml} are local
+ * to each instance and only invalidated by the changes made through the same instance, the other instances would serve the stale key
+ * category hierarchy and user group assignments until the entries expire.
+ *
+ * @since 0.18.0
+ */
+@Configuration
+@ConditionalOnProperty(name = "communikey.websocket.broker.mode", havingValue = "relay")
+public class SecondLevelCacheConfig {
+
+    /**
+     * The Hibernate property to enable the second-level cache.
+     */
+    public static final String USE_SECOND_LEVEL_CACHE = "hibernate.cache.use_second_level_cache";
+
+    /**
+     * The Hibernate property to enable the query cache.
+     */
+    public static final String USE_QUERY_CACHE = "hibernate.cache.use_query_cache";
+
+    /**
+     * Overrides the cache properties of the entity manager factory before it is initialized.
+     *
+     * @return the bean post processor of the entity manager factory
+     */
+    @Bean
+    public static BeanPostProcessor disableSecondLevelCachePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof AbstractEntityManagerFactoryBean) {
+                    AbstractEntityManagerFactoryBean entityManagerFactoryBean = (AbstractEntityManagerFactoryBean) bean;
+                    entityManagerFactoryBean.getJpaPropertyMap().put(USE_SECOND_LEVEL_CACHE, Boolean.FALSE.toString());
+                    entityManagerFactoryBean.getJpaPropertyMap().put(USE_QUERY_CACHE, Boolean.FALSE.toString());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -48,14 +48,17 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 
     private final AuthenticationManagerBuilder authenticationManagerBuilder;
     private final UserDetailsService userDetailsService;
+    private final CommunikeyProperties communikeyProperties;
 
     public static final String APP_ID = "communikey";
     public static final String EMAIL_REGEX = "^([^-_.@\\s0-9]){1,}([a-z._-]{1,})@communicode\\.de$";
 
     @Autowired
-    public SecurityConfig(AuthenticationManagerBuilder authenticationManagerBuilder, UserDetailsService userDetailsService) {
+    public SecurityConfig(AuthenticationManagerBuilder authenticationManagerBuilder, UserDetailsService userDetailsService,
+                          CommunikeyProperties communikeyProperties) {
         this.authenticationManagerBuilder = requireNonNull(authenticationManagerBuilder, "authenticationManagerBuilder must not be null!");
         this.userDetailsService = requireNonNull(userDetailsService, "userDetailsService must not be null!");
+        this.communikeyProperties = requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
     }
 
     @PostConstruct
@@ -99,6 +102,6 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
      */
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        return new BCryptPasswordEncoder(communikeyProperties.getSecurity().getPasswordHashing().getStrength());
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static java.util.Objects.requireNonNull;
+
+import de.communicode.communikey.config.util.RetryingTransactionTemplate;
+import de.communicode.communikey.config.util.RetryingTransactionalAspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Configures the retry of transactions that failed due to a concurrent modification of a versioned entity.
+ *
+ * @since 0.18.0
+ */
+@Configuration
+public class TransactionConfig {
+
+    private final CommunikeyProperties communikeyProperties;
+
+    @Autowired
+    public TransactionConfig(CommunikeyProperties communikeyProperties) {
+        this.communikeyProperties = requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+    }
+
+    /**
+     * The transaction template that retries transactions on concurrent modifications.
+     *
+     * @param transactionManager the transaction manager
+     * @return the retrying transaction template bean
+     */
+    @Bean
+    public RetryingTransactionTemplate retryingTransactionTemplate(PlatformTransactionManager transactionManager) {
+        CommunikeyProperties.Transaction.Retry retry = communikeyProperties.getTransaction().getRetry();
+        return new RetryingTransactionTemplate(transactionManager, retry.getMaxAttempts(), retry.getBackoff());
+    }
+
+    /**
+     * The aspect to execute methods annotated with {@link de.communicode.communikey.config.util.RetryingTransactional} with the
+     * {@link #retryingTransactionTemplate(PlatformTransactionManager)}.
+     *
+     * @param retryingTransactionTemplate the retrying transaction template
+     * @return the retrying transactional aspect bean
+     */
+    @Bean
+    public RetryingTransactionalAspect retryingTransactionalAspect(RetryingTransactionTemplate retryingTransactionTemplate) {
+        return new RetryingTransactionalAspect(retryingTransactionTemplate);
+    }
+}
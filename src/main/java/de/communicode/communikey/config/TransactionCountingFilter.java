@@ -0,0 +1,72 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import de.communicode.communikey.config.util.TransactionCounter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.web.util.OnCommittedResponseWrapper;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * Counts the committed transactions of each request.
+ *
+ * <p>The number of commits is exposed in the {@value #TRANSACTION_COMMITS_HEADER} response header and logged with the number of rollbacks to make
+ * regressions in the transaction boundaries visible.
+ *
+ * @since 0.18.0
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class TransactionCountingFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LogManager.getLogger();
+
+    public static final String TRANSACTION_COMMITS_HEADER = "X-Transaction-Commits";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+        TransactionCounter counter = TransactionCounter.start();
+        try {
+            filterChain.doFilter(request, new OnCommittedResponseWrapper(response) {
+                @Override
+                protected void onResponseCommitted() {
+                    setHeader(TRANSACTION_COMMITS_HEADER, String.valueOf(counter.getCommits()));
+                }
+            });
+        } finally {
+            TransactionCounter.stop();
+        }
+        if (!response.isCommitted()) {
+            response.setHeader(TRANSACTION_COMMITS_HEADER, String.valueOf(counter.getCommits()));
+        }
+        log.debug("Request '{} {}' committed {} and rolled back {} transactions",
+            request.getMethod(), request.getRequestURI(), counter.getCommits(), counter.getRollbacks());
+    }
+}
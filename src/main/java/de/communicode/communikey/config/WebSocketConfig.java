@@ -17,22 +17,55 @@
  */
 package de.communicode.communikey.config;
 
+import static java.util.Objects.requireNonNull;
+
+import de.communicode.communikey.config.util.LegacyBroadcastInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 /**
  * Configures the websocket server
  *
+ * <p>Uses an in-memory message broker by default which also serves the broadcasts at their previous "/queue" destinations. In the
+ * relay and embedded broker modes all messages are relayed to a STOMP broker which is shared by all communikey instances, user
+ * destinations are resolved across all instances through the {@value #USER_REGISTRY_BROADCAST} and
+ * {@value #USER_DESTINATION_BROADCAST} topics.
+ *
+ * <p>The thread pools of the client channels and the send buffers of the sessions are bounded, sessions which exceed the limits
+ * are handled by the configured slow consumer policy of the {@link WebSocketMessageBrokerConfig}.
+ *
  * @author dvonderbey@communicode.de
  * @since 0.15.0
  */
 @Configuration
-@EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    /**
+     * The topic to share the local user sessions of each instance with all other instances.
+     *
+     * @since 0.18.0
+     */
+    public static final String USER_REGISTRY_BROADCAST = "/topic/user-registry";
+
+    /**
+     * The topic to hand over messages to user destinations which could not be resolved locally to all other instances.
+     *
+     * @since 0.18.0
+     */
+    public static final String USER_DESTINATION_BROADCAST = "/topic/unresolved-user-destination";
+
+    private final CommunikeyProperties communikeyProperties;
+
+    @Autowired
+    public WebSocketConfig(CommunikeyProperties communikeyProperties) {
+        this.communikeyProperties = requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/wss/registry");
@@ -42,6 +75,75 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         config.setApplicationDestinationPrefixes("/app", "/user");
-        config.enableSimpleBroker("/topic", "/queue");
+
+        CommunikeyProperties.Websocket.Broker broker = communikeyProperties.getWebsocket().getBroker();
+        switch (broker.getMode()) {
+            case RELAY:
+                enableStompBrokerRelay(config, broker, broker.getRelayHost());
+                break;
+            case EMBEDDED:
+                enableStompBrokerRelay(config, broker, EmbeddedBrokerConfig.EMBEDDED_BROKER_HOST);
+                break;
+            default:
+                config.enableSimpleBroker("/topic", "/queue");
+                config.configureBrokerChannel().interceptors(new LegacyBroadcastInterceptor());
+        }
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        configureChannel(registration, communikeyProperties.getWebsocket().getTransport().getInbound());
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        configureChannel(registration, communikeyProperties.getWebsocket().getTransport().getOutbound());
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        CommunikeyProperties.Websocket.Transport transport = communikeyProperties.getWebsocket().getTransport();
+        registration
+            .setSendTimeLimit((int) transport.getSendTimeLimit().toMillis())
+            .setSendBufferSizeLimit(transport.getSendBufferSizeLimit())
+            .setMessageSizeLimit(transport.getMessageSizeLimit());
+    }
+
+    /**
+     * Bounds the thread pool of a client channel.
+     *
+     * @param registration the channel registration
+     * @param channel the channel properties
+     * @since 0.18.0
+     */
+    private void configureChannel(ChannelRegistration registration, CommunikeyProperties.Websocket.Transport.Channel channel) {
+        registration.taskExecutor()
+            .corePoolSize(channel.getCorePoolSize())
+            .maxPoolSize(Math.max(channel.getMaxPoolSize(), channel.getCorePoolSize()))
+            .queueCapacity(channel.getQueueCapacity());
+    }
+
+    /**
+     * Relays all messages to the STOMP broker on the specified host.
+     *
+     * <p>Broadcasts must be sent to "/topic" destinations since a broker delivers each message of a "/queue" destination to one
+     * of its consumers only, "/queue" destinations are used for user destinations.
+     *
+     * @param config the message broker registry
+     * @param broker the broker properties
+     * @param relayHost the host of the STOMP broker
+     * @since 0.18.0
+     */
+    private void enableStompBrokerRelay(MessageBrokerRegistry config, CommunikeyProperties.Websocket.Broker broker, String relayHost) {
+        config.enableStompBrokerRelay("/topic", "/queue")
+            .setRelayHost(relayHost)
+            .setRelayPort(broker.getRelayPort())
+            .setClientLogin(broker.getClientLogin())
+            .setClientPasscode(broker.getClientPasscode())
+            .setSystemLogin(broker.getSystemLogin())
+            .setSystemPasscode(broker.getSystemPasscode())
+            .setVirtualHost(broker.getVirtualHost())
+            .setUserRegistryBroadcast(USER_REGISTRY_BROADCAST)
+            .setUserDestinationBroadcast(USER_DESTINATION_BROADCAST);
     }
 }
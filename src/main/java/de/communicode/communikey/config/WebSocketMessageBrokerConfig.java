@@ -0,0 +1,82 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config;
+
+import static java.util.Objects.requireNonNull;
+
+import de.communicode.communikey.config.util.SlowConsumerSubProtocolWebSocketHandler;
+import de.communicode.communikey.config.util.WebSocketSessionMonitor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+
+/**
+ * Enables the websocket message broker and replaces the sub-protocol websocket handler to apply the configured slow consumer
+ * policy to all sessions.
+ *
+ * <p>Messages rejected by the saturated client outbound channel are sent on the calling thread so that they are subject to the
+ * slow consumer policy as well.
+ *
+ * <p>Replaces {@link org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker} which only imports the
+ * extended configuration. The broker itself is configured by the {@link WebSocketConfig}.
+ *
+ * @since 0.18.0
+ */
+@Configuration
+public class WebSocketMessageBrokerConfig extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    private final CommunikeyProperties communikeyProperties;
+
+    @Autowired
+    public WebSocketMessageBrokerConfig(CommunikeyProperties communikeyProperties) {
+        this.communikeyProperties = requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+    }
+
+    /**
+     * The monitor of the send buffers of all websocket sessions.
+     *
+     * @return the websocket session monitor bean
+     */
+    @Bean
+    public WebSocketSessionMonitor webSocketSessionMonitor() {
+        return new WebSocketSessionMonitor(this::brokerMessagingTemplate);
+    }
+
+    /**
+     * The bounded thread pool of the client outbound channel, messages exceeding its queue are sent on the calling thread.
+     *
+     * @return the client outbound channel executor bean
+     */
+    @Bean
+    @Override
+    public ThreadPoolTaskExecutor clientOutboundChannelExecutor() {
+        ThreadPoolTaskExecutor executor = super.clientOutboundChannelExecutor();
+        executor.setRejectedExecutionHandler(webSocketSessionMonitor().outboundRejectionHandler());
+        return executor;
+    }
+
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler() {
+        return new SlowConsumerSubProtocolWebSocketHandler(clientInboundChannel(), clientOutboundChannel(),
+            communikeyProperties.getWebsocket().getTransport().getSlowConsumerPolicy(), webSocketSessionMonitor());
+    }
+}
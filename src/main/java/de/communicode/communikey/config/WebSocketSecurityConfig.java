@@ -17,6 +17,15 @@
  */
 package de.communicode.communikey.config;
 
+import static de.communicode.communikey.config.util.LegacyBroadcastInterceptor.LEGACY_ADMIN_DESTINATIONS;
+import static de.communicode.communikey.config.util.LegacyBroadcastInterceptor.LEGACY_DESTINATIONS;
+import static java.util.Objects.requireNonNull;
+
+import de.communicode.communikey.config.CommunikeyProperties.Websocket.BrokerMode;
+import de.communicode.communikey.config.util.LegacyBroadcastInterceptor;
+import de.communicode.communikey.controller.RequestMappings;
+import de.communicode.communikey.service.KeyCategoryTopicService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.security.config.annotation.web.messaging.MessageSecurityMetadataSourceRegistry;
@@ -25,12 +34,24 @@ import org.springframework.security.config.annotation.web.socket.AbstractSecurit
 /**
  * Configures the security for user authentications and requests to the WSS API.
  *
+ * <p>Subscriptions to the key category topics are authorized by the {@link KeyCategoryTopicService}. The previous "/queue" destinations of
+ * the broadcasts are only open in the simple broker mode, see {@link LegacyBroadcastInterceptor}.
+ *
  * @author dvonderbey@communicode.de
  * @since 0.15.0
  */
 @Configuration
 public class WebSocketSecurityConfig extends AbstractSecurityWebSocketMessageBrokerConfigurer {
 
+    private final KeyCategoryTopicService keyCategoryTopicService;
+    private final CommunikeyProperties communikeyProperties;
+
+    @Autowired
+    public WebSocketSecurityConfig(KeyCategoryTopicService keyCategoryTopicService, CommunikeyProperties communikeyProperties) {
+        this.keyCategoryTopicService = requireNonNull(keyCategoryTopicService, "keyCategoryTopicService must not be null!");
+        this.communikeyProperties = requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+    }
+
     @Override
     protected boolean sameOriginDisabled() {
         return true;
@@ -43,10 +64,19 @@ public class WebSocketSecurityConfig extends AbstractSecurityWebSocketMessageBro
                               SimpMessageType.HEARTBEAT,
                               SimpMessageType.UNSUBSCRIBE,
                               SimpMessageType.DISCONNECT).permitAll()
-            .simpDestMatchers("/app/**").authenticated()
-            .simpSubscribeDestMatchers("/queue/updates/groups**", "/queue/updates/groups/**",
-                                       "/queue/updates/users**",  "/queue/updates/users/**").hasRole("ADMIN")
-            .simpSubscribeDestMatchers("/topic/**", "/queue/**", "/app/**", "/user/**").authenticated()
+            .simpDestMatchers("/app/**").authenticated();
+        if (communikeyProperties.getWebsocket().getBroker().getMode() == BrokerMode.SIMPLE) {
+            messages
+                .simpSubscribeDestMatchers(LEGACY_ADMIN_DESTINATIONS.toArray(new String[0])).hasRole("ADMIN")
+                .simpSubscribeDestMatchers(LEGACY_DESTINATIONS.toArray(new String[0])).authenticated();
+        }
+        messages
+            .simpSubscribeDestMatchers(WebSocketConfig.USER_REGISTRY_BROADCAST, WebSocketConfig.USER_DESTINATION_BROADCAST).denyAll()
+            .simpSubscribeDestMatchers(RequestMappings.TOPIC_UPDATES_GROUPS + "**", RequestMappings.TOPIC_UPDATES_GROUPS + "/**",
+                                       RequestMappings.TOPIC_UPDATES_USERS + "**",  RequestMappings.TOPIC_UPDATES_USERS + "/**").hasRole("ADMIN")
+            .matchers(keyCategoryTopicService::isSubscriptionAllowed).authenticated()
+            .simpSubscribeDestMatchers(RequestMappings.TOPIC_CATEGORIES + "**", RequestMappings.TOPIC_CATEGORIES + "/**").denyAll()
+            .simpSubscribeDestMatchers("/topic/**", "/app/**", "/user/**").authenticated()
             .simpTypeMatchers(SimpMessageType.MESSAGE, SimpMessageType.SUBSCRIBE).denyAll()
             .anyMessage().denyAll();
     }
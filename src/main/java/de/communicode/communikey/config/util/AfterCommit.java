@@ -0,0 +1,98 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Defers side effects of a unit of work, like sending messages to clients, until its transaction has been committed.
+ *
+ * <p>Deferred actions of a transaction that is rolled back are discarded, this includes each failed attempt of a
+ * {@link RetryingTransactional} method so that only the side effects of the committed attempt take place. Actions are
+ * executed in the order they have been deferred.
+ *
+ * @since 0.18.0
+ */
+public final class AfterCommit {
+
+    private static final Logger log = LogManager.getLogger();
+
+    /**
+     * Whether deferred actions are currently executed, synchronizations registered at this point would never be triggered.
+     */
+    private static final ThreadLocal<Boolean> EXECUTING = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private AfterCommit() {}
+
+    /**
+     * Executes the specified action once the current transaction has been committed.
+     *
+     * <p>The action is executed immediately if there is no transaction. A failure of a deferred action is logged since the
+     * transaction can no longer be rolled back.
+     *
+     * @param action the action to execute
+     */
+    public static void run(Runnable action) {
+        requireNonNull(action, "action must not be null!");
+        if (!TransactionSynchronizationManager.isSynchronizationActive() || EXECUTING.get()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                EXECUTING.set(Boolean.TRUE);
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    log.error("Failed to execute action after commit.", e);
+                } finally {
+                    EXECUTING.remove();
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes the specified action once the current transaction has been rolled back.
+     *
+     * <p>Reverts state that has been changed in anticipation of the commit. The action is not executed if there is no
+     * transaction.
+     *
+     * @param action the action to execute
+     */
+    public static void onRollback(Runnable action) {
+        requireNonNull(action, "action must not be null!");
+        if (!TransactionSynchronizationManager.isSynchronizationActive() || EXECUTING.get()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+}
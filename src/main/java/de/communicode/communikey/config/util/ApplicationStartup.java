@@ -19,6 +19,7 @@ package de.communicode.communikey.config.util;
 
 import de.communicode.communikey.repository.UserRepository;
 import de.communicode.communikey.service.EncryptionJobService;
+import de.communicode.communikey.service.KeyCategoryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationListener;
@@ -39,17 +40,23 @@ public class ApplicationStartup
 
     private final EncryptionJobService encryptionJobService;
     private final UserRepository userRepository;
+    private final KeyCategoryService keyCategoryService;
 
     @Autowired
     public ApplicationStartup(EncryptionJobService encryptionJobService,
-                              UserRepository userRepository) {
+                              UserRepository userRepository,
+                              KeyCategoryService keyCategoryService) {
         this.encryptionJobService = requireNonNull(encryptionJobService, "encryptionJobService must not be null!");
         this.userRepository = requireNonNull(userRepository, "userRepository must not be null!");
+        this.keyCategoryService = requireNonNull(keyCategoryService, "keyCategoryService must not be null!");
     }
 
     @Override
     @Transactional
     public void onApplicationEvent(final ApplicationReadyEvent event) {
+        keyCategoryService.rebuildPathsIfMissing();
+        keyCategoryService.rebuildAccessIfMissing();
+        keyCategoryService.initializeUniqueNames();
         userRepository.findAll()
             .forEach(user -> encryptionJobService.createForUser(user));
         return;
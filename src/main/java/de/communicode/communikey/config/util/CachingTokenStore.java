@@ -0,0 +1,212 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A token store that caches the access tokens and their authentication in front of another token store.
+ *
+ * <p>The access token and its authentication are cached together by the token value so that authenticating a request does not
+ * query the wrapped token store as long as the token is cached. Expired access tokens are never served from the cache and
+ * removed access tokens are evicted immediately. Access tokens removed through another instance of the wrapped token store are
+ * still served until their cache entry expires, the time to live therefore bounds the staleness between multiple application
+ * instances.
+ *
+ * @since 0.18.0
+ */
+public class CachingTokenStore implements RevocableTokenStore {
+
+    private final RevocableTokenStore delegate;
+    private final Cache<String, CachedAccessToken> accessTokens;
+
+    /**
+     * Constructs a new caching token store.
+     *
+     * @param delegate the token store to cache the access tokens of
+     * @param maximumSize the maximum amount of cached access tokens
+     * @param timeToLive the maximum time an access token is cached
+     */
+    public CachingTokenStore(RevocableTokenStore delegate, long maximumSize, Duration timeToLive) {
+        this.delegate = requireNonNull(delegate, "delegate must not be null!");
+        requireNonNull(timeToLive, "timeToLive must not be null!");
+        this.accessTokens = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive.toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+        return readAuthentication(token.getValue());
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(String token) {
+        CachedAccessToken cachedAccessToken = read(token);
+        return cachedAccessToken != null ? cachedAccessToken.authentication : null;
+    }
+
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        delegate.storeAccessToken(token, authentication);
+        accessTokens.put(token.getValue(), new CachedAccessToken(token, authentication));
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+        CachedAccessToken cachedAccessToken = read(tokenValue);
+        return cachedAccessToken != null ? cachedAccessToken.accessToken : null;
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+        delegate.removeAccessToken(token);
+        evict(entry -> entry.getKey().equals(token.getValue()));
+    }
+
+    @Override
+    public void removeAccessTokensByUserNames(Collection<String> userNames) {
+        delegate.removeAccessTokensByUserNames(userNames);
+        Set<String> evictedUserNames = new HashSet<>(userNames);
+        evict(entry -> evictedUserNames.contains(entry.getValue().authentication.getName()));
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+        delegate.storeRefreshToken(refreshToken, authentication);
+    }
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+        return delegate.readRefreshToken(tokenValue);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+        return delegate.readAuthenticationForRefreshToken(token);
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+        delegate.removeRefreshToken(token);
+    }
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+        delegate.removeAccessTokenUsingRefreshToken(refreshToken);
+        // The values of the removed access tokens are unknown
+        accessTokens.invalidateAll();
+    }
+
+    @Override
+    public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+        return delegate.getAccessToken(authentication);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+        return delegate.findTokensByClientIdAndUserName(clientId, userName);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+        return delegate.findTokensByClientId(clientId);
+    }
+
+    /**
+     * Evicts the matching cached access tokens immediately and again after the current transaction has been completed.
+     *
+     * <p>The removal of the access tokens from the wrapped token store is only visible after the commit, a concurrent read could
+     * otherwise cache the removed access tokens again.
+     *
+     * @param filter the predicate for the cache entries to evict
+     */
+    private void evict(Predicate<Map.Entry<String, CachedAccessToken>> filter) {
+        accessTokens.asMap().entrySet().removeIf(filter);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    accessTokens.asMap().entrySet().removeIf(filter);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the access token and its authentication from the cache or the wrapped token store.
+     *
+     * @param tokenValue the value of the access token to read
+     * @return the access token and its authentication, {@code null} if the access token has not been found
+     */
+    private CachedAccessToken read(String tokenValue) {
+        CachedAccessToken cachedAccessToken = accessTokens.getIfPresent(tokenValue);
+        if (cachedAccessToken != null) {
+            if (!cachedAccessToken.accessToken.isExpired()) {
+                return cachedAccessToken;
+            }
+            // Expired access tokens are read again so that the wrapped token store decides whether they still exist
+            accessTokens.invalidate(tokenValue);
+        }
+        OAuth2AccessToken accessToken = delegate.readAccessToken(tokenValue);
+        if (accessToken == null) {
+            return null;
+        }
+        OAuth2Authentication authentication = delegate.readAuthentication(tokenValue);
+        if (authentication == null) {
+            // Do not cache access tokens without an authentication that could be read
+            return new CachedAccessToken(accessToken, null);
+        }
+        cachedAccessToken = new CachedAccessToken(accessToken, authentication);
+        if (!accessToken.isExpired()) {
+            accessTokens.put(tokenValue, cachedAccessToken);
+        }
+        return cachedAccessToken;
+    }
+
+    /**
+     * An access token together with its authentication.
+     */
+    private static final class CachedAccessToken {
+
+        private final OAuth2AccessToken accessToken;
+        private final OAuth2Authentication authentication;
+
+        private CachedAccessToken(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+            this.accessToken = accessToken;
+            this.authentication = authentication;
+        }
+    }
+}
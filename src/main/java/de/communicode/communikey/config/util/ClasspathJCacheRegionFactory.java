@@ -0,0 +1,54 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.jcache.JCacheRegionFactory;
+import org.springframework.util.ResourceUtils;
+
+import javax.cache.CacheManager;
+import javax.cache.spi.CachingProvider;
+
+import java.io.FileNotFoundException;
+import java.net.URISyntaxException;
+import java.util.Properties;
+
+/**
+ * A {@link JCacheRegionFactory} for the Hibernate second-level cache that additionally resolves {@code classpath:} configuration URIs.
+ *
+ * <p>The JCache provider itself stays pluggable through the {@value JCacheRegionFactory#PROVIDER} property, the cache regions are configured by the
+ * provider specific file referenced by the {@value JCacheRegionFactory#CONFIG_URI} property.
+ *
+ * @since 0.18.0
+ */
+public class ClasspathJCacheRegionFactory extends JCacheRegionFactory {
+
+    @Override
+    protected CacheManager getCacheManager(Properties properties) {
+        String configUri = getProp(properties, CONFIG_URI);
+        if (configUri == null || !configUri.startsWith(ResourceUtils.CLASSPATH_URL_PREFIX)) {
+            return super.getCacheManager(properties);
+        }
+        CachingProvider cachingProvider = getCachingProvider(properties);
+        try {
+            return cachingProvider.getCacheManager(ResourceUtils.getURL(configUri).toURI(), cachingProvider.getDefaultClassLoader());
+        } catch (FileNotFoundException | URISyntaxException e) {
+            throw new CacheException("Could not resolve the cache configuration '" + configUri + "'", e);
+        }
+    }
+}
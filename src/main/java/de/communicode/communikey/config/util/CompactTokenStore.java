@@ -0,0 +1,355 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A token store which stores the access tokens in the {@code oauth_tokens} table.
+ *
+ * <p>In contrast to the {@link org.springframework.security.oauth2.provider.token.store.JdbcTokenStore} the access token and its
+ * authentication are not Java-serialized but written as a single compact binary record, the login, client and expiration date
+ * are stored in indexed columns. Only the login of the user is stored as principal of the authentication. Expired access tokens
+ * are deleted periodically in batches.
+ *
+ * <p>Refresh tokens are not stored since access tokens are only issued through the implicit grant.
+ *
+ * @since 0.18.0
+ */
+public class CompactTokenStore implements RevocableTokenStore, InitializingBean, DisposableBean {
+
+    private static final Logger log = LogManager.getLogger();
+
+    /**
+     * The version of the binary record format.
+     */
+    private static final int RECORD_VERSION = 1;
+
+    private static final String INSERT_TOKEN_SQL =
+        "INSERT INTO oauth_tokens (token_id, authentication_id, user_name, client_id, expiration, token) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_TOKEN_SQL = "SELECT token_id, user_name, client_id, expiration, token FROM oauth_tokens";
+    private static final String SELECT_TOKEN_BY_ID_SQL = SELECT_TOKEN_SQL + " WHERE token_id = ?";
+    private static final String SELECT_TOKENS_BY_AUTHENTICATION_ID_SQL = SELECT_TOKEN_SQL + " WHERE authentication_id = ?";
+    private static final String SELECT_TOKENS_BY_USER_NAME_SQL = SELECT_TOKEN_SQL + " WHERE user_name = ? AND client_id = ?";
+    private static final String SELECT_TOKENS_BY_CLIENT_ID_SQL = SELECT_TOKEN_SQL + " WHERE client_id = ?";
+    private static final String SELECT_EXPIRED_TOKEN_IDS_SQL = "SELECT token_id FROM oauth_tokens WHERE expiration < ? ORDER BY expiration LIMIT ?";
+    private static final String DELETE_TOKEN_SQL = "DELETE FROM oauth_tokens WHERE token_id = ?";
+    private static final String DELETE_TOKENS_SQL = "DELETE FROM oauth_tokens WHERE token_id IN (:tokenIds)";
+    private static final String DELETE_TOKENS_BY_USER_NAMES_SQL = "DELETE FROM oauth_tokens WHERE user_name IN (:userNames)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
+    private final Duration sweepInterval;
+    private final int sweepBatchSize;
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Constructs a new compact token store.
+     *
+     * @param dataSource the data source of the {@code oauth_tokens} table
+     * @param sweepInterval the interval to delete expired access tokens
+     * @param sweepBatchSize the maximum amount of expired access tokens to delete in one statement
+     */
+    public CompactTokenStore(DataSource dataSource, Duration sweepInterval, int sweepBatchSize) {
+        requireNonNull(dataSource, "dataSource must not be null!");
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.sweepInterval = requireNonNull(sweepInterval, "sweepInterval must not be null!");
+        this.sweepBatchSize = sweepBatchSize;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "token-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweepExpired, sweepInterval.toMillis(), sweepInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+        return readAuthentication(token.getValue());
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(String token) {
+        StoredToken storedToken = readStoredToken(token);
+        return storedToken != null ? storedToken.authentication : null;
+    }
+
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        jdbcTemplate.update(DELETE_TOKEN_SQL, token.getValue());
+        jdbcTemplate.update(INSERT_TOKEN_SQL,
+            new Object[] {
+                token.getValue(),
+                authenticationKeyGenerator.extractKey(authentication),
+                authentication.isClientOnly() ? null : authentication.getName(),
+                authentication.getOAuth2Request().getClientId(),
+                token.getExpiration() != null ? token.getExpiration().getTime() : null,
+                encode(token, authentication)},
+            new int[] {Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BIGINT, Types.VARBINARY});
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+        StoredToken storedToken = readStoredToken(tokenValue);
+        return storedToken != null ? storedToken.accessToken : null;
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+        jdbcTemplate.update(DELETE_TOKEN_SQL, token.getValue());
+    }
+
+    @Override
+    public void removeAccessTokensByUserNames(Collection<String> userNames) {
+        if (!userNames.isEmpty()) {
+            namedParameterJdbcTemplate.update(DELETE_TOKENS_BY_USER_NAMES_SQL, Collections.singletonMap("userNames", userNames));
+        }
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {}
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+        return null;
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+        return null;
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {}
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {}
+
+    @Override
+    public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+        String authenticationId = authenticationKeyGenerator.extractKey(authentication);
+        return jdbcTemplate.query(SELECT_TOKENS_BY_AUTHENTICATION_ID_SQL, this::mapStoredToken, authenticationId).stream()
+            .findFirst()
+            .map(storedToken -> storedToken.accessToken)
+            .orElse(null);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+        return findTokens(SELECT_TOKENS_BY_USER_NAME_SQL, userName, clientId);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+        return findTokens(SELECT_TOKENS_BY_CLIENT_ID_SQL, clientId);
+    }
+
+    /**
+     * Deletes all access tokens which expired before the specified date in batches.
+     *
+     * @param date the date
+     * @return the number of deleted access tokens
+     */
+    public int deleteExpired(Instant date) {
+        int deleted = 0;
+        List<String> tokenIds;
+        do {
+            tokenIds = jdbcTemplate.queryForList(SELECT_EXPIRED_TOKEN_IDS_SQL, String.class, date.toEpochMilli(), sweepBatchSize);
+            if (!tokenIds.isEmpty()) {
+                deleted += namedParameterJdbcTemplate.update(DELETE_TOKENS_SQL, Collections.singletonMap("tokenIds", tokenIds));
+            }
+        } while (tokenIds.size() == sweepBatchSize);
+        return deleted;
+    }
+
+    private void sweepExpired() {
+        try {
+            int deleted = deleteExpired(Instant.now());
+            log.debug("Deleted {} expired access tokens.", deleted);
+        } catch (RuntimeException e) {
+            log.error("Failed to delete expired access tokens.", e);
+        }
+    }
+
+    private StoredToken readStoredToken(String tokenValue) {
+        List<StoredToken> storedTokens = jdbcTemplate.query(SELECT_TOKEN_BY_ID_SQL, this::mapStoredToken, tokenValue);
+        return storedTokens.isEmpty() ? null : storedTokens.get(0);
+    }
+
+    private Collection<OAuth2AccessToken> findTokens(String sql, Object... args) {
+        return jdbcTemplate.query(sql, this::mapStoredToken, args).stream()
+            .map(storedToken -> storedToken.accessToken)
+            .collect(Collectors.toList());
+    }
+
+    private StoredToken mapStoredToken(ResultSet resultSet, int rowNum) throws SQLException {
+        long expiration = resultSet.getLong("expiration");
+        Date expirationDate = resultSet.wasNull() ? null : new Date(expiration);
+        return decode(resultSet.getString("token_id"), resultSet.getString("user_name"), resultSet.getString("client_id"), expirationDate,
+            resultSet.getBytes("token"));
+    }
+
+    /**
+     * Encodes the attributes of the access token and its authentication which are not stored in their own columns.
+     *
+     * @param token the access token to encode
+     * @param authentication the authentication to encode
+     * @return the binary record
+     */
+    private static byte[] encode(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        OAuth2Request request = authentication.getOAuth2Request();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(RECORD_VERSION);
+            output.writeUTF(token.getTokenType());
+            writeStrings(output, token.getScope());
+            output.writeBoolean(request.isApproved());
+            writeStrings(output, authentication.getAuthorities().stream().map(GrantedAuthority::getAuthority).collect(Collectors.toList()));
+            writeStrings(output, request.getResourceIds());
+            Map<String, String> requestParameters = request.getRequestParameters();
+            output.writeShort(requestParameters.size());
+            for (Map.Entry<String, String> requestParameter : requestParameters.entrySet()) {
+                output.writeUTF(requestParameter.getKey());
+                output.writeUTF(requestParameter.getValue() != null ? requestParameter.getValue() : "");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static StoredToken decode(String tokenValue, String userName, String clientId, Date expiration, byte[] record) {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(record))) {
+            int version = input.readUnsignedByte();
+            if (version != RECORD_VERSION) {
+                throw new IllegalStateException("Unsupported access token record version " + version);
+            }
+            DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(tokenValue);
+            accessToken.setTokenType(input.readUTF());
+            accessToken.setScope(readStrings(input));
+            accessToken.setExpiration(expiration);
+            boolean approved = input.readBoolean();
+            Set<GrantedAuthority> authorities = readStrings(input).stream()
+                .map(SimpleGrantedAuthority::new)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+            Set<String> resourceIds = readStrings(input);
+            int requestParameterCount = input.readUnsignedShort();
+            Map<String, String> requestParameters = new LinkedHashMap<>(requestParameterCount);
+            for (int i = 0; i < requestParameterCount; i++) {
+                requestParameters.put(input.readUTF(), input.readUTF());
+            }
+            OAuth2Request request = new OAuth2Request(requestParameters, clientId, authorities, approved, accessToken.getScope(), resourceIds,
+                null, null, null);
+            UsernamePasswordAuthenticationToken userAuthentication = userName != null
+                ? new UsernamePasswordAuthenticationToken(userName, null, authorities)
+                : null;
+            return new StoredToken(accessToken, new OAuth2Authentication(request, userAuthentication));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream output, Collection<String> strings) throws IOException {
+        if (strings == null) {
+            output.writeShort(0);
+            return;
+        }
+        output.writeShort(strings.size());
+        for (String string : strings) {
+            output.writeUTF(string);
+        }
+    }
+
+    private static Set<String> readStrings(DataInputStream input) throws IOException {
+        int size = input.readUnsignedShort();
+        Set<String> strings = new LinkedHashSet<>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(input.readUTF());
+        }
+        return strings;
+    }
+
+    /**
+     * An access token together with its authentication.
+     */
+    private static final class StoredToken {
+
+        private final OAuth2AccessToken accessToken;
+        private final OAuth2Authentication authentication;
+
+        private StoredToken(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+            this.accessToken = accessToken;
+            this.authentication = authentication;
+        }
+    }
+}
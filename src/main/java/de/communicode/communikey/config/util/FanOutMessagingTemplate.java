@@ -0,0 +1,88 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.util.StringUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * A messaging template that delivers the same message to multiple users.
+ *
+ * <p>The payload is converted only once and the resulting immutable byte array is shared by the messages for all users. The
+ * messages are sent through the user destination prefix of the wrapped template so that the user destinations are resolved to
+ * the sessions of each user by the simple broker as well as by the broker relay.
+ *
+ * @since 0.18.0
+ */
+public class FanOutMessagingTemplate {
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    /**
+     * Constructs a new fan-out messaging template.
+     *
+     * @param messagingTemplate the template to convert and send the messages with
+     */
+    public FanOutMessagingTemplate(SimpMessagingTemplate messagingTemplate) {
+        this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+    }
+
+    /**
+     * Converts the payload once and sends it to the specified destination of all users.
+     *
+     * @param users the logins of the users to send the payload to
+     * @param destination the user destination
+     * @param payload the payload to send
+     * @throws MessageConversionException if the payload could not be converted
+     */
+    public void convertAndSendToUsers(Collection<String> users, String destination, Object payload) {
+        if (users.isEmpty()) {
+            return;
+        }
+        // The headers are immutable so that each send copies them while the payload is shared
+        Message<?> message = messagingTemplate.getMessageConverter().toMessage(payload, new MessageHeaders(Collections.emptyMap()));
+        if (message == null) {
+            throw new MessageConversionException("Unable to convert payload of type '" + payload.getClass().getName() + "'");
+        }
+        sendToUsers(users, destination, message);
+    }
+
+    /**
+     * Sends an already converted message to the specified destination of all users.
+     *
+     * <p>The headers of the message must be immutable so that they are copied for each user.
+     *
+     * @param users the logins of the users to send the message to
+     * @param destination the user destination
+     * @param message the message to send
+     */
+    public void sendToUsers(Collection<String> users, String destination, Message<?> message) {
+        String prefix = messagingTemplate.getUserDestinationPrefix();
+        for (String user : users) {
+            messagingTemplate.send(prefix + StringUtils.replace(user, "/", "%2F") + destination, message);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static de.communicode.communikey.controller.RequestMappings.QUEUE;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_JOB_ABORT;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_CATEGORIES;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_CATEGORIES_DELETE;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_GROUPS;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_GROUPS_DELETE;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_USERS;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_USERS_DELETE;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Mirrors the messages of the broadcast destinations to the "/queue" destinations they have been sent to before version 0.18.0, so
+ * that clients which still subscribe to the previous destinations keep receiving the updates.
+ *
+ * <p>Only registered at the broker channel in the simple broker mode which delivers "/queue" messages to all subscribers. A STOMP
+ * broker delivers each message of a "/queue" destination to one of its consumers only, clients must subscribe to the "/topic"
+ * destinations in the relay and embedded broker modes.
+ *
+ * @since 0.18.0
+ */
+public class LegacyBroadcastInterceptor extends ChannelInterceptorAdapter {
+
+    /**
+     * The previous destinations of the broadcasts only administrators may subscribe to.
+     */
+    public static final List<String> LEGACY_ADMIN_DESTINATIONS = Collections.unmodifiableList(Arrays.asList(
+        getLegacyDestination(TOPIC_UPDATES_GROUPS), getLegacyDestination(TOPIC_UPDATES_GROUPS_DELETE),
+        getLegacyDestination(TOPIC_UPDATES_USERS), getLegacyDestination(TOPIC_UPDATES_USERS_DELETE)));
+
+    /**
+     * The previous destinations of the broadcasts all authenticated users may subscribe to.
+     */
+    public static final List<String> LEGACY_DESTINATIONS = Collections.unmodifiableList(Arrays.asList(
+        getLegacyDestination(TOPIC_UPDATES_CATEGORIES), getLegacyDestination(TOPIC_UPDATES_CATEGORIES_DELETE),
+        getLegacyDestination(TOPIC_JOB_ABORT)));
+
+    /**
+     * The previous destinations by the broadcast destinations.
+     */
+    private static final Map<String, String> LEGACY_DESTINATIONS_BY_DESTINATION = Arrays.asList(TOPIC_UPDATES_CATEGORIES,
+        TOPIC_UPDATES_CATEGORIES_DELETE, TOPIC_UPDATES_GROUPS, TOPIC_UPDATES_GROUPS_DELETE, TOPIC_UPDATES_USERS, TOPIC_UPDATES_USERS_DELETE,
+        TOPIC_JOB_ABORT).stream()
+        .collect(Collectors.toMap(Function.identity(), LegacyBroadcastInterceptor::getLegacyDestination));
+
+    @Override
+    public void postSend(Message<?> message, MessageChannel channel, boolean sent) {
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.wrap(message);
+        String legacyDestination = LEGACY_DESTINATIONS_BY_DESTINATION.get(headerAccessor.getDestination());
+        if (!sent || legacyDestination == null || headerAccessor.getMessageType() != SimpMessageType.MESSAGE) {
+            return;
+        }
+        headerAccessor.setDestination(legacyDestination);
+        channel.send(MessageBuilder.createMessage(message.getPayload(), headerAccessor.getMessageHeaders()));
+    }
+
+    private static String getLegacyDestination(String destination) {
+        return QUEUE + destination.substring(TOPIC.length());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+
+import javax.persistence.EntityManager;
+
+import java.sql.SQLException;
+
+/**
+ * A Hibernate JPA dialect that keeps entities read within read-only transactions out of the second-level cache.
+ *
+ * <p>Read-only transactions are routed to the read replicas by the {@link ReplicaRoutingDataSource}. Entities loaded from a lagging
+ * replica would otherwise be put into the second-level cache and served as the current state to read-write transactions on the
+ * primary. The sessions of read-only transactions still read from the second-level cache, the previous cache mode is restored once
+ * the transaction has been completed.
+ *
+ * @since 0.18.0
+ */
+public class ReplicaReadJpaDialect extends HibernateJpaDialect {
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition) throws SQLException {
+        Object transactionData = super.beginTransaction(entityManager, definition);
+        if (!definition.isReadOnly()) {
+            return transactionData;
+        }
+        Session session = getSession(entityManager);
+        CacheMode previousCacheMode = session.getCacheMode();
+        session.setCacheMode(CacheMode.GET);
+        return new ReadOnlyTransactionData(transactionData, session, previousCacheMode);
+    }
+
+    @Override
+    public void cleanupTransaction(Object transactionData) {
+        if (transactionData instanceof ReadOnlyTransactionData) {
+            ReadOnlyTransactionData readOnlyTransactionData = (ReadOnlyTransactionData) transactionData;
+            readOnlyTransactionData.session.setCacheMode(readOnlyTransactionData.previousCacheMode);
+            super.cleanupTransaction(readOnlyTransactionData.transactionData);
+            return;
+        }
+        super.cleanupTransaction(transactionData);
+    }
+
+    /**
+     * The transaction data of the parent dialect and the cache mode to restore after a read-only transaction.
+     */
+    private static final class ReadOnlyTransactionData {
+        private final Object transactionData;
+        private final Session session;
+        private final CacheMode previousCacheMode;
+
+        private ReadOnlyTransactionData(Object transactionData, Session session, CacheMode previousCacheMode) {
+            this.transactionData = transactionData;
+            this.session = session;
+            this.previousCacheMode = previousCacheMode;
+        }
+    }
+}
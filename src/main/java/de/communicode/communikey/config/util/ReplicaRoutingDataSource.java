@@ -0,0 +1,188 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * A data source that routes read-only transactions to read replicas and everything else to the primary data source.
+ *
+ * <p>The availability and replication lag of all replicas is checked periodically. Read-only transactions fall back to the primary when no replica is
+ * available within the tolerated replication lag or when obtaining a replica connection fails.
+ *
+ * <p><strong>The routing decision is made when the physical connection is obtained, so this data source must be wrapped in a
+ * {@link LazyConnectionDataSourceProxy} to see the read-only flag of the current transaction! JPA sessions must release their connection
+ * after each transaction, a session which holds its connection across transactions keeps the routing of the first one.</strong>
+ *
+ * @since 0.18.0
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LogManager.getLogger();
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final Duration maxLag;
+    private final Duration checkInterval;
+    private final String lagQuery;
+    private final String lagColumn;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private ScheduledExecutorService lagMonitor;
+
+    /**
+     * Constructs a new replica routing data source.
+     *
+     * @param primary the primary data source for all read-write transactions
+     * @param replicas the replica data sources mapped by their name
+     * @param maxLag the maximum tolerated replication lag of a replica
+     * @param checkInterval the interval to check the availability and replication lag of all replicas
+     * @param lagQuery the query to determine the replication lag, only the availability is checked if blank
+     * @param lagColumn the column of the lag query result which contains the replication lag in seconds
+     */
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, Duration maxLag, Duration checkInterval,
+                                    String lagQuery, String lagColumn) {
+        this.primary = requireNonNull(primary, "primary must not be null!");
+        this.replicas = requireNonNull(replicas, "replicas must not be null!").entrySet().stream()
+            .map(replica -> new Replica(replica.getKey(), replica.getValue()))
+            .collect(Collectors.toList());
+        this.maxLag = requireNonNull(maxLag, "maxLag must not be null!");
+        this.checkInterval = requireNonNull(checkInterval, "checkInterval must not be null!");
+        this.lagQuery = lagQuery;
+        this.lagColumn = lagColumn;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        refreshReplicaStates();
+        lagMonitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lagMonitor.scheduleWithFixedDelay(this::refreshReplicaStates, checkInterval.toMillis(), checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (lagMonitor != null) {
+            lagMonitor.shutdownNow();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            int offset = nextReplica.getAndIncrement();
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get(Math.floorMod(offset + i, replicas.size()));
+                if (replica.available) {
+                    try {
+                        return replica.dataSource.getConnection();
+                    } catch (SQLException e) {
+                        replica.available = false;
+                        log.warn("Marked replica '{}' as unavailable: {}", replica.name, e.getMessage());
+                    }
+                }
+            }
+            log.debug("No replica available, routing read-only transaction to the primary");
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * Checks the availability and replication lag of all replicas.
+     *
+     * <p>A replica is considered available when a connection can be obtained and, if a lag query is configured, its replication lag does not exceed the
+     * tolerated maximum.
+     */
+    public void refreshReplicaStates() {
+        for (Replica replica : replicas) {
+            boolean available;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                available = StringUtils.isBlank(lagQuery) ? connection.isValid(1) : isWithinMaxLag(connection);
+            } catch (SQLException e) {
+                available = false;
+                log.debug("Failed to check replica '{}': {}", replica.name, e.getMessage());
+            }
+            if (available != replica.available) {
+                log.info("Replica '{}' is now {}", replica.name, available ? "available" : "unavailable");
+            }
+            replica.available = available;
+        }
+    }
+
+    /**
+     * Checks if the replication lag of the connected replica does not exceed the tolerated maximum.
+     *
+     * @param connection the connection to the replica
+     * @return {@code true} if the replication lag is within the tolerated maximum, {@code false} if it exceeds it or replication is not running
+     * @throws SQLException if the lag query failed
+     */
+    private boolean isWithinMaxLag(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(lagQuery)) {
+            if (!resultSet.next()) {
+                return false;
+            }
+            Object lag = StringUtils.isBlank(lagColumn) ? resultSet.getObject(1) : resultSet.getObject(lagColumn);
+            return lag instanceof Number && ((Number) lag).longValue() <= maxLag.getSeconds();
+        }
+    }
+
+    /**
+     * Holds a replica data source and its last checked availability.
+     */
+    private static class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean available;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+}
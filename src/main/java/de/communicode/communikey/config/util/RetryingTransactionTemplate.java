@@ -0,0 +1,103 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A transaction template that retries the transaction when it failed due to a concurrent modification of a versioned entity.
+ *
+ * <p>Each attempt runs in a new transaction. A rolled back transaction clears the persistence context so the next attempt works on the current state
+ * of the entities.
+ *
+ * @since 0.18.0
+ */
+public class RetryingTransactionTemplate {
+
+    private static final Logger log = LogManager.getLogger();
+
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final Duration backoff;
+
+    /**
+     * Constructs a new retrying transaction template.
+     *
+     * @param transactionManager the transaction manager to execute the transactions with
+     * @param maxAttempts the maximum number of attempts including the first one
+     * @param backoff the base delay between two attempts which is multiplied by the number of failed attempts and randomized
+     */
+    public RetryingTransactionTemplate(PlatformTransactionManager transactionManager, int maxAttempts, Duration backoff) {
+        this.transactionTemplate = new TransactionTemplate(requireNonNull(transactionManager, "transactionManager must not be null!"));
+        this.maxAttempts = maxAttempts;
+        this.backoff = requireNonNull(backoff, "backoff must not be null!");
+    }
+
+    /**
+     * Executes the specified action within a transaction and retries it when the transaction failed due to a concurrent modification.
+     *
+     * @param action the action to execute
+     * @param <T> the type of the result
+     * @return the result of the action
+     * @throws OptimisticLockingFailureException if the last attempt failed due to a concurrent modification
+     */
+    public <T> T execute(TransactionCallback<T> action) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(action);
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= maxAttempts) {
+                    log.warn("Giving up transaction after {} attempts due to concurrent modification: {}", attempt, e.getMessage());
+                    throw e;
+                }
+                log.debug("Retrying transaction after attempt {} failed due to concurrent modification: {}", attempt, e.getMessage());
+                pause(attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Pauses the current thread before the next attempt.
+     *
+     * @param attempt the number of the failed attempt
+     * @param cause the failure of the attempt
+     * @throws OptimisticLockingFailureException if the current thread has been interrupted
+     */
+    private void pause(int attempt, OptimisticLockingFailureException cause) {
+        long delay = backoff.toMillis() * attempt;
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(delay / 2, delay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Executes methods annotated with {@link RetryingTransactional} with the {@link RetryingTransactionTemplate}.
+ *
+ * <p>Has the highest precedence so the retry wraps the transaction and all other advices of the method.
+ *
+ * @since 0.18.0
+ */
+@Aspect
+public class RetryingTransactionalAspect implements Ordered {
+
+    private final RetryingTransactionTemplate retryingTransactionTemplate;
+
+    public RetryingTransactionalAspect(RetryingTransactionTemplate retryingTransactionTemplate) {
+        this.retryingTransactionTemplate = requireNonNull(retryingTransactionTemplate, "retryingTransactionTemplate must not be null!");
+    }
+
+    @Around("@annotation(de.communicode.communikey.config.util.RetryingTransactional)")
+    public Object execute(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return joinPoint.proceed();
+        }
+        try {
+            return retryingTransactionTemplate.execute(status -> {
+                try {
+                    return joinPoint.proceed();
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new UndeclaredCheckedException(e);
+                }
+            });
+        } catch (UndeclaredCheckedException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    /**
+     * Tunnels a checked exception of the advised method through the transaction callback.
+     */
+    private static class UndeclaredCheckedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1;
+
+        UndeclaredCheckedException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import java.util.Collection;
+
+/**
+ * A token store which revokes all access tokens of multiple users at once.
+ *
+ * @since 0.18.0
+ */
+public interface RevocableTokenStore extends TokenStore {
+
+    /**
+     * Removes all access tokens issued to the users with the specified logins.
+     *
+     * @param userNames the logins of the users to remove the access tokens of
+     */
+    void removeAccessTokensByUserNames(Collection<String> userNames);
+}
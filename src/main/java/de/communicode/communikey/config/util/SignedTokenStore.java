@@ -0,0 +1,269 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.communicode.communikey.service.TokenRevocationService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.TokenEnhancer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * A token store for self-contained access tokens which are signed with a shared key.
+ *
+ * <p>As {@link TokenEnhancer} the issued access tokens are replaced by a signed token of the form {@code claims.signature}, both
+ * parts are Base64URL encoded. The claims contain the login and authorities of the user, the client, scopes, issue- and
+ * expiration date and the HMAC-SHA256 signature covers the encoded claims. Reading an access token only verifies the signature
+ * and checks the {@link TokenRevocationService} so that authenticating a request requires no I/O.
+ *
+ * <p>Nothing is stored, single tokens can therefore neither be found nor removed. Instead all tokens of a user are revoked
+ * through the {@link TokenRevocationService} when the tokens of the user are removed.
+ *
+ * @since 0.18.0
+ */
+public class SignedTokenStore implements RevocableTokenStore, TokenEnhancer {
+
+    private static final Logger log = LogManager.getLogger();
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SecretKeySpec signingKey;
+    private final String resourceId;
+    private final TokenRevocationService tokenRevocationService;
+
+    /**
+     * Constructs a new signed token store.
+     *
+     * @param signingKey the key to sign and verify the access tokens with
+     * @param resourceId the ID of the resource the access tokens grant access to
+     * @param tokenRevocationService the service to check the revocation of the access tokens with
+     */
+    public SignedTokenStore(byte[] signingKey, String resourceId, TokenRevocationService tokenRevocationService) {
+        requireNonNull(signingKey, "signingKey must not be null!");
+        this.signingKey = new SecretKeySpec(signingKey, ALGORITHM);
+        this.resourceId = requireNonNull(resourceId, "resourceId must not be null!");
+        this.tokenRevocationService = requireNonNull(tokenRevocationService, "tokenRevocationService must not be null!");
+    }
+
+    @Override
+    public OAuth2AccessToken enhance(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+        Claims claims = new Claims();
+        claims.sub = authentication.getName();
+        claims.clientId = authentication.getOAuth2Request().getClientId();
+        claims.scope = accessToken.getScope();
+        claims.authorities = authentication.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .collect(Collectors.toList());
+        claims.iat = Instant.now().toEpochMilli();
+        claims.exp = accessToken.getExpiration() != null ? accessToken.getExpiration().getTime() : null;
+        claims.jti = UUID.randomUUID().toString();
+
+        DefaultOAuth2AccessToken signedAccessToken = new DefaultOAuth2AccessToken(accessToken);
+        signedAccessToken.setValue(encode(claims));
+        return signedAccessToken;
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+        Claims claims = decode(tokenValue);
+        if (claims == null) {
+            return null;
+        }
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(tokenValue);
+        accessToken.setScope(claims.scope);
+        if (claims.exp != null) {
+            accessToken.setExpiration(new Date(claims.exp));
+        }
+        return accessToken;
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+        return readAuthentication(token.getValue());
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(String token) {
+        Claims claims = decode(token);
+        if (claims == null) {
+            return null;
+        }
+        Set<GrantedAuthority> authorities = claims.authorities.stream()
+            .map(SimpleGrantedAuthority::new)
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+        OAuth2Request request = new OAuth2Request(Collections.singletonMap("client_id", claims.clientId), claims.clientId, authorities, true,
+            claims.scope, Collections.singleton(resourceId), null, null, null);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(claims.sub, null, authorities));
+    }
+
+    /**
+     * Does nothing since signed access tokens are not stored.
+     */
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {}
+
+    /**
+     * Does nothing since signed access tokens are only revoked for all tokens of a user.
+     */
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {}
+
+    /**
+     * Revokes all access tokens issued to the users until now.
+     */
+    @Override
+    public void removeAccessTokensByUserNames(Collection<String> userNames) {
+        tokenRevocationService.revoke(userNames);
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {}
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+        return null;
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+        return null;
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {}
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {}
+
+    /**
+     * Always returns {@code null} so that a new access token is issued for each authorization.
+     */
+    @Override
+    public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+        return null;
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+        return Collections.emptyList();
+    }
+
+    private String encode(Claims claims) {
+        try {
+            String encodedClaims = ENCODER.encodeToString(objectMapper.writeValueAsBytes(claims));
+            return encodedClaims + '.' + ENCODER.encodeToString(sign(encodedClaims));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize the access token claims", e);
+        }
+    }
+
+    /**
+     * Verifies the signature of the specified access token and decodes its claims.
+     *
+     * @param tokenValue the access token
+     * @return the claims, {@code null} if the access token is malformed, its signature is invalid or it has been revoked
+     */
+    private Claims decode(String tokenValue) {
+        int separator = tokenValue.indexOf('.');
+        if (separator < 1 || separator != tokenValue.lastIndexOf('.')) {
+            return null;
+        }
+        String encodedClaims = tokenValue.substring(0, separator);
+        try {
+            if (!MessageDigest.isEqual(sign(encodedClaims), DECODER.decode(tokenValue.substring(separator + 1)))) {
+                log.debug("Rejected access token with an invalid signature");
+                return null;
+            }
+            Claims claims = objectMapper.readValue(DECODER.decode(encodedClaims), Claims.class);
+            if (claims.sub == null || tokenRevocationService.isRevoked(claims.sub, Instant.ofEpochMilli(claims.iat))) {
+                return null;
+            }
+            return claims;
+        } catch (IllegalArgumentException | IOException e) {
+            log.debug("Rejected malformed access token: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private byte[] sign(String encodedClaims) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(signingKey);
+            return mac.doFinal(encodedClaims.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign the access token", e);
+        }
+    }
+
+    /**
+     * The claims of a signed access token.
+     */
+    private static final class Claims {
+
+        public String sub;
+
+        @JsonProperty("client_id")
+        public String clientId;
+
+        public Set<String> scope;
+
+        public List<String> authorities;
+
+        public long iat;
+
+        public Long exp;
+
+        public String jti;
+    }
+}
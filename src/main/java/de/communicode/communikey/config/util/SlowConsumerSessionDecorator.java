@@ -0,0 +1,264 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import de.communicode.communikey.config.CommunikeyProperties.Websocket.SlowConsumerPolicy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A websocket session decorator that serializes concurrent sends and applies a {@link SlowConsumerPolicy} to sessions that
+ * can not keep up.
+ *
+ * <p>Messages are buffered while another thread is sending to the session. A session whose send exceeds the time limit is
+ * always closed since a blocked send can not be resolved by dropping messages. When the buffer exceeds its size limit, the
+ * session is either closed or the buffered STOMP {@code MESSAGE} frames are dropped and the session is marked for
+ * resynchronization, which is handed to the {@link WebSocketSessionMonitor} as soon as the buffer has been drained.
+ *
+ * @since 0.18.0
+ */
+public class SlowConsumerSessionDecorator extends WebSocketSessionDecorator {
+
+    private static final Logger log = LogManager.getLogger();
+
+    private static final String MESSAGE_FRAME = "MESSAGE\n";
+
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+    private final SlowConsumerPolicy policy;
+    private final WebSocketSessionMonitor monitor;
+
+    private final Queue<BufferedMessage> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final AtomicInteger droppedMessages = new AtomicInteger();
+    private final AtomicBoolean resyncRequired = new AtomicBoolean();
+    private final Lock flushLock = new ReentrantLock();
+    private final Lock closeLock = new ReentrantLock();
+
+    private volatile long sendStartTime;
+    private volatile boolean limitExceeded;
+    private volatile boolean closeInProgress;
+
+    /**
+     * Constructs a new slow consumer session decorator.
+     *
+     * @param delegate the session to decorate
+     * @param sendTimeLimit the maximum time in milliseconds a single send may take
+     * @param bufferSizeLimit the maximum amount of bytes to buffer
+     * @param policy the policy to apply when the buffer size limit is exceeded
+     * @param monitor the monitor to report the session state to
+     */
+    public SlowConsumerSessionDecorator(WebSocketSession delegate, int sendTimeLimit, int bufferSizeLimit, SlowConsumerPolicy policy,
+                                        WebSocketSessionMonitor monitor) {
+        super(delegate);
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.policy = requireNonNull(policy, "policy must not be null!");
+        this.monitor = requireNonNull(monitor, "monitor must not be null!");
+    }
+
+    /**
+     * @return the amount of buffered bytes
+     */
+    public int getBufferSize() {
+        return bufferSize.get();
+    }
+
+    /**
+     * @return the number of messages dropped since the last resynchronization request
+     */
+    public int getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * @return the time in milliseconds the current send is in progress, zero if there is none
+     */
+    public long getTimeSinceSendStarted() {
+        long start = sendStartTime;
+        return start > 0 ? System.currentTimeMillis() - start : 0;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (shouldNotSend()) {
+            return;
+        }
+        buffer.add(new BufferedMessage(message));
+        bufferSize.addAndGet(message.getPayloadLength());
+        do {
+            if (!tryFlushMessageBuffer()) {
+                checkSessionLimits();
+                break;
+            }
+        } while (!buffer.isEmpty() && !shouldNotSend());
+        requestResyncIfCaughtUp();
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        closeLock.lock();
+        try {
+            if (closeInProgress) {
+                return;
+            }
+            closeInProgress = true;
+            super.close(limitExceeded ? CloseStatus.SESSION_NOT_RELIABLE : status);
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    private boolean shouldNotSend() {
+        return limitExceeded || closeInProgress;
+    }
+
+    private boolean tryFlushMessageBuffer() throws IOException {
+        if (!flushLock.tryLock()) {
+            return false;
+        }
+        try {
+            while (true) {
+                BufferedMessage buffered = buffer.poll();
+                if (buffered == null || shouldNotSend()) {
+                    break;
+                }
+                if (!buffered.claim()) {
+                    continue;
+                }
+                bufferSize.addAndGet(-buffered.message.getPayloadLength());
+                sendStartTime = System.currentTimeMillis();
+                getDelegate().sendMessage(buffered.message);
+                sendStartTime = 0;
+            }
+        } finally {
+            sendStartTime = 0;
+            flushLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Requests the resynchronization of a session marked for it once all buffered messages have been sent.
+     */
+    private void requestResyncIfCaughtUp() {
+        if (!resyncRequired.get() || !buffer.isEmpty() || !flushLock.tryLock()) {
+            return;
+        }
+        try {
+            if (buffer.isEmpty() && !shouldNotSend() && resyncRequired.compareAndSet(true, false)) {
+                monitor.resyncRequired(this, droppedMessages.getAndSet(0));
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void checkSessionLimits() {
+        if (shouldNotSend() || !closeLock.tryLock()) {
+            return;
+        }
+        try {
+            if (getTimeSinceSendStarted() > sendTimeLimit) {
+                disconnect("Message send time " + getTimeSinceSendStarted() + " (ms) for session '" + getId() + "' exceeded the allowed limit "
+                    + sendTimeLimit);
+            } else if (bufferSize.get() > bufferSizeLimit) {
+                String reason = "The send buffer size " + bufferSize.get() + " bytes for session '" + getId() + "' exceeded the allowed limit "
+                    + bufferSizeLimit;
+                if (policy == SlowConsumerPolicy.DISCONNECT) {
+                    disconnect(reason);
+                }
+                dropBufferedMessages(reason);
+            }
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    private void disconnect(String reason) {
+        limitExceeded = true;
+        monitor.disconnected();
+        throw new SessionLimitExceededException(reason, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    /**
+     * Drops all buffered message frames while keeping protocol frames like receipts and heart-beats.
+     *
+     * @param reason the reason to drop the messages
+     */
+    private void dropBufferedMessages(String reason) {
+        int dropped = 0;
+        Iterator<BufferedMessage> messages = buffer.iterator();
+        while (messages.hasNext()) {
+            BufferedMessage buffered = messages.next();
+            // Claiming the message skips those that are flushed in the meantime
+            if (buffered.isMessageFrame() && buffered.claim()) {
+                messages.remove();
+                bufferSize.addAndGet(-buffered.message.getPayloadLength());
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            droppedMessages.addAndGet(dropped);
+            resyncRequired.set(true);
+            monitor.messagesDropped(dropped);
+            log.warn("{}, dropped {} messages and marked the session for resynchronization.", reason, dropped);
+        }
+    }
+
+    /**
+     * A buffered message which is either sent or dropped by whoever claims it first.
+     *
+     * <p>Dropping messages is linear in the buffer size since claimed messages are unlinked through the iterator instead of being
+     * searched in the queue.
+     */
+    private static final class BufferedMessage {
+
+        private final WebSocketMessage<?> message;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private BufferedMessage(WebSocketMessage<?> message) {
+            this.message = message;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        private boolean isMessageFrame() {
+            return message instanceof TextMessage && ((TextMessage) message).getPayload().startsWith(MESSAGE_FRAME);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static java.util.Objects.requireNonNull;
+
+import de.communicode.communikey.config.CommunikeyProperties.Websocket.SlowConsumerPolicy;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+/**
+ * A sub-protocol websocket handler that decorates all sessions with a {@link SlowConsumerSessionDecorator}.
+ *
+ * @since 0.18.0
+ */
+public class SlowConsumerSubProtocolWebSocketHandler extends SubProtocolWebSocketHandler {
+
+    private final SlowConsumerPolicy policy;
+    private final WebSocketSessionMonitor monitor;
+
+    /**
+     * Constructs a new slow consumer sub-protocol websocket handler.
+     *
+     * @param clientInboundChannel the channel for messages from clients
+     * @param clientOutboundChannel the channel for messages to clients
+     * @param policy the policy for sessions that exceed the send buffer size limit
+     * @param monitor the monitor to register all sessions with
+     */
+    public SlowConsumerSubProtocolWebSocketHandler(MessageChannel clientInboundChannel, SubscribableChannel clientOutboundChannel,
+                                                   SlowConsumerPolicy policy, WebSocketSessionMonitor monitor) {
+        super(clientInboundChannel, clientOutboundChannel);
+        this.policy = requireNonNull(policy, "policy must not be null!");
+        this.monitor = requireNonNull(monitor, "monitor must not be null!");
+    }
+
+    @Override
+    protected WebSocketSession decorateSession(WebSocketSession session) {
+        SlowConsumerSessionDecorator decoratedSession = new SlowConsumerSessionDecorator(session, getSendTimeLimit(), getSendBufferSizeLimit(), policy,
+            monitor);
+        monitor.register(decoratedSession);
+        return decoratedSession;
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+        try {
+            super.afterConnectionClosed(session, closeStatus);
+        } finally {
+            monitor.unregister(session.getId());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+/**
+ * Counts the completed transactions of the current thread within a counting scope, e.g. a single HTTP request.
+ *
+ * <p>Transactions outside of a counting scope are not counted.
+ *
+ * @see TransactionCountingSessionEventListener
+ * @since 0.18.0
+ */
+public final class TransactionCounter {
+
+    private static final ThreadLocal<TransactionCounter> CURRENT = new ThreadLocal<>();
+
+    private int commits;
+    private int rollbacks;
+
+    private TransactionCounter() {}
+
+    /**
+     * Starts a new counting scope for the current thread.
+     *
+     * @return the counter of the new scope
+     */
+    public static TransactionCounter start() {
+        TransactionCounter counter = new TransactionCounter();
+        CURRENT.set(counter);
+        return counter;
+    }
+
+    /**
+     * Ends the counting scope of the current thread.
+     */
+    public static void stop() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Records a completed transaction in the counting scope of the current thread, if any.
+     *
+     * @param committed {@code true} if the transaction has been committed, {@code false} if it has been rolled back
+     */
+    static void record(boolean committed) {
+        TransactionCounter counter = CURRENT.get();
+        if (counter != null) {
+            if (committed) {
+                counter.commits++;
+            } else {
+                counter.rollbacks++;
+            }
+        }
+    }
+
+    public int getCommits() {
+        return commits;
+    }
+
+    public int getRollbacks() {
+        return rollbacks;
+    }
+}
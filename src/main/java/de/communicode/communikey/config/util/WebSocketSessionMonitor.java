@@ -0,0 +1,208 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.config.util;
+
+import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_RESYNC;
+import static java.util.Objects.requireNonNull;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Monitors the send buffers of all websocket sessions and requests slow consumers to resynchronize.
+ *
+ * <p>Also records the messages the saturated client outbound channel could not hand over to its thread pool. The statistics are
+ * exported as JMX attributes.
+ *
+ * @since 0.18.0
+ */
+@ManagedResource(description = "Send buffer statistics of the websocket sessions")
+public class WebSocketSessionMonitor {
+
+    private static final Logger log = LogManager.getLogger();
+
+    private final Supplier<SimpMessageSendingOperations> messagingTemplate;
+    private final Map<String, SlowConsumerSessionDecorator> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong resyncRequests = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicLong rejectedMessages = new AtomicLong();
+
+    /**
+     * Constructs a new websocket session monitor.
+     *
+     * @param messagingTemplate the supplier of the template to send the resynchronization requests with
+     */
+    public WebSocketSessionMonitor(Supplier<SimpMessageSendingOperations> messagingTemplate) {
+        this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+    }
+
+    /**
+     * Registers a session to monitor.
+     *
+     * @param session the session to register
+     */
+    public void register(SlowConsumerSessionDecorator session) {
+        sessions.put(session.getId(), session);
+    }
+
+    /**
+     * Unregisters a closed session.
+     *
+     * @param sessionId the ID of the closed session
+     */
+    public void unregister(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    /**
+     * Records messages that were dropped for a slow session.
+     *
+     * @param dropped the number of dropped messages
+     */
+    void messagesDropped(int dropped) {
+        droppedMessages.addAndGet(dropped);
+    }
+
+    /**
+     * Records a slow session that is closed.
+     */
+    void disconnected() {
+        disconnects.incrementAndGet();
+    }
+
+    /**
+     * Creates the handler for messages rejected by the saturated thread pool of the client outbound channel.
+     *
+     * <p>The rejection is recorded and the message is sent on the calling thread instead of being lost, which slows down the
+     * producer and hands the message to the send buffer of its session where the slow consumer policy applies.
+     *
+     * @return the rejected execution handler
+     */
+    public RejectedExecutionHandler outboundRejectionHandler() {
+        RejectedExecutionHandler callerRunsPolicy = new ThreadPoolExecutor.CallerRunsPolicy();
+        return (task, executor) -> {
+            rejectedMessages.incrementAndGet();
+            callerRunsPolicy.rejectedExecution(task, executor);
+        };
+    }
+
+    /**
+     * Requests the client of a session that caught up after messages were dropped to resynchronize.
+     *
+     * <p>The request is sent to the user destination {@value de.communicode.communikey.controller.RequestMappings#QUEUE_UPDATES_RESYNC}
+     * of the affected session only.
+     *
+     * @param session the session that caught up
+     * @param dropped the number of dropped messages
+     */
+    void resyncRequired(SlowConsumerSessionDecorator session, int dropped) {
+        Principal user = session.getPrincipal();
+        if (user == null) {
+            return;
+        }
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headerAccessor.setSessionId(session.getId());
+        headerAccessor.setLeaveMutable(true);
+        try {
+            messagingTemplate.get().convertAndSendToUser(user.getName(), QUEUE_UPDATES_RESYNC, Collections.singletonMap("droppedMessages", dropped),
+                headerAccessor.getMessageHeaders());
+            resyncRequests.incrementAndGet();
+        } catch (RuntimeException e) {
+            log.error("Failed to request session '{}' to resynchronize.", session.getId(), e);
+        }
+    }
+
+    /**
+     * @return the buffered bytes of each session by session ID
+     */
+    @ManagedAttribute(description = "The buffered bytes of each session")
+    public Map<String, Integer> getBufferedBytesPerSession() {
+        Map<String, Integer> bufferedBytes = new ConcurrentHashMap<>();
+        sessions.forEach((id, session) -> bufferedBytes.put(id, session.getBufferSize()));
+        return bufferedBytes;
+    }
+
+    @ManagedAttribute(description = "The buffered bytes of all sessions")
+    public long getTotalBufferedBytes() {
+        return sessions.values().stream().mapToLong(SlowConsumerSessionDecorator::getBufferSize).sum();
+    }
+
+    @ManagedAttribute(description = "The highest amount of buffered bytes of a single session")
+    public int getMaxBufferedBytes() {
+        return sessions.values().stream().mapToInt(SlowConsumerSessionDecorator::getBufferSize).max().orElse(0);
+    }
+
+    @ManagedAttribute(description = "The number of sessions with buffered messages")
+    public long getBufferingSessions() {
+        return sessions.values().stream().filter(session -> session.getBufferSize() > 0).count();
+    }
+
+    @ManagedAttribute(description = "The number of monitored sessions")
+    public int getSessions() {
+        return sessions.size();
+    }
+
+    @ManagedAttribute(description = "The number of messages dropped for slow sessions")
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    @ManagedAttribute(description = "The number of resynchronization requests sent to slow sessions")
+    public long getResyncRequests() {
+        return resyncRequests.get();
+    }
+
+    @ManagedAttribute(description = "The number of slow sessions that were closed")
+    public long getDisconnects() {
+        return disconnects.get();
+    }
+
+    @ManagedAttribute(description = "The number of messages rejected by the client outbound channel and sent on the calling thread")
+    public long getRejectedMessages() {
+        return rejectedMessages.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WebSocketSessionMonitor{" +
+            "sessions=" + getSessions() +
+            ", bufferingSessions=" + getBufferingSessions() +
+            ", totalBufferedBytes=" + getTotalBufferedBytes() +
+            ", maxBufferedBytes=" + getMaxBufferedBytes() +
+            ", droppedMessages=" + getDroppedMessages() +
+            ", resyncRequests=" + getResyncRequests() +
+            ", disconnects=" + getDisconnects() +
+            ", rejectedMessages=" + getRejectedMessages() +
+            '}';
+    }
+}
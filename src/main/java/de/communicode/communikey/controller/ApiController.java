@@ -32,6 +32,7 @@ import de.communicode.communikey.domain.Authority;
 import de.communicode.communikey.domain.User;
 import de.communicode.communikey.security.AuthoritiesConstants;
 import de.communicode.communikey.security.SecurityUtils;
+import de.communicode.communikey.service.LoginService;
 import de.communicode.communikey.service.UserService;
 import de.communicode.communikey.service.payload.UserCredentialPayload;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -41,8 +42,6 @@ import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.OAuth2Request;
@@ -61,6 +60,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -75,7 +75,7 @@ import java.util.stream.Collectors;
 public class ApiController {
 
     private final UserService userService;
-    private final UserDetailsService restUserDetailsService;
+    private final LoginService loginService;
 
     private final AuthorizationServerTokenServices defaultAuthorizationServerTokenServices;
 
@@ -83,9 +83,9 @@ public class ApiController {
     @Autowired
     public ApiController(UserService userService,
                          AuthorizationServerTokenServices defaultAuthorizationServerTokenServices,
-                         UserDetailsService restUserDetailsService) {
+                         LoginService loginService) {
         this.userService = requireNonNull(userService, "userService must not be null!");
-        this.restUserDetailsService = requireNonNull(restUserDetailsService, "restUserDetailsService must not be null!");
+        this.loginService = requireNonNull(loginService, "loginService must not be null!");
         this.defaultAuthorizationServerTokenServices = requireNonNull(
             defaultAuthorizationServerTokenServices, "defaultAuthorizationServerTokenServices must not be null!");
     }
@@ -100,39 +100,18 @@ public class ApiController {
      *     <li>{@value RequestParameter#API_AUTHORIZE}</li>
      * </ul>
      *
+     * <p>The password is verified asynchronously by the {@link LoginService}, a {@link HttpStatus#SERVICE_UNAVAILABLE} is returned if
+     * too many logins are already waiting. The access token is issued on a login thread of the {@link LoginService} instead of a
+     * password hashing thread.
+     *
      * @param payload the payload containing the user credentials
      * @return a JSON payload of {@link OAuth2AccessToken} attributes if the user credentials are valid, a {@link HttpStatus#UNAUTHORIZED} otherwise
      * @since 0.8.0
      */
     @PostMapping(params = API_AUTHORIZE)
-    ResponseEntity authorizeOAuth2(@Valid @RequestBody UserCredentialPayload payload) {
-        if (!userService.validateCredentials(payload.getLogin(), payload.getPassword())) {
-            return new ResponseEntity(HttpStatus.UNAUTHORIZED);
-        }
-
-        User user = userService.validate(payload.getLogin());
-        UserDetails userDetails = restUserDetailsService.loadUserByUsername(payload.getLogin());
-
-        Map<String, String> authorizationParameters = ImmutableMap.of("scope", "read,write", "client_id", APP_ID, "grant", "password");
-        Set<GrantedAuthority> authorities = user.getAuthorities().stream()
-                .map(Authority::getName)
-                .map(SimpleGrantedAuthority::new)
-                .collect(Collectors.toSet());
-        Set<String> responseType = ImmutableSet.of("token");
-        Set<String> scopes = ImmutableSet.of("read", "write");
-
-        OAuth2Request authorizationRequest = new OAuth2Request(authorizationParameters, APP_ID, authorities, true, scopes, null, "", responseType, null);
-        UsernamePasswordAuthenticationToken authenticationToken = new UsernamePasswordAuthenticationToken(userDetails, null, authorities);
-        OAuth2Authentication authenticationRequest = new OAuth2Authentication(authorizationRequest, authenticationToken);
-        authenticationRequest.setAuthenticated(true);
-        OAuth2AccessToken accessToken = defaultAuthorizationServerTokenServices.createAccessToken(authenticationRequest);
-
-        return new ResponseEntity<>(ImmutableMap.builder()
-            .put(OAuth2AccessToken.ACCESS_TOKEN, accessToken.getValue())
-            .put(OAuth2AccessToken.TOKEN_TYPE, accessToken.getTokenType())
-            .put(OAuth2AccessToken.EXPIRES_IN, accessToken.getExpiresIn())
-            .build(),
-            HttpStatus.OK);
+    CompletableFuture<ResponseEntity> authorizeOAuth2(@Valid @RequestBody UserCredentialPayload payload) {
+        return loginService.authenticate(payload.getLogin(), payload.getPassword())
+            .thenApply(user -> user.map(this::createAccessToken).orElseGet(() -> new ResponseEntity(HttpStatus.UNAUTHORIZED)));
     }
 
     /**
@@ -184,4 +163,27 @@ public class ApiController {
             .build();
         return new ResponseEntity<>(response, HttpStatus.OK);
     }
+
+    private ResponseEntity createAccessToken(User user) {
+        Map<String, String> authorizationParameters = ImmutableMap.of("scope", "read,write", "client_id", APP_ID, "grant", "password");
+        Set<GrantedAuthority> authorities = user.getAuthorities().stream()
+                .map(Authority::getName)
+                .map(SimpleGrantedAuthority::new)
+                .collect(Collectors.toSet());
+        Set<String> responseType = ImmutableSet.of("token");
+        Set<String> scopes = ImmutableSet.of("read", "write");
+
+        OAuth2Request authorizationRequest = new OAuth2Request(authorizationParameters, APP_ID, authorities, true, scopes, null, "", responseType, null);
+        UsernamePasswordAuthenticationToken authenticationToken = new UsernamePasswordAuthenticationToken(user.getLogin(), null, authorities);
+        OAuth2Authentication authenticationRequest = new OAuth2Authentication(authorizationRequest, authenticationToken);
+        authenticationRequest.setAuthenticated(true);
+        OAuth2AccessToken accessToken = defaultAuthorizationServerTokenServices.createAccessToken(authenticationRequest);
+
+        return new ResponseEntity<>(ImmutableMap.builder()
+            .put(OAuth2AccessToken.ACCESS_TOKEN, accessToken.getValue())
+            .put(OAuth2AccessToken.TOKEN_TYPE, accessToken.getTokenType())
+            .put(OAuth2AccessToken.EXPIRES_IN, accessToken.getExpiresIn())
+            .build(),
+            HttpStatus.OK);
+    }
 }
@@ -21,11 +21,16 @@ import static de.communicode.communikey.controller.PathVariables.KEYCATEGORY_ID;
 import static de.communicode.communikey.controller.PathVariables.KEY_ID;
 import static de.communicode.communikey.controller.RequestMappings.KEY_CATEGORIES;
 import static de.communicode.communikey.controller.RequestMappings.KEY_CATEGORIES_HASHID;
+import static de.communicode.communikey.controller.RequestMappings.KEY_CATEGORIES_TREE;
 import static de.communicode.communikey.controller.RequestMappings.KEY_CATEGORY_GROUPS;
 import static de.communicode.communikey.controller.RequestMappings.KEY_CATEGORY_KEYS;
 import static de.communicode.communikey.controller.RequestMappings.KEY_CATEGORY_RESPONSIBLE;
 import static de.communicode.communikey.controller.RequestMappings.KEY_CATEGORY_MOVE;
+import static de.communicode.communikey.controller.RequestMappings.KEY_CATEGORY_TREE;
+import static de.communicode.communikey.controller.RequestParameter.TREE_DEPTH;
+import static de.communicode.communikey.controller.RequestParameter.TREE_INCLUDE_KEYS;
 import static java.util.Objects.requireNonNull;
+import static java.util.Optional.ofNullable;
 
 import de.communicode.communikey.domain.KeyCategory;
 import de.communicode.communikey.exception.HashidNotValidException;
@@ -52,6 +57,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.validation.Valid;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -112,6 +118,9 @@ public class KeyCategoryController {
      *
      * <p>This endpoint is mapped to "{@value RequestMappings#KEY_CATEGORIES}".
      *
+     * <p>Responds with a conflict if a sibling key category has the same name. Names are compared case-sensitively after they have
+     * been trimmed and composed to the Unicode normalization form C.
+     *
      * @param payload the payload for the new key category
      * @return the key category as response entity
      */
@@ -180,6 +189,45 @@ public class KeyCategoryController {
         return new ResponseEntity<>(keyCategoryService.getAll(), HttpStatus.OK);
     }
 
+    /**
+     * Gets the nested subtree of the key category with the specified ID.
+     *
+     * <p>This endpoint is mapped to "{@value RequestMappings#KEY_CATEGORIES}{@value RequestMappings#KEY_CATEGORY_TREE}".
+     *
+     * @param keyCategoryHashid the Hashid of the root key category of the subtree
+     * @param depth the maximum depth of the subtree relative to the root key category, unlimited if not specified
+     * @param includeKeys whether the keys of the key categories are included
+     * @return the root node of the subtree as response entity
+     * @throws KeyCategoryNotFoundException if the key category entity with the specified ID has not been found
+     * @since 0.18.0
+     */
+    @GetMapping(value = KEY_CATEGORY_TREE)
+    @Secured(AuthoritiesConstants.USER)
+    public ResponseEntity getTree(@PathVariable(name = KEYCATEGORY_ID) String keyCategoryHashid,
+                                  @RequestParam(name = TREE_DEPTH, required = false) Integer depth,
+                                  @RequestParam(name = TREE_INCLUDE_KEYS, defaultValue = "false") boolean includeKeys) {
+        return keyCategoryService.getTree(decodeSingleValueHashid(keyCategoryHashid), toTreeDepth(depth), includeKeys)
+            .map(tree -> new ResponseEntity<>(tree, HttpStatus.OK))
+            .orElseGet(() -> new ResponseEntity<>(HttpStatus.FORBIDDEN));
+    }
+
+    /**
+     * Gets the nested trees of all root key categories.
+     *
+     * <p>This endpoint is mapped to "{@value RequestMappings#KEY_CATEGORIES}{@value RequestMappings#KEY_CATEGORIES_TREE}".
+     *
+     * @param depth the maximum depth of the trees, unlimited if not specified
+     * @param includeKeys whether the keys of the key categories are included
+     * @return the root nodes of the trees as response entity
+     * @since 0.18.0
+     */
+    @GetMapping(value = KEY_CATEGORIES_TREE)
+    @Secured(AuthoritiesConstants.USER)
+    public ResponseEntity<List<KeyCategory.TreeNode>> getTrees(@RequestParam(name = TREE_DEPTH, required = false) Integer depth,
+                                                               @RequestParam(name = TREE_INCLUDE_KEYS, defaultValue = "false") boolean includeKeys) {
+        return new ResponseEntity<>(keyCategoryService.getTrees(toTreeDepth(depth), includeKeys), HttpStatus.OK);
+    }
+
     /**
      * Removes a user group from the key category with the specified ID.
      *
@@ -261,6 +309,17 @@ public class KeyCategoryController {
         return new ResponseEntity<>(keyCategoryService.move(decodeSingleValueHashid(keyCategorySourceHashid), payload), HttpStatus.OK);
     }
 
+    /**
+     * Converts the specified optional tree depth request parameter.
+     *
+     * @param depth the requested tree depth
+     * @return the tree depth, unlimited if not specified and at least {@code 0}
+     * @since 0.18.0
+     */
+    private int toTreeDepth(Integer depth) {
+        return Math.max(0, ofNullable(depth).orElse(Integer.MAX_VALUE));
+    }
+
     /**
      * Decodes the specified Hashid.
      *
@@ -86,6 +86,20 @@ public final class RequestMappings {
      */
     public static final String KEY_CATEGORIES_HASHID = "/{" + KEYCATEGORY_ID + "}";
 
+    /**
+     * The request mapping for the nested trees of all root {@link KeyCategory} entities.
+     *
+     * @since 0.18.0
+     */
+    public static final String KEY_CATEGORIES_TREE = "/tree";
+
+    /**
+     * The request mapping for the nested subtree of a {@link KeyCategory}.
+     *
+     * @since 0.18.0
+     */
+    public static final String KEY_CATEGORY_TREE = KEY_CATEGORIES_HASHID + KEY_CATEGORIES_TREE;
+
     /**
      * The request mapping for moving {@link KeyCategory} categories.
      */
@@ -211,6 +225,13 @@ public final class RequestMappings {
      */
     public static final String AUTHORITIES_NAME = "/{authorityName}";
 
+    /**
+     * The endpoint for the live update events to resume websocket clients.
+     *
+     * @since 0.18.0
+     */
+    public static final String UPDATES = API + "/updates";
+
     /**
      * The messaging queue endpoint.
      *
@@ -254,67 +275,109 @@ public final class RequestMappings {
     public static final String QUEUE_UPDATES_KEYS_DELETE = QUEUE_UPDATES_KEYS + ENDPOINT_DELETE;
 
     /**
-     * The user messaging update endpoint for key entities.
+     * The user messaging endpoint to request a session to resynchronize after updates were dropped or could not be logged.
+     *
+     * @since 0.18.0
+     */
+    public static final String QUEUE_UPDATES_RESYNC = QUEUE_UPDATES + "/resync";
+
+    /**
+     * The user messaging endpoint to notify a session about revoked topic subscriptions.
+     *
+     * @since 0.18.0
+     */
+    public static final String QUEUE_UPDATES_SUBSCRIPTIONS_REVOKED = QUEUE_UPDATES + "/subscriptions/revoked";
+
+    /**
+     * The messaging topic endpoint.
+     *
+     * @since 0.18.0
+     */
+    public static final String TOPIC = "/topic";
+
+    /**
+     * The messaging topic endpoint for key entities of a key category, followed by the Hashid of the key category.
+     *
+     * @since 0.18.0
+     */
+    public static final String TOPIC_CATEGORIES = TOPIC + "/categories";
+
+    /**
+     * The messaging topic endpoint for updates broadcast to all subscribers.
+     *
+     * @since 0.18.0
+     */
+    public static final String TOPIC_UPDATES = TOPIC + "/updates";
+
+    /**
+     * The messaging update endpoint for key category entities.
      *
      * @since 0.15.0
      */
-    public static final String QUEUE_UPDATES_CATEGORIES = QUEUE_UPDATES + "/categories";
+    public static final String TOPIC_UPDATES_CATEGORIES = TOPIC_UPDATES + "/categories";
 
     /**
-     * The user messaging update endpoint for deleted key entities.
+     * The messaging update endpoint for deleted key category entities.
      *
      * @since 0.15.0
      */
-    public static final String QUEUE_UPDATES_CATEGORIES_DELETE = QUEUE_UPDATES_CATEGORIES + ENDPOINT_DELETE;
+    public static final String TOPIC_UPDATES_CATEGORIES_DELETE = TOPIC_UPDATES_CATEGORIES + ENDPOINT_DELETE;
 
     /**
-     * The user messaging update endpoint for key entities.
+     * The messaging update endpoint for user group entities.
      *
      * @since 0.15.0
      */
-    public static final String QUEUE_UPDATES_GROUPS = QUEUE_UPDATES + ENDPOINT_GROUPS;
+    public static final String TOPIC_UPDATES_GROUPS = TOPIC_UPDATES + ENDPOINT_GROUPS;
 
     /**
-     * The user messaging update endpoint for deleted key entities.
+     * The messaging update endpoint for deleted user group entities.
      *
      * @since 0.15.0
      */
-    public static final String QUEUE_UPDATES_GROUPS_DELETE = QUEUE_UPDATES_GROUPS + ENDPOINT_DELETE;
+    public static final String TOPIC_UPDATES_GROUPS_DELETE = TOPIC_UPDATES_GROUPS + ENDPOINT_DELETE;
 
     /**
-     * The user messaging update endpoint for key entities.
+     * The messaging update endpoint for user entities.
      *
      * @since 0.15.0
      */
-    public static final String QUEUE_UPDATES_USERS = QUEUE_UPDATES + ENDPOINT_USERS;
+    public static final String TOPIC_UPDATES_USERS = TOPIC_UPDATES + ENDPOINT_USERS;
 
     /**
-     * The user messaging update endpoint for deleted key entities.
+     * The messaging update endpoint for deleted user entities.
      *
      * @since 0.15.0
      */
-    public static final String QUEUE_UPDATES_USERS_DELETE = QUEUE_UPDATES_USERS + ENDPOINT_DELETE;
+    public static final String TOPIC_UPDATES_USERS_DELETE = TOPIC_UPDATES_USERS + ENDPOINT_DELETE;
 
     /**
-     * The user messaging update endpoint for tag entities.
+     * The messaging update endpoint for tag entities.
      *
      * @since 0.18.0
      */
-    public static final String QUEUE_UPDATES_TAGS = QUEUE_UPDATES + ENDPOINT_TAGS;
+    public static final String TOPIC_UPDATES_TAGS = TOPIC_UPDATES + ENDPOINT_TAGS;
 
     /**
-     * The user messaging update endpoint for deleted tag entities.
+     * The messaging update endpoint for deleted tag entities.
      *
      * @since 0.18.0
      */
-    public static final String QUEUE_UPDATES_TAGS_DELETE = QUEUE_UPDATES_TAGS + ENDPOINT_DELETE;
+    public static final String TOPIC_UPDATES_TAGS_DELETE = TOPIC_UPDATES_TAGS + ENDPOINT_DELETE;
 
     /**
-     * The user messaging reply endpoint.
+     * The messaging topic endpoint to request all clients to resynchronize after a broadcast update frame could not be logged.
+     *
+     * @since 0.18.0
+     */
+    public static final String TOPIC_UPDATES_RESYNC = TOPIC_UPDATES + "/resync";
+
+    /**
+     * The messaging endpoint for the tokens of fulfilled encryption jobs.
      *
      * @since 0.15.0
      */
-    public static final String QUEUE_JOB_ABORT = QUEUE + "/encryption/jobs/aborts";
+    public static final String TOPIC_JOB_ABORT = TOPIC + "/encryption/jobs/aborts";
 
     /**
      * The endpoint for {@link EncryptionJob} entities.
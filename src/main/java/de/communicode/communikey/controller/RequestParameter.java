@@ -42,5 +42,27 @@ public final class RequestParameter {
      */
     public static final String API_ME = "me";
 
+    /**
+     * The request parameter for the {@value RequestMappings#UPDATES} endpoint with the sequence of the last received update event.
+     *
+     * @since 0.18.0
+     */
+    public static final String UPDATES_SINCE = "since";
+
+    /**
+     * The request parameter for the {@value RequestMappings#KEY_CATEGORIES} tree endpoints with the maximum depth of the returned trees.
+     *
+     * @since 0.18.0
+     */
+    public static final String TREE_DEPTH = "depth";
+
+    /**
+     * The request parameter for the {@value RequestMappings#KEY_CATEGORIES} tree endpoints whether the keys of the key categories are
+     * included.
+     *
+     * @since 0.18.0
+     */
+    public static final String TREE_INCLUDE_KEYS = "includeKeys";
+
     private RequestParameter() {}
 }
@@ -0,0 +1,89 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.controller;
+
+import static de.communicode.communikey.controller.RequestMappings.UPDATES;
+import static de.communicode.communikey.controller.RequestParameter.UPDATES_SINCE;
+import static de.communicode.communikey.security.SecurityUtils.getCurrentUserLogin;
+import static de.communicode.communikey.security.SecurityUtils.isCurrentUserInRole;
+import static java.util.Objects.requireNonNull;
+
+import de.communicode.communikey.domain.UpdateEvent;
+import de.communicode.communikey.security.AuthoritiesConstants;
+import de.communicode.communikey.service.UpdateEventService;
+import de.communicode.communikey.service.payload.UpdateEventsPayload;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The REST API controller to resume websocket clients with the {@link UpdateEvent} entities they missed.
+ *
+ * <p>Mapped to the "{@value RequestMappings#UPDATES}" endpoint.
+ *
+ * @since 0.18.0
+ */
+@RestController
+@RequestMapping(UPDATES)
+public class UpdateController {
+
+    private final UpdateEventService updateEventService;
+
+    @Autowired
+    public UpdateController(UpdateEventService updateEventService) {
+        this.updateEventService = requireNonNull(updateEventService, "updateEventService must not be null!");
+    }
+
+    /**
+     * Gets the latest sequence a client continues from after it loaded all entities.
+     *
+     * <p>This endpoint is mapped to "{@value RequestMappings#UPDATES}".
+     *
+     * @return the events payload with the latest sequence
+     */
+    @GetMapping
+    @Secured(AuthoritiesConstants.USER)
+    public ResponseEntity<UpdateEventsPayload> getLatest() {
+        return new ResponseEntity<>(updateEventService.getLatest(), HttpStatus.OK);
+    }
+
+    /**
+     * Gets the update events the current user missed since the specified sequence.
+     *
+     * <p>This endpoint is mapped to "{@value RequestMappings#UPDATES}".
+     *
+     * <p>Required parameter:
+     * <ul>
+     *     <li>{@value RequestParameter#UPDATES_SINCE}</li>
+     * </ul>
+     *
+     * @param sequence the sequence of the last update event the client received
+     * @return the missed events, a resynchronization request if they are not available anymore
+     */
+    @GetMapping(params = UPDATES_SINCE)
+    @Secured(AuthoritiesConstants.USER)
+    public ResponseEntity<UpdateEventsPayload> getSince(@RequestParam(UPDATES_SINCE) long sequence) {
+        return new ResponseEntity<>(updateEventService.getSince(sequence, getCurrentUserLogin(), isCurrentUserInRole(AuthoritiesConstants.ADMIN)),
+            HttpStatus.OK);
+    }
+}
@@ -17,6 +17,7 @@
  */
 package de.communicode.communikey.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 import de.communicode.communikey.service.view.AuthoritiesRestView;
 import org.springframework.data.annotation.CreatedBy;
@@ -28,6 +29,7 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import javax.persistence.Column;
 import javax.persistence.EntityListeners;
 import javax.persistence.MappedSuperclass;
+import javax.persistence.Version;
 
 import java.io.Serializable;
 import java.time.Instant;
@@ -64,6 +66,11 @@ public abstract class AbstractEntity implements Serializable {
     @JsonView(AuthoritiesRestView.Admin.class)
     private Instant lastModifiedDate = Instant.now();
 
+    @Version
+    @Column(name = "version", nullable = false)
+    @JsonIgnore
+    private long version;
+
     public String getCreatedBy() {
         return createdBy;
     }
@@ -95,4 +102,14 @@ public abstract class AbstractEntity implements Serializable {
     public void setLastModifiedDate(Instant lastModifiedDate) {
         this.lastModifiedDate = lastModifiedDate;
     }
+
+    /**
+     * Gets the version used for the optimistic locking of concurrent modifications.
+     *
+     * @return the version of the entity
+     * @since 0.18.0
+     */
+    public long getVersion() {
+        return version;
+    }
 }
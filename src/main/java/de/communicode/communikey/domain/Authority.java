@@ -17,6 +17,9 @@
  */
 package de.communicode.communikey.domain;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
@@ -32,6 +35,7 @@ import java.io.Serializable;
  */
 @Entity
 @Table(name = "authorities")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Authority extends AbstractEntity implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -22,7 +22,6 @@ import com.fasterxml.jackson.annotation.JsonIdentityReference;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
-import com.google.common.collect.Sets;
 
 import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
@@ -39,6 +38,7 @@ import javax.validation.constraints.NotNull;
 import javax.validation.constraints.NotBlank;
 
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -86,7 +86,7 @@ public class Key extends AbstractEntity implements Serializable {
     @ManyToMany(fetch = FetchType.LAZY, mappedBy = "key")
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
-    private Set<UserEncryptedPassword> userEncryptedPasswords = Sets.newConcurrentHashSet();
+    private Set<UserEncryptedPassword> userEncryptedPasswords = new HashSet<>();
 
     @Lob
     @Column(length = 500)
@@ -149,7 +149,7 @@ public class Key extends AbstractEntity implements Serializable {
     }
 
     public Set<UserEncryptedPassword> getUserEncryptedPasswords() {
-        return Sets.newConcurrentHashSet(userEncryptedPasswords);
+        return new HashSet<>(userEncryptedPasswords);
     }
 
     public void setUserEncryptedPasswords(Set<UserEncryptedPassword> userEncryptedPasswords) {
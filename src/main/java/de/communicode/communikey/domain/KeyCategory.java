@@ -20,11 +20,14 @@ package de.communicode.communikey.domain;
 import com.fasterxml.jackson.annotation.JsonIdentityInfo;
 import com.fasterxml.jackson.annotation.JsonIdentityReference;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonView;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
-import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import de.communicode.communikey.service.view.AuthoritiesRestView;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -38,10 +41,17 @@ import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.NotBlank;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -53,11 +63,27 @@ import java.util.Set;
  * @since 0.2.0
  */
 @Entity
-@Table(name = "key_categories")
+@Table(name = "key_categories",
+    uniqueConstraints = @UniqueConstraint(name = KeyCategory.UNIQUE_NAME_CONSTRAINT, columnNames = {"parent_key", "name_key"}))
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class KeyCategory extends AbstractEntity implements Serializable {
 
     private static final long serialVersionUID = 1;
 
+    /**
+     * The name of the unique constraint for the names of sibling key categories.
+     *
+     * @since 0.18.0
+     */
+    public static final String UNIQUE_NAME_CONSTRAINT = "uk_key_categories_parent_name_key";
+
+    /**
+     * The parent key of root key categories which is never used as ID.
+     *
+     * @since 0.18.0
+     */
+    public static final long ROOT_PARENT_KEY = 0;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @JsonIgnore
@@ -75,7 +101,7 @@ public class KeyCategory extends AbstractEntity implements Serializable {
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
     @JsonView(AuthoritiesRestView.Admin.class)
-    private final Set<Key> keys = Sets.newConcurrentHashSet();
+    private final Set<Key> keys = new HashSet<>();
 
     @ManyToOne
     @JoinColumn
@@ -85,13 +111,25 @@ public class KeyCategory extends AbstractEntity implements Serializable {
 
     @NotNull
     @OneToMany(fetch = FetchType.LAZY, mappedBy = "parent")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
-    private final Set<KeyCategory> children = Sets.newConcurrentHashSet();
+    private final Set<KeyCategory> children = new HashSet<>();
 
     @NotNull
     private int treeLevel = 0;
 
+    @Column(name = "inherit_groups", nullable = false)
+    private boolean inheritGroups = false;
+
+    @Column(name = "parent_key")
+    @JsonIgnore
+    private Long parentKey = ROOT_PARENT_KEY;
+
+    @Column(name = "name_key", length = 64)
+    @JsonIgnore
+    private String nameKey;
+
     @ManyToOne
     @JoinColumn(name = "creator_user_id", nullable = false)
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
@@ -99,6 +137,7 @@ public class KeyCategory extends AbstractEntity implements Serializable {
     private User creator;
 
     @ManyToMany(fetch = FetchType.LAZY)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(
         name = "key_categories_user_groups",
         joinColumns = {@JoinColumn(name = "key_category_id", referencedColumnName = "id")},
@@ -106,7 +145,7 @@ public class KeyCategory extends AbstractEntity implements Serializable {
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
     @JsonView(AuthoritiesRestView.Admin.class)
-    private final Set<UserGroup> groups = Sets.newConcurrentHashSet();
+    private final Set<UserGroup> groups = new HashSet<>();
 
     @ManyToOne
     @JoinColumn(name = "responsible_user_id")
@@ -144,6 +183,7 @@ public class KeyCategory extends AbstractEntity implements Serializable {
 
     public void setName(String name) {
         this.name = name;
+        this.nameKey = toNameKey(name);
     }
 
     public boolean addKey(Key key) {
@@ -167,7 +207,7 @@ public class KeyCategory extends AbstractEntity implements Serializable {
     }
 
     public Set<Key> getKeys() {
-        return Sets.newConcurrentHashSet(keys);
+        return new HashSet<>(keys);
     }
 
     public KeyCategory getParent() {
@@ -176,6 +216,7 @@ public class KeyCategory extends AbstractEntity implements Serializable {
 
     public void setParent(KeyCategory parent) {
         this.parent = parent;
+        this.parentKey = parent != null ? parent.getId() : ROOT_PARENT_KEY;
     }
 
     public boolean addChild(KeyCategory keyCategory) {
@@ -199,7 +240,7 @@ public class KeyCategory extends AbstractEntity implements Serializable {
     }
 
     public Set<KeyCategory> getChildren() {
-        return Sets.newConcurrentHashSet(children);
+        return new HashSet<>(children);
     }
 
     public int getTreeLevel() {
@@ -210,6 +251,22 @@ public class KeyCategory extends AbstractEntity implements Serializable {
         this.treeLevel = treeLevel;
     }
 
+    /**
+     * @return {@code true} if the key category inherits the user groups of its parent, {@code false} otherwise
+     * @since 0.18.0
+     */
+    public boolean isInheritGroups() {
+        return inheritGroups;
+    }
+
+    /**
+     * @param inheritGroups whether the key category inherits the user groups of its parent
+     * @since 0.18.0
+     */
+    public void setInheritGroups(boolean inheritGroups) {
+        this.inheritGroups = inheritGroups;
+    }
+
     public User getCreator() {
         return creator;
     }
@@ -239,7 +296,7 @@ public class KeyCategory extends AbstractEntity implements Serializable {
     }
 
     public Set<UserGroup> getGroups() {
-        return Sets.newConcurrentHashSet(groups);
+        return new HashSet<>(groups);
     }
 
     public User getResponsible() {
@@ -249,4 +306,123 @@ public class KeyCategory extends AbstractEntity implements Serializable {
     public void setResponsible(User responsible) {
         this.responsible = responsible;
     }
+
+    public Long getParentKey() {
+        return parentKey;
+    }
+
+    public String getNameKey() {
+        return nameKey;
+    }
+
+    /**
+     * Initializes the parent key and the name key from the current parent and name.
+     *
+     * <p>Used for key categories which have been persisted before the {@value #UNIQUE_NAME_CONSTRAINT} constraint has been
+     * introduced.
+     *
+     * @since 0.18.0
+     */
+    public void initializeUniqueName() {
+        setParent(parent);
+        setName(name);
+    }
+
+    /**
+     * Creates the key to compare the specified key category name with the names of sibling key categories.
+     *
+     * <p>The name is trimmed and composed to the Unicode normalization form C, names are compared case-sensitively. The key is the
+     * hex encoded SHA-256 digest of the normalized name so that the comparison does neither depend on the collation of the database
+     * column nor on the length of the name.
+     *
+     * @param name the name to create the key for
+     * @return the name key, {@code null} if the specified name is {@code null}
+     * @since 0.18.0
+     */
+    public static String toNameKey(String name) {
+        if (name == null) {
+            return null;
+        }
+        return Hashing.sha256().hashString(Normalizer.normalize(name.trim(), Normalizer.Form.NFC), StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Represents a key category as node of a nested key category tree with its children and, if included, its keys.
+     *
+     * @since 0.18.0
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class TreeNode {
+        private static final Comparator<TreeNode> BY_NAME = Comparator.comparing(TreeNode::getName);
+
+        private final String id;
+        private final String name;
+        private final String parent;
+        private final int treeLevel;
+        private final List<TreeNode> children = new ArrayList<>();
+        private final List<Key> keys;
+
+        /**
+         * Constructs a new tree node for the specified key category.
+         *
+         * @param keyCategory the key category of the node
+         * @param treeLevel the depth of the key category within the hierarchy
+         * @param includeKeys whether the keys of the key category are included
+         */
+        public TreeNode(KeyCategory keyCategory, int treeLevel, boolean includeKeys) {
+            this.id = keyCategory.getHashid();
+            this.name = keyCategory.getName();
+            this.parent = keyCategory.getParent() != null ? keyCategory.getParent().getHashid() : null;
+            this.treeLevel = treeLevel;
+            this.keys = includeKeys ? new ArrayList<>() : null;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getParent() {
+            return parent;
+        }
+
+        public int getTreeLevel() {
+            return treeLevel;
+        }
+
+        public List<TreeNode> getChildren() {
+            return children;
+        }
+
+        public List<Key> getKeys() {
+            return keys;
+        }
+
+        public void addChild(TreeNode child) {
+            children.add(child);
+        }
+
+        public void addKey(Key key) {
+            keys.add(key);
+        }
+
+        /**
+         * Sorts the children of this node by their name.
+         */
+        public void sortChildren() {
+            children.sort(BY_NAME);
+        }
+
+        /**
+         * Sorts the specified nodes by their name.
+         *
+         * @param nodes the nodes to sort
+         */
+        public static void sort(List<TreeNode> nodes) {
+            nodes.sort(BY_NAME);
+        }
+    }
 }
@@ -0,0 +1,131 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Represents an entry of the effective access control list of the {@link KeyCategory} hierarchy.
+ *
+ * <p>A {@link UserGroup} has effective access to a key category if it is assigned to the key category itself or, if the key category
+ * inherits the user groups of its parent, has effective access to the parent key category. The entries are maintained incrementally
+ * when user groups are added or removed and when key categories are created or moved, which allows to check the access of a user with
+ * a single indexed query.
+ *
+ * @since 0.18.0
+ */
+@Entity
+@IdClass(KeyCategoryGroupAccess.AccessId.class)
+@Table(name = "key_category_group_access", indexes = @Index(name = "idx_key_category_group_access_group", columnList = "user_group_id"))
+public class KeyCategoryGroupAccess implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    @Id
+    @Column(name = "key_category_id")
+    private Long keyCategoryId;
+
+    @Id
+    @Column(name = "user_group_id")
+    private Long userGroupId;
+
+    public KeyCategoryGroupAccess() {}
+
+    /**
+     * Constructs a new key category group access entry.
+     *
+     * @param keyCategoryId the ID of the key category
+     * @param userGroupId the ID of the user group with effective access to the key category
+     */
+    public KeyCategoryGroupAccess(Long keyCategoryId, Long userGroupId) {
+        this.keyCategoryId = keyCategoryId;
+        this.userGroupId = userGroupId;
+    }
+
+    public Long getKeyCategoryId() {
+        return keyCategoryId;
+    }
+
+    public Long getUserGroupId() {
+        return userGroupId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KeyCategoryGroupAccess)) {
+            return false;
+        }
+        KeyCategoryGroupAccess access = (KeyCategoryGroupAccess) o;
+        return Objects.equals(keyCategoryId, access.keyCategoryId) && Objects.equals(userGroupId, access.userGroupId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(keyCategoryId, userGroupId);
+    }
+
+    @Override
+    public String toString() {
+        return "KeyCategoryGroupAccess{" + "keyCategoryId=" + keyCategoryId + ", userGroupId=" + userGroupId + '}';
+    }
+
+    /**
+     * The composite identifier of a key category group access entry.
+     */
+    public static class AccessId implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        private Long keyCategoryId;
+        private Long userGroupId;
+
+        public AccessId() {}
+
+        public AccessId(Long keyCategoryId, Long userGroupId) {
+            this.keyCategoryId = keyCategoryId;
+            this.userGroupId = userGroupId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AccessId)) {
+                return false;
+            }
+            AccessId accessId = (AccessId) o;
+            return Objects.equals(keyCategoryId, accessId.keyCategoryId) && Objects.equals(userGroupId, accessId.userGroupId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(keyCategoryId, userGroupId);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Represents a path of the closure index of the {@link KeyCategory} hierarchy.
+ *
+ * <p>Every key category is linked to itself with a depth of zero and to each of its direct- and indirect ancestors with the
+ * distance to that ancestor, which allows to query the ancestors, descendants and depth of a key category with a single indexed
+ * query instead of walking the parent references.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/Transitive_closure">Wikipedia - Transitive closure</a>
+ * @since 0.18.0
+ */
+@Entity
+@IdClass(KeyCategoryPath.PathId.class)
+@Table(name = "key_category_paths", indexes = @Index(name = "idx_key_category_paths_descendant", columnList = "descendant_id, depth"))
+public class KeyCategoryPath implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    @Id
+    @Column(name = "ancestor_id")
+    private Long ancestorId;
+
+    @Id
+    @Column(name = "descendant_id")
+    private Long descendantId;
+
+    @Column(nullable = false)
+    private int depth;
+
+    public KeyCategoryPath() {}
+
+    /**
+     * Constructs a new key category path.
+     *
+     * @param ancestorId the ID of the ancestor key category
+     * @param descendantId the ID of the descendant key category
+     * @param depth the distance between the ancestor- and the descendant key category
+     */
+    public KeyCategoryPath(Long ancestorId, Long descendantId, int depth) {
+        this.ancestorId = ancestorId;
+        this.descendantId = descendantId;
+        this.depth = depth;
+    }
+
+    public Long getAncestorId() {
+        return ancestorId;
+    }
+
+    public Long getDescendantId() {
+        return descendantId;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyCategoryPath{" + "ancestorId=" + ancestorId + ", descendantId=" + descendantId + ", depth=" + depth + '}';
+    }
+
+    /**
+     * The composite identifier of a key category path.
+     */
+    public static class PathId implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        private Long ancestorId;
+        private Long descendantId;
+
+        public PathId() {}
+
+        public PathId(Long ancestorId, Long descendantId) {
+            this.ancestorId = ancestorId;
+            this.descendantId = descendantId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PathId)) {
+                return false;
+            }
+            PathId pathId = (PathId) o;
+            return Objects.equals(ancestorId, pathId.ancestorId) && Objects.equals(descendantId, pathId.descendantId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ancestorId, descendantId);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Represents the revocation of all signed access tokens of a user issued up to the revocation date.
+ *
+ * <p>Only the latest revocation of each user is kept so that the revocation list stays as small as the amount of users whose
+ * tokens have been revoked within the access token validity.
+ *
+ * @since 0.18.0
+ */
+@Entity
+@Table(name = "token_revocations", indexes = @Index(name = "idx_token_revocations_revoked_date", columnList = "revoked_date"))
+public class TokenRevocation implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    @Id
+    private String login;
+
+    @Column(name = "revoked_date", nullable = false)
+    private Instant revokedDate;
+
+    public TokenRevocation() {}
+
+    /**
+     * Constructs a new token revocation.
+     *
+     * @param login the login of the user whose tokens are revoked
+     * @param revokedDate the date up to which the issued tokens are revoked
+     */
+    public TokenRevocation(String login, Instant revokedDate) {
+        this.login = login;
+        this.revokedDate = revokedDate;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public Instant getRevokedDate() {
+        return revokedDate;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenRevocation{" + "login='" + login + '\'' + ", revokedDate=" + revokedDate + '}';
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a live update frame that has been sent to websocket subscribers.
+ *
+ * <p>Events are only appended and never modified. The sequence is assigned by the database, the events of one instance are
+ * persisted and sent in the order of their sequence while the events of other instances may become visible out of order.
+ *
+ * @since 0.18.0
+ */
+@Entity
+@Immutable
+@Table(name = "update_events", indexes = @Index(name = "idx_update_events_created_date", columnList = "created_date"))
+public class UpdateEvent implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    private static final String RECIPIENT_SEPARATOR = "\n";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long sequence;
+
+    @Column(name = "created_date", nullable = false, updatable = false)
+    @JsonIgnore
+    private Instant createdDate = Instant.now();
+
+    @Column(nullable = false, updatable = false)
+    private String destination;
+
+    @Column(updatable = false)
+    @Lob
+    @JsonIgnore
+    private String recipients;
+
+    @Column(nullable = false, updatable = false)
+    @Lob
+    private String updates;
+
+    public UpdateEvent() {}
+
+    /**
+     * Constructs a new update event.
+     *
+     * @param destination the destination of the update frame
+     * @param recipients the logins of the users the frame was sent to, empty for a broadcast
+     * @param updates the JSON array of the updates
+     */
+    public UpdateEvent(String destination, Collection<String> recipients, String updates) {
+        this.destination = destination;
+        this.recipients = recipients.isEmpty() ? null : String.join(RECIPIENT_SEPARATOR, recipients);
+        this.updates = updates;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public Instant getCreatedDate() {
+        return createdDate;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return the logins of the users the frame was sent to, empty for a broadcast
+     */
+    @JsonIgnore
+    public List<String> getRecipients() {
+        return recipients == null ? Collections.emptyList() : Arrays.asList(recipients.split(RECIPIENT_SEPARATOR));
+    }
+
+    @JsonIgnore
+    public boolean isBroadcast() {
+        return recipients == null;
+    }
+
+    @JsonRawValue
+    public String getUpdates() {
+        return updates;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateEvent{" + "sequence=" + sequence + ", destination='" + destination + '\'' + ", createdDate=" + createdDate + '}';
+    }
+}
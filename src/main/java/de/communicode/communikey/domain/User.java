@@ -24,7 +24,6 @@ import com.fasterxml.jackson.annotation.JsonIdentityReference;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
-import com.google.common.collect.Sets;
 import de.communicode.communikey.service.view.AuthoritiesRestView;
 
 import javax.validation.constraints.NotBlank;
@@ -45,6 +44,7 @@ import javax.validation.constraints.Pattern;
 
 import java.io.Serializable;
 import java.time.ZonedDateTime;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -123,35 +123,35 @@ public class User extends AbstractEntity implements Serializable {
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "name")
     @JsonIdentityReference(alwaysAsId = true)
     @JsonView(AuthoritiesRestView.Admin.class)
-    private final Set<Authority> authorities = Sets.newConcurrentHashSet();
+    private final Set<Authority> authorities = new HashSet<>();
 
     @ManyToMany(fetch = FetchType.LAZY, mappedBy = "users")
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
     @JsonView(AuthoritiesRestView.Admin.class)
-    private final Set<UserGroup> groups = Sets.newConcurrentHashSet();
+    private final Set<UserGroup> groups = new HashSet<>();
 
     @OneToMany(fetch = FetchType.LAZY, mappedBy = "creator")
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
-    private final Set<Key> keys = Sets.newConcurrentHashSet();
+    private final Set<Key> keys = new HashSet<>();
 
     @OneToMany(fetch = FetchType.LAZY, mappedBy = "owner")
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
-    private final Set<UserEncryptedPassword> encryptedPasswords = Sets.newConcurrentHashSet();
+    private final Set<UserEncryptedPassword> encryptedPasswords = new HashSet<>();
 
     @OneToMany(fetch = FetchType.LAZY, mappedBy = "creator")
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
     @JsonView(AuthoritiesRestView.Admin.class)
-    private final Set<KeyCategory> keyCategories = Sets.newConcurrentHashSet();
+    private final Set<KeyCategory> keyCategories = new HashSet<>();
 
     @OneToMany(fetch = FetchType.LAZY, mappedBy = "responsible")
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
     @JsonView(AuthoritiesRestView.Admin.class)
-    private final Set<KeyCategory> responsibleKeyCategories = Sets.newConcurrentHashSet();
+    private final Set<KeyCategory> responsibleKeyCategories = new HashSet<>();
 
     public Long getId() {
         return id;
@@ -278,7 +278,7 @@ public class User extends AbstractEntity implements Serializable {
     }
 
     public Set<Authority> getAuthorities() {
-        return Sets.newConcurrentHashSet(authorities);
+        return new HashSet<>(authorities);
     }
 
     public boolean addGroup(UserGroup userGroup) {
@@ -302,11 +302,11 @@ public class User extends AbstractEntity implements Serializable {
     }
 
     public Set<UserGroup> getGroups() {
-        return Sets.newConcurrentHashSet(groups);
+        return new HashSet<>(groups);
     }
 
     public Set<UserEncryptedPassword> getEncryptedPasswords() {
-        return Sets.newConcurrentHashSet(this.encryptedPasswords);
+        return new HashSet<>(this.encryptedPasswords);
     }
 
     public boolean addUserEncryptedPassword(UserEncryptedPassword userEncryptedPassword) {
@@ -350,7 +350,7 @@ public class User extends AbstractEntity implements Serializable {
     }
 
     public Set<Key> getKeys() {
-        return Sets.newConcurrentHashSet(keys);
+        return new HashSet<>(keys);
     }
 
     public boolean addKeyCategory(KeyCategory keyCategory) {
@@ -374,7 +374,7 @@ public class User extends AbstractEntity implements Serializable {
     }
 
     public Set<KeyCategory> getKeyCategories() {
-        return Sets.newConcurrentHashSet(responsibleKeyCategories);
+        return new HashSet<>(responsibleKeyCategories);
     }
 
     public boolean addResponsibleKeyCategory(KeyCategory responsibleKeyCategory) {
@@ -398,7 +398,7 @@ public class User extends AbstractEntity implements Serializable {
     }
 
     public Set<KeyCategory> getResponsibleKeyCategories() {
-        return Sets.newConcurrentHashSet(responsibleKeyCategories);
+        return new HashSet<>(responsibleKeyCategories);
     }
 
     @JsonIgnore
@@ -410,7 +410,7 @@ public class User extends AbstractEntity implements Serializable {
         private String user;
         private String publicKey;
 
-        SubscriberInfo(String user, String publicKey) {
+        public SubscriberInfo(String user, String publicKey) {
             this.user = user;
             this.publicKey = publicKey;
         }
@@ -21,8 +21,9 @@ import com.fasterxml.jackson.annotation.JsonIdentityInfo;
 import com.fasterxml.jackson.annotation.JsonIdentityReference;
 import com.fasterxml.jackson.annotation.JsonView;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
-import com.google.common.collect.Sets;
 import de.communicode.communikey.service.view.AuthoritiesRestView;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.validation.constraints.NotBlank;
 import javax.persistence.Column;
@@ -37,6 +38,7 @@ import javax.persistence.ManyToMany;
 import javax.persistence.Table;
 
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -47,6 +49,7 @@ import java.util.Set;
  */
 @Entity
 @Table(name = "user_groups")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class UserGroup extends AbstractEntity implements Serializable {
 
     private static final long serialVersionUID = 1;
@@ -68,13 +71,14 @@ public class UserGroup extends AbstractEntity implements Serializable {
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
     @JsonView(AuthoritiesRestView.Admin.class)
-    private final Set<User> users = Sets.newConcurrentHashSet();
+    private final Set<User> users = new HashSet<>();
 
     @ManyToMany(fetch = FetchType.LAZY, mappedBy = "groups")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
     @JsonIdentityReference(alwaysAsId = true)
     @JsonView(AuthoritiesRestView.Admin.class)
-    private final Set<KeyCategory> categories = Sets.newConcurrentHashSet();
+    private final Set<KeyCategory> categories = new HashSet<>();
 
     public Long getId() {
         return id;
@@ -113,7 +117,7 @@ public class UserGroup extends AbstractEntity implements Serializable {
     }
 
     public Set<User> getUsers() {
-        return Sets.newConcurrentHashSet(users);
+        return new HashSet<>(users);
     }
 
     public boolean addCategory(KeyCategory keyCategory) {
@@ -137,7 +141,7 @@ public class UserGroup extends AbstractEntity implements Serializable {
     }
 
     public Set<KeyCategory> getCategories() {
-        return Sets.newConcurrentHashSet(categories);
+        return new HashSet<>(categories);
     }
 
     @Override
@@ -0,0 +1,33 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.exception;
+
+/**
+ * Thrown to indicate that a login has been rejected because all password hashing threads are busy and the queue is full.
+ *
+ * @since 0.18.0
+ */
+public class LoginCapacityExceededException extends RuntimeException {
+
+    /**
+     * Constructs an {@code LoginCapacityExceededException}.
+     */
+    public LoginCapacityExceededException() {
+        super("too many concurrent logins, please try again later");
+    }
+}
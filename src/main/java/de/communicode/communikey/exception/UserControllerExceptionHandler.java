@@ -69,6 +69,18 @@ public class UserControllerExceptionHandler extends GlobalControllerExceptionHan
         return createErrorResponse(HttpStatus.UNAUTHORIZED, new Timestamp(Calendar.getInstance().getTimeInMillis()), exception.getMessage());
     }
 
+    /**
+     * Handles all exceptions of type {@link LoginCapacityExceededException}.
+     *
+     * @param exception the exception to handle
+     * @return the error as response entity
+     * @since 0.18.0
+     */
+    @ExceptionHandler(LoginCapacityExceededException.class)
+    public ResponseEntity<ErrorResponse> handleLoginCapacityExceededException(final LoginCapacityExceededException exception) {
+        return createErrorResponse(HttpStatus.SERVICE_UNAVAILABLE, new Timestamp(Calendar.getInstance().getTimeInMillis()), exception.getMessage());
+    }
+
     /**
      * Handles all exceptions of type {@link UserNotFoundException}.
      *
@@ -17,9 +17,14 @@
  */
 package de.communicode.communikey.repository;
 
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+
 import de.communicode.communikey.domain.Authority;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
+import javax.persistence.QueryHint;
+
 import java.util.Set;
 
 /**
@@ -36,6 +41,7 @@ public interface AuthorityRepository extends CrudRepository<Authority, String> {
      * @since 0.9.0
      */
     @Override
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     Set<Authority> findAll();
 
     /**
@@ -45,5 +51,6 @@ public interface AuthorityRepository extends CrudRepository<Authority, String> {
      * @return the found authority entity, {@code null} otherwise
      * @since 0.3.0
      */
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     Authority findOneByName(String name);
 }
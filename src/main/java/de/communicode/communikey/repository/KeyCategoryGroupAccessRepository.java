@@ -0,0 +1,151 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.repository;
+
+import de.communicode.communikey.domain.KeyCategory;
+import de.communicode.communikey.domain.KeyCategoryGroupAccess;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * A repository for the {@link KeyCategoryGroupAccess} effective access control list of the {@link KeyCategory} hierarchy.
+ *
+ * @since 0.18.0
+ */
+@Repository
+public interface KeyCategoryGroupAccessRepository extends CrudRepository<KeyCategoryGroupAccess, KeyCategoryGroupAccess.AccessId> {
+
+    /**
+     * Counts the user groups of the user with the specified login with effective access to the key category with the specified ID.
+     *
+     * @param keyCategoryId the ID of the key category
+     * @param login the login of the user
+     * @return the number of user groups with access, {@code 0} if the user has no access to the key category
+     */
+    @Query("select count(a) from KeyCategoryGroupAccess a, UserGroup g join g.users u "
+        + "where a.userGroupId = g.id and a.keyCategoryId = :keyCategoryId and u.login = :login")
+    long countByKeyCategoryIdAndLogin(@Param("keyCategoryId") Long keyCategoryId, @Param("login") String login);
+
+    /**
+     * Finds the IDs of all key categories the user with the specified login has effective access to through the user groups.
+     *
+     * @param login the login of the user
+     * @return a collection of found key category IDs
+     */
+    @Query("select distinct a.keyCategoryId from KeyCategoryGroupAccess a, UserGroup g join g.users u "
+        + "where a.userGroupId = g.id and u.login = :login")
+    Set<Long> findAllKeyCategoryIdsByLogin(@Param("login") String login);
+
+    /**
+     * Finds the Hashids of all key categories the user with the specified login has effective access to through the user groups.
+     *
+     * @param login the login of the user
+     * @return a collection of found key category Hashids
+     */
+    @Query("select distinct c.hashid from KeyCategory c, KeyCategoryGroupAccess a, UserGroup g join g.users u "
+        + "where c.id = a.keyCategoryId and a.userGroupId = g.id and u.login = :login")
+    Set<String> findAllKeyCategoryHashidsByLogin(@Param("login") String login);
+
+    /**
+     * Finds all effective access entries of the key categories with the specified IDs.
+     *
+     * @param keyCategoryIds the IDs of the key categories
+     * @return a collection of found entries
+     */
+    Set<KeyCategoryGroupAccess> findAllByKeyCategoryIdIn(Collection<Long> keyCategoryIds);
+
+    /**
+     * Finds the IDs of the key category with the specified ID and all of its direct- and indirect children which inherit the user
+     * groups of the key category, which are all children that are only connected through inheriting key categories.
+     *
+     * @param ancestorId the ID of the key category
+     * @return a collection of found key category IDs
+     */
+    @Query("select p.descendantId from KeyCategoryPath p where p.ancestorId = :ancestorId and not exists ("
+        + "select x.id from KeyCategoryPath x1, KeyCategoryPath x2, KeyCategory x where x1.ancestorId = :ancestorId and x1.depth > 0 "
+        + "and x2.ancestorId = x1.descendantId and x2.descendantId = p.descendantId and x.id = x1.descendantId and x.inheritGroups = false)")
+    Set<Long> findAllInheritingIds(@Param("ancestorId") Long ancestorId);
+
+    /**
+     * Inserts the effective access entries of the key categories with the specified IDs.
+     *
+     * <p>A user group has effective access to a key category if it is assigned to the key category itself or to an ancestor which is
+     * only connected to the key category through inheriting key categories.
+     *
+     * @param keyCategoryIds the IDs of the key categories
+     * @return the number of inserted entries
+     */
+    @Modifying
+    @Query("insert into KeyCategoryGroupAccess (keyCategoryId, userGroupId) "
+        + "select distinct p.descendantId, g.id from KeyCategoryPath p, KeyCategory c join c.groups g "
+        + "where c.id = p.ancestorId and p.descendantId in :keyCategoryIds and not exists ("
+        + "select x.id from KeyCategoryPath x1, KeyCategoryPath x2, KeyCategory x where x1.ancestorId = p.ancestorId and x1.depth > 0 "
+        + "and x2.ancestorId = x1.descendantId and x2.descendantId = p.descendantId and x.id = x1.descendantId and x.inheritGroups = false)")
+    int insertAllByKeyCategoryIdIn(@Param("keyCategoryIds") Collection<Long> keyCategoryIds);
+
+    /**
+     * Inserts the effective access entries of all key categories.
+     *
+     * <p>Used to rebuild the effective access control list.
+     *
+     * @return the number of inserted entries
+     * @see #insertAllByKeyCategoryIdIn(Collection)
+     */
+    @Modifying
+    @Query("insert into KeyCategoryGroupAccess (keyCategoryId, userGroupId) "
+        + "select distinct p.descendantId, g.id from KeyCategoryPath p, KeyCategory c join c.groups g "
+        + "where c.id = p.ancestorId and not exists ("
+        + "select x.id from KeyCategoryPath x1, KeyCategoryPath x2, KeyCategory x where x1.ancestorId = p.ancestorId and x1.depth > 0 "
+        + "and x2.ancestorId = x1.descendantId and x2.descendantId = p.descendantId and x.id = x1.descendantId and x.inheritGroups = false)")
+    int insertAll();
+
+    /**
+     * Deletes all effective access entries of the key categories with the specified IDs.
+     *
+     * @param keyCategoryIds the IDs of the key categories
+     * @return the number of deleted entries
+     */
+    @Modifying
+    @Query("delete from KeyCategoryGroupAccess a where a.keyCategoryId in :keyCategoryIds")
+    int deleteByKeyCategoryIdIn(@Param("keyCategoryIds") Collection<Long> keyCategoryIds);
+
+    /**
+     * Deletes all effective access entries of the user group with the specified ID.
+     *
+     * @param userGroupId the ID of the user group
+     * @return the number of deleted entries
+     */
+    @Modifying
+    @Query("delete from KeyCategoryGroupAccess a where a.userGroupId = :userGroupId")
+    int deleteByUserGroupId(@Param("userGroupId") Long userGroupId);
+
+    /**
+     * Deletes all effective access entries.
+     *
+     * @return the number of deleted entries
+     */
+    @Modifying
+    @Query("delete from KeyCategoryGroupAccess a")
+    int deleteAllEntries();
+}
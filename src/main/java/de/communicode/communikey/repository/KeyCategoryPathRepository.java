@@ -0,0 +1,191 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.repository;
+
+import de.communicode.communikey.domain.KeyCategory;
+import de.communicode.communikey.domain.KeyCategoryPath;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A repository for the {@link KeyCategoryPath} closure index of the {@link KeyCategory} hierarchy.
+ *
+ * @since 0.18.0
+ */
+@Repository
+public interface KeyCategoryPathRepository extends CrudRepository<KeyCategoryPath, KeyCategoryPath.PathId> {
+
+    /**
+     * Checks whether the key category with the specified descendant ID is the key category with the specified ancestor ID or one
+     * of its direct- or indirect children.
+     *
+     * @param ancestorId the ID of the ancestor key category
+     * @param descendantId the ID of the descendant key category
+     * @return {@code true} if the path exists, {@code false} otherwise
+     */
+    boolean existsByAncestorIdAndDescendantId(Long ancestorId, Long descendantId);
+
+    /**
+     * Finds the IDs of the direct- and indirect ancestors of the key category with the specified ID.
+     *
+     * @param descendantId the ID of the key category to find the ancestors of
+     * @return a collection of found key category IDs
+     */
+    @Query("select p.ancestorId from KeyCategoryPath p where p.descendantId = :descendantId and p.depth > 0")
+    Set<Long> findAncestorIds(@Param("descendantId") Long descendantId);
+
+    /**
+     * Finds the IDs of the key category with the specified ID and all of its direct- and indirect children.
+     *
+     * @param ancestorId the ID of the root key category of the subtree
+     * @return a collection of found key category IDs
+     */
+    @Query("select p.descendantId from KeyCategoryPath p where p.ancestorId = :ancestorId")
+    Set<Long> findSubtreeIds(@Param("ancestorId") Long ancestorId);
+
+    /**
+     * Finds the paths from the key category with the specified ID to itself and all of its direct- and indirect children up to the
+     * specified depth.
+     *
+     * @param ancestorId the ID of the root key category of the subtree
+     * @param depth the maximum distance to the root key category
+     * @return a collection of found paths
+     */
+    List<KeyCategoryPath> findAllByAncestorIdAndDepthLessThanEqual(Long ancestorId, int depth);
+
+    /**
+     * Finds the paths from all root key categories to themselves and all of their direct- and indirect children up to the specified
+     * depth.
+     *
+     * @param depth the maximum distance to the root key categories
+     * @return a collection of found paths
+     */
+    @Query("select p from KeyCategoryPath p, KeyCategory c where p.ancestorId = c.id and c.parent is null and p.depth <= :depth")
+    List<KeyCategoryPath> findAllOfRootsByDepthLessThanEqual(@Param("depth") int depth);
+
+    /**
+     * Finds the IDs of all key categories the user with the specified login is authorized to see, which are the key categories one of
+     * the user groups of the user has effective access to and all of their direct- and indirect ancestors.
+     *
+     * @param login the login of the user
+     * @return a collection of found key category IDs
+     */
+    @Query("select distinct p.ancestorId from KeyCategoryPath p, KeyCategoryGroupAccess a, UserGroup g join g.users u "
+        + "where p.descendantId = a.keyCategoryId and a.userGroupId = g.id and u.login = :login")
+    Set<Long> findAllVisibleIdsByLogin(@Param("login") String login);
+
+    /**
+     * Finds the depth of the key category with the specified ID within the hierarchy, which is the number of its direct- and indirect
+     * ancestors.
+     *
+     * @param descendantId the ID of the key category to find the depth of
+     * @return the depth of the key category, {@code 0} for root key categories
+     */
+    @Query("select count(p) from KeyCategoryPath p where p.descendantId = :descendantId and p.depth > 0")
+    long findDepth(@Param("descendantId") Long descendantId);
+
+    /**
+     * Inserts the path of the key category with the specified ID to itself.
+     *
+     * @param keyCategoryId the ID of the key category
+     * @return the number of inserted paths
+     */
+    @Modifying
+    @Query("insert into KeyCategoryPath (ancestorId, descendantId, depth) select c.id, c.id, 0 from KeyCategory c where c.id = :keyCategoryId")
+    int insertSelfPath(@Param("keyCategoryId") Long keyCategoryId);
+
+    /**
+     * Inserts the paths from all ancestors of the specified parent key category, including the parent itself, to all key categories of
+     * the subtree with the specified root key category.
+     *
+     * <p>Used to link a new leaf key category as well as to graft a moved subtree below its new parent.
+     *
+     * @param parentId the ID of the parent key category
+     * @param subtreeRootId the ID of the root key category of the subtree
+     * @return the number of inserted paths
+     */
+    @Modifying
+    @Query("insert into KeyCategoryPath (ancestorId, descendantId, depth) "
+        + "select a.ancestorId, d.descendantId, a.depth + d.depth + 1 from KeyCategoryPath a, KeyCategoryPath d "
+        + "where a.descendantId = :parentId and d.ancestorId = :subtreeRootId")
+    int insertSubtreePaths(@Param("parentId") Long parentId, @Param("subtreeRootId") Long subtreeRootId);
+
+    /**
+     * Deletes all paths from the specified ancestor key categories to the specified descendant key categories.
+     *
+     * <p>Used to detach a subtree from its current ancestors, the paths within the subtree are kept.
+     *
+     * @param ancestorIds the IDs of the ancestor key categories
+     * @param descendantIds the IDs of the descendant key categories
+     * @return the number of deleted paths
+     */
+    @Modifying
+    @Query("delete from KeyCategoryPath p where p.ancestorId in :ancestorIds and p.descendantId in :descendantIds")
+    int deleteByAncestorIdInAndDescendantIdIn(@Param("ancestorIds") Collection<Long> ancestorIds,
+                                              @Param("descendantIds") Collection<Long> descendantIds);
+
+    /**
+     * Deletes all paths to the specified key categories.
+     *
+     * @param descendantIds the IDs of the key categories to delete the paths of
+     * @return the number of deleted paths
+     */
+    @Modifying
+    @Query("delete from KeyCategoryPath p where p.descendantId in :descendantIds")
+    int deleteByDescendantIdIn(@Param("descendantIds") Collection<Long> descendantIds);
+
+    /**
+     * Deletes all paths.
+     *
+     * @return the number of deleted paths
+     */
+    @Modifying
+    @Query("delete from KeyCategoryPath p")
+    int deleteAllPaths();
+
+    /**
+     * Inserts the paths of all key categories to themselves.
+     *
+     * <p>Used to rebuild the closure index level by level.
+     *
+     * @return the number of inserted paths
+     * @see #insertPathsOfDepth(int)
+     */
+    @Modifying
+    @Query("insert into KeyCategoryPath (ancestorId, descendantId, depth) select c.id, c.id, 0 from KeyCategory c")
+    int insertSelfPaths();
+
+    /**
+     * Inserts all paths with a depth of the specified depth plus one by extending the existing paths with the specified depth to the
+     * children of their descendants.
+     *
+     * @param depth the depth of the paths to extend
+     * @return the number of inserted paths
+     */
+    @Modifying
+    @Query("insert into KeyCategoryPath (ancestorId, descendantId, depth) "
+        + "select p.ancestorId, c.id, p.depth + 1 from KeyCategoryPath p, KeyCategory c where c.parent.id = p.descendantId and p.depth = :depth")
+    int insertPathsOfDepth(@Param("depth") int depth);
+}
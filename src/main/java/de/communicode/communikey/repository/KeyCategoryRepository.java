@@ -17,11 +17,21 @@
  */
 package de.communicode.communikey.repository;
 
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+
 import de.communicode.communikey.domain.KeyCategory;
 import de.communicode.communikey.domain.UserGroup;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -46,6 +56,7 @@ public interface KeyCategoryRepository extends CrudRepository<KeyCategory, Long>
      *
      * @return a collection of found key category entities
      */
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     Set<KeyCategory> findAllByParentIsNull();
 
     /**
@@ -54,5 +65,129 @@ public interface KeyCategoryRepository extends CrudRepository<KeyCategory, Long>
      * @param userGroup the usergroup the key categories should contain
      * @return a collection of found key category entities
      */
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     Set<KeyCategory> findAllByGroupsContains(UserGroup userGroup);
+
+    /**
+     * Finds all key category entities with the specified IDs.
+     *
+     * @param ids the IDs of the key categories to find
+     * @return a collection of found key category entities
+     * @since 0.18.0
+     */
+    Set<KeyCategory> findAllByIdIn(Collection<Long> ids);
+
+    /**
+     * Finds all key category entities with the specified IDs and initializes their keys.
+     *
+     * @param ids the IDs of the key categories to find
+     * @return a collection of found key category entities
+     * @since 0.18.0
+     */
+    @Query("select distinct c from KeyCategory c left join fetch c.keys where c.id in :ids")
+    Set<KeyCategory> findAllWithKeysByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Finds all key category entities with the specified IDs and initializes their children.
+     *
+     * @param ids the IDs of the key categories to find
+     * @return a collection of found key category entities
+     * @since 0.18.0
+     */
+    @Query("select distinct c from KeyCategory c left join fetch c.children where c.id in :ids")
+    Set<KeyCategory> findAllWithChildrenByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Finds all key category entities with the specified IDs and initializes their user groups.
+     *
+     * @param ids the IDs of the key categories to find
+     * @return a collection of found key category entities
+     * @since 0.18.0
+     */
+    @Query("select distinct c from KeyCategory c left join fetch c.groups where c.id in :ids")
+    Set<KeyCategory> findAllWithGroupsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Shifts the tree level of the key category with the specified ID and all of its direct- and indirect children by the specified
+     * difference.
+     *
+     * <p>Used to update the tree levels of a whole subtree with a single statement when it has been moved. The versions of the updated
+     * key categories are incremented and the persistence context is cleared afterwards since its key categories of the subtree are
+     * stale, pending changes must be flushed before.
+     *
+     * @param ancestorId the ID of the root key category of the subtree
+     * @param difference the difference to add to the tree levels
+     * @return the number of updated key categories
+     * @since 0.18.0
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update versioned KeyCategory c set c.treeLevel = c.treeLevel + :difference "
+        + "where c.id in (select p.descendantId from KeyCategoryPath p where p.ancestorId = :ancestorId)")
+    int shiftTreeLevelOfSubtree(@Param("ancestorId") Long ancestorId, @Param("difference") int difference);
+
+    /**
+     * Sets the tree level of all key categories to the number of their ancestors in the closure index.
+     *
+     * @return the number of updated key categories
+     * @since 0.18.0
+     */
+    @Modifying
+    @Query("update KeyCategory c set c.treeLevel = "
+        + "(select count(p) from KeyCategoryPath p where p.descendantId = c.id and p.depth > 0)")
+    int updateAllTreeLevels();
+
+    /**
+     * Removes the parent references of the key categories with the specified IDs.
+     *
+     * <p>Used to delete a subtree with a single statement without violating the parent foreign key constraint.
+     *
+     * @param ids the IDs of the key categories
+     * @return the number of updated key categories
+     * @since 0.18.0
+     */
+    @Modifying
+    @Query("update KeyCategory c set c.parent = null where c.id in :ids")
+    int removeParentByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Deletes all key categories with the specified IDs.
+     *
+     * <p>The user group assignments of the key categories are removed along by the bulk delete of the owning side.
+     *
+     * @param ids the IDs of the key categories to delete
+     * @return the number of deleted key categories
+     * @since 0.18.0
+     */
+    @Modifying
+    @Query("delete from KeyCategory c where c.id in :ids")
+    int deleteAllByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Saves the specified key category entity and flushes all pending changes to the database right away.
+     *
+     * <p>Used to detect violations of the {@value KeyCategory#UNIQUE_NAME_CONSTRAINT} constraint within the service method instead of
+     * when the transaction is committed.
+     *
+     * @param keyCategory the key category entity to save
+     * @param <S> the type of the key category entity
+     * @return the saved key category entity
+     * @since 0.18.0
+     */
+    <S extends KeyCategory> S saveAndFlush(S keyCategory);
+
+    /**
+     * Flushes all pending changes to the database.
+     *
+     * @since 0.18.0
+     */
+    void flush();
+
+    /**
+     * Finds all key category entities which have been persisted before the {@value KeyCategory#UNIQUE_NAME_CONSTRAINT} constraint
+     * has been introduced or whose name conflicts with a sibling key category.
+     *
+     * @return a collection of found key category entities
+     * @since 0.18.0
+     */
+    List<KeyCategory> findAllByNameKeyIsNull();
 }
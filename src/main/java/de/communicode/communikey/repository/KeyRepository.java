@@ -19,9 +19,13 @@ package de.communicode.communikey.repository;
 
 import de.communicode.communikey.domain.Key;
 import de.communicode.communikey.domain.KeyCategory;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -47,4 +51,64 @@ public interface KeyRepository extends CrudRepository<Key, Long> {
      * @return a collection of found key entities
      */
     Set<Key> findAllByCategory(KeyCategory keyCategory);
+
+    /**
+     * Finds all key entities the user with the specified login is authorized to receive through the user groups with effective access to
+     * the key categories.
+     *
+     * <p>Resolves the keys with a single query instead of initializing the groups, categories and keys collections of the user one by one.
+     *
+     * @param login the login of the user
+     * @return a collection of found key entities
+     * @since 0.18.0
+     */
+    @Query("select distinct k from Key k, KeyCategoryGroupAccess a, UserGroup g join g.users u "
+        + "where a.keyCategoryId = k.category.id and a.userGroupId = g.id and u.login = :login")
+    Set<Key> findAllAccessibleByLogin(@Param("login") String login);
+
+    /**
+     * Finds all key entities that are in one of the key categories with the specified IDs.
+     *
+     * @param categoryIds the IDs of the key categories the keys should be in
+     * @return a collection of found key entities
+     * @since 0.18.0
+     */
+    Set<Key> findAllByCategoryIdIn(Collection<Long> categoryIds);
+
+    /**
+     * Finds all key entities in one of the key categories with the specified IDs the user with the specified login is authorized to
+     * receive through the user groups with effective access to the key categories.
+     *
+     * @param login the login of the user
+     * @param categoryIds the IDs of the key categories the keys should be in
+     * @return a collection of found key entities
+     * @since 0.18.0
+     */
+    @Query("select distinct k from Key k, KeyCategoryGroupAccess a, UserGroup g join g.users u "
+        + "where a.keyCategoryId = k.category.id and a.userGroupId = g.id and u.login = :login and k.category.id in :categoryIds")
+    Set<Key> findAllAccessibleByLoginAndCategoryIdIn(@Param("login") String login, @Param("categoryIds") Collection<Long> categoryIds);
+
+    /**
+     * Finds all key entities in the key categories the user group with the specified ID has effective access to.
+     *
+     * @param userGroupId the ID of the user group
+     * @return a collection of found key entities
+     * @since 0.18.0
+     */
+    @Query("select k from Key k, KeyCategoryGroupAccess a where a.keyCategoryId = k.category.id and a.userGroupId = :userGroupId")
+    Set<Key> findAllAccessibleByUserGroupId(@Param("userGroupId") Long userGroupId);
+
+    /**
+     * Removes the key category of all key entities in one of the key categories with the specified IDs.
+     *
+     * <p>The versions of the updated key entities are incremented so that concurrent modifications of a key which has been loaded
+     * before are detected by the optimistic locking.
+     *
+     * @param categoryIds the IDs of the key categories
+     * @return the number of updated key entities
+     * @since 0.18.0
+     */
+    @Modifying
+    @Query("update versioned Key k set k.category = null where k.category.id in :categoryIds")
+    int removeCategoryByCategoryIdIn(@Param("categoryIds") Collection<Long> categoryIds);
 }
@@ -0,0 +1,57 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.repository;
+
+import de.communicode.communikey.domain.TokenRevocation;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A repository for {@link TokenRevocation} entities.
+ *
+ * @since 0.18.0
+ */
+@Repository
+public interface TokenRevocationRepository extends CrudRepository<TokenRevocation, String> {
+
+    /**
+     * Finds all token revocations after the specified date.
+     *
+     * @param date the date
+     * @return the found token revocations
+     */
+    List<TokenRevocation> findByRevokedDateAfter(Instant date);
+
+    /**
+     * Deletes all token revocations before the specified date.
+     *
+     * @param date the date
+     * @return the number of deleted token revocations
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM TokenRevocation r WHERE r.revokedDate < :date")
+    int deleteByRevokedDateBefore(@Param("date") Instant date);
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.repository;
+
+import de.communicode.communikey.domain.UpdateEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A repository for {@link UpdateEvent} entities.
+ *
+ * @since 0.18.0
+ */
+@Repository
+public interface UpdateEventRepository extends CrudRepository<UpdateEvent, Long> {
+
+    /**
+     * Finds the update events following the specified sequence in the order they were sent.
+     *
+     * @param sequence the sequence to find the following events of
+     * @param pageable the maximum number of events to find
+     * @return the found update events
+     */
+    List<UpdateEvent> findBySequenceGreaterThanOrderBySequence(long sequence, Pageable pageable);
+
+    /**
+     * Finds the sequence of the oldest retained update event.
+     *
+     * @return the oldest sequence, {@code null} if there are no events
+     */
+    @Query("SELECT MIN(e.sequence) FROM UpdateEvent e")
+    Long findMinSequence();
+
+    /**
+     * Finds the sequence of the latest update event.
+     *
+     * @return the latest sequence, {@code null} if there are no events
+     */
+    @Query("SELECT MAX(e.sequence) FROM UpdateEvent e")
+    Long findMaxSequence();
+
+    /**
+     * Finds the sequence of the latest update event created before the specified date.
+     *
+     * @param date the date
+     * @return the latest sequence created before the date, {@code null} if there are no such events
+     */
+    @Query("SELECT MAX(e.sequence) FROM UpdateEvent e WHERE e.createdDate < :date")
+    Long findMaxSequenceCreatedBefore(@Param("date") Instant date);
+
+    /**
+     * Deletes all update events created before the specified date which precede the specified sequence.
+     *
+     * @param date the date
+     * @param sequence the sequence of the first event to keep regardless of its date
+     * @return the number of deleted events
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UpdateEvent e WHERE e.createdDate < :date AND e.sequence < :sequence")
+    int deleteByCreatedDateBeforeAndSequenceLessThan(@Param("date") Instant date, @Param("sequence") long sequence);
+}
@@ -17,10 +17,15 @@
  */
 package de.communicode.communikey.repository;
 
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+
 import de.communicode.communikey.domain.UserGroup;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+
 /**
  * A repository for {@link UserGroup}s.
  *
@@ -36,5 +41,6 @@ public interface UserGroupRepository extends CrudRepository<UserGroup, Long> {
      * @param name the name of the user group to find
      * @return the user group entity
      */
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     UserGroup findOneByName(String name);
 }
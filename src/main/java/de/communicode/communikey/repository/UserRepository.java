@@ -21,9 +21,14 @@ import de.communicode.communikey.domain.Authority;
 import de.communicode.communikey.domain.UserGroup;
 import org.springframework.data.jpa.repository.EntityGraph;
 import de.communicode.communikey.domain.User;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -127,4 +132,80 @@ public interface UserRepository extends CrudRepository<User, Long> {
      */
     @EntityGraph(attributePaths = "authorities")
     User findOneWithAuthoritiesByLogin(String login);
+
+    /**
+     * Finds the subscriber info of all users with a public key which are member of a user group that has effective access to the key with
+     * the specified ID.
+     *
+     * <p>Selects only the required columns instead of loading the user entities into the persistence context.
+     *
+     * @param keyId the ID of the key the users should have access to
+     * @return a collection of found subscriber info
+     * @since 0.18.0
+     */
+    @Query("select distinct new de.communicode.communikey.domain.User$SubscriberInfo(u.login, u.publicKey) "
+        + "from Key k, KeyCategoryGroupAccess a, UserGroup g join g.users u "
+        + "where a.keyCategoryId = k.category.id and a.userGroupId = g.id and k.id = :keyId and u.publicKey is not null")
+    Set<User.SubscriberInfo> findAllSubscriberInfosByKeyId(@Param("keyId") Long keyId);
+
+    /**
+     * Finds all users which are member of a user group that has effective access to the key category with the specified ID.
+     *
+     * @param keyCategoryId the ID of the key category
+     * @return a collection of found users
+     * @since 0.18.0
+     */
+    @Query("select distinct u from KeyCategoryGroupAccess a, UserGroup g join g.users u "
+        + "where a.userGroupId = g.id and a.keyCategoryId = :keyCategoryId")
+    Set<User> findAllWithAccessToKeyCategoryId(@Param("keyCategoryId") Long keyCategoryId);
+
+    /**
+     * Finds all users which are member of one of the user groups with the specified IDs.
+     *
+     * @param userGroupIds the IDs of the user groups
+     * @return a collection of found users
+     * @since 0.18.0
+     */
+    @Query("select distinct u from UserGroup g join g.users u where g.id in :userGroupIds")
+    Set<User> findAllByGroupIdIn(@Param("userGroupIds") Collection<Long> userGroupIds);
+
+    /**
+     * Finds the subscriber info of all users with a public key and the authority with the specified name.
+     *
+     * <p>Selects only the required columns instead of loading the user entities into the persistence context.
+     *
+     * @param authorityName the name of the authority the users should have
+     * @return a collection of found subscriber info
+     * @since 0.18.0
+     */
+    @Query("select distinct new de.communicode.communikey.domain.User$SubscriberInfo(u.login, u.publicKey) from User u join u.authorities a "
+        + "where a.name = :authorityName and u.publicKey is not null")
+    Set<User.SubscriberInfo> findAllSubscriberInfosByAuthorityName(@Param("authorityName") String authorityName);
+
+    /**
+     * Finds the subscriber info of all users which own an encrypted password of the key with the specified ID.
+     *
+     * <p>Selects only the required columns instead of loading the user entities into the persistence context.
+     *
+     * @param keyId the ID of the key the users should own an encrypted password of
+     * @return a collection of found subscriber info
+     * @since 0.18.0
+     */
+    @Query("select distinct new de.communicode.communikey.domain.User$SubscriberInfo(o.login, o.publicKey) from UserEncryptedPassword p "
+        + "join p.owner o where p.key.id = :keyId")
+    Set<User.SubscriberInfo> findAllSubscriberInfosByEncryptedPasswordKeyId(@Param("keyId") Long keyId);
+
+    /**
+     * Replaces the password hash of the user with the specified ID if it has not been changed in the meantime.
+     *
+     * @param id the ID of the user
+     * @param currentPasswordHash the password hash to replace
+     * @param passwordHash the new password hash
+     * @return the number of updated users
+     * @since 0.18.0
+     */
+    @Modifying
+    @Transactional
+    @Query("update User u set u.password = :passwordHash where u.id = :id and u.password = :currentPasswordHash")
+    int updatePasswordHash(@Param("id") Long id, @Param("currentPasswordHash") String currentPasswordHash, @Param("passwordHash") String passwordHash);
 }
@@ -25,8 +25,8 @@ import de.communicode.communikey.exception.AuthorityNotFoundException;
 import de.communicode.communikey.repository.AuthorityRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -61,8 +61,9 @@ public class AuthorityService {
      *
      * @return a collection of all authorities
      */
+    @Transactional(readOnly = true)
     public Set<Authority> getAll() {
-        return new HashSet<>(authorityRepository.findAll());
+        return authorityRepository.findAll();
     }
 
     /**
@@ -17,6 +17,10 @@
  */
 package de.communicode.communikey.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.communicode.communikey.config.util.AfterCommit;
+import de.communicode.communikey.config.util.RetryingTransactional;
 import de.communicode.communikey.domain.EncryptionJob;
 import de.communicode.communikey.domain.User;
 import de.communicode.communikey.domain.Key;
@@ -29,7 +33,6 @@ import de.communicode.communikey.repository.EncryptionJobRepository;
 import de.communicode.communikey.repository.UserEncryptedPasswordRepository;
 import de.communicode.communikey.repository.UserRepository;
 import de.communicode.communikey.repository.KeyRepository;
-import de.communicode.communikey.repository.KeyCategoryRepository;
 import de.communicode.communikey.security.AuthoritiesConstants;
 import de.communicode.communikey.service.payload.EncryptionJobAbortPayload;
 import de.communicode.communikey.service.payload.EncryptionJobPayload;
@@ -43,7 +46,7 @@ import org.springframework.stereotype.Service;
 import java.util.Optional;
 
 import static de.communicode.communikey.controller.RequestMappings.QUEUE_JOBS;
-import static de.communicode.communikey.controller.RequestMappings.QUEUE_JOB_ABORT;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_JOB_ABORT;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
 
@@ -60,10 +63,10 @@ public class EncryptionJobService {
     private final EncryptionJobRepository encryptionJobRepository;
     private final KeyService keyService;
     private final SimpMessagingTemplate messagingTemplate;
+    private final ObjectMapper objectMapper;
     private final UserEncryptedPasswordRepository userEncryptedPasswordRepository;
     private final UserRepository userRepository;
     private final KeyRepository keyRepository;
-    private final KeyCategoryRepository keyCategoryRepository;
     private final UserService userService;
 
     @Autowired
@@ -71,15 +74,14 @@ public class EncryptionJobService {
                                 SimpMessagingTemplate messagingTemplate,
                                 UserEncryptedPasswordRepository userEncryptedPasswordRepository,
                                 UserRepository userRepository, KeyRepository keyRepository,
-                                KeyCategoryRepository keyCategoryRepository,
                                 UserService userService) {
         this.encryptionJobRepository = requireNonNull(encryptionJobRepository, "encryptionJobRepository must not be null!");
         this.keyService = requireNonNull(keyService, "keyService must not be null!");
         this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+        this.objectMapper = EntityUpdateService.findObjectMapper(messagingTemplate.getMessageConverter()).orElseGet(ObjectMapper::new);
         this.userEncryptedPasswordRepository = requireNonNull(userEncryptedPasswordRepository, "userEncryptedPasswordRepository must not be null!");
         this.userRepository = requireNonNull(userRepository, "userRepository must not be null!");
         this.keyRepository = requireNonNull(keyRepository, "keyRepository must not be null!");
-        this.keyCategoryRepository = requireNonNull(keyCategoryRepository, "keyCategoryRepository must not be null!");
         this.userService = requireNonNull(userService, "userService must not be null!");
     }
 
@@ -90,6 +92,7 @@ public class EncryptionJobService {
      * @param user the user for whom the key should be encrypted
      * @return the created encryption job
      */
+    @RetryingTransactional
     public Optional<EncryptionJob> create(Key key, User user) {
         if (encryptionJobRepository.findByUserAndKey(user, key) == null &&
             userEncryptedPasswordRepository.findOneByOwnerAndKey(user, key) == null &&
@@ -109,6 +112,7 @@ public class EncryptionJobService {
      *
      * @param key the key that should be encrypted
      */
+    @RetryingTransactional
     public void createForKey(Key key) {
         keyService.getAccessors(key).stream()
             .filter(user -> user.getPublicKey() != null)
@@ -122,9 +126,9 @@ public class EncryptionJobService {
      * @param userGroup the usergroup of the keys
      * @param user the user for whom the jobs should be created
      */
+    @RetryingTransactional
     public void createForUsergroupForUser(UserGroup userGroup, User user) {
-        keyCategoryRepository.findAllByGroupsContains(userGroup).stream()
-            .flatMap(keyCategory -> keyRepository.findAllByCategory(keyCategory).stream())
+        keyRepository.findAllAccessibleByUserGroupId(userGroup.getId())
             .forEach(key -> create(key, user));
         log.debug("Created all EncryptionJobs for the keys of user '{}' in usergroup '{}'.", user.getId(), userGroup.getId());
     }
@@ -135,9 +139,11 @@ public class EncryptionJobService {
      * @param keyCategory the category of the keys
      * @param userGroup the userGroup of the users for whom the jobs should be created
      */
+    @RetryingTransactional
     public void createForCategoryForUsergroup(KeyCategory keyCategory, UserGroup userGroup) {
+        Set<User> users = userRepository.findAllByGroupsContains(userGroup);
         keyRepository.findAllByCategory(keyCategory)
-            .forEach(key -> userRepository.findAllByGroupsContains(userGroup).forEach(user -> create(key, user)));
+            .forEach(key -> users.forEach(user -> create(key, user)));
         log.debug("Created all EncryptionJobs for the keys in category '{}' for users in usergroup '{}'.", keyCategory.getId(), userGroup.getId());
     }
 
@@ -147,9 +153,9 @@ public class EncryptionJobService {
      * @param key the key
      * @param keyCategory the category of the usergroups of the users for whom the jobs should be created
      */
+    @RetryingTransactional
     public void createForKeyInCategory(Key key, KeyCategory keyCategory) {
-        keyCategory.getGroups().stream()
-            .flatMap(userGroup -> userGroup.getUsers().stream())
+        userRepository.findAllWithAccessToKeyCategoryId(keyCategory.getId())
             .forEach(user -> create(key, user));
         log.debug("Created all EncryptionJobs for the key '{}' for users with access to category '{}'.", key.getId(), keyCategory.getId());
     }
@@ -159,6 +165,7 @@ public class EncryptionJobService {
      *
      * @param user the user
      */
+    @RetryingTransactional
     public void createForUser(User user) {
         if (user.getAuthorities().stream().anyMatch(authority -> authority.getName().equals(AuthoritiesConstants.ADMIN))) {
             keyRepository.findAll().forEach(key -> create(key, user));
@@ -171,11 +178,18 @@ public class EncryptionJobService {
     /**
      * Sends out the websocket messages to users that should be able to fulfill the encryption job.
      *
+     * <p>The advertisement is sent once the current transaction has been committed, the job is converted right away since it
+     * must not be accessed outside of the current session.
+     *
      * @param encryptionJob the encryptionJob that should be advertised
      */
     private void advertiseJobToUser(String userLogin, EncryptionJob encryptionJob) {
-        messagingTemplate.convertAndSendToUser(userLogin, QUEUE_JOBS, encryptionJob);
-        log.debug("Sent out advertisement for EncryptionJob '{}' and user '{}'.", encryptionJob.getId(), userLogin);
+        JsonNode payload = objectMapper.valueToTree(encryptionJob);
+        Long encryptionJobId = encryptionJob.getId();
+        AfterCommit.run(() -> {
+            messagingTemplate.convertAndSendToUser(userLogin, QUEUE_JOBS, payload);
+            log.debug("Sent out advertisement for EncryptionJob '{}' and user '{}'.", encryptionJobId, userLogin);
+        });
     }
 
     /**
@@ -221,6 +235,7 @@ public class EncryptionJobService {
      * @param encryptionJobPayload the encryptionJobPayload that should fulfill an encryptionJob
      * @return the EncryptionJobStatusPayload that is sent to the user via websocket
      */
+    @RetryingTransactional
     public EncryptionJobStatusPayload fulfill(String jobToken, EncryptionJobPayload encryptionJobPayload) {
         EncryptionJob encryptionJob = validate(jobToken);
         Key key = encryptionJob.getKey();
@@ -246,7 +261,7 @@ public class EncryptionJobService {
         }
         encryptionJobRepository.deleteByToken(jobToken);
 
-        messagingTemplate.convertAndSend(QUEUE_JOB_ABORT, new EncryptionJobAbortPayload(jobToken));
+        AfterCommit.run(() -> messagingTemplate.convertAndSend(TOPIC_JOB_ABORT, new EncryptionJobAbortPayload(jobToken)));
         log.debug("Fulfilled encryptionJob with ID '{}' for user '{}' and key '{}'.", encryptionJob.getId(), user.getId(), key.getId());
         return new EncryptionJobStatusPayload("Success");
     }
@@ -0,0 +1,178 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static java.util.Objects.requireNonNull;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.communicode.communikey.config.util.AfterCommit;
+import de.communicode.communikey.service.payload.EntityUpdatePayload;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Creates compact {@link EntityUpdatePayload} live update messages for entities.
+ *
+ * <p>The last published state of each entity is kept as snapshot so that subsequent updates only carry the changed fields.
+ * Versions are sequences per entity that start at a random value, a missing snapshot results in a full update with a new
+ * sequence which clients detect as version gap.
+ *
+ * <p>The snapshot is updated when the update is created within a transaction and discarded if the transaction is rolled back,
+ * the next update of the entity is then sent in full since clients never received the update of the rolled back transaction.
+ *
+ * @since 0.18.0
+ */
+@Service
+public class EntityUpdateService {
+
+    private static final Logger log = LogManager.getLogger();
+
+    /**
+     * The maximum amount of entity snapshots to keep.
+     */
+    static final long MAXIMUM_SNAPSHOTS = 10_000;
+
+    /**
+     * The exclusive upper bound for the initial version of a sequence which keeps versions exactly representable as
+     * JavaScript number.
+     */
+    private static final long INITIAL_VERSION_BOUND = 1L << 52;
+
+    private final ObjectMapper objectMapper;
+    private final Cache<String, Snapshot> snapshots = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SNAPSHOTS).build();
+
+    @Autowired
+    public EntityUpdateService(SimpMessagingTemplate messagingTemplate) {
+        requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+        this.objectMapper = findObjectMapper(messagingTemplate.getMessageConverter()).orElseGet(ObjectMapper::new);
+    }
+
+    /**
+     * Creates the update payload for the current state of the specified entity.
+     *
+     * @param entity the entity that was updated
+     * @return the update payload, empty if the serialized entity did not change since the last update
+     */
+    public Optional<EntityUpdatePayload> createUpdate(Object entity) {
+        ObjectNode state = objectMapper.valueToTree(entity);
+        JsonNode id = state.get("id");
+        EntityUpdatePayload[] update = new EntityUpdatePayload[1];
+        String snapshotKey = getSnapshotKey(entity, id);
+        snapshots.asMap().compute(snapshotKey, (key, previous) -> {
+            if (previous == null) {
+                long version = ThreadLocalRandom.current().nextLong(INITIAL_VERSION_BOUND);
+                update[0] = EntityUpdatePayload.full(id, version, state);
+                return new Snapshot(version, state);
+            }
+            ObjectNode changes = diff(previous.state, state);
+            if (changes.size() == 0) {
+                return previous;
+            }
+            long version = previous.version + 1;
+            update[0] = changes.size() < state.size()
+                ? EntityUpdatePayload.delta(id, version, previous.version, changes)
+                : EntityUpdatePayload.full(id, version, state);
+            return new Snapshot(version, state);
+        });
+        if (update[0] == null) {
+            log.debug("Skipped unchanged update for '{}' with ID '{}'.", entity.getClass().getSimpleName(), id);
+        } else {
+            AfterCommit.onRollback(() -> snapshots.invalidate(snapshotKey));
+        }
+        return Optional.ofNullable(update[0]);
+    }
+
+    /**
+     * Discards the snapshot of the specified entity so that a later update of an entity with the same ID is sent in full.
+     *
+     * @param entity the entity that was removed
+     */
+    public void evict(Object entity) {
+        ObjectNode state = objectMapper.valueToTree(entity);
+        snapshots.invalidate(getSnapshotKey(entity, state.get("id")));
+    }
+
+    /**
+     * Discards all snapshots.
+     */
+    public void evictAll() {
+        snapshots.invalidateAll();
+    }
+
+    private static ObjectNode diff(ObjectNode previous, ObjectNode current) {
+        ObjectNode changes = current.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = current.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!Objects.equals(previous.get(field.getKey()), field.getValue())) {
+                changes.set(field.getKey(), field.getValue());
+            }
+        }
+        previous.fieldNames().forEachRemaining(name -> {
+            if (!current.has(name)) {
+                changes.putNull(name);
+            }
+        });
+        return changes;
+    }
+
+    private static String getSnapshotKey(Object entity, JsonNode id) {
+        return Hibernate.getClass(entity).getName() + ':' + id;
+    }
+
+    static Optional<ObjectMapper> findObjectMapper(MessageConverter converter) {
+        if (converter instanceof MappingJackson2MessageConverter) {
+            return Optional.of(((MappingJackson2MessageConverter) converter).getObjectMapper());
+        }
+        if (converter instanceof CompositeMessageConverter) {
+            return ((CompositeMessageConverter) converter).getConverters().stream()
+                .map(EntityUpdateService::findObjectMapper)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .findFirst();
+        }
+        return Optional.empty();
+    }
+
+    private static final class Snapshot {
+        private final long version;
+        private final ObjectNode state;
+
+        private Snapshot(long version, ObjectNode state) {
+            this.version = version;
+            this.state = state;
+        }
+    }
+}
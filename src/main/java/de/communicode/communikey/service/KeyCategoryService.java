@@ -17,13 +17,20 @@
  */
 package de.communicode.communikey.service;
 
-import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_CATEGORIES;
-import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_CATEGORIES_DELETE;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_CATEGORIES;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_CATEGORIES_DELETE;
+import static de.communicode.communikey.security.AuthoritiesConstants.ADMIN;
 import static de.communicode.communikey.security.SecurityUtils.getCurrentUserLogin;
+import static de.communicode.communikey.security.SecurityUtils.isCurrentUserInRole;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 
+import de.communicode.communikey.config.util.RetryingTransactional;
 import de.communicode.communikey.domain.KeyCategory;
+import de.communicode.communikey.domain.KeyCategoryGroupAccess;
+import de.communicode.communikey.domain.KeyCategoryPath;
 import de.communicode.communikey.domain.UserGroup;
 import de.communicode.communikey.domain.Key;
 import de.communicode.communikey.domain.User;
@@ -33,6 +40,8 @@ import de.communicode.communikey.exception.KeyNotFoundException;
 import de.communicode.communikey.exception.UserGroupNotFoundException;
 import de.communicode.communikey.exception.UserNotFoundException;
 import de.communicode.communikey.exception.HashidNotValidException;
+import de.communicode.communikey.repository.KeyCategoryGroupAccessRepository;
+import de.communicode.communikey.repository.KeyCategoryPathRepository;
 import de.communicode.communikey.repository.KeyCategoryRepository;
 import de.communicode.communikey.repository.KeyRepository;
 import de.communicode.communikey.repository.UserGroupRepository;
@@ -42,12 +51,22 @@ import de.communicode.communikey.service.payload.KeyCategoryMovePayload;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hashids.Hashids;
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -63,6 +82,8 @@ public class KeyCategoryService {
 
     private static final Logger log = LogManager.getLogger();
     private final KeyCategoryRepository keyCategoryRepository;
+    private final KeyCategoryPathRepository keyCategoryPathRepository;
+    private final KeyCategoryGroupAccessRepository keyCategoryGroupAccessRepository;
     private final KeyRepository keyRepository;
     private final UserService userService;
     private final UserRepository userRepository;
@@ -71,15 +92,22 @@ public class KeyCategoryService {
     private final UserGroupRepository userGroupRepository;
     private final Hashids hashids;
     private final EncryptionJobService encryptionJobService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final UpdateCoalescingService updateCoalescingService;
+    private final EntityUpdateService entityUpdateService;
+    private final KeyCategoryTopicService keyCategoryTopicService;
 
     @Autowired
-    public KeyCategoryService(KeyCategoryRepository keyCategoryRepository, UserService userService,
+    public KeyCategoryService(KeyCategoryRepository keyCategoryRepository, KeyCategoryPathRepository keyCategoryPathRepository,
+                              KeyCategoryGroupAccessRepository keyCategoryGroupAccessRepository, UserService userService,
                               KeyService keyService, KeyRepository keyRepository, UserRepository userRepository,
                               UserGroupService userGroupService, UserGroupRepository userGroupRepository,
                               Hashids hashids, EncryptionJobService encryptionJobService,
-                              SimpMessagingTemplate messagingTemplate) {
+                              UpdateCoalescingService updateCoalescingService, EntityUpdateService entityUpdateService,
+                              KeyCategoryTopicService keyCategoryTopicService) {
         this.keyCategoryRepository = requireNonNull(keyCategoryRepository, "keyCategoryRepository must not be null!");
+        this.keyCategoryPathRepository = requireNonNull(keyCategoryPathRepository, "keyCategoryPathRepository must not be null!");
+        this.keyCategoryGroupAccessRepository = requireNonNull(keyCategoryGroupAccessRepository,
+            "keyCategoryGroupAccessRepository must not be null!");
         this.userService = requireNonNull(userService, "userService must not be null!");
         this.keyService = requireNonNull(keyService, "keyService must not be null!");
         this.keyRepository = requireNonNull(keyRepository, "keyRepository must not be null!");
@@ -88,18 +116,24 @@ public class KeyCategoryService {
         this.userGroupRepository = requireNonNull(userGroupRepository, "userGroupRepository must not be null!");
         this.hashids = requireNonNull(hashids, "hashids must not be null!");
         this.encryptionJobService = requireNonNull(encryptionJobService, "encryptionJobService must not be null!");
-        this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+        this.updateCoalescingService = requireNonNull(updateCoalescingService, "updateCoalescingService must not be null!");
+        this.entityUpdateService = requireNonNull(entityUpdateService, "entityUpdateService must not be null!");
+        this.keyCategoryTopicService = requireNonNull(keyCategoryTopicService, "keyCategoryTopicService must not be null!");
     }
 
     /**
      * Adds a user group to a key category with the specified ID.
      *
+     * <p>The user group also gains access to all children which inherit the user groups of the key category, the encryption jobs are
+     * created once for each key category the user group has gained effective access to.
+     *
      * @param keyCategoryId the ID of the key category to add the user group to
      * @param userGroupId the ID of the user group to be added to the key category
      * @return the updated key category
      * @throws KeyCategoryNotFoundException if the key category with specified ID has not been found
      * @throws UserGroupNotFoundException if the user group with specified name has not been found
      */
+    @RetryingTransactional
     public KeyCategory addUserGroup(Long keyCategoryId, Long userGroupId) {
         KeyCategory keyCategory = validate(keyCategoryId);
         UserGroup userGroup = userGroupService.validate(userGroupId);
@@ -108,7 +142,7 @@ public class KeyCategoryService {
             userGroup.addCategory(keyCategory);
             userGroupRepository.save(userGroup);
             keyCategoryRepository.save(keyCategory);
-            encryptionJobService.createForCategoryForUsergroup(keyCategory, userGroup);
+            refreshAccess(keyCategoryId);
             log.debug("Added user group '{}' to key category with ID '{}'", userGroup.getName(), keyCategoryId);
             return (keyCategory);
         }
@@ -124,6 +158,7 @@ public class KeyCategoryService {
      * @throws KeyCategoryNotFoundException if the key category with the specified ID has not been found
      * @throws KeyNotFoundException if the key with the specified ID has not been found
      */
+    @RetryingTransactional
     public KeyCategory addKey(Long keyCategoryId, Long keyId) {
         KeyCategory keyCategory = validate(keyCategoryId);
         Key key = keyService.validate(keyId);
@@ -146,15 +181,13 @@ public class KeyCategoryService {
      * @throws KeyCategoryNotFoundException if the parent key category with the specified ID has not been found
      * @throws UserNotFoundException if the user with the specified ID has not been found
      */
+    @RetryingTransactional
     public KeyCategory create(KeyCategoryPayload payload) {
         String name = payload.getName();
         KeyCategory parentCategory = null;
 
         if (Objects.nonNull(payload.getParent())) {
             parentCategory = validate(decodeSingleValueHashid(payload.getParent()));
-            validateUniqueKeyCategoryName(name, parentCategory.getId());
-        } else {
-            validateUniqueKeyCategoryName(name, null);
         }
 
         KeyCategory keyCategory = new KeyCategory();
@@ -162,17 +195,22 @@ public class KeyCategoryService {
 
         keyCategory.setName(name);
         keyCategory.setCreator(user);
+        keyCategory.setInheritGroups(Boolean.TRUE.equals(payload.getInheritGroups()));
         if (Objects.nonNull(parentCategory)) {
             keyCategory.setParent(parentCategory);
+            keyCategory.setTreeLevel((int) keyCategoryPathRepository.findDepth(parentCategory.getId()) + 1);
         }
-        keyCategory = keyCategoryRepository.save(keyCategory);
+        keyCategory = saveWithUniqueName(keyCategory);
         keyCategory.setHashid(hashids.encode(keyCategory.getId()));
         keyCategory = keyCategoryRepository.save(keyCategory);
+        keyCategoryPathRepository.insertSelfPath(keyCategory.getId());
 
         if (Objects.nonNull(parentCategory)) {
             parentCategory.addChild(keyCategory);
             keyCategoryRepository.save(parentCategory);
+            keyCategoryPathRepository.insertSubtreePaths(parentCategory.getId(), keyCategory.getId());
         }
+        refreshAccess(keyCategory.getId());
 
         setResponsibleUser(keyCategory.getId(), user.getLogin());
         user.addResponsibleKeyCategory(keyCategory);
@@ -188,21 +226,38 @@ public class KeyCategoryService {
      *
      * <p><strong>This is a recursive operation that deletes all children key categories!</strong>
      *
+     * <p>The subtree is resolved through the closure index and deleted with bulk statements: the keys of the deleted key categories are
+     * unbound, their user group assignments and paths are removed and all key categories are deleted at once. A single removal frame
+     * with all deleted key categories is sent afterwards.
+     *
      * @param keyCategoryId the ID of the key category to delete
      * @throws KeyCategoryNotFoundException if the key category with the specified ID has been found
      */
+    @RetryingTransactional
     public void delete(Long keyCategoryId) {
         KeyCategory keyCategory = validate(keyCategoryId);
-        keyCategory = dissolveReferences(keyCategory);
-        keyCategoryRepository.delete(keyCategory);
-        sendRemovalUpdates(keyCategory);
-        log.debug("Deleted key category with ID '{}'", keyCategoryId);
+        Set<Long> subtreeIds = keyCategoryPathRepository.findSubtreeIds(keyCategoryId);
+        Set<KeyCategory> keyCategories = loadForRemoval(subtreeIds);
+
+        detachFromParent(keyCategory);
+        int keys = keyRepository.removeCategoryByCategoryIdIn(subtreeIds);
+        keyCategoryPathRepository.deleteByDescendantIdIn(subtreeIds);
+        keyCategoryGroupAccessRepository.deleteByKeyCategoryIdIn(subtreeIds);
+        keyCategoryRepository.removeParentByIdIn(subtreeIds);
+        keyCategoryRepository.deleteAllByIdIn(subtreeIds);
+
+        keyCategoryTopicService.revokeSubscriptions(keyCategories);
+        sendRemovalUpdates(keyCategories);
+        log.debug("Deleted key category with ID '{}' and {} descendants, unbound {} keys", keyCategoryId, subtreeIds.size() - 1, keys);
     }
 
     /**
      * Deletes all key categories.
      */
+    @Transactional
     public void deleteAll() {
+        keyCategoryGroupAccessRepository.deleteAllEntries();
+        keyCategoryPathRepository.deleteAllPaths();
         keyCategoryRepository.deleteAll();
         log.debug("Deleted all key categories");
     }
@@ -212,8 +267,9 @@ public class KeyCategoryService {
      *
      * @return a collection of key categories
      */
+    @Transactional(readOnly = true)
     public Set<KeyCategory> getAll() {
-        return new HashSet<>(keyCategoryRepository.findAll());
+        return keyCategoryRepository.findAll();
     }
 
     /**
@@ -223,19 +279,63 @@ public class KeyCategoryService {
      * @return the found key category entity
      * @throws KeyCategoryNotFoundException if the key category entity with the specified ID has not been found
      */
+    @Transactional(readOnly = true)
     public KeyCategory get(Long keyCategoryId) {
         return validate(keyCategoryId);
     }
 
+    /**
+     * Gets the subtree of the key category with the specified ID as nested key category tree.
+     *
+     * <p>The tree is filtered by the {@link UserGroup}s the current user is assigned to: only key categories one of these user groups has
+     * effective access to and their ancestors are included, and only the keys of the accessible key categories.
+     *
+     * @param keyCategoryId the ID of the root key category of the subtree
+     * @param depth the maximum depth of the subtree relative to the root key category
+     * @param includeKeys whether the keys of the key categories are included
+     * @return the root node of the subtree, {@link Optional#empty()} if the current user is not authorized to see the key category
+     * @throws KeyCategoryNotFoundException if the key category with the specified ID has not been found
+     * @since 0.18.0
+     */
+    @Transactional(readOnly = true)
+    public Optional<KeyCategory.TreeNode> getTree(Long keyCategoryId, int depth, boolean includeKeys) {
+        validate(keyCategoryId);
+        int rootTreeLevel = (int) keyCategoryPathRepository.findDepth(keyCategoryId);
+        Map<Long, Integer> treeLevels = keyCategoryPathRepository.findAllByAncestorIdAndDepthLessThanEqual(keyCategoryId, depth).stream()
+            .collect(toMap(KeyCategoryPath::getDescendantId, path -> rootTreeLevel + path.getDepth()));
+        return buildTrees(treeLevels, includeKeys).stream().findFirst();
+    }
+
+    /**
+     * Gets all root key categories and their subtrees as nested key category trees.
+     *
+     * <p>The trees are filtered by the {@link UserGroup}s the current user is assigned to like {@link #getTree(Long, int, boolean)}.
+     *
+     * @param depth the maximum depth of the subtrees
+     * @param includeKeys whether the keys of the key categories are included
+     * @return the root nodes of the trees
+     * @since 0.18.0
+     */
+    @Transactional(readOnly = true)
+    public List<KeyCategory.TreeNode> getTrees(int depth, boolean includeKeys) {
+        Map<Long, Integer> treeLevels = keyCategoryPathRepository.findAllOfRootsByDepthLessThanEqual(depth).stream()
+            .collect(toMap(KeyCategoryPath::getDescendantId, KeyCategoryPath::getDepth));
+        return buildTrees(treeLevels, includeKeys);
+    }
+
     /**
      * Removes a user group from the key category with the specified ID.
      *
+     * <p>The user group also loses the access to all children which inherit the user groups of the key category unless it is assigned to
+     * them in another way.
+     *
      * @param keyCategoryId the ID of the key category to remove the user group from
      * @param userGroupId the ID of the user group to be removed from the key category
      * @return the updated key category
      * @throws KeyCategoryNotFoundException if the key category with specified ID has not been found
      * @throws UserGroupNotFoundException if the user group with specified name has not been found
      */
+    @RetryingTransactional
     public KeyCategory removeUserGroup(Long keyCategoryId, Long userGroupId) {
         KeyCategory keyCategory = validate(keyCategoryId);
         UserGroup userGroup = userGroupService.validate(userGroupId);
@@ -243,9 +343,9 @@ public class KeyCategoryService {
         if (keyCategory.removeGroup(userGroup)) {
             userGroup.removeCategory(keyCategory);
             userGroupRepository.save(userGroup);
-            userGroup.getUsers().forEach(keyService::removeObsoletePasswords);
+            keyCategory = keyCategoryRepository.save(keyCategory);
+            refreshAccess(keyCategoryId);
             log.debug("Removed user group with name '{}' from key category with ID '{}'", userGroup.getName(), keyCategoryId);
-            return keyCategoryRepository.save(keyCategory);
         }
         return keyCategory;
     }
@@ -259,6 +359,7 @@ public class KeyCategoryService {
      * @throws KeyCategoryNotFoundException if the key category with the specified ID has not been found
      * @throws KeyNotFoundException if the key with the specified ID has not been found
      */
+    @RetryingTransactional
     public KeyCategory removeKey(Long keyCategoryId, Long keyId) {
         KeyCategory keyCategory = validate(keyCategoryId);
         Key key = keyService.validate(keyId);
@@ -280,6 +381,7 @@ public class KeyCategoryService {
      * @throws KeyCategoryNotFoundException if the key category with the specified ID has not been found
      * @throws UserNotFoundException if the user with the specified login has not been found
      */
+    @RetryingTransactional
     public KeyCategory setResponsibleUser(Long keyCategoryId, String userLogin) {
         User user = userService.validate(userLogin);
         KeyCategory keyCategory = validate(keyCategoryId);
@@ -295,17 +397,26 @@ public class KeyCategoryService {
     /**
      * Updates a key category with the specified payload.
      *
+     * <p>The inheritance of the user groups of the parent key category is only changed if it is included in the payload.
+     *
      * @param keyCategoryId the ID of the key category to update
      * @param payload the payload to update the key category with
      * @return the updated key category
      * @since 0.6.0
      */
+    @RetryingTransactional
     public KeyCategory update(Long keyCategoryId, KeyCategoryPayload payload) {
         KeyCategory keyCategory = validate(keyCategoryId);
-        if (!keyCategory.getName().equals(payload.getName())) {
-            validateUniqueKeyCategoryName(payload.getName(), ofNullable(keyCategory.getParent()).map(KeyCategory::getId).orElse(null));
+        boolean isNameChanged = !keyCategory.getName().equals(payload.getName());
+        boolean isInheritGroupsChanged = Objects.nonNull(payload.getInheritGroups())
+            && keyCategory.isInheritGroups() != payload.getInheritGroups();
+        if (isNameChanged || isInheritGroupsChanged) {
             keyCategory.setName(payload.getName());
-            keyCategory = keyCategoryRepository.save(keyCategory);
+            keyCategory.setInheritGroups(isInheritGroupsChanged ? payload.getInheritGroups() : keyCategory.isInheritGroups());
+            keyCategory = saveWithUniqueName(keyCategory);
+            if (isInheritGroupsChanged) {
+                refreshAccess(keyCategoryId);
+            }
             sendUpdates(keyCategory);
             log.debug("Updated key category with ID '{}'", keyCategory.getId());
         }
@@ -320,8 +431,10 @@ public class KeyCategoryService {
      * @return the updated key category
      * @since 0.17.0
      */
+    @RetryingTransactional
     public KeyCategory move(Long sourceKeyCategoryId, KeyCategoryMovePayload keyCategoryMovePayload) {
         KeyCategory sourceKeyCategory = validate(sourceKeyCategoryId);
+        KeyCategory targetkeyCategory = null;
 
         if(Objects.nonNull(keyCategoryMovePayload.getParent())){
             Long targetKeyCategoryId = decodeSingleValueHashid(keyCategoryMovePayload.getParent());
@@ -329,17 +442,110 @@ public class KeyCategoryService {
                 throw new KeyCategoryConflictException(
                     "parent key category ID '" + sourceKeyCategoryId + "' equals child key category ID '" + targetKeyCategoryId + "'");
             }
-            KeyCategory targetkeyCategory = validate(targetKeyCategoryId);
-            if (sourceKeyCategory.getTreeLevel() < targetkeyCategory.getTreeLevel()) {
-                checkPathCollision(targetkeyCategory, sourceKeyCategory.getId());
+            targetkeyCategory = validate(targetKeyCategoryId);
+            if (keyCategoryPathRepository.existsByAncestorIdAndDescendantId(sourceKeyCategoryId, targetKeyCategoryId)) {
+                throw new KeyCategoryConflictException(
+                    "key category with ID '" + sourceKeyCategoryId + "' can not be set as own child reference");
+            }
+        }
+        detachFromParent(sourceKeyCategory);
+        sourceKeyCategory.setParent(targetkeyCategory);
+        sourceKeyCategory = saveWithUniqueName(sourceKeyCategory);
+        if (Objects.nonNull(targetkeyCategory)) {
+            targetkeyCategory.addChild(sourceKeyCategory);
+            keyCategoryRepository.save(targetkeyCategory);
+        }
+        int previousTreeLevel = (int) keyCategoryPathRepository.findDepth(sourceKeyCategoryId);
+        relinkPaths(sourceKeyCategoryId, ofNullable(targetkeyCategory).map(KeyCategory::getId).orElse(null));
+        refreshAccess(sourceKeyCategoryId);
+        int treeLevel = (int) keyCategoryPathRepository.findDepth(sourceKeyCategoryId);
+        if (treeLevel != previousTreeLevel) {
+            keyCategoryRepository.flush();
+            int moved = keyCategoryRepository.shiftTreeLevelOfSubtree(sourceKeyCategoryId, treeLevel - previousTreeLevel);
+            log.debug("Updated the tree level of {} key categories moved with key category with ID '{}'", moved, sourceKeyCategoryId);
+            // The bulk update cleared the persistence context, the moved key category is reloaded with its new tree level and version
+            sourceKeyCategory = validate(sourceKeyCategoryId);
+        }
+        return sourceKeyCategory;
+    }
+
+    /**
+     * Rebuilds the closure index of the key category hierarchy if it is empty while key categories exist.
+     *
+     * <p>Used to index the key categories that have been created before the index has been introduced, the tree levels of all key
+     * categories are recomputed from the rebuilt index.
+     *
+     * @since 0.18.0
+     */
+    @Transactional
+    public void rebuildPathsIfMissing() {
+        if (keyCategoryPathRepository.count() > 0 || keyCategoryRepository.count() == 0) {
+            return;
+        }
+        int paths = keyCategoryPathRepository.insertSelfPaths();
+        for (int depth = 0, inserted = paths; inserted > 0; depth++) {
+            inserted = keyCategoryPathRepository.insertPathsOfDepth(depth);
+            paths += inserted;
+        }
+        keyCategoryRepository.updateAllTreeLevels();
+        log.info("Rebuilt the key category hierarchy index with {} paths", paths);
+    }
+
+    /**
+     * Rebuilds the effective access control list of the key category hierarchy if it is empty while user groups are assigned to key
+     * categories.
+     *
+     * <p>Used to populate the access control list for the user group assignments that have been made before it has been introduced.
+     * Must be called after the closure index has been rebuilt.
+     *
+     * @since 0.18.0
+     */
+    @Transactional
+    public void rebuildAccessIfMissing() {
+        if (keyCategoryGroupAccessRepository.count() > 0) {
+            return;
+        }
+        int entries = keyCategoryGroupAccessRepository.insertAll();
+        if (entries > 0) {
+            log.info("Rebuilt the key category access control list with {} entries", entries);
+        }
+    }
+
+    /**
+     * Initializes the parent key and the name key of the key categories which have been created before the uniqueness of the
+     * names has been enforced by the database.
+     *
+     * <p>The keys are created with {@link KeyCategory#toNameKey(String)} like for all other key categories. Key categories whose name
+     * equals the name of a sibling key category that is already initialized or has a lower ID keep no name key and are reported,
+     * they are excluded from the {@value KeyCategory#UNIQUE_NAME_CONSTRAINT} constraint until they are renamed.
+     *
+     * @since 0.18.0
+     */
+    @Transactional
+    public void initializeUniqueNames() {
+        List<KeyCategory> pending = keyCategoryRepository.findAllByNameKeyIsNull();
+        if (pending.isEmpty()) {
+            return;
+        }
+        Set<String> siblingNameKeys = new HashSet<>();
+        keyCategoryRepository.findAll().forEach(keyCategory -> {
+            if (Objects.nonNull(keyCategory.getNameKey())) {
+                siblingNameKeys.add(keyCategory.getParentKey() + ":" + keyCategory.getNameKey());
+            }
+        });
+        pending.sort(Comparator.comparing(KeyCategory::getId));
+        int initialized = 0;
+        for (KeyCategory keyCategory : pending) {
+            long parentKey = ofNullable(keyCategory.getParent()).map(KeyCategory::getId).orElse(KeyCategory.ROOT_PARENT_KEY);
+            if (siblingNameKeys.add(parentKey + ":" + KeyCategory.toNameKey(keyCategory.getName()))) {
+                keyCategory.initializeUniqueName();
+                initialized++;
+            } else {
+                log.warn("Key category '{}' with ID '{}' has the same name as a sibling key category and must be renamed to be unique",
+                    keyCategory.getName(), keyCategory.getId());
             }
-            validateUniqueKeyCategoryName(sourceKeyCategory.getName(), targetkeyCategory.getId());
-            sourceKeyCategory.setParent(targetkeyCategory);
-        } else {
-            validateUniqueKeyCategoryName(sourceKeyCategory.getName(), null);
-            sourceKeyCategory.setParent(null);
         }
-        return keyCategoryRepository.save(sourceKeyCategory);
+        log.info("Initialized the unique names of {} key categories", initialized);
     }
 
     /**
@@ -354,95 +560,185 @@ public class KeyCategoryService {
     }
 
     /**
-     * Validates that the specified key category name is unique within the tree level including the root.
+     * Saves the specified key category and flushes it to detect name conflicts with its sibling key categories.
      *
-     * @param name the name of the key category to validate
-     * @param parentKeyCategoryId the ID of the parent key category to validate
-     * @throws KeyCategoryConflictException if the specified key category name is not unique
+     * <p>The uniqueness of the names within the tree level including the root is enforced by the
+     * {@value KeyCategory#UNIQUE_NAME_CONSTRAINT} constraint of the database, which is also safe for concurrent modifications.
+     * Names are compared case-sensitively after they have been trimmed and composed to the Unicode normalization form C.
+     *
+     * @param keyCategory the key category to save
+     * @return the saved key category
+     * @throws KeyCategoryConflictException if a sibling key category with the same name already exists
+     * @since 0.18.0
      */
-    private void validateUniqueKeyCategoryName(String name, Long parentKeyCategoryId) {
-        if (Objects.nonNull(parentKeyCategoryId)) {
-            if (keyCategoryRepository.findById(parentKeyCategoryId)
-                .map(keyCategory -> keyCategory.getChildren().stream()
-                    .anyMatch(children -> children.getName().equals(name)))
-                .orElse(true)) {
-                throw new KeyCategoryConflictException("key category '" + name + "' already exists");
+    private KeyCategory saveWithUniqueName(KeyCategory keyCategory) {
+        try {
+            return keyCategoryRepository.saveAndFlush(keyCategory);
+        } catch (DataIntegrityViolationException e) {
+            if (isUniqueNameViolation(e)) {
+                throw new KeyCategoryConflictException("key category '" + keyCategory.getName() + "' already exists");
             }
-        } else if (keyCategoryRepository.findAllByParentIsNull().stream()
-                .anyMatch(keyCategory -> keyCategory.getName().equals(name))) {
-            throw new KeyCategoryConflictException("key category '" + name + "' already exists");
+            throw e;
         }
     }
 
     /**
-     * Dissolves all references to connected {@link Key}, {@link UserGroup} and children key category entities.
+     * Checks whether the specified exception has been caused by a violation of the {@value KeyCategory#UNIQUE_NAME_CONSTRAINT}
+     * constraint.
+     *
+     * @param exception the exception to check
+     * @return {@code true} if the constraint has been violated, {@code false} otherwise
+     * @since 0.18.0
+     */
+    private static boolean isUniqueNameViolation(DataIntegrityViolationException exception) {
+        return exception.getCause() instanceof ConstraintViolationException
+            && ofNullable(((ConstraintViolationException) exception.getCause()).getConstraintName())
+                .map(constraintName -> constraintName.toLowerCase(Locale.ROOT).contains(KeyCategory.UNIQUE_NAME_CONSTRAINT))
+                .orElse(false);
+    }
+
+    /**
+     * Loads the key categories with the specified IDs with their keys, children and user groups initialized.
      *
-     * <p>Used to prepare the deletion of a key category.
+     * <p>Used to build the removal updates of a deleted subtree with one query per association instead of one per key category.
      *
-     * @param keyCategory the key category to dissolve all references of
-     * @return the updated key category
-     * @since 0.3.0
+     * @param keyCategoryIds the IDs of the key categories to load
+     * @return the loaded key categories
+     * @since 0.18.0
      */
-    private KeyCategory dissolveReferences(KeyCategory keyCategory) {
-        keyCategory.getKeys()
-                .forEach(key -> {
-                    key.setCategory(null);
-                    keyRepository.save(key);
-                    log.debug("Unbind key category with ID '{}' from key with ID '{}'", keyCategory.getId(), key.getId());
-                });
-        keyCategory.getGroups()
-                .forEach(userGroup -> {
-                    userGroup.removeCategory(keyCategory);
-                    userGroupRepository.save(userGroup);
-                    log.debug("Unbind key category with ID '{}' from user group with name '{}'", keyCategory.getId(), userGroup.getName());
-                });
-        keyCategory.getChildren().forEach(child -> delete(child.getId()));
-
-        keyCategory.setParent(null);
-        keyCategory.removeAllChildren();
-        return keyCategoryRepository.save(keyCategory);
+    private Set<KeyCategory> loadForRemoval(Set<Long> keyCategoryIds) {
+        keyCategoryRepository.findAllWithKeysByIdIn(keyCategoryIds);
+        keyCategoryRepository.findAllWithChildrenByIdIn(keyCategoryIds);
+        return keyCategoryRepository.findAllWithGroupsByIdIn(keyCategoryIds);
     }
 
     /**
-     * Checks for a path collision when the level of the parent key category is higher than the level of the child key category.
+     * Removes the specified key category from the children of its current parent key category.
+     *
+     * <p>The children of a key category are the inverse side of the parent association and must be maintained explicitly to keep the
+     * cached children collection of the parent consistent.
      *
-     * @param parent the parent key category
-     * @param childKeyCategoryId the ID of the child key category
-     * @since 0.9.0
+     * @param keyCategory the key category to remove from its parent
+     * @since 0.18.0
      */
-    private void checkPathCollision(KeyCategory parent, Long childKeyCategoryId) {
-        if (parent.getParent() != null) {
-            checkPathCollisionRecursively(parent.getParent(), childKeyCategoryId);
+    private void detachFromParent(KeyCategory keyCategory) {
+        ofNullable(keyCategory.getParent())
+            .ifPresent(parent -> {
+                parent.removeChild(keyCategory);
+                keyCategoryRepository.save(parent);
+            });
+    }
+
+    /**
+     * Moves the subtree of the specified key category within the closure index of the key category hierarchy.
+     *
+     * <p>The paths from the previous ancestors to all key categories of the subtree are removed and the paths from the new parent and its
+     * ancestors are inserted, the paths within the subtree are kept.
+     *
+     * @param keyCategoryId the ID of the moved key category
+     * @param parentId the ID of the new parent key category or {@code null} if the key category has been moved to the root
+     * @since 0.18.0
+     */
+    private void relinkPaths(Long keyCategoryId, Long parentId) {
+        Set<Long> ancestorIds = keyCategoryPathRepository.findAncestorIds(keyCategoryId);
+        if (!ancestorIds.isEmpty()) {
+            keyCategoryPathRepository.deleteByAncestorIdInAndDescendantIdIn(ancestorIds, keyCategoryPathRepository.findSubtreeIds(keyCategoryId));
+        }
+        if (Objects.nonNull(parentId)) {
+            keyCategoryPathRepository.insertSubtreePaths(parentId, keyCategoryId);
         }
     }
 
     /**
-     * Checks recursively for a path collision when the level of the parent key category is higher than the level of the child key category.
+     * Recomputes the effective access control list of the specified key category and all children which inherit its user groups.
      *
-     * @param parent the parent key category
-     * @param childKeyCategoryId the ID of the child key category
-     * @since 0.9.0
+     * <p>Encryption jobs are created once for each key category a user group has gained effective access to, and the obsolete encrypted
+     * passwords of the members of the user groups which have lost effective access are removed. The key categories and user groups of
+     * the gained access are loaded with one query each.
+     *
+     * @param keyCategoryId the ID of the key category whose user groups or position within the hierarchy have been changed
+     * @since 0.18.0
      */
-    private void checkPathCollisionRecursively(KeyCategory parent, Long childKeyCategoryId) {
-        if (Objects.equals(parent.getId(), childKeyCategoryId)) {
-            throw new KeyCategoryConflictException("key category with ID '" + parent.getId() + "' can not be set as own child reference");
+    private void refreshAccess(Long keyCategoryId) {
+        Set<Long> keyCategoryIds = keyCategoryGroupAccessRepository.findAllInheritingIds(keyCategoryId);
+        if (keyCategoryIds.isEmpty()) {
+            return;
+        }
+        Set<KeyCategoryGroupAccess> previousEntries = new HashSet<>(keyCategoryGroupAccessRepository.findAllByKeyCategoryIdIn(keyCategoryIds));
+        keyCategoryGroupAccessRepository.deleteByKeyCategoryIdIn(keyCategoryIds);
+        keyCategoryGroupAccessRepository.insertAllByKeyCategoryIdIn(keyCategoryIds);
+        Set<KeyCategoryGroupAccess> entries = new HashSet<>(keyCategoryGroupAccessRepository.findAllByKeyCategoryIdIn(keyCategoryIds));
+
+        Set<KeyCategoryGroupAccess> gainedEntries = entries.stream()
+            .filter(entry -> !previousEntries.contains(entry))
+            .collect(toSet());
+        if (!gainedEntries.isEmpty()) {
+            Map<Long, KeyCategory> keyCategories = new HashMap<>();
+            keyCategoryRepository.findAllByIdIn(gainedEntries.stream().map(KeyCategoryGroupAccess::getKeyCategoryId).collect(toSet()))
+                .forEach(keyCategory -> keyCategories.put(keyCategory.getId(), keyCategory));
+            Map<Long, UserGroup> userGroups = new HashMap<>();
+            userGroupRepository.findAllById(gainedEntries.stream().map(KeyCategoryGroupAccess::getUserGroupId).collect(toSet()))
+                .forEach(userGroup -> userGroups.put(userGroup.getId(), userGroup));
+            gainedEntries.forEach(entry -> encryptionJobService.createForCategoryForUsergroup(
+                keyCategories.get(entry.getKeyCategoryId()), userGroups.get(entry.getUserGroupId())));
         }
-        if (parent.getParent() != null) {
-            checkPathCollisionRecursively(parent.getParent(), childKeyCategoryId);
+
+        Set<Long> revokedUserGroupIds = previousEntries.stream()
+            .filter(entry -> !entries.contains(entry))
+            .map(KeyCategoryGroupAccess::getUserGroupId)
+            .collect(toSet());
+        if (!revokedUserGroupIds.isEmpty()) {
+            userRepository.findAllByGroupIdIn(revokedUserGroupIds).forEach(keyService::removeObsoletePasswords);
         }
+        log.debug("Refreshed the access of {} key categories inheriting from key category with ID '{}'", keyCategoryIds.size(), keyCategoryId);
     }
 
     /**
-     * Recursively updates all direct- and indirect key category children tree level of the specified key category.
+     * Builds the nested key category trees of the specified key categories the current user is authorized to see.
      *
-     * @param keyCategory the key category to update all direct- and indirect children of
-     * @since 0.9.0
+     * <p>The key categories, their keys and the authorization are resolved with one query each, key categories whose parent is not
+     * included are returned as roots.
+     *
+     * @param treeLevels the depth within the hierarchy mapped to the ID of each key category to include
+     * @param includeKeys whether the keys of the key categories are included
+     * @return the root nodes of the trees sorted by name
+     * @since 0.18.0
      */
-    private void updateChildrenTreeLevel(KeyCategory keyCategory) {
-        for (KeyCategory child : keyCategory.getChildren()) {
-            child.setTreeLevel(keyCategory.getTreeLevel() + 1);
-            updateChildrenTreeLevel(child);
+    private List<KeyCategory.TreeNode> buildTrees(Map<Long, Integer> treeLevels, boolean includeKeys) {
+        boolean isAdmin = isCurrentUserInRole(ADMIN);
+        Set<Long> keyCategoryIds = new HashSet<>(treeLevels.keySet());
+        if (!isAdmin) {
+            keyCategoryIds.retainAll(keyCategoryPathRepository.findAllVisibleIdsByLogin(getCurrentUserLogin()));
+        }
+        if (keyCategoryIds.isEmpty()) {
+            return new ArrayList<>();
         }
+
+        Set<KeyCategory> keyCategories = keyCategoryRepository.findAllByIdIn(keyCategoryIds);
+        Map<Long, KeyCategory.TreeNode> nodes = new HashMap<>();
+        keyCategories.forEach(keyCategory ->
+            nodes.put(keyCategory.getId(), new KeyCategory.TreeNode(keyCategory, treeLevels.get(keyCategory.getId()), includeKeys)));
+
+        if (includeKeys) {
+            Set<Key> keys = isAdmin
+                ? keyRepository.findAllByCategoryIdIn(keyCategoryIds)
+                : keyRepository.findAllAccessibleByLoginAndCategoryIdIn(getCurrentUserLogin(), keyCategoryIds);
+            keys.forEach(key -> nodes.get(key.getCategory().getId()).addKey(key));
+        }
+
+        List<KeyCategory.TreeNode> roots = new ArrayList<>();
+        keyCategories.forEach(keyCategory -> {
+            KeyCategory.TreeNode node = nodes.get(keyCategory.getId());
+            KeyCategory.TreeNode parentNode = ofNullable(keyCategory.getParent()).map(KeyCategory::getId).map(nodes::get).orElse(null);
+            if (Objects.nonNull(parentNode)) {
+                parentNode.addChild(node);
+            } else {
+                roots.add(node);
+            }
+        });
+        nodes.values().forEach(KeyCategory.TreeNode::sortChildren);
+        KeyCategory.TreeNode.sort(roots);
+        return roots;
     }
 
     /**
@@ -453,7 +749,8 @@ public class KeyCategoryService {
      * @since 0.15.0
      */
     public void sendUpdates(KeyCategory keyCategory) {
-        messagingTemplate.convertAndSend(QUEUE_UPDATES_CATEGORIES, keyCategory);
+        entityUpdateService.createUpdate(keyCategory)
+            .ifPresent(update -> updateCoalescingService.send(TOPIC_UPDATES_CATEGORIES, keyCategory, update));
         log.debug("Sent out updates for key category '{}'.", keyCategory.getId());
     }
 
@@ -466,10 +763,23 @@ public class KeyCategoryService {
      * @since 0.15.0
      */
     public void sendRemovalUpdates(KeyCategory keyCategory) {
-        messagingTemplate.convertAndSend(QUEUE_UPDATES_CATEGORIES_DELETE, keyCategory);
+        updateCoalescingService.send(TOPIC_UPDATES_CATEGORIES_DELETE, keyCategory, keyCategory);
+        entityUpdateService.evict(keyCategory);
         log.debug("Sent out removal update for key category '{}'.", keyCategory.getId());
     }
 
+    /**
+     * Sends out a single websocket message to users for live updates on the removal of multiple key categories.
+     *
+     * @param keyCategories the categories that were removed
+     * @since 0.18.0
+     */
+    public void sendRemovalUpdates(Collection<KeyCategory> keyCategories) {
+        updateCoalescingService.sendAll(TOPIC_UPDATES_CATEGORIES_DELETE, keyCategories);
+        keyCategories.forEach(entityUpdateService::evict);
+        log.debug("Sent out removal update for {} key categories.", keyCategories.size());
+    }
+
     /**
      * Decodes the specified Hashid.
      *
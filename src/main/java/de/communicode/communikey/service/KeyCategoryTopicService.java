@@ -0,0 +1,307 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static de.communicode.communikey.controller.RequestMappings.ENDPOINT_DELETE;
+import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_SUBSCRIPTIONS_REVOKED;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_CATEGORIES;
+import static de.communicode.communikey.security.AuthoritiesConstants.ADMIN;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toSet;
+
+import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.config.CommunikeyProperties.Websocket.BrokerMode;
+import de.communicode.communikey.config.util.AfterCommit;
+import de.communicode.communikey.domain.KeyCategory;
+import de.communicode.communikey.domain.User;
+import de.communicode.communikey.repository.KeyCategoryGroupAccessRepository;
+import de.communicode.communikey.repository.UserRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Publishes key updates to one topic per key category instead of the private queue of each accessor.
+ *
+ * <p>Subscriptions to the {@value de.communicode.communikey.controller.RequestMappings#TOPIC_CATEGORIES} topics are authorized once
+ * by the effective user group ACL of the category and are tracked per session. Subscriptions of users who lose access to a category are
+ * unsubscribed at the broker and the affected session is notified through
+ * {@value de.communicode.communikey.controller.RequestMappings#QUEUE_UPDATES_SUBSCRIPTIONS_REVOKED}.
+ *
+ * <p>The subscriptions are only known to the instance the session is connected to, revocations would not reach the sessions of other
+ * instances. The category topics are therefore refused in the {@link BrokerMode#RELAY relay broker mode} which is shared by multiple
+ * instances.
+ *
+ * @since 0.18.0
+ */
+@Service
+public class KeyCategoryTopicService {
+
+    private static final Logger log = LogManager.getLogger();
+    private final UserRepository userRepository;
+    private final KeyCategoryGroupAccessRepository keyCategoryGroupAccessRepository;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final boolean enabled;
+
+    /**
+     * The category subscriptions by subscription ID by session ID.
+     */
+    private final Map<String, Map<String, Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public KeyCategoryTopicService(UserRepository userRepository, KeyCategoryGroupAccessRepository keyCategoryGroupAccessRepository,
+                                   @Lazy SimpMessagingTemplate messagingTemplate, CommunikeyProperties communikeyProperties) {
+        this.userRepository = requireNonNull(userRepository, "userRepository must not be null!");
+        this.keyCategoryGroupAccessRepository = requireNonNull(keyCategoryGroupAccessRepository,
+            "keyCategoryGroupAccessRepository must not be null!");
+        this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+        requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+        this.enabled = communikeyProperties.getWebsocket().getUpdates().isCategoryTopics();
+        if (enabled && communikeyProperties.getWebsocket().getBroker().getMode() == BrokerMode.RELAY) {
+            throw new IllegalStateException("The category topics can not be enabled in the relay broker mode since the subscriptions of "
+                + "other instances would not be revoked");
+        }
+    }
+
+    /**
+     * @return {@code true} if key updates are published to the category topics, {@code false} if they are sent to each accessor
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the topic for updates of the keys of the specified key category.
+     *
+     * @param keyCategory the key category
+     * @return the topic destination
+     */
+    public static String getDestination(KeyCategory keyCategory) {
+        return TOPIC_CATEGORIES + "/" + keyCategory.getHashid();
+    }
+
+    /**
+     * Gets the topic for removals of the keys of the specified key category.
+     *
+     * @param keyCategory the key category
+     * @return the topic destination
+     */
+    public static String getRemovalDestination(KeyCategory keyCategory) {
+        return getDestination(keyCategory) + ENDPOINT_DELETE;
+    }
+
+    /**
+     * Gets the Hashid of the key category of a topic.
+     *
+     * @param destination the destination of the topic
+     * @return the Hashid of the key category, {@code null} if the destination is not a category topic
+     */
+    public static String getCategoryHashid(String destination) {
+        if (destination == null || !destination.startsWith(TOPIC_CATEGORIES + "/")) {
+            return null;
+        }
+        String hashid = destination.substring(TOPIC_CATEGORIES.length() + 1);
+        if (hashid.endsWith(ENDPOINT_DELETE)) {
+            hashid = hashid.substring(0, hashid.length() - ENDPOINT_DELETE.length());
+        }
+        return hashid.isEmpty() || hashid.contains("/") ? null : hashid;
+    }
+
+    /**
+     * Checks whether a message is a subscription to a category topic the subscribing user has access to.
+     *
+     * @param message the inbound message
+     * @return {@code true} if the message is an authorized category subscription, {@code false} otherwise
+     */
+    @Transactional(readOnly = true)
+    public boolean isSubscriptionAllowed(Message<?> message) {
+        if (!enabled || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.SUBSCRIBE) {
+            return false;
+        }
+        String hashid = getCategoryHashid(SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        Principal principal = SimpMessageHeaderAccessor.getUser(message.getHeaders());
+        if (hashid == null || principal == null) {
+            return false;
+        }
+        User user = userRepository.findOneByLogin(principal.getName());
+        return user != null && (isAdmin(user) || getCategoryHashids(user).contains(hashid));
+    }
+
+    /**
+     * Gets the Hashids of all key categories the user with the specified login has effective access to through the user groups.
+     *
+     * @param login the login of the user
+     * @return the Hashids of the key categories
+     */
+    @Transactional(readOnly = true)
+    public Set<String> getCategoryHashids(String login) {
+        User user = userRepository.findOneByLogin(login);
+        return user == null ? Collections.emptySet() : getCategoryHashids(user);
+    }
+
+    /**
+     * Revokes all category subscriptions of the specified user which are not covered by the current user groups and authorities.
+     *
+     * @param user the user whose user groups or authorities changed
+     */
+    public void revokeUnauthorizedSubscriptions(User user) {
+        if (subscriptions.isEmpty() || isAdmin(user)) {
+            return;
+        }
+        Set<String> hashids = getCategoryHashids(user);
+        String login = user.getLogin();
+        revokeSubscriptions(subscription -> subscription.login.equals(login) && !hashids.contains(subscription.hashid));
+    }
+
+    /**
+     * Revokes all category subscriptions of the user with the specified login.
+     *
+     * @param login the login of the user
+     */
+    public void revokeSubscriptions(String login) {
+        revokeSubscriptions(subscription -> subscription.login.equals(login));
+    }
+
+    /**
+     * Revokes all subscriptions to the topics of the specified key category.
+     *
+     * @param keyCategory the key category
+     */
+    public void revokeSubscriptions(KeyCategory keyCategory) {
+        String hashid = keyCategory.getHashid();
+        revokeSubscriptions(subscription -> subscription.hashid.equals(hashid));
+    }
+
+    /**
+     * Revokes all subscriptions to the topics of the specified key categories.
+     *
+     * @param keyCategories the key categories
+     */
+    public void revokeSubscriptions(Collection<KeyCategory> keyCategories) {
+        Set<String> hashids = keyCategories.stream()
+            .map(KeyCategory::getHashid)
+            .collect(toSet());
+        revokeSubscriptions(subscription -> hashids.contains(subscription.hashid));
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String hashid = getCategoryHashid(headerAccessor.getDestination());
+        if (hashid != null && event.getUser() != null) {
+            subscriptions.computeIfAbsent(headerAccessor.getSessionId(), sessionId -> new ConcurrentHashMap<>())
+                .put(headerAccessor.getSubscriptionId(), new Subscription(event.getUser().getName(), hashid, headerAccessor.getDestination()));
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        Map<String, Subscription> sessionSubscriptions = subscriptions.get(headerAccessor.getSessionId());
+        if (sessionSubscriptions != null) {
+            sessionSubscriptions.remove(headerAccessor.getSubscriptionId());
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        subscriptions.remove(getSessionId(event));
+    }
+
+    private static String getSessionId(AbstractSubProtocolEvent event) {
+        return SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+    }
+
+    private static boolean isAdmin(User user) {
+        return user.getAuthorities().stream().anyMatch(authority -> authority.getName().equals(ADMIN));
+    }
+
+    private Set<String> getCategoryHashids(User user) {
+        return keyCategoryGroupAccessRepository.findAllKeyCategoryHashidsByLogin(user.getLogin());
+    }
+
+    /**
+     * Unsubscribes all matching subscriptions at the broker and notifies the affected sessions.
+     *
+     * <p>The subscriptions are revoked once the current transaction has been committed so that they are kept when the revoked access
+     * is rolled back.
+     */
+    private void revokeSubscriptions(Predicate<Subscription> predicate) {
+        AfterCommit.run(() -> subscriptions.forEach((sessionId, sessionSubscriptions) -> sessionSubscriptions.forEach((subscriptionId, subscription) -> {
+            if (predicate.test(subscription) && sessionSubscriptions.remove(subscriptionId, subscription)) {
+                revoke(sessionId, subscriptionId, subscription);
+            }
+        })));
+    }
+
+    private void revoke(String sessionId, String subscriptionId, Subscription subscription) {
+        try {
+            SimpMessageHeaderAccessor unsubscribeAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+            unsubscribeAccessor.setSessionId(sessionId);
+            unsubscribeAccessor.setSubscriptionId(subscriptionId);
+            unsubscribeAccessor.setLeaveMutable(true);
+            messagingTemplate.send(subscription.destination, MessageBuilder.createMessage(new byte[0], unsubscribeAccessor.getMessageHeaders()));
+
+            SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            headerAccessor.setSessionId(sessionId);
+            headerAccessor.setLeaveMutable(true);
+            messagingTemplate.convertAndSendToUser(subscription.login, QUEUE_UPDATES_SUBSCRIPTIONS_REVOKED,
+                Collections.singletonMap("destination", subscription.destination), headerAccessor.getMessageHeaders());
+            log.debug("Revoked subscription '{}' of user '{}' to '{}'.", subscriptionId, subscription.login, subscription.destination);
+        } catch (RuntimeException e) {
+            log.error("Failed to revoke subscription '{}' of session '{}'.", subscriptionId, sessionId, e);
+        }
+    }
+
+    /**
+     * A subscription of a user to a category topic.
+     */
+    private static final class Subscription {
+
+        private final String login;
+        private final String hashid;
+        private final String destination;
+
+        private Subscription(String login, String hashid, String destination) {
+            this.login = login;
+            this.hashid = hashid;
+            this.destination = destination;
+        }
+    }
+}
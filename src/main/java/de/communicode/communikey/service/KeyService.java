@@ -27,6 +27,7 @@ import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.collectingAndThen;
 import static java.util.stream.Collectors.toSet;
 
+import de.communicode.communikey.config.util.RetryingTransactional;
 import de.communicode.communikey.domain.Key;
 import de.communicode.communikey.domain.KeyCategory;
 import de.communicode.communikey.domain.User;
@@ -37,6 +38,7 @@ import de.communicode.communikey.exception.KeyNotAccessibleByUserException;
 import de.communicode.communikey.exception.KeyNotFoundException;
 import de.communicode.communikey.exception.UserEncryptedPasswordNotFoundException;
 import de.communicode.communikey.repository.EncryptionJobRepository;
+import de.communicode.communikey.repository.KeyCategoryGroupAccessRepository;
 import de.communicode.communikey.repository.UserEncryptedPasswordRepository;
 import de.communicode.communikey.security.AuthoritiesConstants;
 import de.communicode.communikey.security.SecurityUtils;
@@ -49,11 +51,10 @@ import org.apache.logging.log4j.Logger;
 import org.hashids.Hashids;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
@@ -70,6 +71,7 @@ public class KeyService {
 
     private static final Logger log = LogManager.getLogger();
     private final KeyRepository keyRepository;
+    private final KeyCategoryGroupAccessRepository keyCategoryGroupAccessRepository;
     private final UserEncryptedPasswordRepository userEncryptedPasswordRepository;
     private final KeyCategoryService keyCategoryService;
     private final UserService userService;
@@ -78,16 +80,22 @@ public class KeyService {
     private final AuthorityService authorityService;
     private final EncryptionJobService encryptionJobService;
     private final EncryptionJobRepository encryptionJobRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final UpdateCoalescingService updateCoalescingService;
+    private final EntityUpdateService entityUpdateService;
+    private final KeyCategoryTopicService keyCategoryTopicService;
 
     @Autowired
-    public KeyService(KeyRepository keyRepository, @Lazy KeyCategoryService keyCategoryService,
+    public KeyService(KeyRepository keyRepository, KeyCategoryGroupAccessRepository keyCategoryGroupAccessRepository,
+                      @Lazy KeyCategoryService keyCategoryService,
                       UserService userRestService, Hashids hashids, UserEncryptedPasswordRepository
                       userEncryptedPasswordRepository, UserRepository userRepository,
                       AuthorityService authorityService, @Lazy EncryptionJobService encryptionJobService,
                       EncryptionJobRepository encryptionJobRepository,
-                      SimpMessagingTemplate messagingTemplate) {
+                      UpdateCoalescingService updateCoalescingService, EntityUpdateService entityUpdateService,
+                      KeyCategoryTopicService keyCategoryTopicService) {
         this.keyRepository = requireNonNull(keyRepository, "keyRepository must not be null!");
+        this.keyCategoryGroupAccessRepository = requireNonNull(keyCategoryGroupAccessRepository,
+            "keyCategoryGroupAccessRepository must not be null!");
         this.userEncryptedPasswordRepository = requireNonNull(userEncryptedPasswordRepository, "userEncryptedPasswordRepository must not be null!");
         this.keyCategoryService = requireNonNull(keyCategoryService, "keyCategoryService must not be null!");
         this.userService = requireNonNull(userRestService, "userService must not be null!");
@@ -96,7 +104,9 @@ public class KeyService {
         this.authorityService = requireNonNull(authorityService, "authorityService must not be null!");
         this.encryptionJobService = requireNonNull(encryptionJobService, "encryptionJobService must not be null!");
         this.encryptionJobRepository = requireNonNull(encryptionJobRepository, "encryptionJobRepository must not be null!");
-        this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+        this.updateCoalescingService = requireNonNull(updateCoalescingService, "updateCoalescingService must not be null!");
+        this.entityUpdateService = requireNonNull(entityUpdateService, "entityUpdateService must not be null!");
+        this.keyCategoryTopicService = requireNonNull(keyCategoryTopicService, "keyCategoryTopicService must not be null!");
     }
 
     /**
@@ -105,6 +115,7 @@ public class KeyService {
      * @param payload the key payload
      * @return the created key
      */
+    @RetryingTransactional
     public Key create(KeyPayload payload) {
         Key key = new Key();
         checkPayloadKeyAccess(key, payload);
@@ -153,6 +164,7 @@ public class KeyService {
      * @param keyId the ID of the key to delete
      * @throws KeyNotFoundException if the key with the specified ID has not been found
      */
+    @RetryingTransactional
     public void delete(Long keyId) {
         Key key = validate(keyId);
         userEncryptedPasswordRepository.deleteByKey(key);
@@ -165,6 +177,7 @@ public class KeyService {
     /**
      * Deletes all keys.
      */
+    @Transactional
     public void deleteAll() {
         userEncryptedPasswordRepository.deleteAll();
         keyRepository.deleteAll();
@@ -174,20 +187,21 @@ public class KeyService {
     /**
      * Gets the key with the specified ID if the current user is authorized to receive.
      *
-     * <p> The returned key is based on the linked {@link KeyCategory} which is filtered by the {@link UserGroup} the user is assigned to.
+     * <p> The returned key is based on the linked {@link KeyCategory} which is filtered by the {@link UserGroup} the user is assigned to,
+     * including the user groups inherited from the ancestors of the key category.
      *
      * @param keyId the ID of the key to get
      * @return the key, {@link Optional#empty()} otherwise
      * @throws KeyNotFoundException if the key with the specified ID has not been found
      */
+    @Transactional(readOnly = true)
     public Optional<Key> get(Long keyId) {
         if (isCurrentUserInRole(ADMIN)) {
             return Optional.ofNullable(validate(keyId));
         }
 
         Key key = validate(keyId);
-        if (userService.validate(getCurrentUserLogin()).getGroups().stream()
-            .anyMatch(userGroup -> ofNullable(key.getCategory()).map(cat -> cat.getGroups().contains(userGroup)).orElse(false))) {
+        if (hasAccess(key, getCurrentUserLogin())) {
             return Optional.of(key);
         }
         return Optional.empty();
@@ -200,14 +214,12 @@ public class KeyService {
      *
      * @return a collection of keys
      */
+    @Transactional(readOnly = true)
     public Set<Key> getAll() {
         if (isCurrentUserInRole(ADMIN)) {
-            return new HashSet<>(keyRepository.findAll());
+            return keyRepository.findAll();
         }
-        return userService.validate(getCurrentUserLogin()).getGroups().stream()
-            .flatMap(userGroup -> userGroup.getCategories().stream())
-            .flatMap(keyCategory -> keyCategory.getKeys().stream())
-            .collect(toSet());
+        return keyRepository.findAllAccessibleByLogin(getCurrentUserLogin());
     }
 
     /**
@@ -223,12 +235,8 @@ public class KeyService {
         UserEncryptedPassword userEncryptedPassword = null;
         if(user.getAuthorities().contains(authorityService.get(ADMIN))) {
             userEncryptedPassword = userEncryptedPasswordRepository.findOneByOwnerAndKey(user, key);
-        } else {
-            for (UserGroup userGroup:key.getCategory().getGroups()) {
-                if(user.getGroups().contains(userGroup)) {
-                    userEncryptedPassword = userEncryptedPasswordRepository.findOneByOwnerAndKey(user, key);
-                }
-            }
+        } else if (hasAccess(key, login)) {
+            userEncryptedPassword = userEncryptedPasswordRepository.findOneByOwnerAndKey(user, key);
         }
         ofNullable(userEncryptedPassword)
             .orElseThrow(UserEncryptedPasswordNotFoundException::new);
@@ -243,6 +251,7 @@ public class KeyService {
      * @return the updated key
      * @since 0.2.0
      */
+    @RetryingTransactional
     public Key update(Long keyId, KeyPayload payload) {
         Key key = validate(keyId);
         checkPayloadKeyAccess(key, payload);
@@ -282,35 +291,31 @@ public class KeyService {
 
     /**
      * Removes keys of a user that are obsolete because their visibility to the user changed
+     * and revokes the key category topic subscriptions the user has no access to anymore.
      *
      * @param user the user user to update
      * @author dvonderbey@communicode.de
      * @since 0.15.0
      */
+    @RetryingTransactional
     public void removeObsoletePasswords(User user) {
         if (user.getAuthorities().stream()
             .noneMatch(authority -> authority.getName().equals(ADMIN))) {
+            Set<Long> keyCategoryIds = keyCategoryGroupAccessRepository.findAllKeyCategoryIdsByLogin(user.getLogin());
             userEncryptedPasswordRepository.findAllByOwner(user)
                 .forEach(userEncryptedPassword -> {
                     Key key = userEncryptedPassword.getKey();
                     KeyCategory category = key.getCategory();
                     if (category != null) {
-                        Set<UserGroup> userGroups = category.getGroups();
-                        if (userGroups.isEmpty()) {
+                        if (!keyCategoryIds.contains(category.getId())) {
                             deleteUserEncryptedPassword(key, userEncryptedPassword);
-                        } else {
-                            userGroups.forEach(userGroup -> {
-                                if (!user.getGroups().contains(userGroup)) {
-                                    deleteUserEncryptedPassword(key, userEncryptedPassword);
-                                }
-                            });
                         }
-
                     } else if (!key.getCreator().equals(user)) {
                         deleteUserEncryptedPassword(key, userEncryptedPassword);
                     }
                 });
         }
+        keyCategoryTopicService.revokeUnauthorizedSubscriptions(user);
     }
 
     /**
@@ -329,16 +334,27 @@ public class KeyService {
         if(user.getAuthorities().contains(authorityService.get(ADMIN))) {
             return true;
         }
-        KeyCategory keyCategory = key.getCategory();
-        for (UserGroup userGroup:keyCategory.getGroups()) {
-            if(user.getGroups().contains(userGroup)) {
-                return true;
-            }
+        if (hasAccess(key, user.getLogin())) {
+            return true;
         }
         log.info("User '{}' tried to add an encryptedPassword for user {} without access to the key.", getCurrentUserLogin(), user.getLogin());
         return false;
     }
 
+    /**
+     * Checks if the user with the specified login has effective access to the specified key through one of the user groups of the user.
+     *
+     * @param key the key to check
+     * @param login the login of the user
+     * @return {@code true} if the user has access to the key, {@code false} otherwise
+     * @since 0.18.0
+     */
+    private boolean hasAccess(Key key, String login) {
+        return ofNullable(key.getCategory())
+            .map(keyCategory -> keyCategoryGroupAccessRepository.countByKeyCategoryIdAndLogin(keyCategory.getId(), login) > 0)
+            .orElse(false);
+    }
+
     /**
      * Removes all user encrypted passwords of a user.
      *
@@ -346,6 +362,7 @@ public class KeyService {
      * @author dvonderbey@communicode.de
      * @since 0.15.0
      */
+    @RetryingTransactional
     public void removeAllUserEncryptedPasswordsForUser(User user) {
         userEncryptedPasswordRepository.findAllByOwner(user)
             .forEach(userEncryptedPassword -> {
@@ -384,10 +401,14 @@ public class KeyService {
      * @author dvonderbey@communicode.de
      * @since 0.15.0
      */
+    @Transactional(readOnly = true)
     public Optional<Set<User.SubscriberInfo>> getSubscribers(Long keyId) {
-        return getAccessors(validate(keyId)).stream()
-            .filter(user -> user.getPublicKey() != null)
-            .map(User::getSubscriberInfo)
+        if (!keyRepository.existsById(keyId)) {
+            throw new KeyNotFoundException();
+        }
+        return Stream.concat(
+                userRepository.findAllSubscriberInfosByKeyId(keyId).stream(),
+                userRepository.findAllSubscriberInfosByAuthorityName(AuthoritiesConstants.ADMIN).stream())
             .collect(collectingAndThen(toSet(), Optional::of));
     }
 
@@ -402,10 +423,9 @@ public class KeyService {
     public Set<User> getAccessors(Key key) {
         Stream<User> subscriberStream = Optional.of(key)
             .map(Key::getCategory)
-            .map(KeyCategory::getGroups)
+            .map(keyCategory -> userRepository.findAllWithAccessToKeyCategoryId(keyCategory.getId()))
             .map(Collection::stream)
-            .orElse(Stream.empty())
-            .flatMap(userGroup -> userGroup.getUsers().stream());
+            .orElse(Stream.empty());
 
         Stream<User> adminStream = userRepository.findAllByAuthorities(authorityService.get(AuthoritiesConstants.ADMIN))
             .stream();
@@ -414,6 +434,18 @@ public class KeyService {
             .collect(toSet());
     }
 
+    /**
+     * Returns the logins of the users that should have access to a key.
+     *
+     * @param key the key of which the accessors are wanted
+     * @return the logins of the accessors
+     */
+    private Set<String> getAccessorLogins(Key key) {
+        return getAccessors(key).stream()
+            .map(User::getLogin)
+            .collect(toSet());
+    }
+
     /**
      * Deletes an userEncryptedPassword from a key and from the repository
      *
@@ -444,10 +476,7 @@ public class KeyService {
      * @since 0.15.0
      */
     public Set<User.SubscriberInfo> getQualifiedEncoders(Key key) {
-        return userEncryptedPasswordRepository.findAllByKey(key).stream()
-            .map(UserEncryptedPassword::getOwner)
-            .map(User::getSubscriberInfo)
-            .collect(toSet());
+        return userRepository.findAllSubscriberInfosByEncryptedPasswordKeyId(key.getId());
     }
 
     /**
@@ -480,26 +509,39 @@ public class KeyService {
     /**
      * Sends out websocket messages to users for live updates.
      *
+     * <p>Publishes the update once to the topic of the key category if category topics are enabled.
+     *
      * @param key the key that was updated
      * @author dvonderbey@communicode.de
      * @since 0.15.0
      */
     public void sendUpdates(Key key) {
-        getAccessors(key)
-            .forEach(user -> messagingTemplate.convertAndSendToUser(user.getLogin(), QUEUE_UPDATES_KEYS, key));
-        log.debug("Sent out updates for key '{}'.", key.getId());
+        entityUpdateService.createUpdate(key).ifPresent(update -> {
+            if (keyCategoryTopicService.isEnabled() && key.getCategory() != null) {
+                updateCoalescingService.send(KeyCategoryTopicService.getDestination(key.getCategory()), key, update);
+            } else {
+                updateCoalescingService.sendToUsers(getAccessorLogins(key), QUEUE_UPDATES_KEYS, key, update);
+            }
+            log.debug("Sent out updates for key '{}'.", key.getId());
+        });
     }
 
     /**
      * Sends out websocket messages to users for live removals.
      *
+     * <p>Publishes the removal once to the topic of the key category if category topics are enabled.
+     *
      * @param key the key that was removed
      * @author dvonderbey@communicode.de
      * @since 0.15.0
      */
     public void sendRemovalUpdates(Key key) {
-        getAccessors(key)
-            .forEach(user -> messagingTemplate.convertAndSendToUser(user.getLogin(), QUEUE_UPDATES_KEYS_DELETE, key));
+        if (keyCategoryTopicService.isEnabled() && key.getCategory() != null) {
+            updateCoalescingService.send(KeyCategoryTopicService.getRemovalDestination(key.getCategory()), key, key);
+        } else {
+            updateCoalescingService.sendToUsers(getAccessorLogins(key), QUEUE_UPDATES_KEYS_DELETE, key, key);
+        }
+        entityUpdateService.evict(key);
         log.debug("Sent out removal updates for key '{}'.", key.getId());
     }
 }
@@ -0,0 +1,188 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static java.util.Objects.requireNonNull;
+
+import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.domain.User;
+import de.communicode.communikey.exception.LoginCapacityExceededException;
+import de.communicode.communikey.exception.UserNotActivatedException;
+import de.communicode.communikey.repository.UserRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The service to verify the credentials of logging in users.
+ *
+ * <p>The user and its authorities are loaded with a single query while the expensive BCrypt verification runs on a bounded
+ * executor, so that a burst of logins neither occupies the request threads nor starves other requests. Logins exceeding the
+ * hashing threads and queue are rejected immediately. Passwords hashed with another cost factor than the configured strength are
+ * rehashed after a successful verification.
+ *
+ * <p>The hashing threads only compute the hashes. The verified login is completed on separate login threads which persist a rehashed
+ * password and run the dependent stages of the returned future, like issuing the access token, so that neither blocks a hashing
+ * thread. The loaded user entity is never modified.
+ *
+ * @since 0.18.0
+ */
+@Service
+public class LoginService implements DisposableBean {
+
+    private static final Logger log = LogManager.getLogger();
+
+    /**
+     * Matches BCrypt hashes and captures their cost factor.
+     */
+    private static final Pattern BCRYPT_HASH_PATTERN = Pattern.compile("\\$2[aby]?\\$(\\d\\d)\\$.{53}");
+
+    private final UserRepository userRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final int strength;
+    private final ThreadPoolExecutor hashingExecutor;
+    private final ThreadPoolExecutor loginExecutor;
+
+    @Autowired
+    public LoginService(UserRepository userRepository, PasswordEncoder passwordEncoder, CommunikeyProperties communikeyProperties) {
+        this.userRepository = requireNonNull(userRepository, "userRepository must not be null!");
+        this.passwordEncoder = requireNonNull(passwordEncoder, "passwordEncoder must not be null!");
+        requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+        CommunikeyProperties.Security.PasswordHashing passwordHashing = communikeyProperties.getSecurity().getPasswordHashing();
+        this.strength = passwordHashing.getStrength();
+        BlockingQueue<Runnable> queue = passwordHashing.getQueueCapacity() > 0
+            ? new ArrayBlockingQueue<>(passwordHashing.getQueueCapacity())
+            : new SynchronousQueue<>();
+        this.hashingExecutor = new ThreadPoolExecutor(passwordHashing.getThreads(), passwordHashing.getThreads(), 0, TimeUnit.MILLISECONDS, queue,
+            threadFactory("password-hashing-"));
+        // Only the logins which passed the hashing executor are completed, its bounds apply to the unbounded queue as well
+        this.loginExecutor = new ThreadPoolExecutor(passwordHashing.getThreads(), passwordHashing.getThreads(), 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), threadFactory("login-"));
+    }
+
+    /**
+     * Verifies the credentials of the user with the specified login.
+     *
+     * @param login the login of the user
+     * @param password the password of the user
+     * @return the future user including its authorities, empty if the user has not been found or the password does not match
+     * @throws LoginCapacityExceededException if all hashing threads are busy and the queue is full
+     * @throws UserNotActivatedException as cause of the future if the credentials are valid but the user is not activated
+     */
+    public CompletableFuture<Optional<User>> authenticate(String login, String password) {
+        User user = userRepository.findOneWithAuthoritiesByLogin(login);
+        if (user == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        String passwordHash = user.getPassword();
+        CompletableFuture<Verification> verification;
+        try {
+            verification = CompletableFuture.supplyAsync(() -> verify(passwordHash, password), hashingExecutor);
+        } catch (RejectedExecutionException e) {
+            log.debug("Rejected login of user with login '{}', {} logins are waiting for a hashing thread", login, hashingExecutor.getQueue().size());
+            throw new LoginCapacityExceededException();
+        }
+        return verification.thenApplyAsync(result -> complete(user, passwordHash, result), loginExecutor);
+    }
+
+    @Override
+    public void destroy() {
+        hashingExecutor.shutdownNow();
+        loginExecutor.shutdownNow();
+    }
+
+    /**
+     * Verifies the password against the specified hash and rehashes it if the hash has been computed with another strength.
+     *
+     * <p>Runs on a hashing thread and must not access the user entity.
+     */
+    private Verification verify(String passwordHash, String password) {
+        if (!passwordEncoder.matches(password, passwordHash)) {
+            return Verification.MISMATCH;
+        }
+        return new Verification(needsRehash(passwordHash) ? passwordEncoder.encode(password) : null);
+    }
+
+    /**
+     * Completes a verified login and persists the rehashed password, the loaded user entity is left untouched.
+     */
+    private Optional<User> complete(User user, String passwordHash, Verification verification) {
+        if (!verification.matches) {
+            return Optional.empty();
+        }
+        if (!user.isActivated()) {
+            throw new UserNotActivatedException(user.getLogin());
+        }
+        if (verification.rehashedPassword != null
+            && userRepository.updatePasswordHash(user.getId(), passwordHash, verification.rehashedPassword) > 0) {
+            log.debug("Rehashed the password of user with login '{}' with strength {}", user.getLogin(), strength);
+        }
+        return Optional.of(user);
+    }
+
+    private boolean needsRehash(String passwordHash) {
+        Matcher matcher = BCRYPT_HASH_PATTERN.matcher(passwordHash);
+        return matcher.matches() && Integer.parseInt(matcher.group(1)) != strength;
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The result of a password verification computed by a hashing thread.
+     */
+    private static final class Verification {
+
+        private static final Verification MISMATCH = new Verification(false, null);
+
+        private final boolean matches;
+        private final String rehashedPassword;
+
+        private Verification(String rehashedPassword) {
+            this(true, rehashedPassword);
+        }
+
+        private Verification(boolean matches, String rehashedPassword) {
+            this.matches = matches;
+            this.rehashedPassword = rehashedPassword;
+        }
+    }
+}
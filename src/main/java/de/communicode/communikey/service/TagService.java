@@ -17,6 +17,7 @@
  */
 package de.communicode.communikey.service;
 
+import de.communicode.communikey.config.util.RetryingTransactional;
 import de.communicode.communikey.domain.Tag;
 import de.communicode.communikey.domain.User;
 import de.communicode.communikey.exception.HashidNotValidException;
@@ -28,14 +29,13 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hashids.Hashids;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.HashSet;
 import java.util.Set;
 
-import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_TAGS;
-import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_TAGS_DELETE;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_TAGS;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_TAGS_DELETE;
 import static de.communicode.communikey.security.SecurityUtils.getCurrentUserLogin;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
@@ -53,17 +53,19 @@ public class TagService {
     private final TagRepository tagRepository;
     private final UserService userService;
     private final Hashids hashids;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final UpdateCoalescingService updateCoalescingService;
+    private final EntityUpdateService entityUpdateService;
 
     @Autowired
     public TagService(TagRepository tagRepository,
                       UserService userService,
                       Hashids hashids,
-                      SimpMessagingTemplate messagingTemplate) {
+                      UpdateCoalescingService updateCoalescingService, EntityUpdateService entityUpdateService) {
         this.tagRepository = requireNonNull(tagRepository, "tagRepository must not be null!");
         this.userService = requireNonNull(userService, "userService must not be null!");
         this.hashids = requireNonNull(hashids, "hashids must not be null!");
-        this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+        this.updateCoalescingService = requireNonNull(updateCoalescingService, "updateCoalescingService must not be null!");
+        this.entityUpdateService = requireNonNull(entityUpdateService, "entityUpdateService must not be null!");
     }
 
     /**
@@ -72,6 +74,7 @@ public class TagService {
      * @param payload the key payload
      * @return the created key
      */
+    @RetryingTransactional
     public Tag create(TagPayload payload) {
         Tag tag = new Tag();
         String userLogin = getCurrentUserLogin();
@@ -97,6 +100,7 @@ public class TagService {
      * @param payload the payload to update the tag with
      * @return the updated tag
      */
+    @RetryingTransactional
     public Tag update(Long tagId, TagPayload payload) {
         Tag tag = validate(tagId);
         tag.setName(payload.getName());
@@ -113,6 +117,7 @@ public class TagService {
      * @param tagId the ID of the key to delete
      * @throws TagNotFoundException if the tag with the specified ID has not been found
      */
+    @RetryingTransactional
     public void delete(Long tagId) {
         Tag tag = validate(tagId);
         tagRepository.delete(tag);
@@ -123,6 +128,7 @@ public class TagService {
     /**
      * Deletes all tags.
      */
+    @Transactional
     public void deleteAll() {
         tagRepository.deleteAll();
         log.debug("Deleted all tags");
@@ -135,6 +141,7 @@ public class TagService {
      * @return the tag
      * @throws TagNotFoundException if the key with the specified ID has not been found
      */
+    @Transactional(readOnly = true)
     public Tag get(Long tagId) {
         return validate(tagId);
     }
@@ -144,8 +151,9 @@ public class TagService {
      *
      * @return a collection of tags
      */
+    @Transactional(readOnly = true)
     public Set<Tag> getAll() {
-        return new HashSet<>(tagRepository.findAll());
+        return tagRepository.findAll();
     }
 
     /**
@@ -182,7 +190,7 @@ public class TagService {
      * @param tag the tag that was updated
      */
     private void sendUpdates(Tag tag) {
-        messagingTemplate.convertAndSend(QUEUE_UPDATES_TAGS, tag);
+        entityUpdateService.createUpdate(tag).ifPresent(update -> updateCoalescingService.send(TOPIC_UPDATES_TAGS, tag, update));
         log.debug("Sent out updates for tag '{}'.", tag.getId());
     }
 
@@ -192,7 +200,8 @@ public class TagService {
      * @param tag the tag that was removed
      */
     private void sendRemovalUpdates(Tag tag) {
-        messagingTemplate.convertAndSend(QUEUE_UPDATES_TAGS_DELETE, tag);
+        updateCoalescingService.send(TOPIC_UPDATES_TAGS_DELETE, tag, tag);
+        entityUpdateService.evict(tag);
         log.debug("Sent out removal updates for tag '{}'.", tag.getId());
     }
 }
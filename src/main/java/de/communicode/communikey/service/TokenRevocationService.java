@@ -0,0 +1,137 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static java.util.Objects.requireNonNull;
+
+import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.config.CommunikeyProperties.Security.OAuth2.TokenMode;
+import de.communicode.communikey.domain.TokenRevocation;
+import de.communicode.communikey.repository.TokenRevocationRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The service to revoke the signed access tokens of users.
+ *
+ * <p>Signed access tokens are validated without I/O, revoking them therefore records the revocation date of the user which is
+ * checked against the issue date of each token. The revocations are kept in memory and persisted as {@link TokenRevocation} so
+ * that they are reloaded periodically by other instances and survive restarts. Revocations are only kept for the access token
+ * validity since all tokens issued before have expired anyway. The issue and revocation dates of different instances are
+ * compared, their clocks must therefore be synchronized.
+ *
+ * @since 0.18.0
+ */
+@Service
+public class TokenRevocationService implements DisposableBean {
+
+    private static final Logger log = LogManager.getLogger();
+
+    private final TokenRevocationRepository tokenRevocationRepository;
+    private final boolean enabled;
+    private final Duration accessTokenValidity;
+    private final Map<String, Instant> revocations = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+
+    @Autowired
+    public TokenRevocationService(TokenRevocationRepository tokenRevocationRepository, CommunikeyProperties communikeyProperties) {
+        this.tokenRevocationRepository = requireNonNull(tokenRevocationRepository, "tokenRevocationRepository must not be null!");
+        requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+        CommunikeyProperties.Security.OAuth2 oAuth2 = communikeyProperties.getSecurity().getoAuth2();
+        this.enabled = oAuth2.getTokenMode() == TokenMode.SIGNED;
+        this.accessTokenValidity = Duration.ofSeconds(oAuth2.getAccessTokenValidity());
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "token-revocation-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (enabled) {
+            long interval = oAuth2.getRevocationRefreshInterval().toMillis();
+            this.refresher.scheduleWithFixedDelay(this::refresh, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Revokes all signed access tokens which have been issued to the users with the specified logins until now.
+     *
+     * <p>Does nothing if access tokens are not signed since those are removed from the token store instead.
+     *
+     * @param logins the logins of the users to revoke the access tokens of
+     */
+    public void revoke(Collection<String> logins) {
+        if (!enabled || logins.isEmpty()) {
+            return;
+        }
+        Instant now = Instant.now();
+        logins.forEach(login -> revocations.merge(login, now, TokenRevocationService::latest));
+        tokenRevocationRepository.saveAll(logins.stream()
+            .map(login -> new TokenRevocation(login, now))
+            .collect(Collectors.toList()));
+        log.debug("Revoked the signed access tokens of users with logins {} issued until {}", logins, now);
+    }
+
+    /**
+     * Checks whether an access token of the user with the specified login has been revoked.
+     *
+     * @param login the login of the user the access token has been issued to
+     * @param issuedDate the date the access token has been issued
+     * @return {@code true} if the access token has been revoked, {@code false} otherwise
+     */
+    public boolean isRevoked(String login, Instant issuedDate) {
+        Instant revokedDate = revocations.get(login);
+        return revokedDate != null && !issuedDate.isAfter(revokedDate);
+    }
+
+    @Override
+    public void destroy() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Reloads the revocations of all instances and deletes the revocations which outlived the access token validity.
+     */
+    private void refresh() {
+        try {
+            Instant expiredDate = Instant.now().minus(accessTokenValidity);
+            tokenRevocationRepository.findByRevokedDateAfter(expiredDate)
+                .forEach(revocation -> revocations.merge(revocation.getLogin(), revocation.getRevokedDate(), TokenRevocationService::latest));
+            revocations.values().removeIf(revokedDate -> revokedDate.isBefore(expiredDate));
+            int deleted = tokenRevocationRepository.deleteByRevokedDateBefore(expiredDate);
+            log.debug("Deleted {} expired token revocations.", deleted);
+        } catch (RuntimeException e) {
+            log.error("Failed to refresh the token revocations.", e);
+        }
+    }
+
+    private static Instant latest(Instant first, Instant second) {
+        return first.isAfter(second) ? first : second;
+    }
+}
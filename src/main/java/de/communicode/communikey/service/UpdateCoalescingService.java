@@ -0,0 +1,432 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_RESYNC;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_RESYNC;
+import static java.util.Objects.requireNonNull;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.config.util.AfterCommit;
+import de.communicode.communikey.config.util.FanOutMessagingTemplate;
+import de.communicode.communikey.domain.UpdateEvent;
+import de.communicode.communikey.service.payload.EntityUpdatePayload;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends live update messages coalesced into batch frames.
+ *
+ * <p>Updates are buffered per recipient, which is either a set of users or all subscribers of a broadcast destination. Pending
+ * updates of the same entity are merged so that only the latest state is sent. The buffered updates of a recipient are sent
+ * as one JSON array frame per destination once no further update arrived within the coalescing window, the first pending
+ * update is however never delayed longer than the maximum latency. Frames for a set of users are converted only once and the
+ * same serialized frame is delivered to each user.
+ *
+ * <p>A user is part of at most one pending set of users. The pending updates of other sets sharing a user are sent before an
+ * update for a new set is buffered, so that each user receives its updates in the order they have been buffered, e.g. the
+ * removal of a key for a single user never overtakes a previous update of the key for several users.
+ *
+ * <p>Updates sent within a transaction are only buffered once the transaction has been committed, updates of a transaction
+ * that is rolled back or retried are discarded.
+ *
+ * <p>Each frame is appended to the {@link UpdateEventService} log before it is sent and carries the sequence of its event in
+ * the {@value #SEQUENCE_HEADER} header. Frames are coalesced by a single publisher thread and handed over to the appender
+ * thread of the log, which persists them in batches and sends them in the order of their sequence. Neither the callers nor
+ * the publisher thread block on the update event log. A frame that could not be logged is not sent, its recipients are
+ * requested to resynchronize instead since they could not resume the frame later on.
+ *
+ * @since 0.18.0
+ */
+@Service
+public class UpdateCoalescingService implements DisposableBean {
+
+    private static final Logger log = LogManager.getLogger();
+
+    /**
+     * The STOMP header with the sequence of the update event of a frame.
+     */
+    public static final String SEQUENCE_HEADER = "sequence";
+
+    /**
+     * The recipient key of the updates to all subscribers of a destination.
+     */
+    private static final String BROADCAST = "";
+
+    private static final MimeType JSON = new MimeType("application", "json", StandardCharsets.UTF_8);
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final FanOutMessagingTemplate fanOutMessagingTemplate;
+    private final UpdateEventService updateEventService;
+    private final ObjectMapper objectMapper;
+    private final long coalescingWindow;
+    private final long maxLatency;
+    private final int maxBatchSize;
+    private final Map<String, Batch> batches = new HashMap<>();
+    private final Map<String, Batch> batchesByUser = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public UpdateCoalescingService(SimpMessagingTemplate messagingTemplate, UpdateEventService updateEventService,
+                                   CommunikeyProperties communikeyProperties) {
+        this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+        this.updateEventService = requireNonNull(updateEventService, "updateEventService must not be null!");
+        requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+        this.fanOutMessagingTemplate = new FanOutMessagingTemplate(messagingTemplate);
+        this.objectMapper = EntityUpdateService.findObjectMapper(messagingTemplate.getMessageConverter()).orElseGet(ObjectMapper::new);
+        CommunikeyProperties.Websocket.Updates updates = communikeyProperties.getWebsocket().getUpdates();
+        this.coalescingWindow = updates.getCoalescingWindow().toNanos();
+        this.maxLatency = Math.max(updates.getMaxLatency().toNanos(), coalescingWindow);
+        this.maxBatchSize = updates.getMaxBatchSize();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "update-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends an update to all subscribers of the specified destination.
+     *
+     * @param destination the destination of the update
+     * @param entity the entity the update is about
+     * @param payload the payload of the update
+     */
+    public void send(String destination, Object entity, Object payload) {
+        enqueue(Collections.emptyList(), destination, entity, payload);
+    }
+
+    /**
+     * Sends the specified entities as updates to all subscribers of the specified destination within a single frame.
+     *
+     * <p>Pending updates to all subscribers are sent along right away so that no obsolete update of one of the entities follows the
+     * frame, e.g. when a whole subtree of entities has been removed.
+     *
+     * @param destination the destination of the updates
+     * @param entities the entities the updates are about, each entity is sent as its own payload
+     */
+    public void sendAll(String destination, Collection<?> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        Map<String, Object> updates = new LinkedHashMap<>();
+        entities.forEach(entity -> {
+            JsonNode update = objectMapper.valueToTree(entity);
+            updates.put(getIdentity(entity, update), update);
+        });
+        AfterCommit.run(() -> {
+            Batch batch;
+            synchronized (batches) {
+                batch = batches.remove(BROADCAST);
+                if (batch == null) {
+                    batch = new Batch(BROADCAST, Collections.emptyList(), System.nanoTime());
+                }
+                for (Map.Entry<String, Object> update : updates.entrySet()) {
+                    batch.add(destination, update.getKey(), update.getValue());
+                }
+            }
+            publish(batch);
+        });
+    }
+
+    /**
+     * Sends an update to the specified destination of a user.
+     *
+     * @param user the login of the user to send the update to
+     * @param destination the user destination of the update
+     * @param entity the entity the update is about
+     * @param payload the payload of the update
+     */
+    public void sendToUser(String user, String destination, Object entity, Object payload) {
+        sendToUsers(Collections.singleton(requireNonNull(user, "user must not be null!")), destination, entity, payload);
+    }
+
+    /**
+     * Sends an update to the specified destination of multiple users.
+     *
+     * @param users the logins of the users to send the update to
+     * @param destination the user destination of the update
+     * @param entity the entity the update is about
+     * @param payload the payload of the update
+     */
+    public void sendToUsers(Collection<String> users, String destination, Object entity, Object payload) {
+        if (!users.isEmpty()) {
+            enqueue(new ArrayList<>(new TreeSet<>(users)), destination, entity, payload);
+        }
+    }
+
+    /**
+     * Immediately sends all pending updates and waits until they have been sent.
+     */
+    public void flushAll() {
+        try {
+            scheduler.submit(this::deliverPending).get();
+        } catch (RejectedExecutionException e) {
+            deliverPending();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Failed to send pending updates.", e.getCause());
+        }
+        updateEventService.flush();
+    }
+
+    @Override
+    public void destroy() {
+        flushAll();
+        scheduler.shutdownNow();
+    }
+
+    private void enqueue(List<String> users, String destination, Object entity, Object payload) {
+        // Entities are converted right away since they must not be accessed outside of the current session
+        Object update = payload instanceof EntityUpdatePayload ? payload : objectMapper.valueToTree(payload);
+        String identity = getIdentity(entity, update);
+        AfterCommit.run(() -> buffer(users, destination, identity, update));
+    }
+
+    private void buffer(List<String> users, String destination, String identity, Object update) {
+        String recipient = String.join("\n", users);
+        if (coalescingWindow == 0) {
+            Batch batch = new Batch(recipient, users, 0);
+            batch.add(destination, identity, update);
+            publish(batch);
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (batches) {
+            Batch batch = batches.get(recipient);
+            // Sends the pending updates of other sets sharing a user first
+            for (String user : users) {
+                Batch overlapping = batchesByUser.get(user);
+                if (overlapping != null && overlapping != batch) {
+                    remove(overlapping);
+                    publish(overlapping);
+                }
+            }
+            if (batch == null) {
+                batch = new Batch(recipient, users, now);
+                batches.put(recipient, batch);
+                for (String user : users) {
+                    batchesByUser.put(user, batch);
+                }
+                schedule(batch, coalescingWindow);
+            }
+            batch.lastUpdate = now;
+            if (batch.add(destination, identity, update) >= maxBatchSize) {
+                remove(batch);
+                publish(batch);
+            }
+        }
+    }
+
+    /**
+     * Removes a pending batch, must only be called while holding the lock of the batches.
+     */
+    private void remove(Batch batch) {
+        batches.remove(batch.recipient);
+        batch.users.forEach(batchesByUser::remove);
+    }
+
+    private void schedule(Batch batch, long delay) {
+        scheduler.schedule(() -> flushIfDue(batch), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void flushIfDue(Batch batch) {
+        synchronized (batches) {
+            if (batches.get(batch.recipient) != batch) {
+                return;
+            }
+            long due = Math.min(batch.lastUpdate + coalescingWindow, batch.firstUpdate + maxLatency);
+            long remaining = due - System.nanoTime();
+            if (remaining > 0) {
+                schedule(batch, remaining);
+                return;
+            }
+            remove(batch);
+        }
+        deliver(batch);
+    }
+
+    /**
+     * Hands the batch over to the publisher thread, batches are delivered in the order they have been handed over.
+     */
+    private void publish(Batch batch) {
+        try {
+            scheduler.execute(() -> deliver(batch));
+        } catch (RejectedExecutionException e) {
+            log.warn("Discarded {} updates since the service has been shut down.", batch.size);
+        }
+    }
+
+    private void deliverPending() {
+        List<Batch> pending;
+        synchronized (batches) {
+            pending = new ArrayList<>(batches.values());
+            batches.clear();
+            batchesByUser.clear();
+        }
+        pending.forEach(this::deliver);
+    }
+
+    /**
+     * Appends the frames of the batch to the update event log which sends them once they have been persisted, must only be called
+     * by the publisher thread.
+     */
+    private void deliver(Batch batch) {
+        batch.frames.forEach((destination, updates) -> {
+            if (updates.isEmpty()) {
+                return;
+            }
+            byte[] frame;
+            try {
+                frame = objectMapper.writeValueAsBytes(new ArrayList<>(updates.values()));
+            } catch (JsonProcessingException e) {
+                log.error("Failed to convert {} updates to '{}'.", updates.size(), destination, e);
+                return;
+            }
+            updateEventService.append(destination, batch.users, new String(frame, StandardCharsets.UTF_8), new UpdateEventService.AppendCallback() {
+                @Override
+                public void appended(UpdateEvent event) {
+                    send(destination, batch.users, frame, event.getSequence());
+                }
+
+                @Override
+                public void failed(RuntimeException cause) {
+                    requestResync(destination, batch.users);
+                }
+            });
+        });
+    }
+
+    /**
+     * Sends a logged frame with the sequence of its event, called by the appender thread of the update event log.
+     */
+    private void send(String destination, List<String> users, byte[] frame, long sequence) {
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headerAccessor.setContentType(JSON);
+        headerAccessor.setNativeHeader(SEQUENCE_HEADER, String.valueOf(sequence));
+        Message<byte[]> message = MessageBuilder.createMessage(frame, headerAccessor.getMessageHeaders());
+        try {
+            if (users.isEmpty()) {
+                messagingTemplate.send(destination, message);
+            } else {
+                fanOutMessagingTemplate.sendToUsers(users, destination, message);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to send {} bytes of updates to '{}'.", frame.length, destination, e);
+        }
+    }
+
+    /**
+     * Requests the recipients of a frame that could not be logged to resynchronize, the frame is not sent since clients could not
+     * resume it.
+     *
+     * <p>Broadcast recipients are requested on {@value de.communicode.communikey.controller.RequestMappings#TOPIC_UPDATES_RESYNC},
+     * users on their {@value de.communicode.communikey.controller.RequestMappings#QUEUE_UPDATES_RESYNC} destination.
+     */
+    private void requestResync(String destination, List<String> users) {
+        Map<String, String> payload = Collections.singletonMap("destination", destination);
+        try {
+            if (users.isEmpty()) {
+                messagingTemplate.convertAndSend(TOPIC_UPDATES_RESYNC, payload);
+            } else {
+                users.forEach(user -> messagingTemplate.convertAndSendToUser(user, QUEUE_UPDATES_RESYNC, payload));
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to request the recipients of updates to '{}' to resynchronize.", destination, e);
+        }
+    }
+
+    private static String getIdentity(Object entity, Object update) {
+        JsonNode id = update instanceof EntityUpdatePayload ? ((EntityUpdatePayload) update).getId() : ((JsonNode) update).get("id");
+        return Hibernate.getClass(entity).getName() + ':' + id;
+    }
+
+    /**
+     * The pending updates of a recipient grouped by destination, the recipient is a broadcast if the users are empty.
+     */
+    private static final class Batch {
+        private final String recipient;
+        private final List<String> users;
+        private final long firstUpdate;
+        private long lastUpdate;
+        private final Map<String, Map<String, Object>> frames = new LinkedHashMap<>();
+        private int size;
+
+        private Batch(String recipient, List<String> users, long firstUpdate) {
+            this.recipient = recipient;
+            this.users = users;
+            this.firstUpdate = firstUpdate;
+            this.lastUpdate = firstUpdate;
+        }
+
+        /**
+         * Adds an update and discards pending updates of the same entity on other destinations, e.g. an update followed by
+         * the removal of the entity.
+         *
+         * @return the number of pending updates
+         */
+        private int add(String destination, String identity, Object update) {
+            frames.forEach((otherDestination, updates) -> {
+                if (!Objects.equals(otherDestination, destination) && updates.remove(identity) != null) {
+                    size--;
+                }
+            });
+            Map<String, Object> updates = frames.computeIfAbsent(destination, key -> new LinkedHashMap<>());
+            Object pending = updates.get(identity);
+            if (pending == null) {
+                size++;
+                updates.put(identity, update);
+            } else if (pending instanceof EntityUpdatePayload && update instanceof EntityUpdatePayload) {
+                updates.put(identity, ((EntityUpdatePayload) pending).merge((EntityUpdatePayload) update));
+            } else {
+                updates.put(identity, update);
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service;
+
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_GROUPS;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_USERS;
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.domain.UpdateEvent;
+import de.communicode.communikey.repository.UpdateEventRepository;
+import de.communicode.communikey.service.payload.UpdateEventsPayload;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The service to log sent live update frames as {@link UpdateEvent} and to resume clients from their last received sequence.
+ *
+ * <p>Events are persisted to an append-only table and the most recent events are additionally kept in a bounded ring buffer.
+ * The ring buffer only holds the events of this instance, it is therefore only used to resume clients when the simple broker
+ * is used, with a relayed broker the events of all instances are read from the database.
+ *
+ * <p>Events are appended by a single appender thread which persists the pending events in batches, one transaction per batch.
+ * The sequence is assigned by the database, concurrent appends of other instances may therefore become visible after events
+ * with a higher sequence. With a relayed broker the events created within the resume rescan window before the event of the
+ * resumed sequence are replayed again, clients apply the events in order so that replayed events are overwritten by the
+ * following ones.
+ *
+ * @since 0.18.0
+ */
+@Service
+public class UpdateEventService implements DisposableBean {
+
+    private static final Logger log = LogManager.getLogger();
+
+    /**
+     * The broadcast destinations only admins may subscribe to.
+     */
+    private static final List<String> ADMIN_DESTINATIONS = Arrays.asList(TOPIC_UPDATES_GROUPS, TOPIC_UPDATES_USERS);
+
+    private final UpdateEventRepository updateEventRepository;
+    private final KeyCategoryTopicService keyCategoryTopicService;
+    private final TransactionTemplate transactionTemplate;
+    private final int eventLogSize;
+    private final int eventAppendBatchSize;
+    private final Duration eventRetention;
+    private final int maxResumeEvents;
+    private final Duration resumeRescanWindow;
+    private final boolean singleInstance;
+    private final Deque<UpdateEvent> recentEvents = new ArrayDeque<>();
+    private final Deque<PendingEvent> pendingEvents = new ArrayDeque<>();
+    private final ExecutorService appender;
+    private boolean appending;
+    private final ScheduledExecutorService retentionSweeper;
+
+    @Autowired
+    public UpdateEventService(UpdateEventRepository updateEventRepository, KeyCategoryTopicService keyCategoryTopicService,
+                              PlatformTransactionManager transactionManager, CommunikeyProperties communikeyProperties) {
+        this.updateEventRepository = requireNonNull(updateEventRepository, "updateEventRepository must not be null!");
+        this.keyCategoryTopicService = requireNonNull(keyCategoryTopicService, "keyCategoryTopicService must not be null!");
+        requireNonNull(transactionManager, "transactionManager must not be null!");
+        requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        CommunikeyProperties.Websocket websocket = communikeyProperties.getWebsocket();
+        this.eventLogSize = websocket.getUpdates().getEventLogSize();
+        this.eventAppendBatchSize = websocket.getUpdates().getEventAppendBatchSize();
+        this.eventRetention = websocket.getUpdates().getEventRetention();
+        this.maxResumeEvents = websocket.getUpdates().getMaxResumeEvents();
+        this.resumeRescanWindow = websocket.getUpdates().getResumeRescanWindow();
+        this.singleInstance = websocket.getBroker().getMode() == CommunikeyProperties.Websocket.BrokerMode.SIMPLE;
+        this.appender = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "update-event-appender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retentionSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "update-event-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(TimeUnit.MINUTES.toMillis(1), eventRetention.toMillis() / 10);
+        this.retentionSweeper.scheduleWithFixedDelay(this::deleteExpired, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends an update frame to the log asynchronously.
+     *
+     * <p>Frames must only be appended once the transaction which caused the updates has been committed, otherwise the log would
+     * contain updates that never took effect. The event is persisted by the appender thread in a transaction of its own together
+     * with the other pending events. The callbacks of all events are invoked on the appender thread in the order the events have
+     * been appended, the frame is meant to be sent by the callback so that no client receives a sequence that is not logged yet.
+     *
+     * @param destination the destination of the frame
+     * @param recipients the logins of the users the frame is sent to, empty for a broadcast
+     * @param updates the JSON array of the updates
+     * @param callback the callback to invoke once the event has been persisted or failed to be persisted
+     */
+    public void append(String destination, Collection<String> recipients, String updates, AppendCallback callback) {
+        requireNonNull(callback, "callback must not be null!");
+        synchronized (pendingEvents) {
+            pendingEvents.addLast(new PendingEvent(destination, recipients, updates, callback));
+            if (appending) {
+                return;
+            }
+            appending = true;
+        }
+        try {
+            appender.execute(this::appendPending);
+        } catch (RejectedExecutionException e) {
+            appendPending();
+        }
+    }
+
+    /**
+     * Waits until all pending events have been appended.
+     */
+    public void flush() {
+        try {
+            appender.submit(() -> {}).get();
+        } catch (RejectedExecutionException e) {
+            appendPending();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Failed to append pending update events.", e.getCause());
+        }
+    }
+
+    /**
+     * Gets the latest sequence as starting point for a client which loaded the current state of all entities.
+     *
+     * @return the events payload without events
+     */
+    public UpdateEventsPayload getLatest() {
+        return UpdateEventsPayload.events(getLatestSequence(), new ArrayList<>());
+    }
+
+    /**
+     * Gets all events a user has missed since the specified sequence.
+     *
+     * @param sequence the sequence of the last event the user received
+     * @param login the login of the user
+     * @param admin whether the user is an admin
+     * @return the missed events, a resynchronization request if the events are not available anymore
+     */
+    public UpdateEventsPayload getSince(long sequence, String login, boolean admin) {
+        List<UpdateEvent> events = singleInstance ? getRecentSince(sequence) : null;
+        if (events == null) {
+            events = getPersistedSince(sequence);
+        }
+        if (events == null) {
+            log.debug("Requesting resynchronization of user '{}' from sequence {}.", login, sequence);
+            return UpdateEventsPayload.resync(getLatestSequence());
+        }
+        long latestSequence = events.isEmpty() ? sequence : events.get(events.size() - 1).getSequence();
+        Supplier<Set<String>> categoryHashids = Suppliers.memoize(() -> keyCategoryTopicService.getCategoryHashids(login));
+        List<UpdateEvent> visibleEvents = events.stream()
+            .filter(event -> isVisible(event, login, admin, categoryHashids))
+            .collect(Collectors.toList());
+        return UpdateEventsPayload.events(latestSequence, visibleEvents);
+    }
+
+    /**
+     * Discards all recent events.
+     */
+    public void clearRecent() {
+        synchronized (recentEvents) {
+            recentEvents.clear();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flush();
+        appender.shutdownNow();
+        retentionSweeper.shutdownNow();
+    }
+
+    /**
+     * Persists the pending events in batches until no events are pending anymore.
+     */
+    private void appendPending() {
+        while (true) {
+            List<PendingEvent> batch = new ArrayList<>();
+            synchronized (pendingEvents) {
+                while (!pendingEvents.isEmpty() && batch.size() < eventAppendBatchSize) {
+                    batch.add(pendingEvents.removeFirst());
+                }
+                if (batch.isEmpty()) {
+                    appending = false;
+                    return;
+                }
+            }
+            appendAll(batch);
+        }
+    }
+
+    private void appendAll(List<PendingEvent> batch) {
+        List<UpdateEvent> events;
+        try {
+            events = transactionTemplate.execute(status -> batch.stream()
+                .map(pending -> updateEventRepository.save(new UpdateEvent(pending.destination, pending.recipients, pending.updates)))
+                .collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            log.error("Failed to append {} update events.", batch.size(), e);
+            batch.forEach(pending -> complete(pending, null, e));
+            return;
+        }
+        synchronized (recentEvents) {
+            for (UpdateEvent event : events) {
+                recentEvents.addLast(event);
+                if (recentEvents.size() > eventLogSize) {
+                    recentEvents.removeFirst();
+                }
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            complete(batch.get(i), events.get(i), null);
+        }
+    }
+
+    /**
+     * Invokes the callback of a pending event, a failing callback must not stop the appender thread.
+     */
+    private static void complete(PendingEvent pending, UpdateEvent event, RuntimeException cause) {
+        try {
+            if (cause == null) {
+                pending.callback.appended(event);
+            } else {
+                pending.callback.failed(cause);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to complete the append of an update event to '{}'.", pending.destination, e);
+        }
+    }
+
+    /**
+     * Gets the events following the specified sequence from the ring buffer.
+     *
+     * @return the events, {@code null} if the ring buffer does not cover the sequence
+     */
+    private List<UpdateEvent> getRecentSince(long sequence) {
+        synchronized (recentEvents) {
+            if (recentEvents.isEmpty() || sequence < recentEvents.getFirst().getSequence() - 1 || sequence > recentEvents.getLast().getSequence()) {
+                return null;
+            }
+            List<UpdateEvent> events = recentEvents.stream()
+                .filter(event -> event.getSequence() > sequence)
+                .collect(Collectors.toList());
+            return events.size() > maxResumeEvents ? null : events;
+        }
+    }
+
+    /**
+     * Gets the events following the specified sequence from the database.
+     *
+     * @return the events, {@code null} if the events were deleted or are too many to replay
+     */
+    private List<UpdateEvent> getPersistedSince(long sequence) {
+        Long minSequence = updateEventRepository.findMinSequence();
+        Long maxSequence = updateEventRepository.findMaxSequence();
+        if (minSequence == null) {
+            return sequence == 0 ? new ArrayList<>() : null;
+        }
+        if (sequence < minSequence - 1 || sequence > maxSequence) {
+            return null;
+        }
+        long since = singleInstance ? sequence : getRescanSequence(sequence, minSequence);
+        List<UpdateEvent> events = updateEventRepository.findBySequenceGreaterThanOrderBySequence(since, PageRequest.of(0, maxResumeEvents + 1));
+        return events.size() > maxResumeEvents ? null : events;
+    }
+
+    /**
+     * Gets the sequence to replay the events of a relayed broker from, which precedes all events that were created within the
+     * rescan window before the event of the specified sequence.
+     */
+    private long getRescanSequence(long sequence, long minSequence) {
+        Optional<UpdateEvent> event = updateEventRepository.findById(sequence);
+        if (!event.isPresent()) {
+            return sequence;
+        }
+        Long rescanSequence = updateEventRepository.findMaxSequenceCreatedBefore(event.get().getCreatedDate().minus(resumeRescanWindow));
+        return rescanSequence == null ? minSequence - 1 : Math.min(rescanSequence, sequence);
+    }
+
+    private long getLatestSequence() {
+        synchronized (recentEvents) {
+            if (singleInstance && !recentEvents.isEmpty()) {
+                return recentEvents.getLast().getSequence();
+            }
+        }
+        Long maxSequence = updateEventRepository.findMaxSequence();
+        return maxSequence == null ? 0 : maxSequence;
+    }
+
+    private static boolean isVisible(UpdateEvent event, String login, boolean admin, Supplier<Set<String>> categoryHashids) {
+        if (event.isBroadcast()) {
+            String hashid = KeyCategoryTopicService.getCategoryHashid(event.getDestination());
+            if (hashid != null) {
+                return admin || categoryHashids.get().contains(hashid);
+            }
+            return admin || ADMIN_DESTINATIONS.stream().noneMatch(destination -> event.getDestination().startsWith(destination));
+        }
+        return event.getRecipients().contains(login);
+    }
+
+    private void deleteExpired() {
+        try {
+            Long maxSequence = updateEventRepository.findMaxSequence();
+            if (maxSequence != null) {
+                int deleted = updateEventRepository.deleteByCreatedDateBeforeAndSequenceLessThan(Instant.now().minus(eventRetention), maxSequence);
+                log.debug("Deleted {} expired update events.", deleted);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to delete expired update events.", e);
+        }
+    }
+
+    /**
+     * Receives the outcome of an asynchronous append, invoked on the appender thread.
+     */
+    public interface AppendCallback {
+
+        /**
+         * Invoked once the event has been persisted.
+         *
+         * @param event the persisted event with its sequence
+         */
+        void appended(UpdateEvent event);
+
+        /**
+         * Invoked if the event could not be persisted.
+         *
+         * @param cause the cause of the failure
+         */
+        void failed(RuntimeException cause);
+    }
+
+    /**
+     * An update frame waiting to be appended.
+     */
+    private static final class PendingEvent {
+        private final String destination;
+        private final Collection<String> recipients;
+        private final String updates;
+        private final AppendCallback callback;
+
+        private PendingEvent(String destination, Collection<String> recipients, String updates, AppendCallback callback) {
+            this.destination = destination;
+            this.recipients = recipients;
+            this.updates = updates;
+            this.callback = callback;
+        }
+    }
+}
@@ -17,24 +17,25 @@
  */
 package de.communicode.communikey.service;
 
-import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_GROUPS;
-import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_GROUPS_DELETE;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_GROUPS;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_GROUPS_DELETE;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
 
 import com.google.common.collect.Sets;
+import de.communicode.communikey.config.util.RetryingTransactional;
 import de.communicode.communikey.domain.User;
 import de.communicode.communikey.domain.UserGroup;
 import de.communicode.communikey.exception.UserGroupConflictException;
 import de.communicode.communikey.exception.UserGroupNotFoundException;
 import de.communicode.communikey.exception.UserNotFoundException;
+import de.communicode.communikey.repository.KeyCategoryGroupAccessRepository;
 import de.communicode.communikey.repository.KeyCategoryRepository;
 import de.communicode.communikey.repository.UserGroupRepository;
 import de.communicode.communikey.repository.UserRepository;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -53,22 +54,28 @@ public class UserGroupService {
     private final UserGroupRepository userGroupRepository;
     private final UserRepository userRepository;
     private final KeyCategoryRepository keyCategoryRepository;
+    private final KeyCategoryGroupAccessRepository keyCategoryGroupAccessRepository;
     private final UserService userService;
     private final KeyService keyService;
     private final EncryptionJobService encryptionJobService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final UpdateCoalescingService updateCoalescingService;
+    private final EntityUpdateService entityUpdateService;
 
     @Autowired
     public UserGroupService(UserGroupRepository userGroupRepository, UserService userService, UserRepository userRepository,
-            KeyCategoryRepository keyCategoryRepository, KeyService keyService, EncryptionJobService encryptionJobService,
-                            SimpMessagingTemplate messagingTemplate) {
+            KeyCategoryRepository keyCategoryRepository, KeyCategoryGroupAccessRepository keyCategoryGroupAccessRepository,
+                            KeyService keyService, EncryptionJobService encryptionJobService,
+                            UpdateCoalescingService updateCoalescingService, EntityUpdateService entityUpdateService) {
         this.userGroupRepository = requireNonNull(userGroupRepository, "userGroupRepository must not be null!");
         this.userRepository = requireNonNull(userRepository, "userRepository must not be null!");
         this.keyCategoryRepository = requireNonNull(keyCategoryRepository, "keyCategoryRepository must not be null!");
+        this.keyCategoryGroupAccessRepository = requireNonNull(keyCategoryGroupAccessRepository,
+            "keyCategoryGroupAccessRepository must not be null!");
         this.userService = requireNonNull(userService, "userService must not be null!");
         this.keyService = requireNonNull(keyService, "keyService must not be null!");
         this.encryptionJobService = requireNonNull(encryptionJobService, "encryptionJobService must not be null!");
-        this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+        this.updateCoalescingService = requireNonNull(updateCoalescingService, "updateCoalescingService must not be null!");
+        this.entityUpdateService = requireNonNull(entityUpdateService, "entityUpdateService must not be null!");
     }
 
     /**
@@ -80,6 +87,7 @@ public class UserGroupService {
      * @throws UserNotFoundException if the user with the specified login has not been found
      * @throws UserGroupNotFoundException if the user group with the specified ID has not been found
      */
+    @RetryingTransactional
     public UserGroup addUser(Long userGroupId, String login) {
         User user = userService.validate(login);
         return userGroupRepository.findById(userGroupId)
@@ -101,6 +109,7 @@ public class UserGroupService {
      * @return the created user group
      * @throws UserGroupConflictException if a user group with the specified name already exists
      */
+    @RetryingTransactional
     public UserGroup create(UserGroup payload) {
         validateUniqueName(payload.getName());
 
@@ -120,9 +129,11 @@ public class UserGroupService {
      * @param userGroupId the ID of the user group to delete
      * @throws UserGroupNotFoundException if the user group with the specified ID has not been found
      */
+    @RetryingTransactional
     @Transactional
     public void delete(Long userGroupId) {
         UserGroup userGroup = validate(userGroupId);
+        keyCategoryGroupAccessRepository.deleteByUserGroupId(userGroupId);
         userGroup.getUsers().forEach(user -> {
             user.removeGroup(userGroup);
             userRepository.save(user);
@@ -159,6 +170,7 @@ public class UserGroupService {
      * @throws UserGroupNotFoundException if the user group with the specified ID has not been found
      * @since 0.9.0
      */
+    @Transactional(readOnly = true)
     public UserGroup get(Long userGroupId) {
         return validate(userGroupId);
     }
@@ -168,8 +180,9 @@ public class UserGroupService {
      *
      * @return a collection of all user groups
      */
+    @Transactional(readOnly = true)
     public Set<UserGroup> getAll() {
-        return Sets.newConcurrentHashSet(userGroupRepository.findAll());
+        return Sets.newHashSet(userGroupRepository.findAll());
     }
 
     /**
@@ -192,6 +205,7 @@ public class UserGroupService {
      * @throws UserNotFoundException if the user with the specified login has not been found
      * @throws UserGroupNotFoundException if the user group with the specified ID has not been found
      */
+    @RetryingTransactional
     public UserGroup removeUser(Long userGroupId, String login) {
         User user = userService.validate(login);
         UserGroup returnGroup = userGroupRepository.findById(userGroupId)
@@ -215,6 +229,7 @@ public class UserGroupService {
      * @return the updated user group
      * @throws UserGroupNotFoundException if the user group with the specified name has not been found
      */
+    @RetryingTransactional
     public UserGroup update(Long userGroupId, UserGroup payload) {
         return ofNullable(validate(userGroupId))
             .map(userGroup -> {
@@ -272,7 +287,8 @@ public class UserGroupService {
      * @since 0.15.0
      */
     public void sendUpdates(UserGroup userGroup) {
-        messagingTemplate.convertAndSend(QUEUE_UPDATES_GROUPS, userGroup);
+        entityUpdateService.createUpdate(userGroup)
+            .ifPresent(update -> updateCoalescingService.send(TOPIC_UPDATES_GROUPS, userGroup, update));
         log.debug("Sent out update for group '{}'.", userGroup.getId());
     }
 
@@ -284,7 +300,8 @@ public class UserGroupService {
      * @since 0.15.0
      */
     public void sendRemovalUpdates(UserGroup userGroup) {
-        messagingTemplate.convertAndSend(QUEUE_UPDATES_GROUPS_DELETE, userGroup);
+        updateCoalescingService.send(TOPIC_UPDATES_GROUPS_DELETE, userGroup, userGroup);
+        entityUpdateService.evict(userGroup);
         log.debug("Sent out removal update for group '{}'.", userGroup.getId());
     }
 }
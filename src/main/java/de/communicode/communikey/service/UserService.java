@@ -17,14 +17,16 @@
  */
 package de.communicode.communikey.service;
 
-import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_USERS;
-import static de.communicode.communikey.controller.RequestMappings.QUEUE_UPDATES_USERS_DELETE;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_USERS;
+import static de.communicode.communikey.controller.RequestMappings.TOPIC_UPDATES_USERS_DELETE;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import de.communicode.communikey.config.util.RetryingTransactional;
 import de.communicode.communikey.config.CommunikeyProperties;
+import de.communicode.communikey.config.util.RevocableTokenStore;
 import de.communicode.communikey.domain.Authority;
 import de.communicode.communikey.domain.Key;
 import de.communicode.communikey.domain.KeyCategory;
@@ -51,15 +53,15 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.access.AuthorizationServiceException;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.naming.AuthenticationException;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
@@ -85,11 +87,13 @@ public class UserService {
     private final KeyService keyService;
     private final AuthorityRepository authorityRepository;
     private final PasswordEncoder passwordEncoder;
-    private final JdbcTokenStore jdbcTokenStore;
+    private final RevocableTokenStore tokenStore;
     private final AuthorityService authorityService;
     private final EncryptionJobService encryptionJobService;
     private final CommunikeyProperties communikeyProperties;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final UpdateCoalescingService updateCoalescingService;
+    private final EntityUpdateService entityUpdateService;
+    private final KeyCategoryTopicService keyCategoryTopicService;
 
     @Autowired
     public UserService(
@@ -102,11 +106,12 @@ public class UserService {
             @Lazy KeyService keyService,
             AuthorityRepository authorityRepository,
             PasswordEncoder passwordEncoder,
-            JdbcTokenStore jdbcTokenStore,
+            RevocableTokenStore tokenStore,
             AuthorityService authorityService,
             CommunikeyProperties communikeyProperties,
             @Lazy EncryptionJobService encryptionJobService,
-            SimpMessagingTemplate messagingTemplate) {
+            UpdateCoalescingService updateCoalescingService, EntityUpdateService entityUpdateService,
+            KeyCategoryTopicService keyCategoryTopicService) {
         this.keyRepository = requireNonNull(keyRepository, "keyRepository must not be null!");
         this.keyCategoryRepository = requireNonNull(keyCategoryRepository, "keyCategoryRepository must not be null!");
         this.userGroupRepository = requireNonNull(userGroupRepository, "userGroupRepository must not be null!");
@@ -116,11 +121,13 @@ public class UserService {
         this.keyService = requireNonNull(keyService, "keyService must not be null!");
         this.authorityRepository = requireNonNull(authorityRepository, "authorityRepository must not be null!");
         this.passwordEncoder = requireNonNull(passwordEncoder, "passwordEncoder must not be null!");
-        this.jdbcTokenStore = requireNonNull(jdbcTokenStore, "jdbcTokenStore must not be null!");
+        this.tokenStore = requireNonNull(tokenStore, "tokenStore must not be null!");
         this.authorityService = requireNonNull(authorityService, "authorityService must not be null!");
         this.encryptionJobService = requireNonNull(encryptionJobService, "encryptionJobService must not be null!");
         this.communikeyProperties = requireNonNull(communikeyProperties, "communikeyProperties must not be null!");
-        this.messagingTemplate = requireNonNull(messagingTemplate, "messagingTemplate must not be null!");
+        this.updateCoalescingService = requireNonNull(updateCoalescingService, "updateCoalescingService must not be null!");
+        this.entityUpdateService = requireNonNull(entityUpdateService, "entityUpdateService must not be null!");
+        this.keyCategoryTopicService = requireNonNull(keyCategoryTopicService, "keyCategoryTopicService must not be null!");
     }
 
     /**
@@ -130,6 +137,7 @@ public class UserService {
      * @return the activated user
      * @throws ActivationTokenNotFoundException if the specified activation token has not been found
      */
+    @RetryingTransactional
     public User activate(String activationToken) {
         return ofNullable(userRepository.findOneByActivationToken(activationToken))
             .map(user -> {
@@ -151,6 +159,7 @@ public class UserService {
      * @throws UserNotFoundException if the user with specified login has not been found
      * @throws AuthorityNotFoundException if the authority with specified name has not been found
      */
+    @RetryingTransactional
     public User addAuthority(String login, String authorityName) {
         User user = validate(login);
         Authority authority = authorityService.validate(authorityName);
@@ -172,6 +181,7 @@ public class UserService {
      * @return the updated user
      * @throws UserNotFoundException if the user with the specified login has not been found
      */
+    @RetryingTransactional
     public User addKey(String userLogin, Key key) {
         User user = validate(userLogin);
         user.addCreatedKey(key);
@@ -187,6 +197,7 @@ public class UserService {
      * @throws UserNotFoundException if the user with the specified login has not been found
      * @since 0.15.0
      */
+    @RetryingTransactional
     public User addUserEncryptedPassword(String userLogin, UserEncryptedPassword userEncryptedPassword) {
         User user = validate(userLogin);
         user.addUserEncryptedPassword(userEncryptedPassword);
@@ -200,6 +211,7 @@ public class UserService {
      * @return the created user
      * @throws UserConflictException if a user with the specified email already exists
      */
+    @RetryingTransactional
     public User create(UserCreationPayload payload) {
         String email = payload.getEmail();
         validateUniqueEmail(email);
@@ -230,6 +242,7 @@ public class UserService {
      * @return the deactivated user
      * @throws UserNotFoundException if the user with the specified login has not been found
      */
+    @RetryingTransactional
     public User deactivate(String login) {
         return ofNullable(userRepository.findOneByLogin(login))
             .map(user -> {
@@ -249,11 +262,13 @@ public class UserService {
      * @param login the login of the user to delete
      * @throws UserNotFoundException if the user with the specified login has not been found
      */
+    @RetryingTransactional
     @Transactional
     public void delete(String login) {
         deleteOauth2AccessTokens(login);
         User user = dissolveReferences(validate(login));
         keyService.removeObsoletePasswords(user);
+        keyCategoryTopicService.revokeSubscriptions(login);
         userRepository.delete(user);
         sendRemovalUpdates(user);
         log.debug("Deleted user with login '{}'", login);
@@ -265,6 +280,7 @@ public class UserService {
      * @param email the email of the user to generate a password reset token for
      * @return the generated reset token
      */
+    @RetryingTransactional
     public Map<String, String> generatePasswordResetToken(String email) {
         return ofNullable(userRepository.findOneByEmail(email))
             .filter(User::isActivated)
@@ -289,6 +305,7 @@ public class UserService {
      * @param email the email of the user to generate a publicKey reset token for
      * @return the generated reset token
      */
+    @RetryingTransactional
     public Map<String, String> generatePublicKeyResetToken(String email) {
         return ofNullable(userRepository.findOneByEmail(email))
             .filter(User::isActivated)
@@ -314,8 +331,9 @@ public class UserService {
      *
      * @return a collection of all user
      */
+    @Transactional(readOnly = true)
     public Set<User> getAll() {
-        return Sets.newConcurrentHashSet(userRepository.findAll());
+        return userRepository.findAll();
     }
 
     @Transactional(readOnly = true)
@@ -347,6 +365,7 @@ public class UserService {
      * @throws UserNotFoundException if the user with specified login has not been found
      * @throws AuthorityNotFoundException if the authority with specified name has not been found
      */
+    @RetryingTransactional
     public User removeAuthority(String login, String authorityName) {
         User user = validate(login);
         Authority authority = authorityService.validate(authorityName);
@@ -366,6 +385,7 @@ public class UserService {
      * @param newPassword the new password
      * @param resetToken the reset token of a user to reset the password of
      */
+    @RetryingTransactional
     public void resetPassword(String newPassword, String resetToken) {
         ofNullable(userRepository.findOneByResetToken(resetToken))
             .map(user -> {
@@ -384,6 +404,7 @@ public class UserService {
      * @param publicKey the new password
      * @param publicKeyResetToken the reset token of a user to reset the password of
      */
+    @RetryingTransactional
     public void resetPublicKey(String publicKey, String publicKeyResetToken) {
         ofNullable(userRepository.findOneByPublicKeyResetToken(publicKeyResetToken))
             .map(user -> {
@@ -406,16 +427,16 @@ public class UserService {
      * @return the updated user
      * @throws UserNotFoundException if the user with the specified login has not been found
      */
+    @RetryingTransactional
     public User update(String login, UserPayload payload) {
         String email = payload.getEmail();
         return ofNullable(userRepository.findOneByLogin(login))
             .map(user -> {
                 if (!user.getEmail().equals(email)) {
                     validateUniqueEmail(email);
+                    deactivate(login);
                     user.setEmail(email);
                     user.setLogin(extractLoginFromEmail(email));
-                    deactivate(login);
-                    deleteOauth2AccessTokens(login);
                 }
                 user.setFirstName(payload.getFirstName());
                 user.setLastName(payload.getLastName());
@@ -435,6 +456,7 @@ public class UserService {
      * @return the updated user
      * @throws UserNotFoundException if the user with the specified login has not been found
      */
+    @RetryingTransactional
     public User updateAuthorities(String login, Set<String> payload) {
         return ofNullable(userRepository.findOneByLogin(login))
             .map(user -> {
@@ -446,9 +468,10 @@ public class UserService {
                     for (Authority authority: payloadAuthorities) {
                         user.addAuthority(authority);
                     }
+                    deleteOauth2AccessTokens(login);
                 }
-                deleteOauth2AccessTokens(login);
                 userRepository.save(user);
+                keyCategoryTopicService.revokeUnauthorizedSubscriptions(user);
                 log.debug("Updated authorities of user with login '{}': {}", user.getLogin(), user.getAuthorities());
                 return user;
             }).orElseThrow(() -> new UserNotFoundException(login));
@@ -465,20 +488,6 @@ public class UserService {
         return ofNullable(userRepository.findOneByLogin(login)).orElseThrow(() -> new UserNotFoundException(login));
     }
 
-    /**
-     * Validates the specified user credentials.
-     *
-     * @param login the login of the user to validate
-     * @param password the password of the user to validate
-     * @return {@code true} if the user credentials are valid, {@code false} otherwise
-     * @since 0.4.0
-     */
-    public boolean validateCredentials(String login, String password) {
-        return ofNullable(userRepository.findOneByLogin(login))
-            .map(user -> passwordEncoder.matches(password, user.getPassword()))
-            .orElse(Boolean.FALSE);
-    }
-
     /**
      * Validates the user by the specified login.
      *
@@ -490,17 +499,26 @@ public class UserService {
         return ofNullable(userRepository.findOneWithAuthoritiesByLogin(login)).orElseThrow(() -> new UserNotFoundException(login));
     }
 
+    /**
+     * Deletes all OAuth2 access tokens of the users with the specified logins.
+     *
+     * <p>The access tokens of all users are removed at once and evicted from the token cache, signed access tokens are revoked.
+     *
+     * @param logins the logins of the users to delete the OAuth2 access tokens of
+     * @since 0.18.0
+     */
+    public void deleteOauth2AccessTokens(Collection<String> logins) {
+        tokenStore.removeAccessTokensByUserNames(logins);
+        log.debug("Removed the OAuth2 access tokens of users with logins {}", logins);
+    }
+
     /**
      * Deletes all OAuth2 access tokens of the user with the specified login.
      *
      * @param login the login of the user to delete the OAuth2 access token from
-     * @throws UserNotFoundException if the user with the specified login has not been found
      */
     private void deleteOauth2AccessTokens(String login) {
-        jdbcTokenStore.findTokensByUserName(login).forEach(accessToken -> {
-            jdbcTokenStore.removeAccessToken(accessToken);
-            log.debug("Removed OAuth2 access token '{}' of user with login '{}'", accessToken.getValue(), login);
-        });
+        deleteOauth2AccessTokens(Collections.singleton(login));
     }
 
     /**
@@ -574,7 +592,7 @@ public class UserService {
      * @since 0.15.0
      */
     public void sendUpdates(User user) {
-        messagingTemplate.convertAndSend(QUEUE_UPDATES_USERS, user);
+        entityUpdateService.createUpdate(user).ifPresent(update -> updateCoalescingService.send(TOPIC_UPDATES_USERS, user, update));
         log.debug("Sent out updates for user '{}'.", user.getId());
     }
 
@@ -587,7 +605,8 @@ public class UserService {
      * @since 0.15.0
      */
     public void sendRemovalUpdates(User user) {
-        messagingTemplate.convertAndSend(QUEUE_UPDATES_USERS_DELETE, user);
+        updateCoalescingService.send(TOPIC_UPDATES_USERS_DELETE, user, user);
+        entityUpdateService.evict(user);
         log.debug("Sent out removal update for user '{}'.", user.getId());
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service.payload;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A payload object for a live update of an entity sent to websocket subscribers.
+ *
+ * <p>A full update carries the complete serialized entity in {@link #getFields()}. A delta update carries only the fields that
+ * changed since the update with the version {@link #getBaseVersion()}, removed fields are included with a {@code null} value.
+ * Clients must only apply a delta when the base version matches the version of their local copy and reload the entity
+ * otherwise.
+ *
+ * @since 0.18.0
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EntityUpdatePayload {
+
+    private final JsonNode id;
+    private final long version;
+    private final Long baseVersion;
+    private final ObjectNode fields;
+
+    private EntityUpdatePayload(JsonNode id, long version, Long baseVersion, ObjectNode fields) {
+        this.id = id;
+        this.version = version;
+        this.baseVersion = baseVersion;
+        this.fields = fields;
+    }
+
+    /**
+     * Creates a full update payload.
+     *
+     * @param id the ID of the entity
+     * @param version the version of the update
+     * @param entity the complete serialized entity
+     * @return the full update payload
+     */
+    public static EntityUpdatePayload full(JsonNode id, long version, ObjectNode entity) {
+        return new EntityUpdatePayload(id, version, null, entity);
+    }
+
+    /**
+     * Creates a delta update payload.
+     *
+     * @param id the ID of the entity
+     * @param version the version of the update
+     * @param baseVersion the version of the update the changes are relative to
+     * @param changes the changed fields
+     * @return the delta update payload
+     */
+    public static EntityUpdatePayload delta(JsonNode id, long version, long baseVersion, ObjectNode changes) {
+        return new EntityUpdatePayload(id, version, baseVersion, changes);
+    }
+
+    /**
+     * Merges this update with the specified subsequent update of the same entity into a single update.
+     *
+     * @param next the subsequent update
+     * @return the update that has the same effect as applying this and the subsequent update
+     */
+    public EntityUpdatePayload merge(EntityUpdatePayload next) {
+        if (next.isFull() || next.baseVersion != version) {
+            return next;
+        }
+        ObjectNode merged = fields.deepCopy();
+        merged.setAll(next.fields);
+        return new EntityUpdatePayload(id, next.version, baseVersion, merged);
+    }
+
+    public JsonNode getId() {
+        return id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Long getBaseVersion() {
+        return baseVersion;
+    }
+
+    public boolean isFull() {
+        return baseVersion == null;
+    }
+
+    public ObjectNode getFields() {
+        return fields;
+    }
+}
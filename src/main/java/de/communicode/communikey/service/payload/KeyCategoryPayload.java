@@ -34,6 +34,8 @@ public class KeyCategoryPayload {
 
     private String parent;
 
+    private Boolean inheritGroups;
+
     public KeyCategoryPayload() {}
 
     public String getName() {
@@ -44,8 +46,16 @@ public class KeyCategoryPayload {
         return parent;
     }
 
+    /**
+     * @return whether the key category inherits the user groups of its parent, {@code null} to keep the current setting
+     * @since 0.18.0
+     */
+    public Boolean getInheritGroups() {
+        return inheritGroups;
+    }
+
     @Override
     public String toString() {
-        return "KeyCategoryPayload{" + "name='" + name + '\'' + '}';
+        return "KeyCategoryPayload{" + "name='" + name + '\'' + ", inheritGroups=" + inheritGroups + '}';
     }
 }
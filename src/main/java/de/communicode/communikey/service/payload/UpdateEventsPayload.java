@@ -0,0 +1,80 @@
+/*
+ * This file is part of communikey.
+ * Copyright (C) 2016-2018  communicode AG <communicode.de>
+ *
+ * communikey is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.communicode.communikey.service.payload;
+
+import de.communicode.communikey.domain.UpdateEvent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A payload object for the live update events a client missed.
+ *
+ * <p>If {@link #isResync()} is {@code true} the missed events are not available anymore and the client must reload all
+ * entities and continue with the returned {@link #getSequence()}.
+ *
+ * <p>With a relayed broker the events may include events preceding the requested sequence, which were created shortly before it
+ * and are replayed again in case events of other instances became visible out of order. Clients apply the events in order.
+ *
+ * @since 0.18.0
+ */
+public class UpdateEventsPayload {
+
+    private final boolean resync;
+    private final long sequence;
+    private final List<UpdateEvent> events;
+
+    private UpdateEventsPayload(boolean resync, long sequence, List<UpdateEvent> events) {
+        this.resync = resync;
+        this.sequence = sequence;
+        this.events = events;
+    }
+
+    /**
+     * Creates a payload with the missed events.
+     *
+     * @param sequence the sequence to resume from next time
+     * @param events the missed events in the order they were sent
+     * @return the events payload
+     */
+    public static UpdateEventsPayload events(long sequence, List<UpdateEvent> events) {
+        return new UpdateEventsPayload(false, sequence, events);
+    }
+
+    /**
+     * Creates a payload requesting the client to resynchronize.
+     *
+     * @param sequence the sequence to resume from after the resynchronization
+     * @return the resynchronization payload
+     */
+    public static UpdateEventsPayload resync(long sequence) {
+        return new UpdateEventsPayload(true, sequence, Collections.emptyList());
+    }
+
+    public boolean isResync() {
+        return resync;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public List<UpdateEvent> getEvents() {
+        return events;
+    }
+}
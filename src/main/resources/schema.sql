@@ -1,11 +1,13 @@
 DROP TABLE IF EXISTS oauth_access_token;
 
-CREATE TABLE IF NOT EXISTS oauth_access_token (
-  token_id VARCHAR(255),
-  token LONG VARBINARY,
-  authentication_id VARCHAR(255) PRIMARY KEY,
+CREATE TABLE IF NOT EXISTS oauth_tokens (
+  token_id VARCHAR(64) PRIMARY KEY,
+  authentication_id VARCHAR(32) NOT NULL,
   user_name VARCHAR(255),
-  client_id VARCHAR(255),
-  authentication LONG VARBINARY,
-  refresh_token VARCHAR(255)
-) DEFAULT CHARSET=utf8;
\ No newline at end of file
+  client_id VARCHAR(64) NOT NULL,
+  expiration BIGINT,
+  token VARBINARY(2048) NOT NULL,
+  INDEX idx_oauth_tokens_authentication_id (authentication_id),
+  INDEX idx_oauth_tokens_user_name (user_name),
+  INDEX idx_oauth_tokens_expiration (expiration)
+) DEFAULT CHARSET=utf8;